@@ -56,7 +56,7 @@ import static junit.framework.Assert.fail;
  * with the same date will overwrite that record.
  * 4) Verify that NON NULL constraints are working properly on record inserts
  * 5) Verify auto increment is working with the ID
- * 6) Test the onUpgrade functionality of the WeatherDbHelper
+ * 6) Test that the onUpgrade functionality of the WeatherDbHelper keeps the weather
  */
 @RunWith(AndroidJUnit4.class)
 public class TestSunshineDatabase {
@@ -193,7 +193,7 @@ public class TestSunshineDatabase {
 
     @Test
     public void testDatabaseVersionWasIncremented() {
-        int expectedDatabaseVersion = 3;
+        int expectedDatabaseVersion = 7;
         String databaseVersionShouldBe1 = "Database version should be "
                 + expectedDatabaseVersion + " but isn't."
                 + "\n Database version: ";
@@ -383,15 +383,17 @@ public class TestSunshineDatabase {
 
     /**
      * This method tests the {@link WeatherDbHelper#onUpgrade(SQLiteDatabase, int, int)}. The proper
-     * behavior for this method in our case is to simply DROP (or delete) the weather table from
-     * the database and then have the table recreated.
+     * behavior for this method in our case is to migrate the tables to the new version while
+     * keeping the weather they hold, so the previous version's database is rebuilt here first.
      */
     @Test
     public void testOnUpgradeBehavesCorrectly() {
 
         testInsertSingleRecordIntoWeatherTable();
 
-        dbHelper.onUpgrade(database, 13, 14);
+        /* The previous version was this one without the history catalog */
+        database.execSQL("DROP TABLE " + HistoryStore.TABLE_CATALOG);
+        dbHelper.onUpgrade(database, REFLECTED_DATABASE_VERSION - 1, REFLECTED_DATABASE_VERSION);
 
         /*
          * This Cursor will contain the names of each table in our database and we will use it to
@@ -414,7 +416,7 @@ public class TestSunshineDatabase {
         /* We are done verifying our table names, so we can close this cursor */
         tableNameCursor.close();
 
-        Cursor shouldBeEmptyWeatherCursor = database.query(
+        Cursor weatherCursor = database.query(
                 REFLECTED_TABLE_NAME,
                 null,
                 null,
@@ -423,14 +425,15 @@ public class TestSunshineDatabase {
                 null,
                 null);
 
-        int expectedRecordCountAfterUpgrade = 0;
-        /* We will finally verify that our weather table is empty after */
-        String weatherTableShouldBeEmpty =
-                "Weather table should be empty after upgrade, but wasn't."
+        int expectedRecordCountAfterUpgrade = 1;
+        /* We will finally verify that our weather table kept its record */
+        String weatherTableShouldBeKept =
+                "Weather table should keep its records after upgrade, but didn't."
                         + "\nNumber of records: ";
-        assertEquals(weatherTableShouldBeEmpty,
+        assertEquals(weatherTableShouldBeKept,
                 expectedRecordCountAfterUpgrade,
-                shouldBeEmptyWeatherCursor.getCount());
+                weatherCursor.getCount());
+        weatherCursor.close();
 
         /* Test is over, close the cursor */
         database.close();
@@ -456,6 +459,9 @@ public class TestSunshineDatabase {
 
         /* Here, we add the name of our only table in this particular database */
         tableNameHashSet.add(REFLECTED_TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.LocationEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.HourlyEntry.TABLE_NAME);
+        tableNameHashSet.add(HistoryStore.TABLE_CATALOG);
         /* Students, here is where you would add any other table names if you had them */
 //        tableNameHashSet.add(MyAwesomeSuperCoolTableName);
 //        tableNameHashSet.add(MyOtherCoolTableNameThatContainsOtherCoolData);
@@ -25,6 +25,7 @@ import org.junit.runner.RunWith;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
 
 import static com.example.android.sunshine.data.TestUtilities.getStaticIntegerField;
 import static com.example.android.sunshine.data.TestUtilities.studentReadableNoSuchField;
@@ -37,6 +38,24 @@ public class TestUriMatcher {
     private static final Uri TEST_WEATHER_DIR = WeatherContract.WeatherEntry.CONTENT_URI;
     private static final Uri TEST_WEATHER_WITH_DATE_DIR = WeatherContract.WeatherEntry
             .buildWeatherUriWithDate(TestUtilities.DATE_NORMALIZED);
+    private static final Uri TEST_WEATHER_WITH_LOCATION_DIR = WeatherContract.WeatherEntry
+            .buildWeatherUriWithLocation(TestUtilities.TEST_LOCATION_ID);
+    private static final Uri TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR = WeatherContract
+            .WeatherEntry.buildWeatherUriWithLocationAndDate(
+                    TestUtilities.TEST_LOCATION_ID, TestUtilities.DATE_NORMALIZED);
+
+    private static final Uri TEST_HOURLY_WITH_RANGE_DIR = WeatherContract.HourlyEntry
+            .buildHourlyUriWithRange(TestUtilities.DATE_NORMALIZED,
+                    TestUtilities.DATE_NORMALIZED + TimeUnit.DAYS.toMillis(1));
+    private static final Uri TEST_HOURLY_WITH_LOCATION_AND_RANGE_DIR = WeatherContract
+            .HourlyEntry.buildHourlyUriWithLocationAndRange(TestUtilities.TEST_LOCATION_ID,
+                    TestUtilities.DATE_NORMALIZED,
+                    TestUtilities.DATE_NORMALIZED + TimeUnit.DAYS.toMillis(1));
+
+    private static final Uri TEST_STATS_WITH_LOCATION_AND_RANGE_DIR = WeatherContract
+            .StatsEntry.buildStatsUriWithLocationAndRange(TestUtilities.TEST_LOCATION_ID,
+                    TestUtilities.DATE_NORMALIZED,
+                    TestUtilities.DATE_NORMALIZED + TimeUnit.DAYS.toMillis(7));
 
     private static final String weatherCodeVariableName = "CODE_WEATHER";
     private static int REFLECTED_WEATHER_CODE;
@@ -44,6 +63,21 @@ public class TestUriMatcher {
     private static final String weatherCodeWithDateVariableName = "CODE_WEATHER_WITH_DATE";
     private static int REFLECTED_WEATHER_WITH_DATE_CODE;
 
+    private static final String weatherCodeWithLocationVariableName =
+            "CODE_WEATHER_WITH_LOCATION";
+    private static int REFLECTED_WEATHER_WITH_LOCATION_CODE;
+
+    private static final String weatherCodeWithLocationAndDateVariableName =
+            "CODE_WEATHER_WITH_LOCATION_AND_DATE";
+    private static int REFLECTED_WEATHER_WITH_LOCATION_AND_DATE_CODE;
+
+    private static final String hourlyCodeWithRangeVariableName = "CODE_HOURLY_WITH_RANGE";
+    private static int REFLECTED_HOURLY_WITH_RANGE_CODE;
+
+    private static final String hourlyCodeWithLocationAndRangeVariableName =
+            "CODE_HOURLY_WITH_LOCATION_AND_RANGE";
+    private static int REFLECTED_HOURLY_WITH_LOCATION_AND_RANGE_CODE;
+
     private UriMatcher testMatcher;
 
     @Before
@@ -61,6 +95,22 @@ public class TestUriMatcher {
                     WeatherProvider.class,
                     weatherCodeWithDateVariableName);
 
+            REFLECTED_WEATHER_WITH_LOCATION_CODE = getStaticIntegerField(
+                    WeatherProvider.class,
+                    weatherCodeWithLocationVariableName);
+
+            REFLECTED_WEATHER_WITH_LOCATION_AND_DATE_CODE = getStaticIntegerField(
+                    WeatherProvider.class,
+                    weatherCodeWithLocationAndDateVariableName);
+
+            REFLECTED_HOURLY_WITH_RANGE_CODE = getStaticIntegerField(
+                    WeatherProvider.class,
+                    hourlyCodeWithRangeVariableName);
+
+            REFLECTED_HOURLY_WITH_LOCATION_AND_RANGE_CODE = getStaticIntegerField(
+                    WeatherProvider.class,
+                    hourlyCodeWithLocationAndRangeVariableName);
+
         } catch (NoSuchFieldException e) {
             fail(studentReadableNoSuchField(e));
         } catch (IllegalAccessException e) {
@@ -101,5 +151,51 @@ public class TestUriMatcher {
         assertEquals(weatherWithDateUriCodeDoesNotMatch,
                 expectedWeatherWithDateCode,
                 actualWeatherWithDateCode);
+
+        /* The same two URIs, for a location given by its _ID */
+        assertEquals("Error: The CODE_WEATHER_WITH_LOCATION URI was matched incorrectly.",
+                REFLECTED_WEATHER_WITH_LOCATION_CODE,
+                testMatcher.match(TEST_WEATHER_WITH_LOCATION_DIR));
+        assertEquals("Error: The CODE_WEATHER_WITH_LOCATION_AND_DATE URI was matched incorrectly.",
+                REFLECTED_WEATHER_WITH_LOCATION_AND_DATE_CODE,
+                testMatcher.match(TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR));
+
+        /* Several days at once */
+        assertEquals("Error: The CODE_WEATHER_WITH_DATES URI was matched incorrectly.",
+                WeatherProvider.CODE_WEATHER_WITH_DATES,
+                testMatcher.match(WeatherContract.WeatherEntry.buildWeatherUriWithDates(
+                        TestUtilities.DATE_NORMALIZED,
+                        TestUtilities.DATE_NORMALIZED + TimeUnit.DAYS.toMillis(1))));
+        assertEquals("Error: The CODE_WEATHER_WITH_LOCATION_AND_DATES URI was matched incorrectly.",
+                WeatherProvider.CODE_WEATHER_WITH_LOCATION_AND_DATES,
+                testMatcher.match(WeatherContract.WeatherEntry.buildWeatherUriWithLocationAndDates(
+                        TestUtilities.TEST_LOCATION_ID, TestUtilities.DATE_NORMALIZED)));
+
+        assertEquals("Error: The CODE_METRICS URI was matched incorrectly.",
+                WeatherProvider.CODE_METRICS,
+                testMatcher.match(WeatherContract.MetricsEntry.CONTENT_URI));
+
+        /* Windows of the hourly forecast */
+        assertEquals("Error: The CODE_HOURLY_WITH_RANGE URI was matched incorrectly.",
+                REFLECTED_HOURLY_WITH_RANGE_CODE,
+                testMatcher.match(TEST_HOURLY_WITH_RANGE_DIR));
+        assertEquals("Error: The CODE_HOURLY_WITH_LOCATION_AND_RANGE URI was matched incorrectly.",
+                REFLECTED_HOURLY_WITH_LOCATION_AND_RANGE_CODE,
+                testMatcher.match(TEST_HOURLY_WITH_LOCATION_AND_RANGE_DIR));
+
+        /* Statistics, which share their first segments with the weather URIs */
+        assertEquals("Error: The CODE_STATS_WEEK URI was matched incorrectly.",
+                WeatherProvider.CODE_STATS_WEEK,
+                testMatcher.match(WeatherContract.StatsEntry.WEEKLY_URI));
+        assertEquals("Error: The CODE_STATS_MONTH URI was matched incorrectly.",
+                WeatherProvider.CODE_STATS_MONTH,
+                testMatcher.match(WeatherContract.StatsEntry.MONTHLY_URI));
+        assertEquals("Error: The CODE_STATS_WITH_LOCATION_WEEK URI was matched incorrectly.",
+                WeatherProvider.CODE_STATS_WITH_LOCATION_WEEK,
+                testMatcher.match(WeatherContract.StatsEntry.buildStatsUriWithLocation(
+                        TestUtilities.TEST_LOCATION_ID, WeatherContract.PATH_WEEK)));
+        assertEquals("Error: The CODE_STATS_WITH_LOCATION_AND_RANGE URI was matched incorrectly.",
+                WeatherProvider.CODE_STATS_WITH_LOCATION_AND_RANGE,
+                testMatcher.match(TEST_STATS_WITH_LOCATION_AND_RANGE_DIR));
     }
 }
@@ -16,8 +16,10 @@
 package com.example.android.sunshine.data;
 
 import android.content.ContentValues;
+import android.content.Context;
 import android.database.ContentObserver;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.HandlerThread;
@@ -35,6 +37,7 @@ import java.util.regex.Pattern;
 import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_DATE;
 import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_DEGREES;
 import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_HUMIDITY;
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_LOCATION_ID;
 import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_MAX_TEMP;
 import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_MIN_TEMP;
 import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_PRESSURE;
@@ -59,6 +62,9 @@ class TestUtilities {
 
     static final int BULK_INSERT_RECORDS_TO_INSERT = 10;
 
+    /* _ID of the location of the rows created by createTestWeatherContentValues */
+    static final long TEST_LOCATION_ID = 1;
+
     /**
      * Ensures there is a non empty cursor and validates the cursor's data by checking it against
      * a set of expected values. This method will then close the cursor.
@@ -117,9 +123,20 @@ class TestUtilities {
      * @return ContentValues that can be inserted into our ContentProvider or weather.db
      */
     static ContentValues createTestWeatherContentValues() {
+        return createTestWeatherContentValues(TEST_LOCATION_ID);
+    }
+
+    /**
+     * Same as {@link #createTestWeatherContentValues()}, for the given location.
+     *
+     * @param locationId _ID of the location the weather is for
+     * @return ContentValues that can be inserted into weather.db
+     */
+    static ContentValues createTestWeatherContentValues(long locationId) {
 
         ContentValues testWeatherValues = new ContentValues();
 
+        testWeatherValues.put(COLUMN_LOCATION_ID, locationId);
         testWeatherValues.put(COLUMN_DATE, DATE_NORMALIZED);
         testWeatherValues.put(COLUMN_DEGREES, 1.1);
         testWeatherValues.put(COLUMN_HUMIDITY, 1.2);
@@ -172,6 +189,62 @@ class TestUtilities {
         return bulkTestWeatherValues;
     }
 
+    /**
+     * Returns the same days as {@link #createBulkInsertTestWeatherValues()}, stored in a
+     * {@link ForecastBatch} rather than an array of ContentValues.
+     *
+     * @return ForecastBatch that can be inserted using our ContentProvider's call method
+     */
+    static ForecastBatch createBulkInsertTestForecastBatch() {
+
+        ForecastBatch forecast = new ForecastBatch();
+
+        for (ContentValues weatherValues : createBulkInsertTestWeatherValues()) {
+            forecast.add(
+                    weatherValues.getAsLong(COLUMN_DATE),
+                    weatherValues.getAsInteger(COLUMN_WEATHER_ID),
+                    weatherValues.getAsDouble(COLUMN_MIN_TEMP),
+                    weatherValues.getAsDouble(COLUMN_MAX_TEMP),
+                    weatherValues.getAsDouble(COLUMN_HUMIDITY),
+                    weatherValues.getAsDouble(COLUMN_PRESSURE),
+                    weatherValues.getAsDouble(COLUMN_WIND_SPEED),
+                    weatherValues.getAsDouble(COLUMN_DEGREES));
+        }
+
+        return forecast;
+    }
+
+    /**
+     * Makes sure the preferred location is in the location table, the way the provider adds it
+     * the first time it stores its weather.
+     *
+     * @param context  Used to read the preferred location
+     * @param database weather.db, opened for writing
+     * @return The _ID of the preferred location
+     */
+    static long insertPreferredLocation(Context context, SQLiteDatabase database) {
+        String locationKey = SunshinePreferences.getPreferredWeatherLocation(context);
+
+        Cursor cursor = database.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry._ID},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_KEY + " = ?",
+                new String[]{locationKey},
+                null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                return cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_KEY, locationKey);
+        long locationId = database.insert(WeatherContract.LocationEntry.TABLE_NAME, null,
+                locationValues);
+        assertTrue("Unable to insert the preferred location", locationId != -1);
+        return locationId;
+    }
 
     static TestContentObserver getTestContentObserver() {
         return TestContentObserver.getTestContentObserver();
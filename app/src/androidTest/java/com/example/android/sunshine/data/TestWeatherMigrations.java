@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Builds databases of every version weather.db can be migrated from, fills them with about as
+ * much weather as a user with many saved locations has, and upgrades them through
+ * WeatherDbHelper. Each upgrade must keep every row and end up with the schema of a new
+ * database. The time each upgrade takes is written to logcat, for instance:
+ * <p>
+ *     adb logcat -s TestWeatherMigrations
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWeatherMigrations {
+
+    private static final String TAG = TestWeatherMigrations.class.getSimpleName();
+
+    private static final String MIGRATED_DATABASE_NAME = "weather-migration-test.db";
+    private static final String FRESH_DATABASE_NAME = "weather-fresh-test.db";
+
+    /* Until version 5 weather.db held one location, a row per day */
+    private static final int SINGLE_LOCATION_DAYS = 5000;
+
+    /* From version 5 on: saved locations, days of weather each and hours of forecast each */
+    private static final int LOCATIONS = 50;
+    private static final int DAYS_PER_LOCATION = 100;
+    private static final int HOURS_PER_LOCATION = 200;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @After
+    public void tearDown() {
+        mContext.deleteDatabase(MIGRATED_DATABASE_NAME);
+        mContext.deleteDatabase(FRESH_DATABASE_NAME);
+    }
+
+    @Test
+    public void testMigrateFromEveryVersion() {
+        Set<String> expectedSchema = readFreshSchema();
+        int latestVersion = getLatestVersion();
+
+        for (int version = WeatherMigrations.OLDEST_MIGRATABLE_VERSION;
+             version < latestVersion; version++) {
+            mContext.deleteDatabase(MIGRATED_DATABASE_NAME);
+            int weatherRows = createDatabase(version);
+
+            WeatherDbHelper helper = new WeatherDbHelper(mContext, MIGRATED_DATABASE_NAME);
+            long start = System.nanoTime();
+            SQLiteDatabase database = helper.getWritableDatabase();
+            long elapsedMillis = (System.nanoTime() - start) / 1000000;
+            Log.i(TAG, "Migration from version " + version + " to " + latestVersion + " of "
+                    + weatherRows + " weather rows: " + elapsedMillis + " ms");
+
+            try {
+                assertEquals(latestVersion, database.getVersion());
+                assertEquals("Migration from version " + version + " lost weather",
+                        weatherRows, DatabaseUtils.queryNumEntries(database,
+                                WeatherContract.WeatherEntry.TABLE_NAME));
+                assertEquals("Migration from version " + version + " left another schema",
+                        expectedSchema, readSchema(database));
+
+                if (version < 5) {
+                    assertSingleLocationKept(database, weatherRows);
+                } else if (version >= 6) {
+                    assertEquals(LOCATIONS * HOURS_PER_LOCATION, DatabaseUtils.queryNumEntries(
+                            database, WeatherContract.HourlyEntry.TABLE_NAME));
+                }
+            } finally {
+                helper.close();
+            }
+        }
+    }
+
+    /**
+     * A database from before any known schema is rebuilt rather than migrated.
+     */
+    @Test
+    public void testUnknownVersionIsRebuilt() {
+        createDatabase(WeatherMigrations.OLDEST_MIGRATABLE_VERSION);
+        SQLiteDatabase old = mContext.openOrCreateDatabase(MIGRATED_DATABASE_NAME, 0, null);
+        old.setVersion(WeatherMigrations.OLDEST_MIGRATABLE_VERSION - 1);
+        old.close();
+
+        WeatherDbHelper helper = new WeatherDbHelper(mContext, MIGRATED_DATABASE_NAME);
+        try {
+            SQLiteDatabase database = helper.getWritableDatabase();
+            assertEquals(0, DatabaseUtils.queryNumEntries(database,
+                    WeatherContract.WeatherEntry.TABLE_NAME));
+            assertEquals(readFreshSchema(), readSchema(database));
+        } finally {
+            helper.close();
+        }
+    }
+
+    /* The weather of a single location database now belongs to the preferred location */
+    private void assertSingleLocationKept(SQLiteDatabase database, int weatherRows) {
+        Cursor location = database.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry._ID,
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_KEY},
+                null, null, null, null, null);
+        try {
+            assertEquals(1, location.getCount());
+            assertTrue(location.moveToFirst());
+            assertEquals(SunshinePreferences.getPreferredWeatherLocation(mContext),
+                    location.getString(1));
+            assertEquals(weatherRows, DatabaseUtils.queryNumEntries(database,
+                    WeatherContract.WeatherEntry.TABLE_NAME,
+                    WeatherContract.WeatherEntry.COLUMN_LOCATION_ID + " = ?",
+                    new String[]{location.getString(0)}));
+        } finally {
+            location.close();
+        }
+    }
+
+    /**
+     * Creates the test database as it was at a version: the version 3 schema, migrated up to
+     * the version, then filled with weather.
+     *
+     * @return The number of weather rows it holds
+     */
+    private int createDatabase(int version) {
+        SQLiteDatabase database = mContext.openOrCreateDatabase(MIGRATED_DATABASE_NAME, 0, null);
+        try {
+            database.execSQL("CREATE TABLE weather ("
+                    + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + "date INTEGER NOT NULL, "
+                    + "weather_id INTEGER NOT NULL,"
+                    + "min REAL NOT NULL, "
+                    + "max REAL NOT NULL, "
+                    + "humidity REAL NOT NULL, "
+                    + "pressure REAL NOT NULL, "
+                    + "wind REAL NOT NULL, "
+                    + "degrees REAL NOT NULL, "
+                    + "UNIQUE (date) ON CONFLICT REPLACE)");
+            WeatherMigrations.migrate(mContext, database,
+                    WeatherMigrations.OLDEST_MIGRATABLE_VERSION, version);
+
+            int weatherRows;
+            database.beginTransaction();
+            try {
+                weatherRows = version < 5 ? fillSingleLocation(database) : fillLocations(database);
+                if (version >= 6) {
+                    fillHourly(database);
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+
+            database.setVersion(version);
+            return weatherRows;
+        } finally {
+            database.close();
+        }
+    }
+
+    private int fillSingleLocation(SQLiteDatabase database) {
+        ContentValues values = createWeatherValues();
+        for (int day = 0; day < SINGLE_LOCATION_DAYS; day++) {
+            values.put("date", TestUtilities.DATE_NORMALIZED
+                    + day * SunshineDateUtils.DAY_IN_MILLIS);
+            database.insert("weather", null, values);
+        }
+        return SINGLE_LOCATION_DAYS;
+    }
+
+    private int fillLocations(SQLiteDatabase database) {
+        ContentValues location = new ContentValues();
+        ContentValues values = createWeatherValues();
+        for (int i = 0; i < LOCATIONS; i++) {
+            location.put("location_key", "location-" + i);
+            long locationId = database.insert("location", null, location);
+
+            values.put("location_id", locationId);
+            for (int day = 0; day < DAYS_PER_LOCATION; day++) {
+                values.put("date", TestUtilities.DATE_NORMALIZED
+                        + day * SunshineDateUtils.DAY_IN_MILLIS);
+                database.insert("weather", null, values);
+            }
+        }
+        return LOCATIONS * DAYS_PER_LOCATION;
+    }
+
+    private void fillHourly(SQLiteDatabase database) {
+        ContentValues values = new ContentValues();
+        values.put("weather_id", 321);
+        values.put("temp", 15.5);
+        values.put("humidity", 81);
+        values.put("pressure", 1024.5);
+        values.put("wind", 1.2);
+        values.put("degrees", 45);
+        for (int locationId = 1; locationId <= LOCATIONS; locationId++) {
+            values.put("location_id", locationId);
+            for (int hour = 0; hour < HOURS_PER_LOCATION; hour++) {
+                values.put("time", TestUtilities.DATE_NORMALIZED + hour * 3600000L);
+                database.insert("hourly", null, values);
+            }
+        }
+    }
+
+    /* Column names as of version 3, which later versions kept */
+    private static ContentValues createWeatherValues() {
+        ContentValues values = new ContentValues();
+        values.put("weather_id", 321);
+        values.put("min", 10.0);
+        values.put("max", 20.0);
+        values.put("humidity", 1.2);
+        values.put("pressure", 1.3);
+        values.put("wind", 5.5);
+        values.put("degrees", 59);
+        return values;
+    }
+
+    private int getLatestVersion() {
+        WeatherDbHelper helper = new WeatherDbHelper(mContext, FRESH_DATABASE_NAME);
+        try {
+            return helper.getReadableDatabase().getVersion();
+        } finally {
+            helper.close();
+        }
+    }
+
+    private Set<String> readFreshSchema() {
+        mContext.deleteDatabase(FRESH_DATABASE_NAME);
+        WeatherDbHelper helper = new WeatherDbHelper(mContext, FRESH_DATABASE_NAME);
+        try {
+            return readSchema(helper.getReadableDatabase());
+        } finally {
+            helper.close();
+        }
+    }
+
+    /* Every table and index, with the SQL that created it */
+    private static Set<String> readSchema(SQLiteDatabase database) {
+        Set<String> schema = new HashSet<>();
+        Cursor cursor = database.rawQuery("SELECT type, name, sql FROM sqlite_master"
+                + " WHERE name NOT LIKE 'sqlite_%' AND name NOT LIKE 'android_%'", null);
+        try {
+            while (cursor.moveToNext()) {
+                schema.add(cursor.getString(0) + " " + cursor.getString(1) + ": "
+                        + normalize(cursor.getString(2)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return schema;
+    }
+
+    /* The same schema written by onCreate and by a migration may differ in whitespace */
+    private static String normalize(String sql) {
+        return sql == null ? null : sql.replaceAll("\\s+", "").toLowerCase();
+    }
+}
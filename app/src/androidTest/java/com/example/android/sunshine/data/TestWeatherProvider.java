@@ -16,24 +16,36 @@
 package com.example.android.sunshine.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.os.Bundle;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.runner.AndroidJUnit4;
+import android.text.format.DateUtils;
+
+import com.example.android.sunshine.utilities.SunshineDateUtils;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import static com.example.android.sunshine.data.TestUtilities.BULK_INSERT_RECORDS_TO_INSERT;
 import static com.example.android.sunshine.data.TestUtilities.createBulkInsertTestWeatherValues;
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertTrue;
 import static junit.framework.Assert.fail;
@@ -168,8 +180,12 @@ public class TestWeatherProvider {
         WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
         SQLiteDatabase database = dbHelper.getWritableDatabase();
 
-        /* Obtain weather values from TestUtilities */
-        ContentValues testWeatherValues = TestUtilities.createTestWeatherContentValues();
+        /*
+         * Obtain weather values from TestUtilities, for the preferred location, which is what
+         * CONTENT_URI returns
+         */
+        long locationId = TestUtilities.insertPreferredLocation(mContext, database);
+        ContentValues testWeatherValues = TestUtilities.createTestWeatherContentValues(locationId);
 
         /* Insert ContentValues into database and get a row ID back */
         long weatherRowId = database.insert(
@@ -326,6 +342,857 @@ public class TestWeatherProvider {
         cursor.close();
     }
 
+    /**
+     * This test inserts a {@link ForecastBatch} through the ContentProvider's call method and
+     * verifies that the days come back exactly like the ones inserted with bulkInsert do.
+     */
+    @Test
+    public void testBulkInsertForecastBatch() {
+
+        ForecastBatch forecast = TestUtilities.createBulkInsertTestForecastBatch();
+        ContentValues[] expectedValues = createBulkInsertTestWeatherValues();
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        ContentResolver contentResolver = mContext.getContentResolver();
+        contentResolver.registerContentObserver(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                true,
+                weatherObserver);
+
+        Bundle extras = new Bundle();
+        extras.putParcelable(WeatherContract.EXTRA_FORECAST_BATCH, forecast);
+        Bundle result = contentResolver.call(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_BULK_INSERT_FORECAST,
+                null,
+                extras);
+
+        weatherObserver.waitForNotificationOrFail();
+        contentResolver.unregisterContentObserver(weatherObserver);
+
+        assertNotNull("call returned a null Bundle", result);
+        assertEquals("Number of expected records inserted does not match actual inserted record count",
+                BULK_INSERT_RECORDS_TO_INSERT,
+                result.getInt(WeatherContract.EXTRA_ROW_COUNT));
+
+        Cursor cursor = contentResolver.query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+
+        cursor.moveToFirst();
+        for (int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord(
+                    "testBulkInsertForecastBatch. Error validating WeatherEntry " + i,
+                    cursor,
+                    expectedValues[i]);
+        }
+
+        cursor.close();
+    }
+
+    /**
+     * This test replaces a stored forecast with one that drops its first day, changes another
+     * and adds a new one. Only those three rows should be touched, and the table should hold
+     * exactly the new forecast afterwards.
+     */
+    @Test
+    public void testReplaceForecast() {
+
+        testBulkInsertForecastBatch();
+
+        ForecastBatch stored = TestUtilities.createBulkInsertTestForecastBatch();
+        ForecastBatch replacement = new ForecastBatch();
+
+        /* Keep every day but the first, and change the max temperature of one of them */
+        int changedIndex = BULK_INSERT_RECORDS_TO_INSERT / 2;
+        for (int i = 1; i < stored.size(); i++) {
+            double maxTemp = stored.getMaxTemp(i) + (i == changedIndex ? 10 : 0);
+            replacement.add(stored.getDate(i), stored.getWeatherId(i), stored.getMinTemp(i),
+                    maxTemp, stored.getHumidity(i), stored.getPressure(i),
+                    stored.getWindSpeed(i), stored.getDegrees(i));
+        }
+
+        /* Add a day after the last stored one */
+        int last = stored.size() - 1;
+        replacement.add(stored.getDate(last) + SunshineDateUtils.DAY_IN_MILLIS,
+                stored.getWeatherId(last), stored.getMinTemp(last), stored.getMaxTemp(last),
+                stored.getHumidity(last), stored.getPressure(last), stored.getWindSpeed(last),
+                stored.getDegrees(last));
+
+        ContentResolver contentResolver = mContext.getContentResolver();
+
+        Bundle extras = new Bundle();
+        extras.putParcelable(WeatherContract.EXTRA_FORECAST_BATCH, replacement);
+        Bundle result = contentResolver.call(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_REPLACE_FORECAST,
+                null,
+                extras);
+
+        assertNotNull("call returned a null Bundle", result);
+        assertEquals("Only the dropped, changed and added days should have been written",
+                3,
+                result.getInt(WeatherContract.EXTRA_ROW_COUNT));
+
+        Cursor cursor = contentResolver.query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                new String[]{
+                        WeatherContract.WeatherEntry.COLUMN_DATE,
+                        WeatherContract.WeatherEntry.COLUMN_MAX_TEMP},
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+
+        assertEquals(replacement.size(), cursor.getCount());
+
+        cursor.moveToFirst();
+        for (int i = 0; i < replacement.size(); i++, cursor.moveToNext()) {
+            assertEquals(replacement.getDate(i), cursor.getLong(0));
+            assertEquals(replacement.getMaxTemp(i), cursor.getDouble(1));
+        }
+
+        cursor.close();
+    }
+
+    /**
+     * The forecast list and the detail screen are answered from the provider's in-memory
+     * snapshot. After a replacement, both kinds of query should return exactly what is in the
+     * database, with only the requested columns.
+     */
+    @Test
+    public void testSnapshotQueriesMatchDatabase() {
+
+        testReplaceForecast();
+
+        ContentResolver contentResolver = mContext.getContentResolver();
+        String[] projection = {
+                WeatherContract.WeatherEntry.COLUMN_DATE,
+                WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+                WeatherContract.WeatherEntry.COLUMN_MAX_TEMP};
+
+        SQLiteDatabase database = new WeatherDbHelper(mContext).getReadableDatabase();
+        Cursor stored = database.query(WeatherContract.WeatherEntry.TABLE_NAME, projection,
+                null, null, null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        assertTrue("Nothing was stored by testReplaceForecast", stored.getCount() > 2);
+
+        /* Ask for the days from the third stored one onwards, the way MainActivity does */
+        stored.moveToPosition(2);
+        long fromDate = stored.getLong(0);
+        Cursor fromSnapshot = contentResolver.query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                projection,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " >= " + fromDate,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+
+        assertEquals(projection.length, fromSnapshot.getColumnCount());
+        assertEquals(stored.getCount() - 2, fromSnapshot.getCount());
+        while (fromSnapshot.moveToNext()) {
+            assertEquals(stored.getLong(0), fromSnapshot.getLong(0));
+            assertEquals(stored.getInt(1), fromSnapshot.getInt(1));
+            assertEquals(stored.getDouble(2), fromSnapshot.getDouble(2));
+            stored.moveToNext();
+        }
+        fromSnapshot.close();
+
+        /* Ask for a single day, the way DetailActivity does */
+        Cursor day = contentResolver.query(
+                WeatherContract.WeatherEntry.buildWeatherUriWithDate(fromDate),
+                projection,
+                null,
+                null,
+                null);
+
+        assertEquals(1, day.getCount());
+        day.moveToFirst();
+        assertEquals(fromDate, day.getLong(0));
+        day.close();
+
+        stored.close();
+        database.close();
+    }
+
+    /**
+     * Asks for a few days at once, out of order, repeated and with a day that has no weather.
+     * The days that exist come back once each, sorted by date, whether the query is answered
+     * from the snapshot or, because of its selection, from the database.
+     */
+    @Test
+    public void testMultipleDatesQuery() {
+
+        testReplaceForecast();
+
+        String[] projection = {
+                WeatherContract.WeatherEntry.COLUMN_DATE,
+                WeatherContract.WeatherEntry.COLUMN_MAX_TEMP};
+
+        SQLiteDatabase database = new WeatherDbHelper(mContext).getReadableDatabase();
+        Cursor stored = database.query(WeatherContract.WeatherEntry.TABLE_NAME, projection,
+                null, null, null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        assertTrue("Nothing was stored by testReplaceForecast", stored.getCount() > 3);
+
+        stored.moveToPosition(0);
+        long firstDate = stored.getLong(0);
+        double firstMax = stored.getDouble(1);
+        stored.moveToPosition(3);
+        long fourthDate = stored.getLong(0);
+        double fourthMax = stored.getDouble(1);
+        stored.close();
+        database.close();
+
+        Uri datesUri = WeatherContract.WeatherEntry.buildWeatherUriWithDates(
+                fourthDate, firstDate, fourthDate, firstDate - SunshineDateUtils.DAY_IN_MILLIS);
+
+        String[] selections = {null, WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + " > -1000"};
+        for (String selection : selections) {
+            Cursor days = mContext.getContentResolver().query(
+                    datesUri,
+                    projection,
+                    selection,
+                    null,
+                    null);
+
+            assertEquals("Wrong days for the selection " + selection, 2, days.getCount());
+            days.moveToFirst();
+            assertEquals(firstDate, days.getLong(0));
+            assertEquals(firstMax, days.getDouble(1));
+            days.moveToNext();
+            assertEquals(fourthDate, days.getLong(0));
+            assertEquals(fourthMax, days.getDouble(1));
+            days.close();
+        }
+    }
+
+    /**
+     * Pages through the stored forecast, from SQLite and from the snapshot, then through a month
+     * of history. Walking the pages must read every day once, in date order.
+     */
+    @Test
+    public void testPagedQueries() {
+
+        testReplaceForecast();
+
+        /* The second selection is answered from the snapshot */
+        String[] selections = {null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " >= " + TestUtilities.DATE_NORMALIZED};
+        for (String selection : selections) {
+            List<Long> dates = readPages(WeatherContract.WeatherEntry.CONTENT_URI, selection, 3);
+            assertEquals("Wrong days for the selection " + selection,
+                    BULK_INSERT_RECORDS_TO_INSERT, dates.size());
+            for (int i = 1; i < dates.size(); i++) {
+                assertTrue("Pages skipped or repeated a day", dates.get(i - 1) < dates.get(i));
+            }
+        }
+
+        long january = 1451606400000L;
+        long day = SunshineDateUtils.DAY_IN_MILLIS;
+        long locationId = 42;
+        SQLiteDatabase database = new WeatherDbHelper(mContext).getWritableDatabase();
+        HistoryStore history = new HistoryStore(database);
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < 31; i++) {
+                history.archive(locationId, january + i * day, 800, i, i + 10, 50, 1000, 2, 90);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            history.close();
+            database.endTransaction();
+        }
+
+        List<Long> historyDates = readPages(
+                WeatherContract.HistoryEntry.buildHistoryUriWithLocationAndRange(
+                        locationId, january + 10 * day, january + 31 * day),
+                null,
+                4);
+        assertEquals(21, historyDates.size());
+        for (int i = 0; i < historyDates.size(); i++) {
+            assertEquals(january + (10 + i) * day, (long) historyDates.get(i));
+        }
+
+        HistoryStore.deleteAll(database);
+        database.close();
+    }
+
+    /* Reads the dates of every page of a URI, each page after the last date of the one before */
+    private List<Long> readPages(Uri uri, String selection, int limit) {
+        List<Long> dates = new ArrayList<>();
+        long afterDate = Long.MIN_VALUE;
+        while (true) {
+            Cursor page = mContext.getContentResolver().query(
+                    WeatherContract.buildPageUri(uri, afterDate, limit),
+                    new String[]{WeatherContract.WeatherEntry.COLUMN_DATE},
+                    selection,
+                    null,
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+            assertTrue("A page holds too many rows", page.getCount() <= limit);
+            while (page.moveToNext()) {
+                afterDate = page.getLong(0);
+                dates.add(afterDate);
+            }
+            int count = page.getCount();
+            page.close();
+            if (count < limit) {
+                return dates;
+            }
+        }
+    }
+
+    /**
+     * Stores the forecasts of two locations in one call, then reads each of them back through
+     * its own URIs. Neither location may see the other's weather, and deleting a location
+     * deletes its weather. A location that is neither synced nor written anymore is deleted by
+     * the next replacement.
+     */
+    @Test
+    public void testReplaceForecastsOfSeveralLocations() {
+
+        ForecastBatch first = TestUtilities.createBulkInsertTestForecastBatch();
+        ForecastBatch second = new ForecastBatch();
+        for (int i = 0; i < first.size(); i++) {
+            second.add(first.getDate(i), first.getWeatherId(i), first.getMinTemp(i),
+                    first.getMaxTemp(i) + 5, first.getHumidity(i), first.getPressure(i),
+                    first.getWindSpeed(i), first.getDegrees(i));
+        }
+        second.setCityName("Second");
+
+        String[] locationKeys = {"test-location-1", "test-location-2"};
+        ContentResolver contentResolver = mContext.getContentResolver();
+
+        Bundle extras = new Bundle();
+        extras.putStringArray(WeatherContract.EXTRA_LOCATION_KEYS, locationKeys);
+        extras.putParcelableArray(WeatherContract.EXTRA_FORECAST_BATCHES,
+                new ForecastBatch[]{first, second});
+        Bundle result = contentResolver.call(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_REPLACE_FORECASTS,
+                null,
+                extras);
+
+        assertNotNull("call returned a null Bundle", result);
+        assertEquals(2 * BULK_INSERT_RECORDS_TO_INSERT,
+                result.getInt(WeatherContract.EXTRA_ROW_COUNT));
+
+        long firstId = queryLocationId(locationKeys[0]);
+        long secondId = queryLocationId(locationKeys[1]);
+        assertTrue("Both locations should have been added", firstId != secondId);
+
+        /* Each location only returns its own days, from the snapshot and from SQLite */
+        String[] projection = {
+                WeatherContract.WeatherEntry.COLUMN_DATE,
+                WeatherContract.WeatherEntry.COLUMN_MAX_TEMP};
+        String fromFirstDay = WeatherContract.WeatherEntry.COLUMN_DATE + " >= "
+                + first.getDate(0);
+        for (String sortOrder : new String[]{null, WeatherContract.WeatherEntry.COLUMN_DATE
+                + " DESC"}) {
+            Cursor cursor = contentResolver.query(
+                    WeatherContract.WeatherEntry.buildWeatherUriWithLocation(secondId),
+                    projection,
+                    fromFirstDay,
+                    null,
+                    sortOrder);
+            assertEquals(second.size(), cursor.getCount());
+            while (cursor.moveToNext()) {
+                assertEquals(first.getMaxTemp(0) + 5 + (sortOrder == null
+                                ? cursor.getPosition()
+                                : second.size() - 1 - cursor.getPosition()),
+                        cursor.getDouble(1));
+            }
+            cursor.close();
+        }
+
+        Cursor day = contentResolver.query(
+                WeatherContract.WeatherEntry.buildWeatherUriWithLocationAndDate(
+                        firstId, first.getDate(1)),
+                projection,
+                null,
+                null,
+                null);
+        assertEquals(1, day.getCount());
+        day.moveToFirst();
+        assertEquals(first.getMaxTemp(1), day.getDouble(1));
+        day.close();
+
+        /* The location table knows when each location was synced and what it is called */
+        Cursor location = contentResolver.query(
+                WeatherContract.LocationEntry.buildLocationUri(secondId),
+                new String[]{
+                        WeatherContract.LocationEntry.COLUMN_DISPLAY_NAME,
+                        WeatherContract.LocationEntry.COLUMN_LAST_SYNC},
+                null,
+                null,
+                null);
+        assertTrue(location.moveToFirst());
+        assertEquals("Second", location.getString(0));
+        assertTrue("The sync time wasn't stored", location.getLong(1) > 0);
+        location.close();
+
+        /* A null batch leaves the location's weather alone */
+        extras.putParcelableArray(WeatherContract.EXTRA_FORECAST_BATCHES, new ForecastBatch[2]);
+        result = contentResolver.call(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_REPLACE_FORECASTS,
+                null,
+                extras);
+        assertEquals(0, result.getInt(WeatherContract.EXTRA_ROW_COUNT));
+        assertEquals(secondId, queryLocationId(locationKeys[1]));
+
+        /* The second location isn't synced, so writing the first one alone drops it */
+        extras.putStringArray(WeatherContract.EXTRA_LOCATION_KEYS, new String[]{locationKeys[0]});
+        extras.putParcelableArray(WeatherContract.EXTRA_FORECAST_BATCHES, new ForecastBatch[1]);
+        contentResolver.call(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_REPLACE_FORECASTS,
+                null,
+                extras);
+        Cursor dropped = contentResolver.query(
+                WeatherContract.WeatherEntry.buildWeatherUriWithLocation(secondId),
+                projection,
+                fromFirstDay,
+                null,
+                null);
+        assertEquals("An unsynced location should lose its weather", 0, dropped.getCount());
+        dropped.close();
+
+        assertEquals("The unsynced location should have been deleted", 0,
+                contentResolver.delete(
+                        WeatherContract.LocationEntry.buildLocationUri(secondId), null, null));
+
+        assertEquals(1, contentResolver.delete(
+                WeatherContract.LocationEntry.buildLocationUri(firstId), null, null));
+        Cursor weather = contentResolver.query(
+                WeatherContract.WeatherEntry.buildWeatherUriWithLocation(firstId),
+                projection,
+                fromFirstDay,
+                null,
+                null);
+        assertEquals("Deleting a location should delete its weather", 0, weather.getCount());
+        weather.close();
+    }
+
+    /**
+     * Writes the hourly forecast of a location through METHOD_REPLACE_FORECASTS, without a daily
+     * forecast, and reads windows of it back through the range URI.
+     */
+    @Test
+    public void testHourlyForecastRangeQuery() {
+        long start = TestUtilities.DATE_NORMALIZED;
+        long hour = DateUtils.HOUR_IN_MILLIS;
+
+        HourlyBatch hourly = new HourlyBatch();
+        for (int i = 0; i < 100; i++) {
+            hourly.add(start + i * hour, 321, i, 81, 1024.5, 1.2, 45);
+        }
+
+        String[] locationKeys = {"test-location-hourly"};
+        ContentResolver contentResolver = mContext.getContentResolver();
+
+        Bundle extras = new Bundle();
+        extras.putStringArray(WeatherContract.EXTRA_LOCATION_KEYS, locationKeys);
+        extras.putParcelableArray(WeatherContract.EXTRA_FORECAST_BATCHES, new ForecastBatch[1]);
+        extras.putParcelableArray(WeatherContract.EXTRA_HOURLY_BATCHES,
+                new HourlyBatch[]{hourly});
+        Bundle result = contentResolver.call(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_REPLACE_FORECASTS,
+                null,
+                extras);
+        assertEquals(hourly.size(), result.getInt(WeatherContract.EXTRA_ROW_COUNT));
+
+        long locationId = queryLocationId(locationKeys[0]);
+
+        /* The end of the window is excluded, and rows come back sorted by time */
+        String[] projection = {
+                WeatherContract.HourlyEntry.COLUMN_TIME,
+                WeatherContract.HourlyEntry.COLUMN_TEMP};
+        Cursor window = contentResolver.query(
+                WeatherContract.HourlyEntry.buildHourlyUriWithLocationAndRange(
+                        locationId, start + 10 * hour, start + 34 * hour),
+                projection,
+                null,
+                null,
+                null);
+        assertEquals(24, window.getCount());
+        while (window.moveToNext()) {
+            assertEquals(start + (10 + window.getPosition()) * hour, window.getLong(0));
+            assertEquals(10.0 + window.getPosition(), window.getDouble(1));
+        }
+        window.close();
+
+        /* A new hourly forecast replaces every row of the location */
+        HourlyBatch later = new HourlyBatch();
+        for (int i = 50; i < 60; i++) {
+            later.add(start + i * hour, 800, -i, 50, 1000, 3, 180);
+        }
+        extras.putParcelableArray(WeatherContract.EXTRA_HOURLY_BATCHES,
+                new HourlyBatch[]{later});
+        result = contentResolver.call(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_REPLACE_FORECASTS,
+                null,
+                extras);
+        assertEquals(hourly.size() + later.size(),
+                result.getInt(WeatherContract.EXTRA_ROW_COUNT));
+
+        Cursor all = contentResolver.query(
+                WeatherContract.HourlyEntry.buildHourlyUriWithLocationAndRange(
+                        locationId, start, start + 100 * hour),
+                projection,
+                null,
+                null,
+                null);
+        assertEquals(later.size(), all.getCount());
+        assertTrue(all.moveToFirst());
+        assertEquals(-50.0, all.getDouble(1));
+        all.close();
+
+        assertEquals(1, contentResolver.delete(
+                WeatherContract.LocationEntry.buildLocationUri(locationId), null, null));
+        Cursor deleted = contentResolver.query(
+                WeatherContract.HourlyEntry.buildHourlyUriWithLocationAndRange(
+                        locationId, start, start + 100 * hour),
+                projection,
+                null,
+                null,
+                null);
+        assertEquals("Deleting a location should delete its hourly forecast",
+                0, deleted.getCount());
+        deleted.close();
+    }
+
+    /**
+     * Rewrites a single day and checks that the observers of that day and of CHANGES_URI are
+     * notified, while the observer of another day isn't.
+     */
+    @Test
+    public void testWriteOnlyNotifiesTouchedDays() {
+        ContentValues[] days = createBulkInsertTestWeatherValues();
+        ContentResolver contentResolver = mContext.getContentResolver();
+        contentResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, days);
+
+        long touchedDate = days[0].getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        long untouchedDate = days[1].getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+
+        TestUtilities.TestContentObserver touchedObserver =
+                TestUtilities.getTestContentObserver();
+        TestUtilities.TestContentObserver untouchedObserver =
+                TestUtilities.getTestContentObserver();
+        TestUtilities.TestContentObserver changesObserver =
+                TestUtilities.getTestContentObserver();
+        contentResolver.registerContentObserver(
+                WeatherContract.WeatherEntry.buildWeatherUriWithDate(touchedDate),
+                true,
+                touchedObserver);
+        contentResolver.registerContentObserver(
+                WeatherContract.WeatherEntry.buildWeatherUriWithDate(untouchedDate),
+                true,
+                untouchedObserver);
+        contentResolver.registerContentObserver(
+                WeatherContract.WeatherEntry.CHANGES_URI,
+                true,
+                changesObserver);
+
+        days[0].put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 100);
+        contentResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI,
+                new ContentValues[]{days[0]});
+
+        touchedObserver.waitForNotificationOrFail();
+        changesObserver.waitForNotificationOrFail();
+        contentResolver.unregisterContentObserver(touchedObserver);
+        contentResolver.unregisterContentObserver(changesObserver);
+        contentResolver.unregisterContentObserver(untouchedObserver);
+        untouchedObserver.mHT.quit();
+
+        assertFalse("A day that wasn't written shouldn't be notified",
+                untouchedObserver.mContentChanged);
+    }
+
+    /**
+     * Sums up the bulk insert test days through the statistics URIs, and checks that an answer
+     * isn't served from the cache once the weather it was computed from changed.
+     */
+    @Test
+    public void testWeatherStats() {
+        ContentValues[] days = createBulkInsertTestWeatherValues();
+        /* Rain on the first four days, clear sky on the six others */
+        for (int i = 0; i < days.length; i++) {
+            days[i].put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, i < 4 ? 500 : 800);
+        }
+        ContentResolver contentResolver = mContext.getContentResolver();
+        contentResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, days);
+
+        String[] projection = {
+                WeatherContract.StatsEntry.COLUMN_START_DATE,
+                WeatherContract.StatsEntry.COLUMN_DAYS,
+                WeatherContract.StatsEntry.COLUMN_MIN_TEMP,
+                WeatherContract.StatsEntry.COLUMN_MAX_TEMP,
+                WeatherContract.StatsEntry.COLUMN_WEATHER_ID};
+        long firstDay = TestUtilities.DATE_NORMALIZED + SunshineDateUtils.DAY_IN_MILLIS;
+        Uri rangeUri = WeatherContract.StatsEntry.buildStatsUriWithRange(
+                firstDay, firstDay + 30 * SunshineDateUtils.DAY_IN_MILLIS);
+
+        Cursor range = contentResolver.query(rangeUri, projection, null, null, null);
+        assertEquals(1, range.getCount());
+        assertTrue(range.moveToFirst());
+        assertEquals(firstDay, range.getLong(0));
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, range.getInt(1));
+        assertEquals(65.0 - (BULK_INSERT_RECORDS_TO_INSERT - 1), range.getDouble(2));
+        assertEquals(75.0 + (BULK_INSERT_RECORDS_TO_INSERT - 1), range.getDouble(3));
+        assertEquals("The most common weather should win", 800, range.getInt(4));
+        range.close();
+
+        /* The test days start on a Sunday, so they span three weeks but a single month */
+        Cursor weeks = contentResolver.query(
+                WeatherContract.StatsEntry.WEEKLY_URI, projection, null, null, null);
+        assertEquals(3, weeks.getCount());
+        int[] daysPerWeek = {1, 7, 2};
+        while (weeks.moveToNext()) {
+            assertEquals(daysPerWeek[weeks.getPosition()], weeks.getInt(1));
+        }
+        weeks.close();
+
+        Cursor months = contentResolver.query(
+                WeatherContract.StatsEntry.MONTHLY_URI, projection, null, null, null);
+        assertEquals(1, months.getCount());
+        months.close();
+
+        /* A write makes the next query compute the statistics again */
+        ContentValues hotDay = createBulkInsertTestWeatherValues()[0];
+        hotDay.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                firstDay + BULK_INSERT_RECORDS_TO_INSERT * SunshineDateUtils.DAY_IN_MILLIS);
+        hotDay.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 100);
+        contentResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI,
+                new ContentValues[]{hotDay});
+
+        range = contentResolver.query(rangeUri, projection, null, null, null);
+        assertTrue(range.moveToFirst());
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT + 1, range.getInt(1));
+        assertEquals(100.0, range.getDouble(3));
+        range.close();
+    }
+
+    /**
+     * Archives two months of past days, reads a window of them through the history URI, and
+     * compacts the history: both months are long over, so they are downsampled to weeks, and
+     * with no budget left the older one is dropped.
+     */
+    @Test
+    public void testHistoryArchiveQueryAndCompaction() {
+        /* Friday January 1st 2016, so January has a partial first week and February has none */
+        long january = 1451606400000L;
+        long day = SunshineDateUtils.DAY_IN_MILLIS;
+        long locationId = 42;
+        int days = 31 + 29;
+
+        WeatherDbHelper helper = new WeatherDbHelper(mContext);
+        SQLiteDatabase database = helper.getWritableDatabase();
+        HistoryStore history = new HistoryStore(database);
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < days; i++) {
+                assertTrue(history.isPast(january + i * day));
+                history.archive(locationId, january + i * day, 800, i, i + 10, 50, 1000, 2, 90);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            history.close();
+            database.endTransaction();
+        }
+        assertEquals(days, history.getArchivedRowCount());
+
+        String[] projection = {
+                WeatherContract.HistoryEntry.COLUMN_DATE,
+                WeatherContract.HistoryEntry.COLUMN_DAYS};
+        ContentResolver contentResolver = mContext.getContentResolver();
+
+        /* A window across both months reads both partitions, end excluded */
+        Cursor window = contentResolver.query(
+                WeatherContract.HistoryEntry.buildHistoryUriWithLocationAndRange(
+                        locationId, january + 20 * day, january + 40 * day),
+                projection,
+                null,
+                null,
+                null);
+        assertEquals(20, window.getCount());
+        assertTrue(window.moveToFirst());
+        assertEquals(january + 20 * day, window.getLong(0));
+        window.close();
+
+        int removed = HistoryStore.compact(database, System.currentTimeMillis(), Long.MAX_VALUE);
+        /* January: Jan 1-3 and four full weeks. February: five weeks starting on Mondays */
+        assertEquals(days - 10, removed);
+
+        Cursor weeks = contentResolver.query(
+                WeatherContract.HistoryEntry.buildHistoryUriWithLocationAndRange(
+                        locationId, january, january + days * day),
+                projection,
+                null,
+                null,
+                null);
+        assertEquals(10, weeks.getCount());
+        int daysKept = 0;
+        while (weeks.moveToNext()) {
+            daysKept += weeks.getInt(1);
+        }
+        assertEquals("Downsampling should account for every day", days, daysKept);
+        weeks.close();
+
+        /* Over budget, the oldest month goes but the newest is always kept */
+        assertEquals(5, HistoryStore.compact(database, System.currentTimeMillis(), 0));
+        assertEquals(5, HistoryStore.deleteAll(database));
+        database.close();
+    }
+
+    /**
+     * Inserts a day of weather and updates it in one batch. A batch whose last operation fails
+     * must leave nothing behind, and a batch that commits must notify CHANGES_URI.
+     */
+    @Test
+    public void testApplyBatch() throws Exception {
+        ContentResolver contentResolver = mContext.getContentResolver();
+        String locationKey = "batch-location";
+
+        /* Locations aren't cleared between tests, and a key can only be inserted once */
+        contentResolver.delete(WeatherContract.LocationEntry.CONTENT_URI,
+                WeatherContract.LocationEntry.COLUMN_LOCATION_KEY + " = ?",
+                new String[]{locationKey});
+
+        ContentValues location = new ContentValues();
+        location.put(WeatherContract.LocationEntry.COLUMN_LOCATION_KEY, locationKey);
+        Uri locationUri = contentResolver.insert(
+                WeatherContract.LocationEntry.CONTENT_URI, location);
+        assertNotNull("The location wasn't inserted", locationUri);
+        long locationId = ContentUris.parseId(locationUri);
+
+        Uri dayUri = WeatherContract.WeatherEntry.buildWeatherUriWithLocationAndDate(
+                locationId, TestUtilities.DATE_NORMALIZED);
+        ContentValues newMax = new ContentValues();
+        newMax.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 90);
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation
+                .newInsert(WeatherContract.WeatherEntry.buildWeatherUriWithLocation(locationId))
+                .withValues(TestUtilities.createTestWeatherContentValues(locationId))
+                .build());
+        operations.add(ContentProviderOperation.newUpdate(dayUri)
+                .withValues(newMax)
+                .withExpectedCount(1)
+                .build());
+
+        /* An assertion that can't hold rolls back the two operations before it */
+        ArrayList<ContentProviderOperation> failing = new ArrayList<>(operations);
+        failing.add(ContentProviderOperation.newAssertQuery(dayUri)
+                .withExpectedCount(2)
+                .build());
+        try {
+            contentResolver.applyBatch(WeatherContract.CONTENT_AUTHORITY, failing);
+            fail("The batch should have failed on its assertion");
+        } catch (OperationApplicationException expected) {
+            /* Expected */
+        }
+        Cursor rolledBack = contentResolver.query(dayUri, null, null, null, null);
+        assertEquals("A failed batch left weather behind", 0, rolledBack.getCount());
+        rolledBack.close();
+
+        TestUtilities.TestContentObserver changesObserver =
+                TestUtilities.getTestContentObserver();
+        contentResolver.registerContentObserver(
+                WeatherContract.WeatherEntry.CHANGES_URI, true, changesObserver);
+
+        ContentProviderResult[] results =
+                contentResolver.applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+        assertEquals(dayUri, results[0].uri);
+        assertEquals(1, results[1].count.intValue());
+
+        changesObserver.waitForNotificationOrFail();
+        contentResolver.unregisterContentObserver(changesObserver);
+
+        Cursor day = contentResolver.query(dayUri,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_MAX_TEMP}, null, null, null);
+        assertTrue("The batch didn't insert the weather", day.moveToFirst());
+        assertEquals(90, day.getInt(0));
+        day.close();
+    }
+
+    /**
+     * Runs a bulk insert and two queries, then reads them back from the metrics. Each one must
+     * be counted once, in exactly one bucket of its histogram.
+     */
+    @Test
+    public void testProviderMetrics() {
+        ContentResolver contentResolver = mContext.getContentResolver();
+        contentResolver.delete(WeatherContract.MetricsEntry.CONTENT_URI, null, null);
+
+        contentResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI,
+                createBulkInsertTestWeatherValues());
+        for (int i = 0; i < 2; i++) {
+            contentResolver.query(WeatherContract.WeatherEntry.CONTENT_URI,
+                    null, null, null, null).close();
+        }
+
+        Cursor metrics = contentResolver.query(WeatherContract.MetricsEntry.CONTENT_URI,
+                null, null, null, null);
+        assertNotNull(metrics);
+        boolean foundQuery = false;
+        boolean foundBulkInsert = false;
+        while (metrics.moveToNext()) {
+            String operation = metrics.getString(metrics.getColumnIndexOrThrow(
+                    WeatherContract.MetricsEntry.COLUMN_OPERATION));
+            int code = metrics.getInt(metrics.getColumnIndexOrThrow(
+                    WeatherContract.MetricsEntry.COLUMN_URI_CODE));
+            long count = metrics.getLong(metrics.getColumnIndexOrThrow(
+                    WeatherContract.MetricsEntry.COLUMN_COUNT));
+            long rows = metrics.getLong(metrics.getColumnIndexOrThrow(
+                    WeatherContract.MetricsEntry.COLUMN_ROWS));
+
+            long bucketed = 0;
+            for (int column = 0; column < metrics.getColumnCount(); column++) {
+                if (metrics.getColumnName(column).startsWith(
+                        WeatherContract.MetricsEntry.BUCKET_COLUMN_PREFIX)) {
+                    bucketed += metrics.getLong(column);
+                }
+            }
+            assertEquals("The histogram of " + operation + " " + code + " doesn't add up",
+                    count, bucketed);
+
+            if (code != WeatherProvider.CODE_WEATHER) {
+                continue;
+            }
+            if (operation.equals("query")) {
+                foundQuery = true;
+                assertEquals(2, count);
+                assertEquals(2 * BULK_INSERT_RECORDS_TO_INSERT, rows);
+            } else if (operation.equals("bulkInsert")) {
+                foundBulkInsert = true;
+                assertEquals(1, count);
+                assertEquals(BULK_INSERT_RECORDS_TO_INSERT, rows);
+            }
+        }
+        metrics.close();
+
+        assertTrue("The queries weren't recorded", foundQuery);
+        assertTrue("The bulk insert wasn't recorded", foundBulkInsert);
+    }
+
+    private long queryLocationId(String locationKey) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry._ID},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_KEY + " = ?",
+                new String[]{locationKey},
+                null);
+        assertNotNull(cursor);
+        assertTrue("Location " + locationKey + " wasn't stored", cursor.moveToFirst());
+        long locationId = cursor.getLong(0);
+        cursor.close();
+        return locationId;
+    }
+
     /**
      * This test deletes all records from the weather table using the ContentProvider. It also
      * verifies that registered ContentObservers receive onChange callbacks when data is deleted.
@@ -442,6 +1309,8 @@ public class TestWeatherProvider {
 
         /* The delete method deletes all of the desired rows from the table, not the table itself */
         database.delete(WeatherContract.WeatherEntry.TABLE_NAME, null, null);
+        database.delete(WeatherContract.HourlyEntry.TABLE_NAME, null, null);
+        HistoryStore.deleteAll(database);
 
         /* Always close the database when you're through with it */
         database.close();
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.MainActivity;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Locale;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Checks how weather.db is set up for the forecast list query and measures that query with and
+ * without the covering date index, on two databases holding the same rows. The timings are
+ * written to logcat under the TestWeatherQueryBenchmark tag, for instance:
+ * <p>
+ *     adb logcat -s TestWeatherQueryBenchmark
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWeatherQueryBenchmark {
+
+    private static final String TAG = TestWeatherQueryBenchmark.class.getSimpleName();
+
+    /* Enough rows for the cost of scanning the table to show */
+    private static final int ROWS_TO_INSERT = 5000;
+
+    private static final int QUERY_REPETITIONS = 200;
+
+    /* Runs of each query before timing, which read every page they need into the page cache */
+    private static final int WARM_UP_REPETITIONS = 20;
+
+    /* The timed runs are split into rounds, alternating between the two databases */
+    private static final int ROUNDS = 10;
+
+    /* The same schema and rows as weather.db, without the covering index */
+    private static final String NO_INDEX_DATABASE_NAME = "weather-benchmark-no-index.db";
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private WeatherDbHelper mDbHelper;
+    private SQLiteDatabase mDatabase;
+
+    /* The rows of the forecast list start halfway through the inserted days */
+    private long mToday;
+
+    @Before
+    public void setUp() {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDbHelper = new WeatherDbHelper(mContext);
+        mDatabase = mDbHelper.getWritableDatabase();
+        mToday = TestUtilities.DATE_NORMALIZED
+                + SunshineDateUtils.DAY_IN_MILLIS * (ROWS_TO_INSERT / 2);
+        insertWeather(mDatabase);
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mContext.deleteDatabase(NO_INDEX_DATABASE_NAME);
+    }
+
+    private static void insertWeather(SQLiteDatabase database) {
+        ContentValues weatherValues = TestUtilities.createTestWeatherContentValues();
+        long date = TestUtilities.DATE_NORMALIZED;
+
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < ROWS_TO_INSERT; i++) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, date);
+                database.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, weatherValues);
+                date += SunshineDateUtils.DAY_IN_MILLIS;
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * The sync writes while the UI and the watch face read, which is what write-ahead logging
+     * is for.
+     */
+    @Test
+    public void testWriteAheadLoggingIsEnabled() {
+        Cursor cursor = mDatabase.rawQuery("PRAGMA journal_mode", null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("wal", cursor.getString(0).toLowerCase());
+        cursor.close();
+    }
+
+    /**
+     * The forecast list query should be answered from the covering index alone.
+     */
+    @Test
+    public void testForecastQueryUsesCoveringIndex() {
+        String plan = explainForecastQuery();
+        Log.i(TAG, "Query plan: " + plan);
+
+        assertTrue("Forecast query doesn't use "
+                        + WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE_FORECAST + ": " + plan,
+                plan.contains(WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE_FORECAST));
+        assertTrue("Forecast query isn't an index-only scan: " + plan,
+                plan.contains("COVERING INDEX"));
+    }
+
+    /**
+     * Measures the forecast list query without the covering index ("before") and with it
+     * ("after"). Each database is warmed up first, then the timed runs alternate between the two
+     * in rounds, so neither case gets the page cache or the CPU in a better state than the
+     * other. The ratio of the two is logged with the timings.
+     */
+    @Test
+    public void benchmarkForecastQuery() {
+        mContext.deleteDatabase(NO_INDEX_DATABASE_NAME);
+        WeatherDbHelper noIndexHelper = new WeatherDbHelper(mContext, NO_INDEX_DATABASE_NAME);
+        try {
+            SQLiteDatabase noIndex = noIndexHelper.getWritableDatabase();
+            noIndex.execSQL("DROP INDEX "
+                    + WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE_FORECAST);
+            insertWeather(noIndex);
+
+            timeForecastQuery(mDatabase, WARM_UP_REPETITIONS);
+            timeForecastQuery(noIndex, WARM_UP_REPETITIONS);
+
+            long withIndexNanos = 0;
+            long withoutIndexNanos = 0;
+            int repetitionsPerRound = QUERY_REPETITIONS / ROUNDS;
+            for (int round = 0; round < ROUNDS; round++) {
+                /* Every other round starts with the other database */
+                if (round % 2 == 0) {
+                    withIndexNanos += timeForecastQuery(mDatabase, repetitionsPerRound);
+                    withoutIndexNanos += timeForecastQuery(noIndex, repetitionsPerRound);
+                } else {
+                    withoutIndexNanos += timeForecastQuery(noIndex, repetitionsPerRound);
+                    withIndexNanos += timeForecastQuery(mDatabase, repetitionsPerRound);
+                }
+            }
+            int repetitions = repetitionsPerRound * ROUNDS;
+            withIndexNanos /= repetitions;
+            withoutIndexNanos /= repetitions;
+
+            Log.i(TAG, String.format(Locale.US, "Forecast query over %d rows, average of %d"
+                            + " runs: before (no covering index) %d us, after (covering index)"
+                            + " %d us, %.2fx as fast",
+                    ROWS_TO_INSERT, repetitions, withoutIndexNanos / 1000,
+                    withIndexNanos / 1000, (double) withoutIndexNanos / withIndexNanos));
+        } finally {
+            noIndexHelper.close();
+        }
+    }
+
+    /* Runs the forecast list query and returns the time it took in total */
+    private long timeForecastQuery(SQLiteDatabase database, int repetitions) {
+        String selection = WeatherContract.WeatherEntry.COLUMN_LOCATION_ID + " = "
+                + TestUtilities.TEST_LOCATION_ID + " AND "
+                + WeatherContract.WeatherEntry.COLUMN_DATE + " >= " + mToday;
+        String sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+
+        long start = System.nanoTime();
+        for (int i = 0; i < repetitions; i++) {
+            Cursor cursor = database.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                    MainActivity.MAIN_FORECAST_PROJECTION, selection, null, null, null, sortOrder);
+            /* Walk every row so the whole result is actually read */
+            while (cursor.moveToNext()) {
+                cursor.getLong(MainActivity.INDEX_WEATHER_DATE);
+            }
+            cursor.close();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private String explainForecastQuery() {
+        StringBuilder columns = new StringBuilder();
+        for (String column : MainActivity.MAIN_FORECAST_PROJECTION) {
+            if (columns.length() > 0) columns.append(", ");
+            columns.append(column);
+        }
+
+        Cursor cursor = mDatabase.rawQuery("EXPLAIN QUERY PLAN SELECT " + columns
+                + " FROM " + WeatherContract.WeatherEntry.TABLE_NAME
+                + " WHERE " + WeatherContract.WeatherEntry.COLUMN_LOCATION_ID + " = "
+                + TestUtilities.TEST_LOCATION_ID
+                + " AND " + WeatherContract.WeatherEntry.COLUMN_DATE + " >= " + mToday
+                + " ORDER BY " + WeatherContract.WeatherEntry.COLUMN_DATE + " ASC", null);
+
+        StringBuilder plan = new StringBuilder();
+        int detailIndex = cursor.getColumnIndex("detail");
+        while (cursor.moveToNext()) {
+            plan.append(cursor.getString(detailIndex)).append('\n');
+        }
+        cursor.close();
+        return plan.toString();
+    }
+}
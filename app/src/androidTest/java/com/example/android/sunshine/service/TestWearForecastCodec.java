@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.service;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Reads what {@link WearForecastCodec} encodes field by field, the way the watch decodes it, so
+ * a change to the encoding that the watch's copy wouldn't understand fails here.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWearForecastCodec {
+
+    @Test
+    public void testEncoding() {
+        long day = SunshineDateUtils.DAY_IN_MILLIS;
+        long first = 1475280000000L;
+        long[] dates = {first, first + day, first + 3 * day};
+        int[] weatherIds = {800, 501, 611};
+        double[] lows = {12.34, 3.0, -7.56};
+        double[] highs = {21.0, 9.96, -1.04};
+
+        byte[] encoded = WearForecastCodec.encode(dates, weatherIds, lows, highs, dates.length);
+        assertEquals(WearForecastCodec.HEADER_BYTES
+                + dates.length * WearForecastCodec.BYTES_PER_DAY, encoded.length);
+
+        ByteBuffer buffer = ByteBuffer.wrap(encoded);
+        assertEquals(WearForecastCodec.VERSION, buffer.get());
+        assertEquals(WearForecastCodec.BYTES_PER_DAY, buffer.get());
+        assertEquals(dates.length, buffer.getShort());
+        long firstDay = buffer.getInt();
+        assertEquals(first, firstDay * day);
+
+        short[][] expected = {
+                {0, 800, 123, 210},
+                {1, 501, 30, 100},
+                {3, 611, -76, -10},
+        };
+        for (short[] fields : expected) {
+            for (short field : fields) {
+                assertEquals(field, buffer.getShort());
+            }
+        }
+        assertEquals(0, buffer.remaining());
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.service;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.R;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Checks that {@link WearIconCache} draws the icons at the requested size, and hands out the
+ * same bytes from memory and, in a new cache, from disk.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWearIconCache {
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private File mCacheDirectory;
+
+    @Before
+    public void setUp() {
+        mCacheDirectory = new File(mContext.getCacheDir(), "test-wear-icons");
+        deleteCacheDirectory();
+    }
+
+    @After
+    public void tearDown() {
+        deleteCacheDirectory();
+    }
+
+    @Test
+    public void testIconIsEncodedOnce() {
+        WearIconCache cache = new WearIconCache(mContext, mCacheDirectory);
+        byte[] icon = cache.get(R.drawable.ic_clear, WearPayloadBuilder.ICON_SIZE_PX);
+        assertNotNull(icon);
+
+        Bitmap bitmap = BitmapFactory.decodeByteArray(icon, 0, icon.length);
+        assertEquals(WearPayloadBuilder.ICON_SIZE_PX, bitmap.getWidth());
+        assertEquals(WearPayloadBuilder.ICON_SIZE_PX, bitmap.getHeight());
+
+        assertSame("A second lookup should come from memory",
+                icon, cache.get(R.drawable.ic_clear, WearPayloadBuilder.ICON_SIZE_PX));
+
+        byte[] larger = cache.get(R.drawable.ic_clear, 2 * WearPayloadBuilder.ICON_SIZE_PX);
+        assertNotSame(icon, larger);
+
+        assertEquals("Each size should be stored in a file of its own",
+                2, mCacheDirectory.listFiles().length);
+
+        WearIconCache restarted = new WearIconCache(mContext, mCacheDirectory);
+        byte[] stored = restarted.get(R.drawable.ic_clear, WearPayloadBuilder.ICON_SIZE_PX);
+        assertNotSame(icon, stored);
+        assertTrue("The icon read from disk should be the one encoded",
+                Arrays.equals(icon, stored));
+    }
+
+    private void deleteCacheDirectory() {
+        File[] files = mCacheDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mCacheDirectory.delete();
+    }
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Checks {@link NetworkUtils#readFromHttpUrl(URL, DiskResponseCache, boolean,
+ * NetworkUtils.ConditionalResponseHandler)} and {@link DiskResponseCache} against a small HTTP
+ * server running on the device, which answers 304 when the request carries the ETag it handed
+ * out.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestConditionalRequests {
+
+    private static final String BODY = "{\"cod\":\"200\",\"list\":[]}";
+    private static final String ETAG = "\"forecast-1\"";
+    private static final String LAST_MODIFIED = "Wed, 21 Oct 2015 07:28:00 GMT";
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private File mCacheDirectory;
+    private StandInServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        mCacheDirectory = new File(mContext.getCacheDir(), "test-responses");
+        deleteCacheDirectory();
+        mServer = new StandInServer();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.close();
+        deleteCacheDirectory();
+    }
+
+    /**
+     * The first request downloads the body and caches it, the second one sends the validators
+     * back and gets a 304, so the body isn't handed to the handler again.
+     */
+    @Test
+    public void testSecondRequestIsNotModified() throws IOException {
+        DiskResponseCache cache = new DiskResponseCache(mCacheDirectory, 64 * 1024);
+        URL url = mServer.url("/weather?q=94043");
+
+        RecordingHandler first = new RecordingHandler();
+        assertEquals(BODY, NetworkUtils.readFromHttpUrl(url, cache, true, first));
+        assertEquals(1, first.mResponses);
+        assertEquals(0, first.mNotModified);
+
+        DiskResponseCache.Entry entry = cache.get(url);
+        assertNotNull("The response wasn't cached", entry);
+        assertEquals(ETAG, entry.getETag());
+        assertEquals(LAST_MODIFIED, entry.getLastModified());
+        assertEquals(BODY, readFully(entry.openBody()));
+
+        RecordingHandler second = new RecordingHandler();
+        assertNull(NetworkUtils.readFromHttpUrl(url, cache, true, second));
+        assertEquals(0, second.mResponses);
+        assertEquals(1, second.mNotModified);
+
+        Map<String, String> headers = mServer.mRequestHeaders.get(1);
+        assertEquals(ETAG, headers.get("if-none-match"));
+        assertEquals(LAST_MODIFIED, headers.get("if-modified-since"));
+    }
+
+    /**
+     * Without revalidation no validators are sent, and the full body is downloaded again.
+     */
+    @Test
+    public void testNoValidatorsWithoutRevalidation() throws IOException {
+        DiskResponseCache cache = new DiskResponseCache(mCacheDirectory, 64 * 1024);
+        URL url = mServer.url("/weather?q=94043");
+
+        NetworkUtils.readFromHttpUrl(url, cache, false, new RecordingHandler());
+        RecordingHandler second = new RecordingHandler();
+        assertEquals(BODY, NetworkUtils.readFromHttpUrl(url, cache, false, second));
+        assertEquals(1, second.mResponses);
+
+        assertNull(mServer.mRequestHeaders.get(1).get("if-none-match"));
+    }
+
+    /**
+     * Once the cache is over its size, the least recently used response goes first.
+     */
+    @Test
+    public void testLeastRecentlyUsedResponseIsEvicted() throws IOException, InterruptedException {
+        /* Each response takes a bit over 100 bytes, so there's room for two but not three */
+        DiskResponseCache cache = new DiskResponseCache(mCacheDirectory, 250);
+        URL first = mServer.url("/weather?q=1");
+        URL second = mServer.url("/weather?q=2");
+        URL third = mServer.url("/weather?q=3");
+
+        NetworkUtils.readFromHttpUrl(first, cache, true, new RecordingHandler());
+        /* File times may only have a one second resolution */
+        Thread.sleep(1100);
+        NetworkUtils.readFromHttpUrl(second, cache, true, new RecordingHandler());
+        Thread.sleep(1100);
+
+        /* Using the first response makes the second one the least recently used */
+        assertNotNull(cache.get(first));
+        Thread.sleep(1100);
+        NetworkUtils.readFromHttpUrl(third, cache, true, new RecordingHandler());
+
+        assertNotNull(cache.get(first));
+        assertNull(cache.get(second));
+        assertNotNull(cache.get(third));
+    }
+
+    /**
+     * Compressed bodies are decoded on the fly, the cache keeps the decoded body, and the stats
+     * show the compressed size on the wire against the decoded size.
+     */
+    @Test
+    public void testGzipBodyIsDecoded() throws IOException {
+        checkEncodedBodyIsDecoded("gzip");
+    }
+
+    @Test
+    public void testDeflateBodyIsDecoded() throws IOException {
+        checkEncodedBodyIsDecoded("deflate");
+    }
+
+    /**
+     * Some servers send raw deflate data for "deflate", without the zlib header.
+     */
+    @Test
+    public void testRawDeflateBodyIsDecoded() throws IOException {
+        checkEncodedBodyIsDecoded("raw-deflate");
+    }
+
+    private void checkEncodedBodyIsDecoded(String encoding) throws IOException {
+        StringBuilder body = new StringBuilder("{\"cod\":\"200\",\"list\":[");
+        for (int i = 0; i < 100; i++) {
+            if (i > 0) body.append(',');
+            body.append("{\"pressure\":1024.5,\"humidity\":81,\"speed\":1.2,\"deg\":45}");
+        }
+        body.append("]}");
+        mServer.mBody = body.toString();
+        mServer.mContentEncoding = encoding;
+
+        DiskResponseCache cache = new DiskResponseCache(mCacheDirectory, 64 * 1024);
+        URL url = mServer.url("/weather?q=94043");
+        TransferStats stats = new TransferStats();
+
+        assertEquals(mServer.mBody,
+                NetworkUtils.readFromHttpUrl(url, cache, true, stats, new RecordingHandler()));
+        assertEquals(mServer.mBody, readFully(cache.get(url).openBody()));
+
+        assertTrue(mServer.mRequestHeaders.get(0).get("accept-encoding").contains("gzip"));
+        assertEquals(1, stats.getResponses());
+        assertEquals(1, stats.getCompressedResponses());
+        assertEquals(mServer.mBody.length(), stats.getDecodedBytes());
+        assertTrue("Compressed body isn't smaller: " + stats,
+                stats.getWireBytes() < stats.getDecodedBytes());
+    }
+
+    private void deleteCacheDirectory() {
+        File[] files = mCacheDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                assertTrue(file.delete());
+            }
+        }
+        mCacheDirectory.delete();
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    private static class RecordingHandler
+            implements NetworkUtils.ConditionalResponseHandler<String> {
+
+        int mResponses;
+        int mNotModified;
+
+        @Override
+        public String onResponse(InputStream in) throws IOException {
+            mResponses++;
+            /* Read only part of the body, the cache has to store the rest anyway */
+            byte[] start = new byte[5];
+            int read = in.read(start);
+            return new String(start, 0, read, "UTF-8") + readFully(in);
+        }
+
+        @Override
+        public String onNotModified() {
+            mNotModified++;
+            return null;
+        }
+    }
+
+    /**
+     * Answers every request with mBody, encoded with mContentEncoding, unless it carries ETAG in
+     * If-None-Match, in which case it answers 304. The headers of every request are kept, in
+     * order.
+     */
+    private static class StandInServer implements Runnable {
+
+        private final ServerSocket mSocket;
+        private final Thread mThread;
+        volatile String mBody = BODY;
+        volatile String mContentEncoding;
+        final List<Map<String, String>> mRequestHeaders =
+                Collections.synchronizedList(new ArrayList<Map<String, String>>());
+
+        StandInServer() throws IOException {
+            mSocket = new ServerSocket(0);
+            mThread = new Thread(this, "StandInServer");
+            mThread.start();
+        }
+
+        URL url(String path) throws IOException {
+            return new URL("http://127.0.0.1:" + mSocket.getLocalPort() + path);
+        }
+
+        @Override
+        public void run() {
+            while (!mSocket.isClosed()) {
+                try {
+                    Socket client = mSocket.accept();
+                    try {
+                        serve(client);
+                    } finally {
+                        client.close();
+                    }
+                } catch (IOException e) {
+                    /* The socket was closed by close() */
+                }
+            }
+        }
+
+        private void serve(Socket client) throws IOException {
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(client.getInputStream(), "UTF-8"));
+            reader.readLine();
+
+            Map<String, String> headers = new HashMap<>();
+            String line;
+            while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                int colon = line.indexOf(':');
+                headers.put(line.substring(0, colon).trim().toLowerCase(),
+                        line.substring(colon + 1).trim());
+            }
+            mRequestHeaders.add(headers);
+
+            String response;
+            byte[] body = new byte[0];
+            if (ETAG.equals(headers.get("if-none-match"))) {
+                response = "HTTP/1.1 304 Not Modified\r\n"
+                        + "ETag: " + ETAG + "\r\n"
+                        + "Connection: close\r\n"
+                        + "\r\n";
+            } else {
+                body = encode(mBody.getBytes("UTF-8"), mContentEncoding);
+                response = "HTTP/1.1 200 OK\r\n"
+                        + "Content-Type: application/json\r\n"
+                        + "Content-Length: " + body.length + "\r\n"
+                        + (mContentEncoding != null
+                                ? "Content-Encoding: "
+                                + mContentEncoding.replace("raw-", "") + "\r\n" : "")
+                        + "ETag: " + ETAG + "\r\n"
+                        + "Last-Modified: " + LAST_MODIFIED + "\r\n"
+                        + "Connection: close\r\n"
+                        + "\r\n";
+            }
+
+            OutputStream out = client.getOutputStream();
+            out.write(response.getBytes("UTF-8"));
+            out.write(body);
+            out.flush();
+        }
+
+        /* A Content-Encoding of "raw-deflate" sends "deflate" without the zlib wrapper */
+        private static byte[] encode(byte[] body, String encoding) throws IOException {
+            if (encoding == null) {
+                return body;
+            }
+
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            OutputStream out;
+            if (encoding.equals("gzip")) {
+                out = new GZIPOutputStream(encoded);
+            } else {
+                out = new DeflaterOutputStream(encoded,
+                        new Deflater(Deflater.DEFAULT_COMPRESSION, encoding.equals("raw-deflate")));
+            }
+            out.write(body);
+            out.close();
+            return encoded.toByteArray();
+        }
+
+        void close() throws IOException {
+            mSocket.close();
+            try {
+                mThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
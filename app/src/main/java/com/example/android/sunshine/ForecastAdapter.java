@@ -28,15 +28,25 @@ import android.widget.TextView;
 import com.example.android.sunshine.utilities.SunshineDateUtils;
 import com.example.android.sunshine.utilities.SunshineWeatherUtils;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * {@link ForecastAdapter} exposes a list of weather forecasts
  * from a {@link android.database.Cursor} to a {@link android.support.v7.widget.RecyclerView}.
+ * <p>
+ * The forecast comes in pages, each a cursor over a few days, which are asked for one after the
+ * other as the list is scrolled towards its end. Only the pages that were scrolled to are ever
+ * loaded, and each page is a small CursorWindow of its own, however many days are stored.
  */
 class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapterViewHolder> {
 
     private static final int VIEW_TYPE_TODAY = 0;
     private static final int VIEW_TYPE_FUTURE_DAY = 1;
 
+    /* How close to the end of the list the next page is asked for, in items */
+    private static final int PREFETCH_DISTANCE = 5;
+
     /* The context we use to utility methods, app resources and layout inflaters */
     private final Context mContext;
 
@@ -55,6 +65,34 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
         void onClick(long date);
     }
 
+    /**
+     * The interface that loads the pages of the forecast.
+     */
+    public interface ForecastPageLoader {
+
+        /**
+         * Loads a page and hands it to {@link #swapPage} once it is there.
+         *
+         * @param page      Index of the page, the first one being 0
+         * @param afterDate Date of the last day of the page before
+         */
+        void loadPage(int page, long afterDate);
+
+        /**
+         * Stops loading the pages from a page on, which the adapter already let go of. This
+         * happens when the page before them changed, so they no longer follow it.
+         *
+         * @param fromPage  Index of the first page to drop
+         * @param pageCount Number of pages
+         */
+        void dropPages(int fromPage, int pageCount);
+    }
+
+    private final ForecastPageLoader mPageLoader;
+
+    /* The most days a page holds. A page with fewer days is the last one. */
+    private final int mPageSize;
+
     /*
      * Flag to determine if we want to use a separate view for the list item that represents
      * today. This flag will be true when the phone is in portrait mode and false when the phone
@@ -63,7 +101,18 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
      */
     private boolean mUseTodayLayout;
 
-    private Cursor mCursor;
+    /* The pages loaded so far, in order, and the date each one was loaded after */
+    private final List<Cursor> mPages = new ArrayList<>();
+    private final List<Long> mPageAfterDates = new ArrayList<>();
+
+    /* The days in all the pages */
+    private int mItemCount;
+
+    /* The number of pages that were loaded or asked for */
+    private int mRequestedPages;
+
+    /* The date the page that is on its way, if any, was asked for after */
+    private long mRequestedAfterDate;
 
     /**
      * Creates a ForecastAdapter.
@@ -71,10 +120,15 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
      * @param context      Used to talk to the UI and app resources
      * @param clickHandler The on-click handler for this adapter. This single handler is called
      *                     when an item is clicked.
+     * @param pageLoader   Loads the pages after the first one
+     * @param pageSize     The most days a page holds
      */
-    public ForecastAdapter(@NonNull Context context, ForecastAdapterOnClickHandler clickHandler) {
+    public ForecastAdapter(@NonNull Context context, ForecastAdapterOnClickHandler clickHandler,
+                           ForecastPageLoader pageLoader, int pageSize) {
         mContext = context;
         mClickHandler = clickHandler;
+        mPageLoader = pageLoader;
+        mPageSize = pageSize;
         mUseTodayLayout = mContext.getResources().getBoolean(R.bool.use_today_layout);
     }
 
@@ -129,12 +183,12 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
      */
     @Override
     public void onBindViewHolder(ForecastAdapterViewHolder forecastAdapterViewHolder, int position) {
-        mCursor.moveToPosition(position);
+        Cursor cursor = moveToPosition(position);
 
         /****************
          * Weather Icon *
          ****************/
-        int weatherId = mCursor.getInt(MainActivity.INDEX_WEATHER_CONDITION_ID);
+        int weatherId = cursor.getInt(MainActivity.INDEX_WEATHER_CONDITION_ID);
         int weatherImageId;
 
         int viewType = getItemViewType(position);
@@ -161,7 +215,7 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
          * Weather Date *
          ****************/
          /* Read date from the cursor */
-        long dateInMillis = mCursor.getLong(MainActivity.INDEX_WEATHER_DATE);
+        long dateInMillis = cursor.getLong(MainActivity.INDEX_WEATHER_DATE);
          /* Get human readable string using our utility method */
         String dateString = SunshineDateUtils.getFriendlyDateString(mContext, dateInMillis, false);
 
@@ -183,7 +237,7 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
          * High (max) temperature *
          **************************/
          /* Read high temperature from the cursor (in degrees celsius) */
-        double highInCelsius = mCursor.getDouble(MainActivity.INDEX_WEATHER_MAX_TEMP);
+        double highInCelsius = cursor.getDouble(MainActivity.INDEX_WEATHER_MAX_TEMP);
          /*
           * If the user's preference for weather is fahrenheit, formatTemperature will convert
           * the temperature. This method will also append either °C or °F to the temperature
@@ -201,7 +255,7 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
          * Low (min) temperature *
          *************************/
          /* Read low temperature from the cursor (in degrees celsius) */
-        double lowInCelsius = mCursor.getDouble(MainActivity.INDEX_WEATHER_MIN_TEMP);
+        double lowInCelsius = cursor.getDouble(MainActivity.INDEX_WEATHER_MIN_TEMP);
          /*
           * If the user's preference for weather is fahrenheit, formatTemperature will convert
           * the temperature. This method will also append either °C or °F to the temperature
@@ -223,8 +277,7 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
      */
     @Override
     public int getItemCount() {
-        if (null == mCursor) return 0;
-        return mCursor.getCount();
+        return mItemCount;
     }
 
     /**
@@ -247,18 +300,140 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
     }
 
     /**
-     * Swaps the cursor used by the ForecastAdapter for its weather data. This method is called by
-     * MainActivity after a load has finished, as well as when the Loader responsible for loading
-     * the weather data is reset. When this method is called, we assume we have a completely new
-     * set of data, so we call notifyDataSetChanged to tell the RecyclerView to update.
+     * Swaps the cursor of one page of weather data. This method is called by MainActivity after
+     * the load of a page has finished, as well as when the Loader responsible for loading that
+     * page is reset, with a null cursor. A null cursor drops the page and every page after it.
+     * <p>
+     * When a page that was already there changes, such as after a sync, and no longer ends on
+     * the date the next page was loaded or asked for after, the pages after it are dropped and
+     * the next one is asked for again. So is a page that arrives after the page before it
+     * changed, which would otherwise leave paging waiting for a page that never comes.
      *
-     * @param newCursor the new cursor to use as ForecastAdapter's data source
+     * @param page      Index of the page, the first one being 0
+     * @param afterDate The date the page was loaded after
+     * @param newCursor The days of the page, or null
      */
-    void swapCursor(Cursor newCursor) {
-        mCursor = newCursor;
+    void swapPage(int page, long afterDate, Cursor newCursor) {
+        if (newCursor == null) {
+            while (mPages.size() > page) {
+                mPages.remove(mPages.size() - 1);
+                mPageAfterDates.remove(mPageAfterDates.size() - 1);
+            }
+            mRequestedPages = Math.min(mRequestedPages, page);
+            mItemCount = countItems();
+            notifyDataSetChanged();
+            return;
+        }
+
+        if (page > mPages.size() || page == mPages.size() && page > 0
+                && getLastDate(mPages.get(page - 1)) != afterDate) {
+            /* The page before it was dropped or changed while this one was loading */
+            dropPagesFrom(mPages.size());
+            requestNextPage();
+            return;
+        }
+
+        if (page == mPages.size()) {
+            int firstNewItem = mItemCount;
+            mPages.add(newCursor);
+            mPageAfterDates.add(afterDate);
+            mRequestedPages = Math.max(mRequestedPages, mPages.size());
+            mItemCount = countItems();
+            notifyItemRangeInserted(firstNewItem, newCursor.getCount());
+            return;
+        }
+
+        mPages.set(page, newCursor);
+        mPageAfterDates.set(page, afterDate);
+        if (mRequestedPages > page + 1) {
+            /* The next page was loaded, or asked for, after the date this page used to end on */
+            long nextAfterDate = page + 1 < mPages.size()
+                    ? mPageAfterDates.get(page + 1)
+                    : mRequestedAfterDate;
+            if (newCursor.getCount() < mPageSize) {
+                dropPagesFrom(page + 1);
+            } else if (getLastDate(newCursor) != nextAfterDate) {
+                dropPagesFrom(page + 1);
+                requestNextPage();
+            }
+        }
+        mItemCount = countItems();
         notifyDataSetChanged();
     }
 
+    /*
+     * Lets go of the pages from a page on, loaded or asked for, and stops loading them. The
+     * caller updates the item count.
+     */
+    private void dropPagesFrom(int fromPage) {
+        int pageCount = mRequestedPages - fromPage;
+        while (mPages.size() > fromPage) {
+            mPages.remove(mPages.size() - 1);
+            mPageAfterDates.remove(mPageAfterDates.size() - 1);
+        }
+        mRequestedPages = Math.min(mRequestedPages, fromPage);
+        if (pageCount > 0) {
+            mPageLoader.dropPages(fromPage, pageCount);
+        }
+    }
+
+    /* Asks for the page after the last one, unless that one is the last of the forecast */
+    private void requestNextPage() {
+        if (mPages.isEmpty()) {
+            return;
+        }
+
+        Cursor lastPage = mPages.get(mPages.size() - 1);
+        if (lastPage.getCount() < mPageSize) {
+            return;
+        }
+
+        mRequestedPages = mPages.size() + 1;
+        mRequestedAfterDate = getLastDate(lastPage);
+        mPageLoader.loadPage(mPages.size(), mRequestedAfterDate);
+    }
+
+    /**
+     * Asks for the next page once the list is scrolled close enough to its end, unless the last
+     * page is already the last of the forecast or the next one is on its way.
+     *
+     * @param lastVisiblePosition The position of the last item on screen
+     */
+    void onScrolledTo(int lastVisiblePosition) {
+        if (mPages.isEmpty()
+                || mRequestedPages > mPages.size()
+                || lastVisiblePosition < mItemCount - PREFETCH_DISTANCE) {
+            return;
+        }
+
+        requestNextPage();
+    }
+
+    /* Moves the page a position is in to that day, and returns it */
+    private Cursor moveToPosition(int position) {
+        for (Cursor page : mPages) {
+            if (position < page.getCount()) {
+                page.moveToPosition(position);
+                return page;
+            }
+            position -= page.getCount();
+        }
+        throw new IndexOutOfBoundsException("No day at position " + position);
+    }
+
+    private int countItems() {
+        int count = 0;
+        for (Cursor page : mPages) {
+            count += page.getCount();
+        }
+        return count;
+    }
+
+    private static long getLastDate(Cursor page) {
+        page.moveToLast();
+        return page.getLong(MainActivity.INDEX_WEATHER_DATE);
+    }
+
     /**
      * A ViewHolder is a required part of the pattern for RecyclerViews. It mostly behaves as
      * a cache of the child views for a forecast item. It's also a convenient place to set an
@@ -294,8 +469,8 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
         @Override
         public void onClick(View v) {
             int adapterPosition = getAdapterPosition();
-            mCursor.moveToPosition(adapterPosition);
-            long dateInMillis = mCursor.getLong(MainActivity.INDEX_WEATHER_DATE);
+            Cursor cursor = moveToPosition(adapterPosition);
+            long dateInMillis = cursor.getLong(MainActivity.INDEX_WEATHER_DATE);
             mClickHandler.onClick(dateInMillis);
         }
     }
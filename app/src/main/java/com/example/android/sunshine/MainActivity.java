@@ -38,7 +38,8 @@ import com.example.android.sunshine.sync.SunshineSyncUtils;
 
 public class MainActivity extends AppCompatActivity implements
         LoaderManager.LoaderCallbacks<Cursor>,
-        ForecastAdapter.ForecastAdapterOnClickHandler {
+        ForecastAdapter.ForecastAdapterOnClickHandler,
+        ForecastAdapter.ForecastPageLoader {
 
     private final String TAG = MainActivity.class.getSimpleName();
 
@@ -73,6 +74,16 @@ public class MainActivity extends AppCompatActivity implements
      */
     private static final int ID_FORECAST_LOADER = 44;
 
+    /*
+     * The forecast is loaded a page at a time, each page by its own loader: the one of page n has
+     * the ID ID_FORECAST_LOADER + n. A page holds about a month, so the first page is all most
+     * users ever scroll through.
+     */
+    private static final int PAGE_SIZE = 30;
+
+    /* Key of the date a page is loaded after in the arguments of its loader */
+    private static final String ARG_AFTER_DATE = "after_date";
+
     private ForecastAdapter mForecastAdapter;
     private RecyclerView mRecyclerView;
     private int mPosition = RecyclerView.NO_POSITION;
@@ -115,7 +126,7 @@ public class MainActivity extends AppCompatActivity implements
          * layout. Generally, this is only true with horizontal lists that need to support a
          * right-to-left layout.
          */
-        LinearLayoutManager layoutManager =
+        final LinearLayoutManager layoutManager =
                 new LinearLayoutManager(this, LinearLayoutManager.VERTICAL, false);
 
         /* setLayoutManager associates the LayoutManager we created above with our RecyclerView */
@@ -131,17 +142,26 @@ public class MainActivity extends AppCompatActivity implements
          * The ForecastAdapter is responsible for linking our weather data with the Views that
          * will end up displaying our weather data.
          *
-         * Although passing in "this" twice may seem strange, it is actually a sign of separation
-         * of concerns, which is best programming practice. The ForecastAdapter requires an
-         * Android Context (which all Activities are) as well as an onClickHandler. Since our
-         * MainActivity implements the ForecastAdapter ForecastOnClickHandler interface, "this"
-         * is also an instance of that type of handler.
+         * Although passing in "this" three times may seem strange, it is actually a sign of
+         * separation of concerns, which is best programming practice. The ForecastAdapter
+         * requires an Android Context (which all Activities are) as well as an onClickHandler and
+         * a page loader. Since our MainActivity implements the ForecastAdapter
+         * ForecastOnClickHandler and ForecastPageLoader interfaces, "this" is also an instance of
+         * those types.
          */
-        mForecastAdapter = new ForecastAdapter(this, this);
+        mForecastAdapter = new ForecastAdapter(this, this, this, PAGE_SIZE);
 
         /* Setting the adapter attaches it to the RecyclerView in our layout. */
         mRecyclerView.setAdapter(mForecastAdapter);
 
+        /* The next page is asked for as the end of the pages loaded so far comes into view */
+        mRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                mForecastAdapter.onScrolledTo(layoutManager.findLastVisibleItemPosition());
+            }
+        });
+
 
         showLoading();
 
@@ -149,8 +169,16 @@ public class MainActivity extends AppCompatActivity implements
          * Ensures a loader is initialized and active. If the loader doesn't already exist, one is
          * created and (if the activity/fragment is currently started) starts the loader. Otherwise
          * the last created loader is re-used.
+         *
+         * The pages after the first one that were loaded before a configuration change were
+         * loaded after dates that may be out of date by now, so they are loaded again as the list
+         * is scrolled.
          */
-        getSupportLoaderManager().initLoader(ID_FORECAST_LOADER, null, this);
+        LoaderManager loaderManager = getSupportLoaderManager();
+        for (int id = ID_FORECAST_LOADER + 1; loaderManager.getLoader(id) != null; id++) {
+            loaderManager.destroyLoader(id);
+        }
+        loaderManager.initLoader(ID_FORECAST_LOADER, null, this);
 
         SunshineSyncUtils.initialize(this);
 
@@ -184,8 +212,8 @@ public class MainActivity extends AppCompatActivity implements
 
     /**
      * Called by the {@link android.support.v4.app.LoaderManagerImpl} when a new Loader needs to be
-     * created. This Activity only uses one loader, so we don't necessarily NEED to check the
-     * loaderId, but this is certainly best practice.
+     * created. Every loader of this Activity loads a page of the forecast, the first one being
+     * ID_FORECAST_LOADER.
      *
      * @param loaderId The loader ID for which we need to create a loader
      * @param bundle   Any arguments supplied by the caller
@@ -193,32 +221,34 @@ public class MainActivity extends AppCompatActivity implements
      */
     @Override
     public Loader<Cursor> onCreateLoader(int loaderId, Bundle bundle) {
-
-
-        switch (loaderId) {
-
-            case ID_FORECAST_LOADER:
-                /* URI for all rows of weather data in our weather table */
-                Uri forecastQueryUri = WeatherContract.WeatherEntry.CONTENT_URI;
-                /* Sort order: Ascending by date */
-                String sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
-                /*
-                 * A SELECTION in SQL declares which rows you'd like to return. In our case, we
-                 * want all weather data from today onwards that is stored in our weather table.
-                 * We created a handy method to do that in our WeatherEntry class.
-                 */
-                String selection = WeatherContract.WeatherEntry.getSqlSelectForTodayOnwards();
-
-                return new CursorLoader(this,
-                        forecastQueryUri,
-                        MAIN_FORECAST_PROJECTION,
-                        selection,
-                        null,
-                        sortOrder);
-
-            default:
-                throw new RuntimeException("Loader Not Implemented: " + loaderId);
+        if (loaderId < ID_FORECAST_LOADER) {
+            throw new RuntimeException("Loader Not Implemented: " + loaderId);
         }
+
+        /*
+         * URI for a page of the rows of weather data in our weather table: the next
+         * PAGE_SIZE days after the last day of the page before
+         */
+        long afterDate = bundle != null
+                ? bundle.getLong(ARG_AFTER_DATE, Long.MIN_VALUE)
+                : Long.MIN_VALUE;
+        Uri forecastQueryUri = WeatherContract.buildPageUri(
+                WeatherContract.WeatherEntry.CONTENT_URI, afterDate, PAGE_SIZE);
+        /* Sort order: Ascending by date */
+        String sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+        /*
+         * A SELECTION in SQL declares which rows you'd like to return. In our case, we
+         * want all weather data from today onwards that is stored in our weather table.
+         * We created a handy method to do that in our WeatherEntry class.
+         */
+        String selection = WeatherContract.WeatherEntry.getSqlSelectForTodayOnwards();
+
+        return new CursorLoader(this,
+                forecastQueryUri,
+                MAIN_FORECAST_PROJECTION,
+                selection,
+                null,
+                sortOrder);
     }
 
     /**
@@ -236,7 +266,12 @@ public class MainActivity extends AppCompatActivity implements
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
 
 
-        mForecastAdapter.swapCursor(data);
+        int page = loader.getId() - ID_FORECAST_LOADER;
+        mForecastAdapter.swapPage(page, getAfterDate(loader), data);
+        if (page != 0) {
+            return;
+        }
+
         if (mPosition == RecyclerView.NO_POSITION) mPosition = 0;
         mRecyclerView.smoothScrollToPosition(mPosition);
         if (data.getCount() != 0) showWeatherDataView();
@@ -254,7 +289,56 @@ public class MainActivity extends AppCompatActivity implements
          * Since this Loader's data is now invalid, we need to clear the Adapter that is
          * displaying the data.
          */
-        mForecastAdapter.swapCursor(null);
+        mForecastAdapter.swapPage(loader.getId() - ID_FORECAST_LOADER, getAfterDate(loader), null);
+    }
+
+    /* The date a page was loaded after, from the URI of its loader */
+    private static long getAfterDate(Loader<Cursor> loader) {
+        String after = ((CursorLoader) loader).getUri()
+                .getQueryParameter(WeatherContract.PARAM_AFTER);
+        return Long.parseLong(after);
+    }
+
+    /**
+     * Loads a page of the forecast after the first one. The loader is started once the
+     * RecyclerView is done with the scroll that asked for it, as its data may be delivered
+     * straight away.
+     *
+     * @param page      Index of the page
+     * @param afterDate Date of the last day of the page before
+     */
+    @Override
+    public void loadPage(final int page, long afterDate) {
+        final Bundle args = new Bundle();
+        args.putLong(ARG_AFTER_DATE, afterDate);
+        mRecyclerView.post(new Runnable() {
+            @Override
+            public void run() {
+                getSupportLoaderManager().restartLoader(ID_FORECAST_LOADER + page, args,
+                        MainActivity.this);
+            }
+        });
+    }
+
+    /**
+     * Destroys the loaders of pages that no longer follow the page before them. Like loadPage,
+     * this is posted, since the adapter may drop the very page whose load it is handling, and
+     * the two stay in the order the adapter asked for them.
+     *
+     * @param fromPage  Index of the first page
+     * @param pageCount Number of pages
+     */
+    @Override
+    public void dropPages(final int fromPage, final int pageCount) {
+        mRecyclerView.post(new Runnable() {
+            @Override
+            public void run() {
+                LoaderManager loaderManager = getSupportLoaderManager();
+                for (int page = fromPage; page < fromPage + pageCount; page++) {
+                    loaderManager.destroyLoader(ID_FORECAST_LOADER + page);
+                }
+            }
+        });
     }
 
     /**
@@ -16,6 +16,7 @@
 package com.example.android.sunshine;
 
 import android.app.Activity;
+import android.content.ContentResolver;
 import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.support.v7.preference.CheckBoxPreference;
@@ -26,7 +27,9 @@ import android.support.v7.preference.PreferenceScreen;
 
 import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.service.WearPayloadBuilder;
 import com.example.android.sunshine.sync.SunshineSyncUtils;
+import com.example.android.sunshine.utilities.NetworkUtils;
 
 /**
  * The SettingsFragment serves as the display for all of the user's settings. In Sunshine, the
@@ -72,6 +75,15 @@ public class SettingsFragment extends PreferenceFragmentCompat implements
                 setPreferenceSummary(p, value);
             }
         }
+
+        // without an API key the hourly forecast can't be downloaded, whatever the setting says
+        if (!NetworkUtils.isHourlyForecastAvailable()) {
+            CheckBoxPreference hourlyForecast = (CheckBoxPreference)
+                    findPreference(getString(R.string.pref_hourly_forecast_key));
+            hourlyForecast.setEnabled(false);
+            hourlyForecast.setSummaryOn(R.string.pref_hourly_forecast_unavailable);
+            hourlyForecast.setSummaryOff(R.string.pref_hourly_forecast_unavailable);
+        }
     }
 
     @Override
@@ -98,10 +110,37 @@ public class SettingsFragment extends PreferenceFragmentCompat implements
             // we've changed the location
             // Wipe out any potential PlacePicker latlng values so that we can use this text entry.
             SunshinePreferences.resetLocationCoordinates(activity);
+            // a saved location keeps its weather, so show what's stored for the new one right
+            // away, and only download it if that isn't fresh
+            activity.getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            SunshineSyncUtils.startImmediateSync(activity);
+        } else if (key.equals(getString(R.string.pref_saved_locations))) {
+            // download the locations that were added, the ones that were removed are dropped
             SunshineSyncUtils.startImmediateSync(activity);
         } else if (key.equals(getString(R.string.pref_units_key))) {
             // units have changed. update lists of weather entries accordingly
             activity.getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            // the watch has the temperatures in celsius, it only needs to know the new units
+            WearPayloadBuilder.publishUnits(activity);
+        } else if (key.equals(getString(R.string.pref_hourly_forecast_key))) {
+            // the stored daily weather may well be fresh, but there's no hourly forecast yet
+            if (SunshinePreferences.isHourlyForecastEnabled(activity)) {
+                SunshineSyncUtils.startImmediateSync(activity, true);
+            }
+        } else if (key.equals(getString(R.string.pref_keep_history_key))) {
+            if (SunshinePreferences.isHistoryEnabled(activity)) {
+                SunshineSyncUtils.scheduleHistoryCompaction(activity);
+            } else {
+                // nothing is archived anymore, so whatever was kept would only go stale
+                SunshineSyncUtils.cancelHistoryCompaction(activity);
+                final ContentResolver resolver = activity.getContentResolver();
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        resolver.delete(WeatherContract.HistoryEntry.CONTENT_URI, null, null);
+                    }
+                }).start();
+            }
         }
         Preference preference = findPreference(key);
         if (null != preference) {
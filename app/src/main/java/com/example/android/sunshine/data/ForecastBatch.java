@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.util.Arrays;
+
+/**
+ * A forecast of several days stored column by column in parallel primitive arrays. This is what
+ * the sync path fills while parsing and hands to {@link WeatherProvider}, so that the values of a
+ * day are never boxed into a {@link android.content.ContentValues} on their way to the database.
+ * <p>
+ * Days are addressed by their index, in the order they were added.
+ */
+public final class ForecastBatch implements Parcelable {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    /* The values of a day, one in each of the arrays below */
+    static final int VALUES_PER_DAY = 8;
+
+    private int mSize;
+
+    /* Coordinates of the location, as reported by the server, if it did */
+    private boolean mHasCoordinates;
+    private double mLatitude;
+    private double mLongitude;
+
+    /* Name of the location, as reported by the server, or null */
+    private String mCityName;
+
+    private long[] mDate;
+    private int[] mWeatherId;
+    private double[] mMinTemp;
+    private double[] mMaxTemp;
+    private double[] mHumidity;
+    private double[] mPressure;
+    private double[] mWindSpeed;
+    private double[] mDegrees;
+
+    public ForecastBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity Number of days this batch can hold before it has to grow its arrays
+     */
+    public ForecastBatch(int capacity) {
+        if (capacity < 1) capacity = 1;
+        mDate = new long[capacity];
+        mWeatherId = new int[capacity];
+        mMinTemp = new double[capacity];
+        mMaxTemp = new double[capacity];
+        mHumidity = new double[capacity];
+        mPressure = new double[capacity];
+        mWindSpeed = new double[capacity];
+        mDegrees = new double[capacity];
+    }
+
+    /**
+     * Appends a day to this batch.
+     *
+     * @param date      Normalized UTC date in milliseconds
+     * @param weatherId Weather ID as returned by the API
+     * @param minTemp   Min temperature in °C
+     * @param maxTemp   Max temperature in °C
+     * @param humidity  Humidity in percent
+     * @param pressure  Pressure
+     * @param windSpeed Wind speed
+     * @param degrees   Meteorological wind direction
+     */
+    public void add(long date, int weatherId, double minTemp, double maxTemp, double humidity,
+                    double pressure, double windSpeed, double degrees) {
+        if (mSize == mDate.length) {
+            grow();
+        }
+        mDate[mSize] = date;
+        mWeatherId[mSize] = weatherId;
+        mMinTemp[mSize] = minTemp;
+        mMaxTemp[mSize] = maxTemp;
+        mHumidity[mSize] = humidity;
+        mPressure[mSize] = pressure;
+        mWindSpeed[mSize] = windSpeed;
+        mDegrees[mSize] = degrees;
+        mSize++;
+    }
+
+    private void grow() {
+        int capacity = mDate.length * 2;
+        mDate = Arrays.copyOf(mDate, capacity);
+        mWeatherId = Arrays.copyOf(mWeatherId, capacity);
+        mMinTemp = Arrays.copyOf(mMinTemp, capacity);
+        mMaxTemp = Arrays.copyOf(mMaxTemp, capacity);
+        mHumidity = Arrays.copyOf(mHumidity, capacity);
+        mPressure = Arrays.copyOf(mPressure, capacity);
+        mWindSpeed = Arrays.copyOf(mWindSpeed, capacity);
+        mDegrees = Arrays.copyOf(mDegrees, capacity);
+    }
+
+    /**
+     * Records the coordinates of the location this forecast is for.
+     *
+     * @param latitude  Latitude of the location
+     * @param longitude Longitude of the location
+     */
+    public void setCoordinates(double latitude, double longitude) {
+        mLatitude = latitude;
+        mLongitude = longitude;
+        mHasCoordinates = true;
+    }
+
+    /**
+     * @return true if {@link #setCoordinates(double, double)} was called
+     */
+    public boolean hasCoordinates() {
+        return mHasCoordinates;
+    }
+
+    public double getLatitude() {
+        return mLatitude;
+    }
+
+    public double getLongitude() {
+        return mLongitude;
+    }
+
+    /**
+     * Records the name the server gave the location this forecast is for.
+     *
+     * @param cityName Name of the location
+     */
+    public void setCityName(String cityName) {
+        mCityName = cityName;
+    }
+
+    /**
+     * @return The name of the location, or null if the server didn't send one
+     */
+    public String getCityName() {
+        return mCityName;
+    }
+
+    /**
+     * @return The number of days in this batch
+     */
+    public int size() {
+        return mSize;
+    }
+
+    public long getDate(int index) {
+        return mDate[index];
+    }
+
+    public int getWeatherId(int index) {
+        return mWeatherId[index];
+    }
+
+    public double getMinTemp(int index) {
+        return mMinTemp[index];
+    }
+
+    public double getMaxTemp(int index) {
+        return mMaxTemp[index];
+    }
+
+    public double getHumidity(int index) {
+        return mHumidity[index];
+    }
+
+    public double getPressure(int index) {
+        return mPressure[index];
+    }
+
+    public double getWindSpeed(int index) {
+        return mWindSpeed[index];
+    }
+
+    public double getDegrees(int index) {
+        return mDegrees[index];
+    }
+
+    /*
+     * When WeatherProvider runs in the same process as the caller, which is always the case in
+     * Sunshine, the Bundle carrying this batch is handed over as is and none of the code below
+     * runs. It is only here so a batch can cross a process boundary if it ever has to.
+     */
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(mHasCoordinates ? 1 : 0);
+        dest.writeDouble(mLatitude);
+        dest.writeDouble(mLongitude);
+        dest.writeString(mCityName);
+        dest.writeInt(mSize);
+        for (int i = 0; i < mSize; i++) {
+            dest.writeLong(mDate[i]);
+            dest.writeInt(mWeatherId[i]);
+            dest.writeDouble(mMinTemp[i]);
+            dest.writeDouble(mMaxTemp[i]);
+            dest.writeDouble(mHumidity[i]);
+            dest.writeDouble(mPressure[i]);
+            dest.writeDouble(mWindSpeed[i]);
+            dest.writeDouble(mDegrees[i]);
+        }
+    }
+
+    public static final Creator<ForecastBatch> CREATOR = new Creator<ForecastBatch>() {
+        @Override
+        public ForecastBatch createFromParcel(Parcel in) {
+            boolean hasCoordinates = in.readInt() != 0;
+            double latitude = in.readDouble();
+            double longitude = in.readDouble();
+            String cityName = in.readString();
+            int size = in.readInt();
+            ForecastBatch batch = new ForecastBatch(size);
+            if (hasCoordinates) {
+                batch.setCoordinates(latitude, longitude);
+            }
+            batch.setCityName(cityName);
+            for (int i = 0; i < size; i++) {
+                batch.add(in.readLong(), in.readInt(), in.readDouble(), in.readDouble(),
+                        in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble());
+            }
+            return batch;
+        }
+
+        @Override
+        public ForecastBatch[] newArray(int size) {
+            return new ForecastBatch[size];
+        }
+    };
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+
+/**
+ * An immutable, in-memory copy of the weather of one location, sorted by date.
+ * {@link WeatherProvider} keeps the latest snapshot of each location it was asked about around
+ * and answers the queries every screen makes (today onwards, or a single date) from it, so SQLite
+ * is only read when a snapshot has to be built.
+ */
+final class ForecastSnapshot {
+
+    /* Every column of the weather table, in the order they were declared */
+    private static final String[] ALL_COLUMNS = {
+            WeatherEntry._ID,
+            WeatherEntry.COLUMN_LOCATION_ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES,
+    };
+
+    private static final int INDEX_ID = 0;
+    private static final int INDEX_LOCATION_ID = 1;
+    private static final int INDEX_DATE = 2;
+    private static final int INDEX_WEATHER_ID = 3;
+    private static final int INDEX_MIN_TEMP = 4;
+    private static final int INDEX_MAX_TEMP = 5;
+    private static final int INDEX_HUMIDITY = 6;
+    private static final int INDEX_PRESSURE = 7;
+    private static final int INDEX_WIND_SPEED = 8;
+    private static final int INDEX_DEGREES = 9;
+
+    private static final String SELECTION_LOCATION = WeatherEntry.COLUMN_LOCATION_ID + " = ?";
+
+    private final long mLocationId;
+    private final long[] mIds;
+    private final long[] mDates;
+    private final ForecastBatch mForecast;
+
+    private ForecastSnapshot(long locationId, long[] ids, ForecastBatch forecast) {
+        mLocationId = locationId;
+        mIds = ids;
+        mForecast = forecast;
+        mDates = new long[forecast.size()];
+        for (int i = 0; i < mDates.length; i++) {
+            mDates[i] = forecast.getDate(i);
+        }
+    }
+
+    /**
+     * Reads the weather of one location into a new snapshot. This is a range of the
+     * (location_id, date) index, which already has the rows in date order.
+     *
+     * @param db         Database to read from
+     * @param locationId _ID of the location
+     * @return The snapshot, which is empty if there is no such location
+     */
+    static ForecastSnapshot load(SQLiteDatabase db, long locationId) {
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME, ALL_COLUMNS, SELECTION_LOCATION,
+                new String[]{Long.toString(locationId)}, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            long[] ids = new long[cursor.getCount()];
+            ForecastBatch forecast = new ForecastBatch(cursor.getCount());
+            while (cursor.moveToNext()) {
+                ids[cursor.getPosition()] = cursor.getLong(INDEX_ID);
+                forecast.add(
+                        cursor.getLong(INDEX_DATE),
+                        cursor.getInt(INDEX_WEATHER_ID),
+                        cursor.getDouble(INDEX_MIN_TEMP),
+                        cursor.getDouble(INDEX_MAX_TEMP),
+                        cursor.getDouble(INDEX_HUMIDITY),
+                        cursor.getDouble(INDEX_PRESSURE),
+                        cursor.getDouble(INDEX_WIND_SPEED),
+                        cursor.getDouble(INDEX_DEGREES));
+            }
+            return new ForecastSnapshot(locationId, ids, forecast);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the days on or after the given date, sorted by date.
+     *
+     * @param fromDate   Normalized date of the first day to return
+     * @param limit      The most days to return
+     * @param projection Columns to return, or null for all of them
+     * @return A cursor over the matching days, or null if the projection names a column that
+     * isn't part of the weather table
+     */
+    Cursor queryFromDate(long fromDate, int limit, String[] projection) {
+        int[] columns = resolveProjection(projection);
+        if (columns == null) {
+            return null;
+        }
+
+        int first = Arrays.binarySearch(mDates, fromDate);
+        if (first < 0) {
+            first = -first - 1;
+        }
+        return buildCursor(projection, columns, first,
+                (int) Math.min(mDates.length, (long) first + limit));
+    }
+
+    /**
+     * Returns the day with the given date.
+     *
+     * @param date       Normalized date of the day to return
+     * @param projection Columns to return, or null for all of them
+     * @return A cursor holding the day, which is empty if there is no such day, or null if the
+     * projection names a column that isn't part of the weather table
+     */
+    Cursor queryDate(long date, String[] projection) {
+        int[] columns = resolveProjection(projection);
+        if (columns == null) {
+            return null;
+        }
+
+        int index = Arrays.binarySearch(mDates, date);
+        if (index < 0) {
+            return buildCursor(projection, columns, 0, 0);
+        }
+        return buildCursor(projection, columns, index, index + 1);
+    }
+
+    /**
+     * Returns the days with the given dates, sorted by date. Dates without weather are skipped.
+     *
+     * @param dates      Normalized dates of the days to return, sorted and without duplicates
+     * @param projection Columns to return, or null for all of them
+     * @return A cursor holding the days, or null if the projection names a column that isn't
+     * part of the weather table
+     */
+    Cursor queryDates(long[] dates, String[] projection) {
+        int[] columns = resolveProjection(projection);
+        if (columns == null) {
+            return null;
+        }
+
+        MatrixCursor cursor = new MatrixCursor(
+                projection != null ? projection : ALL_COLUMNS, dates.length);
+        Object[] row = new Object[columns.length];
+        int from = 0;
+        for (long date : dates) {
+            int index = Arrays.binarySearch(mDates, from, mDates.length, date);
+            if (index >= 0) {
+                addRow(cursor, columns, row, index);
+                from = index + 1;
+            } else {
+                from = -index - 1;
+            }
+        }
+        return cursor;
+    }
+
+    /*
+     * Maps each column of the projection to its index in ALL_COLUMNS.
+     */
+    private static int[] resolveProjection(String[] projection) {
+        if (projection == null) {
+            int[] columns = new int[ALL_COLUMNS.length];
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = i;
+            }
+            return columns;
+        }
+
+        int[] columns = new int[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            columns[i] = indexOfColumn(projection[i]);
+            if (columns[i] == -1) {
+                return null;
+            }
+        }
+        return columns;
+    }
+
+    private static int indexOfColumn(String column) {
+        for (int i = 0; i < ALL_COLUMNS.length; i++) {
+            if (ALL_COLUMNS[i].equalsIgnoreCase(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private MatrixCursor buildCursor(String[] projection, int[] columns, int from, int to) {
+        MatrixCursor cursor = new MatrixCursor(
+                projection != null ? projection : ALL_COLUMNS, to - from);
+
+        Object[] row = new Object[columns.length];
+        for (int i = from; i < to; i++) {
+            addRow(cursor, columns, row, i);
+        }
+        return cursor;
+    }
+
+    /* MatrixCursor copies the row, so the same array can be filled again for the next one */
+    private void addRow(MatrixCursor cursor, int[] columns, Object[] row, int index) {
+        for (int c = 0; c < columns.length; c++) {
+            row[c] = getValue(index, columns[c]);
+        }
+        cursor.addRow(row);
+    }
+
+    private Object getValue(int index, int column) {
+        switch (column) {
+            case INDEX_ID:
+                return mIds[index];
+            case INDEX_LOCATION_ID:
+                return mLocationId;
+            case INDEX_DATE:
+                return mDates[index];
+            case INDEX_WEATHER_ID:
+                return mForecast.getWeatherId(index);
+            case INDEX_MIN_TEMP:
+                return mForecast.getMinTemp(index);
+            case INDEX_MAX_TEMP:
+                return mForecast.getMaxTemp(index);
+            case INDEX_HUMIDITY:
+                return mForecast.getHumidity(index);
+            case INDEX_PRESSURE:
+                return mForecast.getPressure(index);
+            case INDEX_WIND_SPEED:
+                return mForecast.getWindSpeed(index);
+            case INDEX_DEGREES:
+                return mForecast.getDegrees(index);
+            default:
+                throw new IllegalArgumentException("Unknown column index " + column);
+        }
+    }
+}
@@ -0,0 +1,569 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.sunshine.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the days that drop out of the forecast, one table per month of history.
+ * <p>
+ * Splitting the history by month is what keeps it cheap. A query for a window of time only
+ * reads the months it overlaps, found through a small catalog table, and the weather table the
+ * app reads all the time never holds anything but the current forecast. Dropping the oldest
+ * month is a DROP TABLE rather than a DELETE of thousands of rows. Months are used rather than
+ * weeks because a week of one location is only seven rows, and that would make for a lot of
+ * tiny tables.
+ * <p>
+ * An instance archives rows for the duration of one transaction of {@link WeatherWriter}, and
+ * must be closed once that transaction is over. Reading and compacting the history are static.
+ */
+final class HistoryStore {
+
+    /* The catalog: one row per partition, with the window of dates it holds */
+    static final String TABLE_CATALOG = "history_partition";
+    private static final String COLUMN_TABLE_NAME = "table_name";
+    private static final String COLUMN_START_DATE = "start_date";
+    private static final String COLUMN_END_DATE = "end_date";
+    private static final String COLUMN_DOWNSAMPLED = "downsampled";
+
+    /* Days older than this are merged into one row per week by compact() */
+    private static final long DOWNSAMPLE_AFTER_MILLIS = TimeUnit.DAYS.toMillis(90);
+
+    /*
+     * What a row of history costs on disk, with its share of the (location_id, date) index and
+     * of the page overhead. Counting rows is far cheaper than measuring the pages of every
+     * partition, and the budget doesn't need to be exact.
+     */
+    private static final int ESTIMATED_ROW_BYTES = 96;
+
+    /* The columns of a partition, in the order they are bound to its INSERT statement */
+    private static final String[] COLUMNS = {
+            HistoryEntry.COLUMN_LOCATION_ID,
+            HistoryEntry.COLUMN_DATE,
+            HistoryEntry.COLUMN_WEATHER_ID,
+            HistoryEntry.COLUMN_MIN_TEMP,
+            HistoryEntry.COLUMN_MAX_TEMP,
+            HistoryEntry.COLUMN_HUMIDITY,
+            HistoryEntry.COLUMN_PRESSURE,
+            HistoryEntry.COLUMN_WIND_SPEED,
+            HistoryEntry.COLUMN_DEGREES,
+            HistoryEntry.COLUMN_DAYS,
+    };
+
+    private static final int INDEX_LOCATION_ID = 0;
+    private static final int INDEX_DATE = 1;
+    private static final int INDEX_WEATHER_ID = 2;
+    private static final int INDEX_MIN_TEMP = 3;
+    private static final int INDEX_MAX_TEMP = 4;
+    private static final int INDEX_HUMIDITY = 5;
+    private static final int INDEX_PRESSURE = 6;
+    private static final int INDEX_WIND_SPEED = 7;
+    private static final int INDEX_DEGREES = 8;
+    private static final int INDEX_DAYS = 9;
+
+    private static final String SELECTION_LOCATION_AND_RANGE =
+            HistoryEntry.COLUMN_LOCATION_ID + " = ? AND "
+                    + HistoryEntry.COLUMN_DATE + " >= ? AND "
+                    + HistoryEntry.COLUMN_DATE + " < ?";
+
+    private static final String SORT_ORDER_DATE = HistoryEntry.COLUMN_DATE + " ASC";
+
+    private final SQLiteDatabase mDb;
+
+    /* Days before this one are in the past, and are archived rather than simply deleted */
+    private final long mToday;
+
+    /* The INSERT statement of every partition written to during this transaction */
+    private final Map<String, SQLiteStatement> mInserts = new HashMap<>();
+
+    private int mArchivedRowCount;
+
+    HistoryStore(SQLiteDatabase db) {
+        mDb = db;
+        mToday = SunshineDateUtils.getNormalizedUtcDateForToday();
+    }
+
+    /**
+     * Creates the catalog. Partitions are created as the first day of their month is archived.
+     *
+     * @param db The database being created
+     */
+    static void createCatalog(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_CATALOG + " ("
+                + COLUMN_TABLE_NAME + " TEXT PRIMARY KEY, "
+                + COLUMN_START_DATE + " INTEGER NOT NULL, "
+                + COLUMN_END_DATE + " INTEGER NOT NULL, "
+                + COLUMN_DOWNSAMPLED + " INTEGER NOT NULL DEFAULT 0);");
+    }
+
+    /**
+     * Drops every partition and the catalog, whose name starts with the same prefix. The tables
+     * are found through sqlite_master rather than the catalog, so a partition the catalog lost
+     * track of goes too.
+     *
+     * @param db The database being upgraded
+     */
+    static void dropAll(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'table'"
+                + " AND name LIKE '" + HistoryEntry.PARTITION_PREFIX + "%'", null);
+        try {
+            while (cursor.moveToNext()) {
+                db.execSQL("DROP TABLE IF EXISTS " + cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @param date A normalized date
+     * @return true if the date is before today, so its weather belongs in the history
+     */
+    boolean isPast(long date) {
+        return date < mToday;
+    }
+
+    /**
+     * Adds a day of weather to the partition of its month, creating the partition if needed, and
+     * replaces what the history held for that day. The values are those of the weather table.
+     *
+     * @param locationId _ID of the location
+     * @param date       Normalized date of the day
+     */
+    void archive(long locationId, long date, int weatherId, double minTemp, double maxTemp,
+                 double humidity, double pressure, double windSpeed, double degrees) {
+        SQLiteStatement insert = getInsertStatement(date);
+        insert.bindLong(1 + INDEX_LOCATION_ID, locationId);
+        insert.bindLong(1 + INDEX_DATE, date);
+        insert.bindLong(1 + INDEX_WEATHER_ID, weatherId);
+        insert.bindDouble(1 + INDEX_MIN_TEMP, minTemp);
+        insert.bindDouble(1 + INDEX_MAX_TEMP, maxTemp);
+        insert.bindDouble(1 + INDEX_HUMIDITY, humidity);
+        insert.bindDouble(1 + INDEX_PRESSURE, pressure);
+        insert.bindDouble(1 + INDEX_WIND_SPEED, windSpeed);
+        insert.bindDouble(1 + INDEX_DEGREES, degrees);
+        insert.bindLong(1 + INDEX_DAYS, 1);
+        insert.executeInsert();
+        mArchivedRowCount++;
+    }
+
+    /**
+     * @return The number of days archived by this instance
+     */
+    int getArchivedRowCount() {
+        return mArchivedRowCount;
+    }
+
+    /**
+     * Releases the compiled statements. The store must not be used afterwards.
+     */
+    void close() {
+        for (SQLiteStatement insert : mInserts.values()) {
+            insert.close();
+        }
+        mInserts.clear();
+    }
+
+    private SQLiteStatement getInsertStatement(long date) {
+        long start = monthStart(date);
+        String table = partitionName(start);
+
+        SQLiteStatement insert = mInserts.get(table);
+        if (insert == null) {
+            long end = monthStart(start + 32 * SunshineDateUtils.DAY_IN_MILLIS);
+            createPartition(mDb, table, start, end);
+            insert = mDb.compileStatement(buildInsertSql(table));
+            mInserts.put(table, insert);
+        }
+        return insert;
+    }
+
+    private static void createPartition(SQLiteDatabase db, String table, long start, long end) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + table + " ("
+                + HistoryEntry._ID + " INTEGER PRIMARY KEY, "
+                + HistoryEntry.COLUMN_LOCATION_ID + " INTEGER NOT NULL, "
+                + HistoryEntry.COLUMN_DATE + " INTEGER NOT NULL, "
+                + HistoryEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, "
+                + HistoryEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, "
+                + HistoryEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, "
+                + HistoryEntry.COLUMN_HUMIDITY + " REAL NOT NULL, "
+                + HistoryEntry.COLUMN_PRESSURE + " REAL NOT NULL, "
+                + HistoryEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, "
+                + HistoryEntry.COLUMN_DEGREES + " REAL NOT NULL, "
+                + HistoryEntry.COLUMN_DAYS + " INTEGER NOT NULL DEFAULT 1, "
+                /* Also the index every query of a window of one location seeks into */
+                + " UNIQUE (" + HistoryEntry.COLUMN_LOCATION_ID + ", "
+                + HistoryEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);");
+
+        db.execSQL("INSERT OR IGNORE INTO " + TABLE_CATALOG + " ("
+                + COLUMN_TABLE_NAME + ", " + COLUMN_START_DATE + ", " + COLUMN_END_DATE
+                + ") VALUES ('" + table + "', " + start + ", " + end + ")");
+    }
+
+    private static String buildInsertSql(String table) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (i > 0) sql.append(", ");
+            sql.append(COLUMNS[i]);
+        }
+        sql.append(") VALUES (");
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (i > 0) sql.append(", ");
+            sql.append('?');
+        }
+        return sql.append(')').toString();
+    }
+
+    /* The first millisecond of the UTC month of the date */
+    private static long monthStart(long date) {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"), Locale.US);
+        calendar.setTimeInMillis(date);
+        calendar.set(Calendar.DAY_OF_MONTH, 1);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    private static String partitionName(long monthStart) {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"), Locale.US);
+        calendar.setTimeInMillis(monthStart);
+        return String.format(Locale.US, "%s%04d%02d", HistoryEntry.PARTITION_PREFIX,
+                calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH) + 1);
+    }
+
+    /**
+     * Returns the partitions that hold dates of a window, oldest first.
+     *
+     * @param db    The database
+     * @param start First date of the window, included
+     * @param end   Last date of the window, excluded
+     * @return The names of the partitions
+     */
+    private static List<String> findPartitions(SQLiteDatabase db, long start, long end) {
+        List<String> partitions = new ArrayList<>();
+        Cursor cursor = db.query(TABLE_CATALOG, new String[]{COLUMN_TABLE_NAME},
+                COLUMN_START_DATE + " < ? AND " + COLUMN_END_DATE + " > ?",
+                new String[]{Long.toString(end), Long.toString(start)},
+                null, null, COLUMN_START_DATE);
+        try {
+            while (cursor.moveToNext()) {
+                partitions.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return partitions;
+    }
+
+    /**
+     * Reads the history of one location in a window of dates. Only the partitions of the months
+     * the window overlaps are read, each through its (location_id, date) index.
+     *
+     * @param db            The database
+     * @param projection    The columns to return, or null for all of them
+     * @param locationId    _ID of the location
+     * @param start         First date of the window, included
+     * @param end           Last date of the window, excluded
+     * @param selection     Further restricts the rows, or null
+     * @param selectionArgs Arguments of the selection
+     * @param sortOrder     How the rows are sorted, or null to sort them by date
+     * @param limit         The most rows to return, or null for all of them
+     * @return A cursor over the rows
+     */
+    static Cursor query(SQLiteDatabase db, String[] projection, long locationId, long start,
+                        long end, String selection, String[] selectionArgs, String sortOrder,
+                        String limit) {
+        List<String> partitions = findPartitions(db, start, end);
+        if (partitions.isEmpty()) {
+            return new MatrixCursor(projection != null ? projection : allColumns());
+        }
+
+        /*
+         * Each partition is restricted to the window before the rows are put together, so the
+         * outer query only sorts and filters the rows of the window.
+         */
+        StringBuilder sql = new StringBuilder("SELECT ");
+        if (projection == null) {
+            sql.append('*');
+        } else {
+            for (int i = 0; i < projection.length; i++) {
+                if (i > 0) sql.append(", ");
+                sql.append(projection[i]);
+            }
+        }
+        sql.append(" FROM (");
+
+        String[] windowArgs = {
+                Long.toString(locationId), Long.toString(start), Long.toString(end)};
+        List<String> args = new ArrayList<>();
+        for (int i = 0; i < partitions.size(); i++) {
+            if (i > 0) sql.append(" UNION ALL ");
+            sql.append("SELECT * FROM ").append(partitions.get(i))
+                    .append(" WHERE ").append(SELECTION_LOCATION_AND_RANGE);
+            args.addAll(Arrays.asList(windowArgs));
+        }
+        sql.append(')');
+
+        if (selection != null) {
+            sql.append(" WHERE ").append(selection);
+            if (selectionArgs != null) {
+                args.addAll(Arrays.asList(selectionArgs));
+            }
+        }
+        sql.append(" ORDER BY ").append(sortOrder != null ? sortOrder : SORT_ORDER_DATE);
+        if (limit != null) {
+            sql.append(" LIMIT ").append(limit);
+        }
+
+        return db.rawQuery(sql.toString(), args.toArray(new String[args.size()]));
+    }
+
+    private static String[] allColumns() {
+        String[] columns = new String[COLUMNS.length + 1];
+        columns[0] = HistoryEntry._ID;
+        System.arraycopy(COLUMNS, 0, columns, 1, COLUMNS.length);
+        return columns;
+    }
+
+    /**
+     * Deletes the history of some locations from every partition.
+     *
+     * @param db          The database, inside the transaction deleting the locations
+     * @param inLocations An IN clause picking the _IDs of the locations, such as "IN (3, 4)"
+     * @param args        Arguments of the IN clause
+     */
+    static void deleteLocations(SQLiteDatabase db, String inLocations, String[] args) {
+        for (String partition : findPartitions(db, Long.MIN_VALUE, Long.MAX_VALUE)) {
+            db.delete(partition, HistoryEntry.COLUMN_LOCATION_ID + " " + inLocations, args);
+        }
+    }
+
+    /**
+     * Drops the whole history.
+     *
+     * @param db The database
+     * @return The number of rows that were dropped
+     */
+    static int deleteAll(SQLiteDatabase db) {
+        int rowsDeleted = 0;
+        db.beginTransaction();
+        try {
+            for (String partition : findPartitions(db, Long.MIN_VALUE, Long.MAX_VALUE)) {
+                rowsDeleted += dropPartition(db, partition);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return rowsDeleted;
+    }
+
+    private static int dropPartition(SQLiteDatabase db, String partition) {
+        int rows = (int) DatabaseUtils.queryNumEntries(db, partition);
+        db.execSQL("DROP TABLE IF EXISTS " + partition);
+        db.delete(TABLE_CATALOG, COLUMN_TABLE_NAME + " = ?", new String[]{partition});
+        return rows;
+    }
+
+    /**
+     * Compacts the history in two steps. Every month that ended more than
+     * {@link #DOWNSAMPLE_AFTER_MILLIS} ago is first downsampled to one row per location and
+     * week. Then, as long as the history is over the budget, its oldest month is dropped.
+     * <p>
+     * Each month is compacted in a transaction of its own, so a sync waiting to write the
+     * forecast is never held up for the whole compaction.
+     *
+     * @param db          The database
+     * @param now         The current time
+     * @param budgetBytes The size the history has to fit in
+     * @return The number of rows removed
+     */
+    static int compact(SQLiteDatabase db, long now, long budgetBytes) {
+        int rowsRemoved = 0;
+
+        Cursor old = db.query(TABLE_CATALOG, new String[]{COLUMN_TABLE_NAME, COLUMN_START_DATE},
+                COLUMN_END_DATE + " <= ? AND " + COLUMN_DOWNSAMPLED + " = 0",
+                new String[]{Long.toString(now - DOWNSAMPLE_AFTER_MILLIS)},
+                null, null, COLUMN_START_DATE);
+        try {
+            while (old.moveToNext()) {
+                rowsRemoved += downsample(db, old.getString(0), old.getLong(1));
+            }
+        } finally {
+            old.close();
+        }
+
+        List<String> partitions = findPartitions(db, Long.MIN_VALUE, Long.MAX_VALUE);
+        long[] rowCounts = new long[partitions.size()];
+        long totalRows = 0;
+        for (int i = 0; i < partitions.size(); i++) {
+            rowCounts[i] = DatabaseUtils.queryNumEntries(db, partitions.get(i));
+            totalRows += rowCounts[i];
+        }
+
+        /* Oldest first, and never the current month, which is still being written */
+        for (int i = 0; i < partitions.size() - 1
+                && totalRows * ESTIMATED_ROW_BYTES > budgetBytes; i++) {
+            db.beginTransaction();
+            try {
+                rowsRemoved += dropPartition(db, partitions.get(i));
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            totalRows -= rowCounts[i];
+        }
+
+        return rowsRemoved;
+    }
+
+    /**
+     * Merges the days of a partition into one row per location and week.
+     *
+     * @return The number of rows removed
+     */
+    private static int downsample(SQLiteDatabase db, String partition, long partitionStart) {
+        db.beginTransaction();
+        try {
+            List<Week> weeks = new ArrayList<>();
+            int rowsBefore = 0;
+
+            Cursor cursor = db.query(partition, COLUMNS, null, null, null, null,
+                    HistoryEntry.COLUMN_LOCATION_ID + ", " + HistoryEntry.COLUMN_DATE);
+            try {
+                Week week = null;
+                while (cursor.moveToNext()) {
+                    rowsBefore++;
+                    long locationId = cursor.getLong(INDEX_LOCATION_ID);
+                    long weekStart = Math.max(weekStart(cursor.getLong(INDEX_DATE)),
+                            partitionStart);
+                    if (week == null || week.mLocationId != locationId
+                            || week.mDate != weekStart) {
+                        week = new Week(locationId, weekStart);
+                        weeks.add(week);
+                    }
+                    week.add(cursor);
+                }
+            } finally {
+                cursor.close();
+            }
+
+            db.delete(partition, null, null);
+
+            SQLiteStatement insert = db.compileStatement(buildInsertSql(partition));
+            try {
+                for (Week week : weeks) {
+                    week.bind(insert);
+                    insert.executeInsert();
+                }
+            } finally {
+                insert.close();
+            }
+
+            db.execSQL("UPDATE " + TABLE_CATALOG + " SET " + COLUMN_DOWNSAMPLED + " = 1"
+                    + " WHERE " + COLUMN_TABLE_NAME + " = ?", new Object[]{partition});
+            db.setTransactionSuccessful();
+            return rowsBefore - weeks.size();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /* The Monday of the week of the date. The epoch was a Thursday. */
+    private static long weekStart(long date) {
+        long day = date / SunshineDateUtils.DAY_IN_MILLIS;
+        return (day - (day + 3) % 7) * SunshineDateUtils.DAY_IN_MILLIS;
+    }
+
+    /* The days of one location and week, merged as they are read */
+    private static final class Week {
+
+        final long mLocationId;
+        final long mDate;
+
+        private int mDays;
+        private double mMinTemp = Double.MAX_VALUE;
+        private double mMaxTemp = -Double.MAX_VALUE;
+        private double mHumidity;
+        private double mPressure;
+        private double mWindSpeed;
+        private double mDegrees;
+
+        /* How many days had each weather, to keep the most common one */
+        private final Map<Integer, Integer> mWeatherIds = new HashMap<>();
+
+        Week(long locationId, long date) {
+            mLocationId = locationId;
+            mDate = date;
+        }
+
+        void add(Cursor day) {
+            int days = day.getInt(INDEX_DAYS);
+            mDays += days;
+            mMinTemp = Math.min(mMinTemp, day.getDouble(INDEX_MIN_TEMP));
+            mMaxTemp = Math.max(mMaxTemp, day.getDouble(INDEX_MAX_TEMP));
+            mHumidity += day.getDouble(INDEX_HUMIDITY) * days;
+            mPressure += day.getDouble(INDEX_PRESSURE) * days;
+            mWindSpeed += day.getDouble(INDEX_WIND_SPEED) * days;
+            mDegrees += day.getDouble(INDEX_DEGREES) * days;
+
+            int weatherId = day.getInt(INDEX_WEATHER_ID);
+            Integer count = mWeatherIds.get(weatherId);
+            mWeatherIds.put(weatherId, (count != null ? count : 0) + days);
+        }
+
+        void bind(SQLiteStatement insert) {
+            int weatherId = 0;
+            int weatherIdDays = 0;
+            for (Map.Entry<Integer, Integer> entry : mWeatherIds.entrySet()) {
+                if (entry.getValue() > weatherIdDays) {
+                    weatherId = entry.getKey();
+                    weatherIdDays = entry.getValue();
+                }
+            }
+
+            insert.bindLong(1 + INDEX_LOCATION_ID, mLocationId);
+            insert.bindLong(1 + INDEX_DATE, mDate);
+            insert.bindLong(1 + INDEX_WEATHER_ID, weatherId);
+            insert.bindDouble(1 + INDEX_MIN_TEMP, mMinTemp);
+            insert.bindDouble(1 + INDEX_MAX_TEMP, mMaxTemp);
+            insert.bindDouble(1 + INDEX_HUMIDITY, mHumidity / mDays);
+            insert.bindDouble(1 + INDEX_PRESSURE, mPressure / mDays);
+            insert.bindDouble(1 + INDEX_WIND_SPEED, mWindSpeed / mDays);
+            insert.bindDouble(1 + INDEX_DEGREES, mDegrees / mDays);
+            insert.bindLong(1 + INDEX_DAYS, mDays);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.util.Arrays;
+
+/**
+ * The hourly counterpart of {@link ForecastBatch}: a forecast of one location, one entry per
+ * hour or per three hours, stored column by column in parallel primitive arrays. A location has
+ * about 24 times as many of these as it has days, so entries are never boxed on their way from
+ * the parser to the database.
+ * <p>
+ * Entries are addressed by their index, in the order they were added.
+ */
+public final class HourlyBatch implements Parcelable {
+
+    /* Five days of three hour periods, which is what the server usually sends */
+    private static final int DEFAULT_CAPACITY = 40;
+
+    private int mSize;
+
+    private long[] mTime;
+    private int[] mWeatherId;
+    private double[] mTemp;
+    private double[] mHumidity;
+    private double[] mPressure;
+    private double[] mWindSpeed;
+    private double[] mDegrees;
+
+    public HourlyBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity Number of entries this batch can hold before it has to grow its arrays
+     */
+    public HourlyBatch(int capacity) {
+        if (capacity < 1) capacity = 1;
+        mTime = new long[capacity];
+        mWeatherId = new int[capacity];
+        mTemp = new double[capacity];
+        mHumidity = new double[capacity];
+        mPressure = new double[capacity];
+        mWindSpeed = new double[capacity];
+        mDegrees = new double[capacity];
+    }
+
+    /**
+     * Appends an entry to this batch.
+     *
+     * @param time      Start of the period, in UTC milliseconds
+     * @param weatherId Weather ID as returned by the API
+     * @param temp      Temperature in °C
+     * @param humidity  Humidity in percent
+     * @param pressure  Pressure
+     * @param windSpeed Wind speed
+     * @param degrees   Meteorological wind direction
+     */
+    public void add(long time, int weatherId, double temp, double humidity, double pressure,
+                    double windSpeed, double degrees) {
+        if (mSize == mTime.length) {
+            grow();
+        }
+        mTime[mSize] = time;
+        mWeatherId[mSize] = weatherId;
+        mTemp[mSize] = temp;
+        mHumidity[mSize] = humidity;
+        mPressure[mSize] = pressure;
+        mWindSpeed[mSize] = windSpeed;
+        mDegrees[mSize] = degrees;
+        mSize++;
+    }
+
+    private void grow() {
+        int capacity = mTime.length * 2;
+        mTime = Arrays.copyOf(mTime, capacity);
+        mWeatherId = Arrays.copyOf(mWeatherId, capacity);
+        mTemp = Arrays.copyOf(mTemp, capacity);
+        mHumidity = Arrays.copyOf(mHumidity, capacity);
+        mPressure = Arrays.copyOf(mPressure, capacity);
+        mWindSpeed = Arrays.copyOf(mWindSpeed, capacity);
+        mDegrees = Arrays.copyOf(mDegrees, capacity);
+    }
+
+    /**
+     * @return The number of entries in this batch
+     */
+    public int size() {
+        return mSize;
+    }
+
+    public long getTime(int index) {
+        return mTime[index];
+    }
+
+    public int getWeatherId(int index) {
+        return mWeatherId[index];
+    }
+
+    public double getTemp(int index) {
+        return mTemp[index];
+    }
+
+    public double getHumidity(int index) {
+        return mHumidity[index];
+    }
+
+    public double getPressure(int index) {
+        return mPressure[index];
+    }
+
+    public double getWindSpeed(int index) {
+        return mWindSpeed[index];
+    }
+
+    public double getDegrees(int index) {
+        return mDegrees[index];
+    }
+
+    /* See ForecastBatch: in Sunshine a batch never actually crosses a process boundary */
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(mSize);
+        for (int i = 0; i < mSize; i++) {
+            dest.writeLong(mTime[i]);
+            dest.writeInt(mWeatherId[i]);
+            dest.writeDouble(mTemp[i]);
+            dest.writeDouble(mHumidity[i]);
+            dest.writeDouble(mPressure[i]);
+            dest.writeDouble(mWindSpeed[i]);
+            dest.writeDouble(mDegrees[i]);
+        }
+    }
+
+    public static final Creator<HourlyBatch> CREATOR = new Creator<HourlyBatch>() {
+        @Override
+        public HourlyBatch createFromParcel(Parcel in) {
+            int size = in.readInt();
+            HourlyBatch batch = new HourlyBatch(size);
+            for (int i = 0; i < size; i++) {
+                batch.add(in.readLong(), in.readInt(), in.readDouble(), in.readDouble(),
+                        in.readDouble(), in.readDouble(), in.readDouble());
+            }
+            return batch;
+        }
+
+        @Override
+        public HourlyBatch[] newArray(int size) {
+            return new HourlyBatch[size];
+        }
+    };
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import com.example.android.sunshine.data.WeatherContract.MetricsEntry;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * How long the operations of {@link WeatherProvider} take, as one latency histogram per
+ * operation and UriMatcher code, along with the rows and bytes they read or wrote.
+ * <p>
+ * Every counter lives in arrays allocated once, when the provider is created, and recording an
+ * operation is a few atomic additions into them: it takes no lock and allocates nothing, so the
+ * metrics are recorded in release builds too. Only reading them allocates. The counters of one
+ * operation aren't updated all at once, so a read made while operations complete may be off by
+ * the operations in flight.
+ */
+final class ProviderMetrics {
+
+    /* The operations, which index OPERATION_NAMES */
+    static final int OP_QUERY = 0;
+    static final int OP_INSERT = 1;
+    static final int OP_BULK_INSERT = 2;
+    static final int OP_UPDATE = 3;
+    static final int OP_DELETE = 4;
+    static final int OP_APPLY_BATCH = 5;
+    static final int OP_CALL = 6;
+
+    private static final String[] OPERATION_NAMES = {
+            "query", "insert", "bulkInsert", "update", "delete", "applyBatch", "call"};
+
+    /* The estimated size of a value read or written, see MetricsEntry.COLUMN_BYTES */
+    static final int BYTES_PER_VALUE = 8;
+
+    /*
+     * Bucket i holds the times above the bound of bucket i - 1, up to 2^(i + 6) microseconds:
+     * 64 us, 128 us and so on, up to about a second for the second to last bucket. The last
+     * bucket holds anything longer.
+     */
+    private static final int BUCKETS = 16;
+    private static final int FIRST_BUCKET_SHIFT = 6;
+
+    /* The totals kept for each operation besides its histogram */
+    private static final int FIELDS = 4;
+    private static final int FIELD_TOTAL_NANOS = 0;
+    private static final int FIELD_MAX_NANOS = 1;
+    private static final int FIELD_ROWS = 2;
+    private static final int FIELD_BYTES = 3;
+
+    private static final String[] COLUMNS = buildColumns();
+
+    /* Every code the provider records, sorted, so a code's index is found without allocating */
+    private final int[] mCodes;
+
+    /* BUCKETS counters, then FIELDS totals, for each operation of each code */
+    private final AtomicLongArray mBuckets;
+    private final AtomicLongArray mFields;
+
+    /**
+     * @param codes Every UriMatcher code the operations may be recorded under
+     */
+    ProviderMetrics(int[] codes) {
+        mCodes = codes.clone();
+        Arrays.sort(mCodes);
+        int slots = OPERATION_NAMES.length * mCodes.length;
+        mBuckets = new AtomicLongArray(slots * BUCKETS);
+        mFields = new AtomicLongArray(slots * FIELDS);
+    }
+
+    /**
+     * Records an operation that completed. Operations that throw aren't recorded.
+     *
+     * @param operation  One of the OP_ constants
+     * @param code       The UriMatcher code of the URI the operation was on
+     * @param startNanos System#nanoTime when the operation started
+     * @param rows       The rows it read or wrote
+     * @param bytes      The estimated size of those rows
+     */
+    void record(int operation, int code, long startNanos, long rows, long bytes) {
+        long nanos = System.nanoTime() - startNanos;
+        int index = Arrays.binarySearch(mCodes, code);
+        if (index < 0) {
+            return;
+        }
+        int slot = operation * mCodes.length + index;
+
+        mBuckets.incrementAndGet(slot * BUCKETS + bucketOf(nanos));
+
+        int fields = slot * FIELDS;
+        mFields.addAndGet(fields + FIELD_TOTAL_NANOS, nanos);
+        mFields.addAndGet(fields + FIELD_ROWS, rows);
+        mFields.addAndGet(fields + FIELD_BYTES, bytes);
+
+        long max = mFields.get(fields + FIELD_MAX_NANOS);
+        while (nanos > max && !mFields.compareAndSet(fields + FIELD_MAX_NANOS, max, nanos)) {
+            max = mFields.get(fields + FIELD_MAX_NANOS);
+        }
+    }
+
+    /**
+     * Sets every counter back to zero.
+     */
+    void reset() {
+        for (int i = 0; i < mBuckets.length(); i++) {
+            mBuckets.set(i, 0);
+        }
+        for (int i = 0; i < mFields.length(); i++) {
+            mFields.set(i, 0);
+        }
+    }
+
+    /**
+     * @return A cursor with the columns of {@link MetricsEntry}, one row per operation and code
+     * that was recorded at least once
+     */
+    Cursor newCursor() {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        long[] buckets = new long[BUCKETS];
+        for (int slot = 0; slot < OPERATION_NAMES.length * mCodes.length; slot++) {
+            long count = readBuckets(slot, buckets);
+            if (count == 0) {
+                continue;
+            }
+
+            int fields = slot * FIELDS;
+            long maxMicros = mFields.get(fields + FIELD_MAX_NANOS) / 1000;
+            MatrixCursor.RowBuilder row = cursor.newRow()
+                    .add(OPERATION_NAMES[slot / mCodes.length])
+                    .add(mCodes[slot % mCodes.length])
+                    .add(count)
+                    .add(mFields.get(fields + FIELD_TOTAL_NANOS) / 1000)
+                    .add(maxMicros)
+                    .add(percentile(buckets, count, 50, maxMicros))
+                    .add(percentile(buckets, count, 90, maxMicros))
+                    .add(percentile(buckets, count, 99, maxMicros))
+                    .add(mFields.get(fields + FIELD_ROWS))
+                    .add(mFields.get(fields + FIELD_BYTES));
+            for (long bucket : buckets) {
+                row.add(bucket);
+            }
+        }
+        return cursor;
+    }
+
+    /**
+     * Prints the metrics, one line per operation and code, for dumpsys.
+     *
+     * @param writer Where to print them
+     */
+    void dump(PrintWriter writer) {
+        Cursor cursor = newCursor();
+        try {
+            writer.println("Provider metrics (operation code: count, total, max, p50/p90/p99,"
+                    + " rows, bytes, histogram):");
+            if (cursor.getCount() == 0) {
+                writer.println("  nothing recorded");
+            }
+            while (cursor.moveToNext()) {
+                writer.print("  " + cursor.getString(0) + " " + cursor.getInt(1) + ": "
+                        + cursor.getLong(2) + ", " + cursor.getLong(3) + " us, "
+                        + cursor.getLong(4) + " us, " + cursor.getLong(5) + "/"
+                        + cursor.getLong(6) + "/" + cursor.getLong(7) + " us, "
+                        + cursor.getLong(8) + " rows, " + cursor.getLong(9) + " bytes,");
+                for (int i = 0; i < BUCKETS; i++) {
+                    writer.print(" " + cursor.getLong(COLUMNS.length - BUCKETS + i));
+                }
+                writer.println();
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /* The bucket of a time, 0 for up to 64 us, then one per power of two */
+    static int bucketOf(long nanos) {
+        long micros = nanos / 1000;
+        if (micros <= (1L << FIRST_BUCKET_SHIFT)) {
+            return 0;
+        }
+        int bucket = 64 - Long.numberOfLeadingZeros(micros - 1) - FIRST_BUCKET_SHIFT;
+        return Math.min(bucket, BUCKETS - 1);
+    }
+
+    /* Copies the histogram of a slot into buckets and returns how many operations it holds */
+    private long readBuckets(int slot, long[] buckets) {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = mBuckets.get(slot * BUCKETS + i);
+            count += buckets[i];
+        }
+        return count;
+    }
+
+    /* The upper bound of the bucket a percentile falls in, or the maximum for the last one */
+    private static long percentile(long[] buckets, long count, int percent, long maxMicros) {
+        long rank = (count * percent + 99) / 100;
+        long seen = 0;
+        for (int i = 0; i < BUCKETS - 1; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return Math.min(1L << (i + FIRST_BUCKET_SHIFT), maxMicros);
+            }
+        }
+        return maxMicros;
+    }
+
+    private static String[] buildColumns() {
+        String[] fixed = {
+                MetricsEntry.COLUMN_OPERATION,
+                MetricsEntry.COLUMN_URI_CODE,
+                MetricsEntry.COLUMN_COUNT,
+                MetricsEntry.COLUMN_TOTAL_MICROS,
+                MetricsEntry.COLUMN_MAX_MICROS,
+                MetricsEntry.COLUMN_P50_MICROS,
+                MetricsEntry.COLUMN_P90_MICROS,
+                MetricsEntry.COLUMN_P99_MICROS,
+                MetricsEntry.COLUMN_ROWS,
+                MetricsEntry.COLUMN_BYTES,
+        };
+        String[] columns = Arrays.copyOf(fixed, fixed.length + BUCKETS);
+        for (int i = 0; i < BUCKETS; i++) {
+            columns[fixed.length + i] = MetricsEntry.BUCKET_COLUMN_PREFIX + (i < BUCKETS - 1
+                    ? Long.toString(1L << (i + FIRST_BUCKET_SHIFT))
+                    : "inf");
+        }
+        return columns;
+    }
+}
@@ -20,6 +20,13 @@ import android.content.SharedPreferences;
 import android.preference.PreferenceManager;
 
 import com.example.android.sunshine.R;
+import com.example.android.sunshine.utilities.NetworkUtils;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 
 public final class SunshinePreferences {
 
@@ -185,6 +192,61 @@ public final class SunshinePreferences {
         return shouldDisplayNotifications;
     }
 
+    /**
+     * Returns true if the user wants the hourly forecast to be downloaded along with the daily
+     * one. It is several times bigger, so it is off unless the user turns it on within the
+     * SettingsFragment. It is always off in a build without an OpenWeatherMap API key, see
+     * {@link NetworkUtils#isHourlyForecastAvailable()}.
+     *
+     * @param context Used to access SharedPreferences
+     * @return true if the hourly forecast should be synced
+     */
+    public static boolean isHourlyForecastEnabled(Context context) {
+        if (!NetworkUtils.isHourlyForecastAvailable()) {
+            return false;
+        }
+
+        String hourlyForecastKey = context.getString(R.string.pref_hourly_forecast_key);
+        boolean downloadHourlyForecastByDefault = context
+                .getResources()
+                .getBoolean(R.bool.download_hourly_forecast_by_default);
+
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        return sp.getBoolean(hourlyForecastKey, downloadHourlyForecastByDefault);
+    }
+
+    /**
+     * Returns true if the user wants the past days of the forecast to be kept once they drop out
+     * of it. Off unless the user turns it on within the SettingsFragment.
+     *
+     * @param context Used to access SharedPreferences
+     * @return true if past days should be archived in the forecast history
+     */
+    public static boolean isHistoryEnabled(Context context) {
+        String keepHistoryKey = context.getString(R.string.pref_keep_history_key);
+        boolean keepHistoryByDefault = context
+                .getResources()
+                .getBoolean(R.bool.keep_history_by_default);
+
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        return sp.getBoolean(keepHistoryKey, keepHistoryByDefault);
+    }
+
+    /**
+     * Returns how much storage the forecast history may take, as chosen by the user. The
+     * history is compacted down to this size in the background.
+     *
+     * @param context Used to access SharedPreferences
+     * @return The size budget of the forecast history, in bytes
+     */
+    public static long getHistorySizeBudgetBytes(Context context) {
+        String budgetKey = context.getString(R.string.pref_history_budget_key);
+        String defaultBudget = context.getString(R.string.pref_history_budget_value_4mb);
+
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        return Long.parseLong(sp.getString(budgetKey, defaultBudget));
+    }
+
     /**
      * Returns the last time that a notification was shown (in UNIX time)
      *
@@ -242,4 +304,83 @@ public final class SunshinePreferences {
         editor.putLong(lastNotificationKey, timeOfNotification);
         editor.apply();
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns the URL the stored weather was downloaded from.
+     *
+     * @param context Used to access SharedPreferences
+     * @return The URL of the last successful sync, or null if there hasn't been one
+     */
+    public static String getLastSyncUrl(Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        String lastSyncUrlKey = context.getString(R.string.pref_last_sync_url);
+        return sp.getString(lastSyncUrlKey, null);
+    }
+
+    /**
+     * Saves the URL the stored weather was downloaded from. A sync only asks the server whether
+     * the weather changed when it requests that same URL.
+     *
+     * @param context Used to access SharedPreferences
+     * @param url URL of the sync to save
+     */
+    public static void saveLastSyncUrl(Context context, String url) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        SharedPreferences.Editor editor = sp.edit();
+        String lastSyncUrlKey = context.getString(R.string.pref_last_sync_url);
+        editor.putString(lastSyncUrlKey, url);
+        editor.apply();
+    }
+
+    /*
+     * The saved locations are stored as a single String, one location per line, the way the user
+     * types them into the SettingsFragment, so that they keep their order.
+     */
+    private static final String SAVED_LOCATIONS_SEPARATOR = "\n";
+
+    /**
+     * Returns the locations the user saved besides the preferred one, in the order they were
+     * entered within the SettingsFragment. The weather of all of them is downloaded on every
+     * sync.
+     *
+     * @param context Used to access SharedPreferences
+     * @return The saved location queries, which may be empty
+     */
+    public static List<String> getSavedLocations(Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        String savedLocationsKey = context.getString(R.string.pref_saved_locations);
+        String savedLocations = sp.getString(savedLocationsKey, "");
+
+        List<String> locations = new ArrayList<>();
+        for (String location : savedLocations.split(SAVED_LOCATIONS_SEPARATOR)) {
+            location = location.trim();
+            if (!location.isEmpty()) {
+                locations.add(location);
+            }
+        }
+        return locations;
+    }
+
+    /**
+     * Returns every location whose weather is synced: the preferred location first, then the
+     * saved locations other than the preferred one. A location the user typed twice, in any case,
+     * is only synced once.
+     *
+     * @param context Used to access SharedPreferences
+     * @return The location queries, never empty
+     */
+    public static List<String> getSyncedLocations(Context context) {
+        String preferredLocation = getPreferredWeatherLocation(context);
+
+        List<String> locations = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        locations.add(preferredLocation);
+        seen.add(preferredLocation.toLowerCase(Locale.US));
+        for (String location : getSavedLocations(context)) {
+            if (seen.add(location.toLowerCase(Locale.US))) {
+                locations.add(location);
+            }
+        }
+        return locations;
+    }
+}
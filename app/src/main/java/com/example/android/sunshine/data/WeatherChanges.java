@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.support.v4.util.LongSparseArray;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The days of weather a write touched, by location. {@link WeatherWriter} fills it while the
+ * transaction runs, and once the transaction committed {@link WeatherProvider} tells the
+ * observers of those days, and only those, that they changed.
+ * <p>
+ * Notifying CONTENT_URI would also notify every URI below it, so the detail screen of a day
+ * would reload whichever day a sync wrote. Each day's URI is notified instead, followed by a
+ * single notification of {@link WeatherEntry#CHANGES_URI}, which is where the forecast lists and
+ * the statistics listen.
+ */
+final class WeatherChanges {
+
+    /* Dates touched by the write, in order, by location _ID */
+    private final LongSparseArray<Set<Long>> mDates = new LongSparseArray<>();
+
+    /**
+     * Records that the weather of a location on a day was inserted, updated or deleted.
+     *
+     * @param locationId _ID of the location
+     * @param date       Normalized date of the day
+     */
+    void add(long locationId, long date) {
+        Set<Long> dates = mDates.get(locationId);
+        if (dates == null) {
+            dates = new TreeSet<>();
+            mDates.put(locationId, dates);
+        }
+        dates.add(date);
+    }
+
+    /**
+     * Records every day another write touched as well, when several writes are notified as one.
+     *
+     * @param other The days the other write touched
+     */
+    void addAll(WeatherChanges other) {
+        for (int i = 0; i < other.mDates.size(); i++) {
+            long locationId = other.mDates.keyAt(i);
+            for (long date : other.mDates.valueAt(i)) {
+                add(locationId, date);
+            }
+        }
+    }
+
+    /**
+     * @return true if the write didn't touch any weather
+     */
+    boolean isEmpty() {
+        return mDates.size() == 0;
+    }
+
+    /**
+     * @return The _IDs of the locations whose weather was touched
+     */
+    long[] getLocationIds() {
+        long[] locationIds = new long[mDates.size()];
+        for (int i = 0; i < locationIds.length; i++) {
+            locationIds[i] = mDates.keyAt(i);
+        }
+        return locationIds;
+    }
+
+    /**
+     * Notifies the URI of every day that was touched, then CHANGES_URI once. The days of the
+     * preferred location are also notified under the URIs without a location, which are the
+     * ones the detail screen queries. This has to be called after the write has committed.
+     *
+     * @param resolver            Used to notify the observers
+     * @param preferredLocationId _ID of the preferred location, or -1
+     */
+    void notifyObservers(ContentResolver resolver, long preferredLocationId) {
+        if (isEmpty()) {
+            return;
+        }
+
+        for (int i = 0; i < mDates.size(); i++) {
+            long locationId = mDates.keyAt(i);
+            for (long date : mDates.valueAt(i)) {
+                resolver.notifyChange(
+                        WeatherEntry.buildWeatherUriWithLocationAndDate(locationId, date), null);
+                if (locationId == preferredLocationId) {
+                    resolver.notifyChange(WeatherEntry.buildWeatherUriWithDate(date), null);
+                }
+            }
+        }
+
+        resolver.notifyChange(WeatherEntry.CHANGES_URI, null);
+    }
+}
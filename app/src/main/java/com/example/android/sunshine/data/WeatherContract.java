@@ -56,6 +56,471 @@ public class WeatherContract {
      */
     public static final String PATH_WEATHER = "weather";
 
+    /*
+     * Path of the location table, and the path segment that picks one location's weather out of
+     * PATH_WEATHER:
+     *
+     *     content://com.example.android.sunshine/location/3
+     *     content://com.example.android.sunshine/weather/location/3/date/1472169600000
+     *
+     * PATH_WEATHER on its own, and PATH_WEATHER followed by a date, are the weather of the
+     * preferred location.
+     */
+    public static final String PATH_LOCATION = "location";
+    public static final String PATH_DATE = "date";
+
+    /*
+     * Path segment that picks several days out of PATH_WEATHER at once. It is followed by a
+     * single segment holding the normalized dates, separated by commas:
+     *
+     *     content://com.example.android.sunshine/weather/dates/1472169600000,1472342400000
+     *     content://com.example.android.sunshine/weather/location/3/dates/1472169600000
+     */
+    public static final String PATH_DATES = "dates";
+
+    /* Separates the dates of a PATH_DATES segment */
+    public static final String DATES_SEPARATOR = ",";
+
+    /* Path segment, after PATH_WEATHER, of the URI notified once for every write of weather */
+    public static final String PATH_CHANGES = "changes";
+
+    /*
+     * Path of the hourly forecast, and the path segment that picks a window of time out of it:
+     *
+     *     content://com.example.android.sunshine/hourly/range/<start>/<end>
+     *     content://com.example.android.sunshine/hourly/location/3/range/<start>/<end>
+     *
+     * A range is [start, end), in UTC milliseconds.
+     */
+    public static final String PATH_HOURLY = "hourly";
+    public static final String PATH_RANGE = "range";
+
+    /*
+     * Path of the forecast history, which takes the same range segments as PATH_HOURLY:
+     *
+     *     content://com.example.android.sunshine/history/location/3/range/<start>/<end>
+     */
+    public static final String PATH_HISTORY = "history";
+
+    /*
+     * Path segment of the weather statistics, which follows PATH_WEATHER or the location of a
+     * weather URI, and the periods they can be grouped by:
+     *
+     *     content://com.example.android.sunshine/weather/stats/week
+     *     content://com.example.android.sunshine/weather/location/3/stats/range/<start>/<end>
+     */
+    public static final String PATH_STATS = "stats";
+    public static final String PATH_WEEK = "week";
+    public static final String PATH_MONTH = "month";
+
+    /*
+     * Query parameters that page through the weather of a location, or its history, in date
+     * order:
+     *
+     *     content://com.example.android.sunshine/weather?after=1472169600000&limit=30
+     *
+     * The page holds at most PARAM_LIMIT rows, the first ones dated after PARAM_AFTER. The next
+     * page is the one after the date of the last row. SQLite finds it with a seek into the
+     * (location_id, date) index however deep into the rows it is, where an OFFSET would have it
+     * step over every row before it. Pages are always sorted by date.
+     */
+    public static final String PARAM_AFTER = "after";
+    public static final String PARAM_LIMIT = "limit";
+
+    /* Path of the timings of WeatherProvider's own operations, in debug builds only */
+    public static final String PATH_METRICS = "metrics";
+
+    /*
+     * Methods that can be passed to ContentResolver#call on CONTENT_URI. They give the sync path
+     * a way to hand WeatherProvider a ForecastBatch directly, rather than an array of
+     * ContentValues.
+     */
+
+    /*
+     * Inserts the ForecastBatch stored under EXTRA_FORECAST_BATCH as weather of the preferred
+     * location. The returned Bundle holds the number of rows inserted under EXTRA_ROW_COUNT.
+     */
+    public static final String METHOD_BULK_INSERT_FORECAST = "bulkInsertForecast";
+
+    /*
+     * Replaces the stored forecast of a location with the ForecastBatch stored under
+     * EXTRA_FORECAST_BATCH, in a single transaction. The location key is passed as the arg of
+     * ContentResolver#call, or null for the preferred location, and the location is added to the
+     * location table if it isn't there yet. Only days whose values changed are written, and days
+     * missing from the batch are removed. The returned Bundle holds the number of rows updated,
+     * inserted or deleted under EXTRA_ROW_COUNT.
+     */
+    public static final String METHOD_REPLACE_FORECAST = "replaceForecast";
+
+    /*
+     * Replaces the stored forecast of several locations in a single transaction, each one the
+     * way METHOD_REPLACE_FORECAST does it. EXTRA_LOCATION_KEYS holds the locations and
+     * EXTRA_FORECAST_BATCHES their new forecasts, in the same order. A null batch means the
+     * forecast of that location is still current: nothing is written but its sync time. The
+     * returned Bundle holds the total number of rows updated, inserted or deleted under
+     * EXTRA_ROW_COUNT.
+     */
+    public static final String METHOD_REPLACE_FORECASTS = "replaceForecasts";
+
+    /*
+     * Optional extra of METHOD_REPLACE_FORECASTS: the new hourly forecasts of the same locations,
+     * as an array of HourlyBatch in the order of EXTRA_LOCATION_KEYS. They are written in the
+     * same transaction as the daily forecasts. A null batch leaves the hourly forecast of that
+     * location alone.
+     */
+    public static final String EXTRA_HOURLY_BATCHES = "hourly_batches";
+
+    /*
+     * Downsamples the old part of the forecast history and drops its oldest months until it
+     * fits in the budget stored under EXTRA_SIZE_BUDGET_BYTES. The returned Bundle holds the
+     * number of history rows removed under EXTRA_ROW_COUNT.
+     */
+    public static final String METHOD_COMPACT_HISTORY = "compactHistory";
+
+    /* Key of the size, in bytes, the forecast history has to fit in after METHOD_COMPACT_HISTORY */
+    public static final String EXTRA_SIZE_BUDGET_BYTES = "size_budget_bytes";
+
+    /* Key of the ForecastBatch in the extras passed to ContentResolver#call */
+    public static final String EXTRA_FORECAST_BATCH = "forecast_batch";
+
+    /* Keys of the ForecastBatch array and the matching location keys of METHOD_REPLACE_FORECASTS */
+    public static final String EXTRA_FORECAST_BATCHES = "forecast_batches";
+    public static final String EXTRA_LOCATION_KEYS = "location_keys";
+
+    /* Key of the number of affected rows in the Bundle returned from ContentResolver#call */
+    public static final String EXTRA_ROW_COUNT = "row_count";
+
+    /**
+     * Builds the URI of a page of a weather or history URI, such as
+     * {@link WeatherEntry#CONTENT_URI} or one built by
+     * {@link HistoryEntry#buildHistoryUriWithRange(long, long)}.
+     *
+     * @param uri       The URI to page through
+     * @param afterDate The date of the last row of the previous page, or Long.MIN_VALUE for the
+     *                  first page
+     * @param limit     The most rows the page holds
+     * @return Uri to query the page, which takes the same selections as the URI
+     */
+    public static Uri buildPageUri(Uri uri, long afterDate, int limit) {
+        return uri.buildUpon()
+                .appendQueryParameter(PARAM_AFTER, Long.toString(afterDate))
+                .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit))
+                .build();
+    }
+
+    /* Inner class that defines the table contents of the location table */
+    public static final class LocationEntry implements BaseColumns {
+
+        /* The base CONTENT_URI used to query the location table from the content provider */
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_LOCATION)
+                .build();
+
+        /* Used internally as the name of our location table. */
+        public static final String TABLE_NAME = "location";
+
+        /*
+         * The location as the user typed it, which is what we send to the weather server. It is
+         * unique, ignoring case, so this is how a location is found again on every sync.
+         */
+        public static final String COLUMN_LOCATION_KEY = "location_key";
+
+        /* Latitude and longitude of the location, as sent by the weather server */
+        public static final String COLUMN_COORD_LAT = "coord_lat";
+        public static final String COLUMN_COORD_LONG = "coord_long";
+
+        /* Name of the city, as sent by the weather server */
+        public static final String COLUMN_DISPLAY_NAME = "display_name";
+
+        /* When the forecast of this location was last synced (in UNIX time), or 0 if never */
+        public static final String COLUMN_LAST_SYNC = "last_sync";
+
+        /**
+         * Builds a URI that points at a single row of the location table.
+         *
+         * @param locationId _ID of the location
+         * @return Uri of the location
+         */
+        public static Uri buildLocationUri(long locationId) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(Long.toString(locationId))
+                    .build();
+        }
+    }
+
+    /* Inner class that defines the table contents of the hourly forecast table */
+    public static final class HourlyEntry implements BaseColumns {
+
+        /* The base CONTENT_URI used to query the hourly table from the content provider */
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_HOURLY)
+                .build();
+
+        /* Used internally as the name of our hourly table. */
+        public static final String TABLE_NAME = "hourly";
+
+        /* The _ID of the location this row is the forecast of */
+        public static final String COLUMN_LOCATION_ID = "location_id";
+
+        /*
+         * Start of the period this row forecasts, in UTC milliseconds. Unlike the date of the
+         * weather table, this is not normalized to a day: the server sends a row every hour or
+         * every three hours, and the time is stored as it was sent.
+         */
+        public static final String COLUMN_TIME = "time";
+
+        /* Weather ID as returned by API, used to identify the icon to be used */
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+
+        /* Temperature in °C at that time */
+        public static final String COLUMN_TEMP = "temp";
+
+        /* Same units as the matching columns of the weather table */
+        public static final String COLUMN_HUMIDITY = "humidity";
+        public static final String COLUMN_PRESSURE = "pressure";
+        public static final String COLUMN_WIND_SPEED = "wind";
+        public static final String COLUMN_DEGREES = "degrees";
+
+        /**
+         * Builds a URI for the hourly forecast of the preferred location between two times.
+         *
+         * @param start First time of the window, in UTC milliseconds, included
+         * @param end   Last time of the window, in UTC milliseconds, excluded
+         * @return Uri to query the hourly forecast of that window, sorted by time
+         */
+        public static Uri buildHourlyUriWithRange(long start, long end) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_RANGE)
+                    .appendPath(Long.toString(start))
+                    .appendPath(Long.toString(end))
+                    .build();
+        }
+
+        /**
+         * Builds a URI for the hourly forecast of one location between two times.
+         *
+         * @param locationId _ID of the location, from the location table
+         * @param start      First time of the window, in UTC milliseconds, included
+         * @param end        Last time of the window, in UTC milliseconds, excluded
+         * @return Uri to query the hourly forecast of that window, sorted by time
+         */
+        public static Uri buildHourlyUriWithLocationAndRange(long locationId, long start,
+                                                             long end) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_LOCATION)
+                    .appendPath(Long.toString(locationId))
+                    .appendPath(PATH_RANGE)
+                    .appendPath(Long.toString(start))
+                    .appendPath(Long.toString(end))
+                    .build();
+        }
+    }
+
+    /*
+     * Inner class that defines the contents of the forecast history. The history isn't a single
+     * table: each month of it is a table of its own, named PARTITION_PREFIX followed by the year
+     * and month, such as history_201609. Past days only ever go into these tables, never into
+     * the weather table, so the forecast list doesn't get any slower as the history grows.
+     * <p>
+     * Every partition has the columns of the weather table, plus COLUMN_DAYS.
+     */
+    public static final class HistoryEntry implements BaseColumns {
+
+        /* The base CONTENT_URI used to query the history from the content provider */
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_HISTORY)
+                .build();
+
+        /* Prefix of the name of every partition of the history */
+        public static final String PARTITION_PREFIX = "history_";
+
+        /* Same meaning as the columns of the weather table with the same names */
+        public static final String COLUMN_LOCATION_ID = WeatherEntry.COLUMN_LOCATION_ID;
+        public static final String COLUMN_DATE = WeatherEntry.COLUMN_DATE;
+        public static final String COLUMN_WEATHER_ID = WeatherEntry.COLUMN_WEATHER_ID;
+        public static final String COLUMN_MIN_TEMP = WeatherEntry.COLUMN_MIN_TEMP;
+        public static final String COLUMN_MAX_TEMP = WeatherEntry.COLUMN_MAX_TEMP;
+        public static final String COLUMN_HUMIDITY = WeatherEntry.COLUMN_HUMIDITY;
+        public static final String COLUMN_PRESSURE = WeatherEntry.COLUMN_PRESSURE;
+        public static final String COLUMN_WIND_SPEED = WeatherEntry.COLUMN_WIND_SPEED;
+        public static final String COLUMN_DEGREES = WeatherEntry.COLUMN_DEGREES;
+
+        /*
+         * Number of days the row stands for. A day is archived on its own, but once it is a few
+         * months old it is merged with the other days of its week into a single row, whose date
+         * is the first of those days. The min and max temperatures are then the lowest and
+         * highest of the week, and the other values are averages.
+         */
+        public static final String COLUMN_DAYS = "days";
+
+        /**
+         * Builds a URI for the history of the preferred location between two dates.
+         *
+         * @param start First date of the window, normalized, included
+         * @param end   Last date of the window, normalized, excluded
+         * @return Uri to query the history of that window, sorted by date
+         */
+        public static Uri buildHistoryUriWithRange(long start, long end) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_RANGE)
+                    .appendPath(Long.toString(start))
+                    .appendPath(Long.toString(end))
+                    .build();
+        }
+
+        /**
+         * Builds a URI for the history of one location between two dates.
+         *
+         * @param locationId _ID of the location, from the location table
+         * @param start      First date of the window, normalized, included
+         * @param end        Last date of the window, normalized, excluded
+         * @return Uri to query the history of that window, sorted by date
+         */
+        public static Uri buildHistoryUriWithLocationAndRange(long locationId, long start,
+                                                              long end) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_LOCATION)
+                    .appendPath(Long.toString(locationId))
+                    .appendPath(PATH_RANGE)
+                    .appendPath(Long.toString(start))
+                    .appendPath(Long.toString(end))
+                    .build();
+        }
+    }
+
+    /*
+     * Inner class that defines the columns of the weather statistics. There is no table behind
+     * them: each row sums up the weather of a period of one location, computed by SQLite from
+     * the weather table. The temperatures are the extremes of the period, the humidity,
+     * pressure and wind speed its averages, and the weather ID the one most of its days had.
+     */
+    public static final class StatsEntry implements BaseColumns {
+
+        /* The statistics of the preferred location, one row per week or per calendar month */
+        public static final Uri WEEKLY_URI = WeatherEntry.CONTENT_URI.buildUpon()
+                .appendPath(PATH_STATS)
+                .appendPath(PATH_WEEK)
+                .build();
+        public static final Uri MONTHLY_URI = WeatherEntry.CONTENT_URI.buildUpon()
+                .appendPath(PATH_STATS)
+                .appendPath(PATH_MONTH)
+                .build();
+
+        /* First and last day of the period that has weather, as normalized dates */
+        public static final String COLUMN_START_DATE = "start_date";
+        public static final String COLUMN_END_DATE = "end_date";
+
+        /* Number of days of weather in the period */
+        public static final String COLUMN_DAYS = "days";
+
+        /* Same names and units as the matching columns of the weather table */
+        public static final String COLUMN_WEATHER_ID = WeatherEntry.COLUMN_WEATHER_ID;
+        public static final String COLUMN_MIN_TEMP = WeatherEntry.COLUMN_MIN_TEMP;
+        public static final String COLUMN_MAX_TEMP = WeatherEntry.COLUMN_MAX_TEMP;
+        public static final String COLUMN_HUMIDITY = WeatherEntry.COLUMN_HUMIDITY;
+        public static final String COLUMN_PRESSURE = WeatherEntry.COLUMN_PRESSURE;
+        public static final String COLUMN_WIND_SPEED = WeatherEntry.COLUMN_WIND_SPEED;
+
+        /**
+         * Builds a URI for the statistics of the preferred location between two dates, which
+         * are a single row.
+         *
+         * @param start First normalized date of the window, included
+         * @param end   Last normalized date of the window, excluded
+         * @return Uri to query the statistics of that window
+         */
+        public static Uri buildStatsUriWithRange(long start, long end) {
+            return WeatherEntry.CONTENT_URI.buildUpon()
+                    .appendPath(PATH_STATS)
+                    .appendPath(PATH_RANGE)
+                    .appendPath(Long.toString(start))
+                    .appendPath(Long.toString(end))
+                    .build();
+        }
+
+        /**
+         * Builds a URI for the statistics of one location, one row per week or per month.
+         *
+         * @param locationId _ID of the location, from the location table
+         * @param period     PATH_WEEK or PATH_MONTH
+         * @return Uri to query the statistics of the location, sorted by date
+         */
+        public static Uri buildStatsUriWithLocation(long locationId, String period) {
+            return WeatherEntry.buildWeatherUriWithLocation(locationId).buildUpon()
+                    .appendPath(PATH_STATS)
+                    .appendPath(period)
+                    .build();
+        }
+
+        /**
+         * Builds a URI for the statistics of one location between two dates.
+         *
+         * @param locationId _ID of the location, from the location table
+         * @param start      First normalized date of the window, included
+         * @param end        Last normalized date of the window, excluded
+         * @return Uri to query the statistics of that window
+         */
+        public static Uri buildStatsUriWithLocationAndRange(long locationId, long start,
+                                                            long end) {
+            return WeatherEntry.buildWeatherUriWithLocation(locationId).buildUpon()
+                    .appendPath(PATH_STATS)
+                    .appendPath(PATH_RANGE)
+                    .appendPath(Long.toString(start))
+                    .appendPath(Long.toString(end))
+                    .build();
+        }
+    }
+
+    /*
+     * Inner class that defines the columns of the provider's metrics, which are only served by
+     * debug builds. Each row is one operation (query, insert, bulkInsert, update, delete,
+     * applyBatch or call) on one kind of URI, counted since the process started or since the
+     * metrics were last deleted. Release builds record them all the same, and print them with
+     *
+     *     adb shell dumpsys activity provider com.example.android.sunshine/.data.WeatherProvider
+     */
+    public static final class MetricsEntry {
+
+        /* Query to read the metrics, delete to start counting again */
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_METRICS)
+                .build();
+
+        /* Name of the ContentProvider method, such as "query" */
+        public static final String COLUMN_OPERATION = "operation";
+
+        /* The code WeatherProvider's UriMatcher gave the URI, or -1 for call */
+        public static final String COLUMN_URI_CODE = "uri_code";
+
+        /* How many times the operation completed, and how long it took in total and at most */
+        public static final String COLUMN_COUNT = "count";
+        public static final String COLUMN_TOTAL_MICROS = "total_us";
+        public static final String COLUMN_MAX_MICROS = "max_us";
+
+        /*
+         * Percentiles of the time it took, in microseconds. They are the upper bound of the
+         * bucket the percentile falls in, so they are only ever rounded up to a power of two.
+         */
+        public static final String COLUMN_P50_MICROS = "p50_us";
+        public static final String COLUMN_P90_MICROS = "p90_us";
+        public static final String COLUMN_P99_MICROS = "p99_us";
+
+        /*
+         * Rows read or written, in total, and an estimate of their size: eight bytes a value,
+         * which is the size of every column of weather.
+         */
+        public static final String COLUMN_ROWS = "rows";
+        public static final String COLUMN_BYTES = "bytes";
+
+        /*
+         * Prefix of the columns of the histogram, one per bucket. The prefix is followed by the
+         * upper bound of the bucket in microseconds, such as le_128, and the last bucket is
+         * le_inf. Each column holds how many times the operation took at most that long, and
+         * more than the bucket before.
+         */
+        public static final String BUCKET_COLUMN_PREFIX = "le_";
+    }
+
     /* Inner class that defines the table contents of the weather table */
     public static final class WeatherEntry implements BaseColumns {
 
@@ -64,9 +529,25 @@ public class WeatherContract {
                 .appendPath(PATH_WEATHER)
                 .build();
 
+        /*
+         * Notified once whenever weather is written, whichever days and locations the write
+         * touched. It can't be queried. Cursors over more than one day, such as the forecast
+         * list, are notified through it, while a cursor over a single day is only notified when
+         * that day changes.
+         */
+        public static final Uri CHANGES_URI = CONTENT_URI.buildUpon()
+                .appendPath(PATH_CHANGES)
+                .build();
+
         /* Used internally as the name of our weather table. */
         public static final String TABLE_NAME = "weather";
 
+        /*
+         * The _ID of the location this row is the weather of. Together with the date, it
+         * identifies a row.
+         */
+        public static final String COLUMN_LOCATION_ID = "location_id";
+
         /*
          * The date column will store the UTC date that correlates to the local date for which
          * each particular weather row represents. For example, if you live in the Eastern
@@ -123,6 +604,78 @@ public class WeatherContract {
                     .build();
         }
 
+        /**
+         * Builds a URI for the forecast of one location, whether or not it is the preferred
+         * location. It accepts the same selections as CONTENT_URI.
+         *
+         * @param locationId _ID of the location, from the location table
+         * @return Uri to query the forecast of the location
+         */
+        public static Uri buildWeatherUriWithLocation(long locationId) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_LOCATION)
+                    .appendPath(Long.toString(locationId))
+                    .build();
+        }
+
+        /**
+         * Builds a URI for the weather of one location on a single day. This is the
+         * {@link #buildWeatherUriWithDate(long)} of a location that isn't the preferred one.
+         *
+         * @param locationId _ID of the location, from the location table
+         * @param date       Normalized date in milliseconds
+         * @return Uri to query details about a single weather entry of the location
+         */
+        public static Uri buildWeatherUriWithLocationAndDate(long locationId, long date) {
+            return buildWeatherUriWithLocation(locationId).buildUpon()
+                    .appendPath(PATH_DATE)
+                    .appendPath(Long.toString(date))
+                    .build();
+        }
+
+        /**
+         * Builds a URI for the weather of the preferred location on several days, which are
+         * read with a single query however many there are. The cursor holds a row for each of
+         * these days that has weather, sorted by date. The order of the dates and repeated
+         * dates don't matter.
+         *
+         * @param dates Normalized dates in milliseconds, at least one
+         * @return Uri to query the weather of those days
+         */
+        public static Uri buildWeatherUriWithDates(long... dates) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_DATES)
+                    .appendPath(joinDates(dates))
+                    .build();
+        }
+
+        /**
+         * Builds a URI for the weather of one location on several days. This is the
+         * {@link #buildWeatherUriWithDates(long...)} of a location that isn't the preferred one.
+         *
+         * @param locationId _ID of the location, from the location table
+         * @param dates      Normalized dates in milliseconds, at least one
+         * @return Uri to query the weather of those days of the location
+         */
+        public static Uri buildWeatherUriWithLocationAndDates(long locationId, long... dates) {
+            return buildWeatherUriWithLocation(locationId).buildUpon()
+                    .appendPath(PATH_DATES)
+                    .appendPath(joinDates(dates))
+                    .build();
+        }
+
+        private static String joinDates(long[] dates) {
+            if (dates.length == 0) {
+                throw new IllegalArgumentException("No dates to query");
+            }
+            StringBuilder joined = new StringBuilder();
+            for (int i = 0; i < dates.length; i++) {
+                if (i > 0) joined.append(DATES_SEPARATOR);
+                joined.append(dates[i]);
+            }
+            return joined.toString();
+        }
+
         /**
          * Returns just the selection part of the weather query from a normalized today value.
          * This is used to get a weather forecast from today's date. To make this easy to use
@@ -16,9 +16,12 @@
 package com.example.android.sunshine.data;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import com.example.android.sunshine.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
 
 /**
@@ -34,7 +37,7 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
 
     /*
      * If you change the database schema, you must increment the database version or the onUpgrade
-     * method will not be called.
+     * method will not be called, and add the step from the previous version to WeatherMigrations.
      *
      * The reason DATABASE_VERSION starts at 3 is because Sunshine has been used in conjunction
      * with the Android course for a while now. Believe it or not, older versions of Sunshine
@@ -43,10 +46,42 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
      * use-case, we wanted to watch out for it and warn you what could happen if you mistakenly
      * version your databases.
      */
-    private static final int DATABASE_VERSION = 3;
+    private static final int DATABASE_VERSION = 7;
+
+    /*
+     * Index that holds every column the forecast list reads (see MainActivity's
+     * MAIN_FORECAST_PROJECTION), ordered by location and then by date. The "date >= today ORDER
+     * BY date ASC" query behind the list and the watch face is always asked for one location,
+     * so it is answered with a single seek into this index, without ever reading the table
+     * itself, however many locations are stored.
+     */
+    static final String INDEX_WEATHER_LOCATION_DATE_FORECAST = "weather_location_date_forecast";
+
+    /*
+     * Index of the hourly table by location and then by time. A location holds a couple of
+     * hundred hourly rows, and every query asks for a window of time of one location, which is
+     * a single range of this index. It is also what keeps a location from having two rows for
+     * the same time.
+     */
+    static final String INDEX_HOURLY_LOCATION_TIME = "hourly_location_time";
+
+    /* Some migrations read the preferences, such as the location the weather belonged to */
+    private final Context mContext;
 
     public WeatherDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME);
+    }
+
+    /**
+     * Opens a database other than weather.db with the same schema, which lets tests migrate
+     * databases of their own without touching the app's.
+     *
+     * @param context Used to open the database and read the preferences migrations need
+     * @param name    Name of the database file
+     */
+    WeatherDbHelper(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
+        mContext = context.getApplicationContext();
     }
 
     /**
@@ -58,6 +93,32 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
 
+        /*
+         * One row per location whose weather we keep. The weather table refers to these rows
+         * by _ID, so the location String is stored once rather than in every day of weather.
+         */
+        final String SQL_CREATE_LOCATION_TABLE =
+
+                "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
+
+                LocationEntry._ID                 + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+
+                LocationEntry.COLUMN_LOCATION_KEY + " TEXT NOT NULL COLLATE NOCASE, "      +
+
+                LocationEntry.COLUMN_COORD_LAT    + " REAL, "                              +
+                LocationEntry.COLUMN_COORD_LONG   + " REAL, "                              +
+                LocationEntry.COLUMN_DISPLAY_NAME + " TEXT, "                              +
+
+                LocationEntry.COLUMN_LAST_SYNC    + " INTEGER NOT NULL DEFAULT 0, "        +
+
+                /*
+                 * A location is looked up by its key on every sync, and the same location must
+                 * never get two rows, or its weather would be split between them.
+                 */
+                " UNIQUE (" + LocationEntry.COLUMN_LOCATION_KEY + "));";
+
+        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
+
         /*
          * This String will contain a simple SQL statement that will create a table that will
          * cache our weather data.
@@ -73,6 +134,8 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                  */
                 WeatherEntry._ID               + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
 
+                WeatherEntry.COLUMN_LOCATION_ID + " INTEGER NOT NULL, "                +
+
                 WeatherEntry.COLUMN_DATE       + " INTEGER NOT NULL, "                 +
 
                 WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL,"                  +
@@ -87,27 +150,129 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 WeatherEntry.COLUMN_DEGREES    + " REAL NOT NULL, "                    +
 
                 /*
-                 * To ensure this table can only contain one weather entry per date, we declare
-                 * the date column to be unique. We also specify "ON CONFLICT REPLACE". This tells
-                 * SQLite that if we have a weather entry for a certain date and we attempt to
-                 * insert another weather entry with that date, we replace the old weather entry.
+                 * To ensure this table can only contain one weather entry per date and location,
+                 * we declare the pair to be unique. We also specify "ON CONFLICT REPLACE". This
+                 * tells SQLite that if we have a weather entry for a certain date of a location
+                 * and we attempt to insert another weather entry with that date for the same
+                 * location, we replace the old weather entry.
                  */
-                " UNIQUE (" + WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+                " UNIQUE (" + WeatherEntry.COLUMN_LOCATION_ID + ", " +
+                WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
 
         /*
          * After we've spelled out our SQLite table creation statement above, we actually execute
          * that SQL with the execSQL method of our SQLite database object.
          */
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+
+        /*
+         * The UNIQUE constraint above already indexes the location and date, but that index
+         * only holds those two. This one also holds the columns the forecast list needs, which
+         * lets SQLite answer its query with an index-only scan of one location's range.
+         */
+        final String SQL_CREATE_LOCATION_DATE_FORECAST_INDEX =
+
+                "CREATE INDEX " + INDEX_WEATHER_LOCATION_DATE_FORECAST +
+                " ON " + WeatherEntry.TABLE_NAME + " (" +
+                WeatherEntry.COLUMN_LOCATION_ID + ", " +
+                WeatherEntry.COLUMN_DATE        + ", " +
+                WeatherEntry.COLUMN_MAX_TEMP    + ", " +
+                WeatherEntry.COLUMN_MIN_TEMP    + ", " +
+                WeatherEntry.COLUMN_WEATHER_ID  + ");";
+
+        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_DATE_FORECAST_INDEX);
+
+        createHourlyTable(sqLiteDatabase);
+
+        /* The forecast history is empty until a day drops out of the forecast */
+        HistoryStore.createCatalog(sqLiteDatabase);
+    }
+
+    /*
+     * The hourly forecast, up to a couple of hundred rows per location. Rows are only ever
+     * written a whole location at a time and read a window of time at a time, both through
+     * INDEX_HOURLY_LOCATION_TIME. A table clustered on (location_id, time) would save the
+     * lookup from the index into the table, but WITHOUT ROWID tables need a newer SQLite than
+     * the oldest devices we support have.
+     */
+    private static void createHourlyTable(SQLiteDatabase sqLiteDatabase) {
+        final String SQL_CREATE_HOURLY_TABLE =
+
+                "CREATE TABLE " + HourlyEntry.TABLE_NAME + " (" +
+
+                HourlyEntry._ID                + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+
+                HourlyEntry.COLUMN_LOCATION_ID + " INTEGER NOT NULL, "                 +
+                HourlyEntry.COLUMN_TIME        + " INTEGER NOT NULL, "                 +
+
+                HourlyEntry.COLUMN_WEATHER_ID  + " INTEGER NOT NULL, "                 +
+                HourlyEntry.COLUMN_TEMP        + " REAL NOT NULL, "                    +
+
+                HourlyEntry.COLUMN_HUMIDITY    + " REAL NOT NULL, "                    +
+                HourlyEntry.COLUMN_PRESSURE    + " REAL NOT NULL, "                    +
+
+                HourlyEntry.COLUMN_WIND_SPEED  + " REAL NOT NULL, "                    +
+                HourlyEntry.COLUMN_DEGREES     + " REAL NOT NULL);";
+
+        sqLiteDatabase.execSQL(SQL_CREATE_HOURLY_TABLE);
+
+        final String SQL_CREATE_HOURLY_LOCATION_TIME_INDEX =
+
+                "CREATE UNIQUE INDEX " + INDEX_HOURLY_LOCATION_TIME +
+                " ON " + HourlyEntry.TABLE_NAME + " (" +
+                HourlyEntry.COLUMN_LOCATION_ID + ", " +
+                HourlyEntry.COLUMN_TIME        + ");";
+
+        sqLiteDatabase.execSQL(SQL_CREATE_HOURLY_LOCATION_TIME_INDEX);
     }
 
     /**
-     * This database is only a cache for online data, so its upgrade policy is simply to discard
-     * the data and call through to onCreate to recreate the table. Note that this only fires if
-     * you change the version number for your database (in our case, DATABASE_VERSION). It does NOT
-     * depend on the version number for your application found in your app/build.gradle file. If
-     * you want to update the schema without wiping data, commenting out the current body of this
-     * method should be your top priority before modifying this method.
+     * Called every time the database is opened. We switch weather.db to write-ahead logging so
+     * that the sync writing a new forecast never blocks the UI or the watch face reading the
+     * current one, and only sync the writes at checkpoints.
+     *
+     * @param sqLiteDatabase The database.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase sqLiteDatabase) {
+        super.onOpen(sqLiteDatabase);
+
+        if (sqLiteDatabase.isReadOnly()) {
+            return;
+        }
+
+        sqLiteDatabase.enableWriteAheadLogging();
+
+        /*
+         * With write-ahead logging, NORMAL only syncs at checkpoints. A power loss may roll back
+         * the last sync, which is fine for a cache we can download again, but it will never
+         * corrupt the database. Like most pragmas this only applies to the connection it runs on,
+         * which is the primary connection that every write goes through; the pooled connections
+         * reads use keep SQLite's defaults, including its page cache of about 2 MB.
+         */
+        execPragma(sqLiteDatabase, "synchronous = NORMAL");
+    }
+
+    /*
+     * Some versions of SQLite answer a PRAGMA with a row, which execSQL refuses to run, so we
+     * go through rawQuery and simply discard the answer.
+     */
+    private static void execPragma(SQLiteDatabase sqLiteDatabase, String pragma) {
+        Cursor cursor = sqLiteDatabase.rawQuery("PRAGMA " + pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Brings the database up to DATABASE_VERSION one version at a time through WeatherMigrations,
+     * keeping every row, so the forecast can be shown as soon as the updated app starts. Only a
+     * database too old for any migration is discarded and recreated through onCreate. Note that
+     * this only fires if you change the version number for your database (in our case,
+     * DATABASE_VERSION). It does NOT depend on the version number for your application found in
+     * your app/build.gradle file.
      *
      * @param sqLiteDatabase Database that is being upgraded
      * @param oldVersion     The old database version
@@ -115,7 +280,15 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        if (WeatherMigrations.canMigrate(oldVersion, newVersion)) {
+            WeatherMigrations.migrate(mContext, sqLiteDatabase, oldVersion, newVersion);
+            return;
+        }
+
+        HistoryStore.dropAll(sqLiteDatabase);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HourlyEntry.TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
         onCreate(sqLiteDatabase);
     }
 }
\ No newline at end of file
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * The steps that take weather.db from one version to the next while keeping its rows, so that
+ * the first launch after an update shows the stored forecast right away instead of waiting for a
+ * sync.
+ * <p>
+ * Each step brings the schema exactly to the one of its target version, as it was when that
+ * version shipped. The SQL of a step is therefore written out in full rather than built from
+ * WeatherContract and WeatherDbHelper, which describe the latest version only: changing the
+ * current schema must never change what an old step does. A new version gets a new step at the
+ * end of {@link #MIGRATIONS}.
+ */
+final class WeatherMigrations {
+
+    /*
+     * Databases older than this come from versions of Sunshine whose schema isn't known here.
+     * They are still rebuilt from scratch.
+     */
+    static final int OLDEST_MIGRATABLE_VERSION = 3;
+
+    /**
+     * One step, from {@link #mFromVersion} to the version right after it.
+     */
+    abstract static class Migration {
+
+        final int mFromVersion;
+
+        Migration(int fromVersion) {
+            mFromVersion = fromVersion;
+        }
+
+        /**
+         * @param context Used to read the preferences the step needs
+         * @param db      The database, inside the transaction of the whole upgrade
+         */
+        abstract void migrate(Context context, SQLiteDatabase db);
+    }
+
+    /* Ordered by version, with no gaps: MIGRATIONS[i] goes from version OLDEST + i to the next */
+    private static final Migration[] MIGRATIONS = {
+
+            /* 3 to 4: the covering date index of the forecast list */
+            new Migration(3) {
+                @Override
+                void migrate(Context context, SQLiteDatabase db) {
+                    db.execSQL("CREATE INDEX weather_date_forecast"
+                            + " ON weather (date, max, min, weather_id)");
+                }
+            },
+
+            /*
+             * 4 to 5: the weather of several locations. Until then weather.db only held the
+             * weather of the preferred location, so its rows become that location's. It is
+             * stored as never synced, so the next sync refreshes it, but the list can show it
+             * until then.
+             */
+            new Migration(4) {
+                @Override
+                void migrate(Context context, SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE location ("
+                            + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + "location_key TEXT NOT NULL COLLATE NOCASE, "
+                            + "coord_lat REAL, "
+                            + "coord_long REAL, "
+                            + "display_name TEXT, "
+                            + "last_sync INTEGER NOT NULL DEFAULT 0, "
+                            + "UNIQUE (location_key))");
+
+                    SQLiteStatement insertLocation =
+                            db.compileStatement("INSERT INTO location (location_key) VALUES (?)");
+                    long locationId;
+                    try {
+                        insertLocation.bindString(1,
+                                SunshinePreferences.getPreferredWeatherLocation(context));
+                        locationId = insertLocation.executeInsert();
+                    } finally {
+                        insertLocation.close();
+                    }
+
+                    /* SQLite can't change a table's constraints, so the table is copied */
+                    db.execSQL("DROP INDEX IF EXISTS weather_date_forecast");
+                    db.execSQL("ALTER TABLE weather RENAME TO weather_v4");
+                    db.execSQL("CREATE TABLE weather ("
+                            + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + "location_id INTEGER NOT NULL, "
+                            + "date INTEGER NOT NULL, "
+                            + "weather_id INTEGER NOT NULL,"
+                            + "min REAL NOT NULL, "
+                            + "max REAL NOT NULL, "
+                            + "humidity REAL NOT NULL, "
+                            + "pressure REAL NOT NULL, "
+                            + "wind REAL NOT NULL, "
+                            + "degrees REAL NOT NULL, "
+                            + "UNIQUE (location_id, date) ON CONFLICT REPLACE)");
+                    db.execSQL("INSERT INTO weather (_id, location_id, date, weather_id, min, max,"
+                            + " humidity, pressure, wind, degrees)"
+                            + " SELECT _id, " + locationId + ", date, weather_id, min, max,"
+                            + " humidity, pressure, wind, degrees FROM weather_v4");
+                    db.execSQL("DROP TABLE weather_v4");
+                    db.execSQL("CREATE INDEX weather_location_date_forecast"
+                            + " ON weather (location_id, date, max, min, weather_id)");
+                }
+            },
+
+            /* 5 to 6: the hourly forecast, which starts out empty */
+            new Migration(5) {
+                @Override
+                void migrate(Context context, SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE hourly ("
+                            + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + "location_id INTEGER NOT NULL, "
+                            + "time INTEGER NOT NULL, "
+                            + "weather_id INTEGER NOT NULL, "
+                            + "temp REAL NOT NULL, "
+                            + "humidity REAL NOT NULL, "
+                            + "pressure REAL NOT NULL, "
+                            + "wind REAL NOT NULL, "
+                            + "degrees REAL NOT NULL)");
+                    db.execSQL("CREATE UNIQUE INDEX hourly_location_time"
+                            + " ON hourly (location_id, time)");
+                }
+            },
+
+            /* 6 to 7: the catalog of the forecast history, whose partitions come later */
+            new Migration(6) {
+                @Override
+                void migrate(Context context, SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE history_partition ("
+                            + "table_name TEXT PRIMARY KEY, "
+                            + "start_date INTEGER NOT NULL, "
+                            + "end_date INTEGER NOT NULL, "
+                            + "downsampled INTEGER NOT NULL DEFAULT 0)");
+                }
+            },
+    };
+
+    private WeatherMigrations() {
+    }
+
+    /**
+     * @param oldVersion The version of the database
+     * @param newVersion The version to bring it to
+     * @return true if there is a step for every version in between
+     */
+    static boolean canMigrate(int oldVersion, int newVersion) {
+        return oldVersion >= OLDEST_MIGRATABLE_VERSION
+                && newVersion <= OLDEST_MIGRATABLE_VERSION + MIGRATIONS.length
+                && oldVersion <= newVersion;
+    }
+
+    /**
+     * Runs the steps from oldVersion to newVersion, in order, in a single transaction: if one of
+     * them fails, the database is left as it was. The version number itself isn't changed, which
+     * SQLiteOpenHelper takes care of.
+     *
+     * @param context    Used to read the preferences some steps need
+     * @param db         The database to migrate
+     * @param oldVersion The version of the database
+     * @param newVersion The version to bring it to
+     * @throws IllegalArgumentException If {@link #canMigrate} is false for these versions
+     */
+    static void migrate(Context context, SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (!canMigrate(oldVersion, newVersion)) {
+            throw new IllegalArgumentException(
+                    "No migration from version " + oldVersion + " to " + newVersion);
+        }
+
+        db.beginTransaction();
+        try {
+            for (int version = oldVersion; version < newVersion; version++) {
+                Migration migration = MIGRATIONS[version - OLDEST_MIGRATABLE_VERSION];
+                if (migration.mFromVersion != version) {
+                    throw new IllegalStateException("Migration from version "
+                            + migration.mFromVersion + " is out of order");
+                }
+                migration.migrate(context, db);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+}
@@ -17,24 +17,45 @@ package com.example.android.sunshine.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.Parcelable;
 import android.support.annotation.NonNull;
+import android.support.v4.util.LongSparseArray;
 
-import com.example.android.sunshine.utilities.SunshineDateUtils;
+import com.example.android.sunshine.BuildConfig;
+import com.example.android.sunshine.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * This class serves as the ContentProvider for all of Sunshine's data. This class allows us to
- * bulkInsert data, query data, and delete data.
+ * insert, bulkInsert, update, query and delete data, and to apply a batch of those operations
+ * in a single transaction.
  * <p>
- * Although ContentProvider implementation requires the implementation of additional methods to
- * perform single inserts, updates, and the ability to get the type of the data from a URI.
- * However, here, they are not implemented for the sake of brevity and simplicity. If you would
- * like, you may implement them on your own. However, we are not going to be teaching how to do
- * so in this course.
+ * Although ContentProvider implementation requires the ability to get the type of the data from
+ * a URI, here, it is not implemented for the sake of brevity and simplicity.
  */
 public class WeatherProvider extends ContentProvider {
 
@@ -45,6 +66,47 @@ public class WeatherProvider extends ContentProvider {
      */
     public static final int CODE_WEATHER = 100;
     public static final int CODE_WEATHER_WITH_DATE = 101;
+    public static final int CODE_WEATHER_WITH_LOCATION = 102;
+    public static final int CODE_WEATHER_WITH_LOCATION_AND_DATE = 103;
+    public static final int CODE_WEATHER_WITH_DATES = 104;
+    public static final int CODE_WEATHER_WITH_LOCATION_AND_DATES = 105;
+
+    public static final int CODE_STATS_WEEK = 110;
+    public static final int CODE_STATS_MONTH = 111;
+    public static final int CODE_STATS_WITH_RANGE = 112;
+    public static final int CODE_STATS_WITH_LOCATION_WEEK = 113;
+    public static final int CODE_STATS_WITH_LOCATION_MONTH = 114;
+    public static final int CODE_STATS_WITH_LOCATION_AND_RANGE = 115;
+
+    public static final int CODE_LOCATION = 200;
+    public static final int CODE_LOCATION_WITH_ID = 201;
+
+    public static final int CODE_HOURLY = 300;
+    public static final int CODE_HOURLY_WITH_RANGE = 301;
+    public static final int CODE_HOURLY_WITH_LOCATION = 302;
+    public static final int CODE_HOURLY_WITH_LOCATION_AND_RANGE = 303;
+
+    public static final int CODE_HISTORY = 400;
+    public static final int CODE_HISTORY_WITH_RANGE = 401;
+    public static final int CODE_HISTORY_WITH_LOCATION_AND_RANGE = 402;
+
+    public static final int CODE_METRICS = 500;
+
+    /* Every code above, plus NO_MATCH which call() is recorded under */
+    private static final int[] CODES = {
+            UriMatcher.NO_MATCH,
+            CODE_WEATHER, CODE_WEATHER_WITH_DATE, CODE_WEATHER_WITH_LOCATION,
+            CODE_WEATHER_WITH_LOCATION_AND_DATE, CODE_WEATHER_WITH_DATES,
+            CODE_WEATHER_WITH_LOCATION_AND_DATES,
+            CODE_STATS_WEEK, CODE_STATS_MONTH, CODE_STATS_WITH_RANGE,
+            CODE_STATS_WITH_LOCATION_WEEK, CODE_STATS_WITH_LOCATION_MONTH,
+            CODE_STATS_WITH_LOCATION_AND_RANGE,
+            CODE_LOCATION, CODE_LOCATION_WITH_ID,
+            CODE_HOURLY, CODE_HOURLY_WITH_RANGE, CODE_HOURLY_WITH_LOCATION,
+            CODE_HOURLY_WITH_LOCATION_AND_RANGE,
+            CODE_HISTORY, CODE_HISTORY_WITH_RANGE, CODE_HISTORY_WITH_LOCATION_AND_RANGE,
+            CODE_METRICS,
+    };
 
     /*
      * The URI Matcher used by this content provider. The leading "s" in this variable name
@@ -54,6 +116,58 @@ public class WeatherProvider extends ContentProvider {
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
 
+    /*
+     * Matches the selection built by WeatherEntry.getSqlSelectForTodayOnwards, which is what the
+     * forecast list, the notification check and the watch face all ask for. The date it compares
+     * against is captured so the same rows can be picked out of the snapshot.
+     */
+    private static final Pattern TODAY_ONWARDS_SELECTION = Pattern.compile(
+            "\\s*" + WeatherEntry.COLUMN_DATE + "\\s*>=\\s*(\\d+)\\s*");
+
+    /* Selections that pick the rows of one location, or one day of one location */
+    private static final String SELECTION_LOCATION = WeatherEntry.COLUMN_LOCATION_ID + " = ?";
+    private static final String SELECTION_LOCATION_AND_DATE =
+            SELECTION_LOCATION + " AND " + WeatherEntry.COLUMN_DATE + " = ?";
+
+    /*
+     * Picks a window of time of one location's hourly forecast, which is a single range of the
+     * (location_id, time) index. The location is the first argument, like SELECTION_LOCATION.
+     */
+    private static final String SELECTION_LOCATION_AND_RANGE = SELECTION_LOCATION
+            + " AND " + HourlyEntry.COLUMN_TIME + " >= ? AND " + HourlyEntry.COLUMN_TIME + " < ?";
+
+    private static final String SORT_ORDER_HOURLY = HourlyEntry.COLUMN_TIME + " ASC";
+    private static final String SORT_ORDER_DATE = WeatherEntry.COLUMN_DATE + " ASC";
+
+    /*
+     * The weather of every location that was queried, in memory, by location _ID. The array is
+     * replaced, never modified, whenever a snapshot is added or reloaded, and so are the
+     * snapshots in it, so queries read them without taking a lock. A location is only read from
+     * disk the first time it is queried, which makes switching back to a location a memory read.
+     */
+    private volatile LongSparseArray<ForecastSnapshot> mSnapshots = new LongSparseArray<>();
+
+    /* Makes sure snapshots are published in the order they were read from the database */
+    private final Object mSnapshotLock = new Object();
+
+    /*
+     * The preferred location and its _ID, the last time it was looked up. Queries on CONTENT_URI
+     * are for the preferred location, and this saves looking its _ID up every time.
+     */
+    private volatile PreferredLocation mPreferredLocation;
+
+    /* The weather statistics that were asked for since the weather they sum up was written */
+    private final WeatherStats mStats = new WeatherStats();
+
+    /*
+     * The batch the current thread is applying, if any. While it is set, snapshots, statistics
+     * and observers are left alone until the batch's transaction is over.
+     */
+    private final ThreadLocal<Batch> mBatch = new ThreadLocal<>();
+
+    /* How long each operation took, by UriMatcher code */
+    private final ProviderMetrics mMetrics = new ProviderMetrics(CODES);
+
     /**
      * Creates the UriMatcher that will match each URI to the CODE_WEATHER and
      * CODE_WEATHER_WITH_DATE constants defined above.
@@ -96,6 +210,87 @@ public class WeatherProvider extends ContentProvider {
          */
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/#", CODE_WEATHER_WITH_DATE);
 
+        /*
+         * These URIs look like content://com.example.android.sunshine/weather/location/3 and
+         * content://com.example.android.sunshine/weather/location/3/date/1472169600000. They are
+         * the two URIs above, for a location that may not be the preferred one.
+         */
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/"
+                + WeatherContract.PATH_LOCATION + "/#", CODE_WEATHER_WITH_LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/"
+                + WeatherContract.PATH_LOCATION + "/#/"
+                + WeatherContract.PATH_DATE + "/#", CODE_WEATHER_WITH_LOCATION_AND_DATE);
+
+        /*
+         * Several days at once, such as content://com.example.android.sunshine/weather/dates/
+         * 1472169600000,1472342400000. The dates are a single segment, hence "*" rather than "#".
+         */
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/"
+                + WeatherContract.PATH_DATES + "/*", CODE_WEATHER_WITH_DATES);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/"
+                + WeatherContract.PATH_LOCATION + "/#/"
+                + WeatherContract.PATH_DATES + "/*", CODE_WEATHER_WITH_LOCATION_AND_DATES);
+
+        /*
+         * The statistics of the weather of the preferred location or of any location, by week,
+         * by month, or for a window of dates, such as
+         * content://com.example.android.sunshine/weather/location/3/stats/week
+         */
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/"
+                + WeatherContract.PATH_STATS + "/"
+                + WeatherContract.PATH_WEEK, CODE_STATS_WEEK);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/"
+                + WeatherContract.PATH_STATS + "/"
+                + WeatherContract.PATH_MONTH, CODE_STATS_MONTH);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/"
+                + WeatherContract.PATH_STATS + "/"
+                + WeatherContract.PATH_RANGE + "/#/#", CODE_STATS_WITH_RANGE);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/"
+                + WeatherContract.PATH_LOCATION + "/#/"
+                + WeatherContract.PATH_STATS + "/"
+                + WeatherContract.PATH_WEEK, CODE_STATS_WITH_LOCATION_WEEK);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/"
+                + WeatherContract.PATH_LOCATION + "/#/"
+                + WeatherContract.PATH_STATS + "/"
+                + WeatherContract.PATH_MONTH, CODE_STATS_WITH_LOCATION_MONTH);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/"
+                + WeatherContract.PATH_LOCATION + "/#/"
+                + WeatherContract.PATH_STATS + "/"
+                + WeatherContract.PATH_RANGE + "/#/#", CODE_STATS_WITH_LOCATION_AND_RANGE);
+
+        /*
+         * The location table, and a single location of it, which would look something like
+         * content://com.example.android.sunshine/location/3
+         */
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION, CODE_LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION + "/#", CODE_LOCATION_WITH_ID);
+
+        /*
+         * The hourly forecast of the preferred location or of any location, as a whole or for
+         * a window of time, such as
+         * content://com.example.android.sunshine/hourly/location/3/range/<start>/<end>
+         */
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY, CODE_HOURLY);
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY + "/"
+                + WeatherContract.PATH_RANGE + "/#/#", CODE_HOURLY_WITH_RANGE);
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY + "/"
+                + WeatherContract.PATH_LOCATION + "/#", CODE_HOURLY_WITH_LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY + "/"
+                + WeatherContract.PATH_LOCATION + "/#/"
+                + WeatherContract.PATH_RANGE + "/#/#", CODE_HOURLY_WITH_LOCATION_AND_RANGE);
+
+        /* The forecast history, which takes the same windows as the hourly forecast */
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY, CODE_HISTORY);
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY + "/"
+                + WeatherContract.PATH_RANGE + "/#/#", CODE_HISTORY_WITH_RANGE);
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY + "/"
+                + WeatherContract.PATH_LOCATION + "/#/"
+                + WeatherContract.PATH_RANGE + "/#/#", CODE_HISTORY_WITH_LOCATION_AND_RANGE);
+
+
+        /* The timings of the operations below, served by debug builds only */
+        matcher.addURI(authority, WeatherContract.PATH_METRICS, CODE_METRICS);
+
         return matcher;
     }
 
@@ -131,6 +326,9 @@ public class WeatherProvider extends ContentProvider {
      * for inserting a single row of data into our ContentProvider, and so we are only going to
      * implement bulkInsert. In a normal ContentProvider's implementation, you will probably want
      * to provide proper functionality for the insert method as well.
+     * <p>
+     * Rows that don't have a location_id are stored as weather of the location of the URI: the
+     * preferred location for CONTENT_URI, which is added to the location table if needed.
      *
      * @param uri    The content:// URI of the insertion request.
      * @param values An array of sets of column_name/value pairs to add to the database.
@@ -140,35 +338,16 @@ public class WeatherProvider extends ContentProvider {
      */
     @Override
     public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final long startNanos = System.nanoTime();
+        final int match = sUriMatcher.match(uri);
 
-        switch (sUriMatcher.match(uri)) {
+        switch (match) {
 
             case CODE_WEATHER:
-                db.beginTransaction();
-                int rowsInserted = 0;
-                try {
-                    for (ContentValues value : values) {
-                        long weatherDate =
-                                value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
-                        if (!SunshineDateUtils.isDateNormalized(weatherDate)) {
-                            throw new IllegalArgumentException("Date must be normalized to insert");
-                        }
-
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            rowsInserted++;
-                        }
-                    }
-                    db.setTransactionSuccessful();
-                } finally {
-                    db.endTransaction();
-                }
-
-                if (rowsInserted > 0) {
-                    getContext().getContentResolver().notifyChange(uri, null);
-                }
-
+            case CODE_WEATHER_WITH_LOCATION:
+                int rowsInserted = insertWeather(match, uri, values);
+                mMetrics.record(ProviderMetrics.OP_BULK_INSERT, match, startNanos, rowsInserted,
+                        countValues(values));
                 return rowsInserted;
 
             default:
@@ -177,213 +356,1528 @@ public class WeatherProvider extends ContentProvider {
     }
 
     /**
-     * Handles query requests from clients. We will use this method in Sunshine to query for all
-     * of our weather data as well as to query for the weather on a particular day.
+     * Inserts rows of weather in a single transaction, for bulkInsert and insert, which each
+     * record the operation under their own name.
      *
-     * @param uri           The URI to query
-     * @param projection    The list of columns to put into the cursor. If null, all columns are
-     *                      included.
-     * @param selection     A selection criteria to apply when filtering rows. If null, then all
-     *                      rows are included.
-     * @param selectionArgs You may include ?s in selection, which will be replaced by
-     *                      the values from selectionArgs, in order that they appear in the
-     *                      selection.
-     * @param sortOrder     How the rows in the cursor should be sorted.
-     * @return A Cursor containing the results of the query. In our implementation,
+     * @return The number of rows inserted
      */
-    @Override
-    public Cursor query(@NonNull Uri uri, String[] projection, String selection,
-                        String[] selectionArgs, String sortOrder) {
-
-        Cursor cursor;
+    private int insertWeather(int match, Uri uri, ContentValues[] values) {
+        /*
+         * Validate every date up front rather than while inserting, so that a bad row
+         * is caught before any SQL runs.
+         */
+        WeatherWriter.checkDatesNormalized(values);
 
         /*
-         * Here's the switch statement that, given a URI, will determine what kind of request is
-         * being made and query the database accordingly.
+         * The writer compiles a single INSERT statement for the whole transaction and
+         * binds each row to it, instead of letting db.insert build new SQL per row.
          */
-        switch (sUriMatcher.match(uri)) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final WeatherWriter writer = new WeatherWriter(db);
+        final WeatherChanges changes = new WeatherChanges();
+        writer.setChanges(changes);
+        int rowsInserted;
 
-            /*
-             * When sUriMatcher's match method is called with a URI that looks something like this
-             *
-             *      content://com.example.android.sunshine/weather/1472214172
-             *
-             * sUriMatcher's match method will return the code that indicates to us that we need
-             * to return the weather for a particular date. The date in this code is encoded in
-             * milliseconds and is at the very end of the URI (1472214172) and can be accessed
-             * programmatically using Uri's getLastPathSegment method.
-             *
-             * In this case, we want to return a cursor that contains one row of weather data for
-             * a particular date.
-             */
-            case CODE_WEATHER_WITH_DATE: {
+        db.beginTransaction();
+        try {
+            long locationId = match == CODE_WEATHER
+                    ? writer.upsertLocation(getPreferredLocationKey(), null, 0)
+                    : getLocationIdFromUri(uri);
+            rowsInserted = writer.insert(values, locationId);
+            db.setTransactionSuccessful();
+        } finally {
+            writer.close();
+            db.endTransaction();
+        }
 
-                /*
-                 * In order to determine the date associated with this URI, we look at the last
-                 * path segment. In the comment above, the last path segment is 1472214172 and
-                 * represents the number of seconds since the epoch, or UTC time.
-                 */
-                String normalizedUtcDateString = uri.getLastPathSegment();
+        /* Rows may name any location, so the locations come from the rows themselves */
+        if (!changes.isEmpty()) {
+            reloadSnapshots(db, changes.getLocationIds());
+            notifyWeatherChanged(changes);
+        }
+        return rowsInserted;
+    }
+
+    /**
+     * Handles the provider specific methods declared in {@link WeatherContract}. In Sunshine,
+     * this is how the sync path inserts a {@link ForecastBatch}: the batch is read column by
+     * column straight out of its primitive arrays, so a forecast goes from the parser to SQLite
+     * without a single ContentValues being created.
+     *
+     * @param method Name of one of the METHOD_ constants in {@link WeatherContract}
+     * @param arg    The location key for METHOD_REPLACE_FORECAST, unused otherwise
+     * @param extras Arguments of the method
+     * @return The result of the method
+     */
+    @Override
+    public Bundle call(@NonNull String method, String arg, Bundle extras) {
+        final long startNanos = System.nanoTime();
+        switch (method) {
+
+            case WeatherContract.METHOD_BULK_INSERT_FORECAST: {
+                requireExtras(method, extras);
+                ForecastBatch forecast = requireExtra(method, WeatherContract.EXTRA_FORECAST_BATCH,
+                        extras.<ForecastBatch>getParcelable(WeatherContract.EXTRA_FORECAST_BATCH));
+                WeatherChanges changes = new WeatherChanges();
+                int rowsInserted = bulkInsertForecast(forecast, changes);
+                notifyWeatherChanged(changes);
+
+                mMetrics.record(ProviderMetrics.OP_CALL, UriMatcher.NO_MATCH, startNanos,
+                        rowsInserted, rowsInserted * ForecastBatch.VALUES_PER_DAY
+                                * ProviderMetrics.BYTES_PER_VALUE);
+                Bundle result = new Bundle();
+                result.putInt(WeatherContract.EXTRA_ROW_COUNT, rowsInserted);
+                return result;
+            }
+
+            case WeatherContract.METHOD_REPLACE_FORECAST:
+            case WeatherContract.METHOD_REPLACE_FORECASTS: {
+                String[] locationKeys;
+                ForecastBatch[] forecasts;
+                HourlyBatch[] hourlyForecasts = null;
+                requireExtras(method, extras);
+
+                if (method.equals(WeatherContract.METHOD_REPLACE_FORECAST)) {
+                    ForecastBatch forecast = requireExtra(method,
+                            WeatherContract.EXTRA_FORECAST_BATCH,
+                            extras.<ForecastBatch>getParcelable(
+                                    WeatherContract.EXTRA_FORECAST_BATCH));
+                    locationKeys = new String[]{arg != null ? arg : getPreferredLocationKey()};
+                    forecasts = new ForecastBatch[]{forecast};
+                } else {
+                    locationKeys = requireExtra(method, WeatherContract.EXTRA_LOCATION_KEYS,
+                            extras.getStringArray(WeatherContract.EXTRA_LOCATION_KEYS));
+                    Parcelable[] batches = requireExtra(method,
+                            WeatherContract.EXTRA_FORECAST_BATCHES,
+                            extras.getParcelableArray(WeatherContract.EXTRA_FORECAST_BATCHES));
+                    if (batches.length != locationKeys.length) {
+                        throw new IllegalArgumentException(method + " needs one forecast batch"
+                                + " per location key, not " + batches.length + " for "
+                                + locationKeys.length);
+                    }
+                    forecasts = new ForecastBatch[batches.length];
+                    for (int i = 0; i < batches.length; i++) {
+                        forecasts[i] = (ForecastBatch) batches[i];
+                    }
+
+                    Parcelable[] hourlyBatches =
+                            extras.getParcelableArray(WeatherContract.EXTRA_HOURLY_BATCHES);
+                    if (hourlyBatches != null) {
+                        if (hourlyBatches.length != locationKeys.length) {
+                            throw new IllegalArgumentException(method + " needs one hourly batch"
+                                    + " per location key, not " + hourlyBatches.length + " for "
+                                    + locationKeys.length);
+                        }
+                        hourlyForecasts = new HourlyBatch[hourlyBatches.length];
+                        for (int i = 0; i < hourlyBatches.length; i++) {
+                            hourlyForecasts[i] = (HourlyBatch) hourlyBatches[i];
+                        }
+                    }
+                }
+
+                WeatherChanges changes = new WeatherChanges();
+                int rowsChanged = replaceForecasts(locationKeys, forecasts, hourlyForecasts,
+                        changes);
 
                 /*
-                 * The query method accepts a string array of arguments, as there may be more
-                 * than one "?" in the selection statement. Even though in our case, we only have
-                 * one "?", we have to create a string array that only contains one element
-                 * because this method signature accepts a string array.
+                 * The whole replacement happened in one transaction, so observers are told about
+                 * it once, and only about the days that actually changed. The sync times of the
+                 * locations were written either way.
                  */
-                String[] selectionArguments = new String[]{normalizedUtcDateString};
-
-                cursor = mOpenHelper.getReadableDatabase().query(
-                        /* Table we are going to query */
-                        WeatherContract.WeatherEntry.TABLE_NAME,
-                        /*
-                         * A projection designates the columns we want returned in our Cursor.
-                         * Passing null will return all columns of data within the Cursor.
-                         * However, if you don't need all the data from the table, it's best
-                         * practice to limit the columns returned in the Cursor with a projection.
-                         */
-                        projection,
-                        /*
-                         * The URI that matches CODE_WEATHER_WITH_DATE contains a date at the end
-                         * of it. We extract that date and use it with these next two lines to
-                         * specify the row of weather we want returned in the cursor. We use a
-                         * question mark here and then designate selectionArguments as the next
-                         * argument for performance reasons. Whatever Strings are contained
-                         * within the selectionArguments array will be inserted into the
-                         * selection statement by SQLite under the hood.
-                         */
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ",
-                        selectionArguments,
-                        null,
-                        null,
-                        sortOrder);
+                notifyWeatherChanged(changes);
+                if (hasAny(hourlyForecasts)) {
+                    notifyChange(HourlyEntry.CONTENT_URI);
+                }
+                notifyChange(LocationEntry.CONTENT_URI);
 
-                break;
+                mMetrics.record(ProviderMetrics.OP_CALL, UriMatcher.NO_MATCH, startNanos,
+                        rowsChanged, rowsChanged * ForecastBatch.VALUES_PER_DAY
+                                * ProviderMetrics.BYTES_PER_VALUE);
+                Bundle result = new Bundle();
+                result.putInt(WeatherContract.EXTRA_ROW_COUNT, rowsChanged);
+                return result;
             }
 
-            /*
-             * When sUriMatcher's match method is called with a URI that looks EXACTLY like this
-             *
-             *      content://com.example.android.sunshine/weather/
-             *
-             * sUriMatcher's match method will return the code that indicates to us that we need
-             * to return all of the weather in our weather table.
-             *
-             * In this case, we want to return a cursor that contains every row of weather data
-             * in our weather table.
-             */
-            case CODE_WEATHER: {
-                cursor = mOpenHelper.getReadableDatabase().query(
-                        WeatherContract.WeatherEntry.TABLE_NAME,
-                        projection,
-                        selection,
-                        selectionArgs,
-                        null,
-                        null,
-                        sortOrder);
+            case WeatherContract.METHOD_COMPACT_HISTORY: {
+                if (!requireExtras(method, extras)
+                        .containsKey(WeatherContract.EXTRA_SIZE_BUDGET_BYTES)) {
+                    throw new IllegalArgumentException(
+                            method + " needs " + WeatherContract.EXTRA_SIZE_BUDGET_BYTES);
+                }
+                long budgetBytes = extras.getLong(WeatherContract.EXTRA_SIZE_BUDGET_BYTES);
+                int rowsRemoved = HistoryStore.compact(mOpenHelper.getWritableDatabase(),
+                        System.currentTimeMillis(), budgetBytes);
 
-                break;
+                if (rowsRemoved > 0) {
+                    notifyChange(HistoryEntry.CONTENT_URI);
+                }
+
+                mMetrics.record(ProviderMetrics.OP_CALL, UriMatcher.NO_MATCH, startNanos,
+                        rowsRemoved, 0);
+                Bundle result = new Bundle();
+                result.putInt(WeatherContract.EXTRA_ROW_COUNT, rowsRemoved);
+                return result;
             }
 
             default:
-                throw new UnsupportedOperationException("Unknown uri: " + uri);
+                return super.call(method, arg, extras);
         }
+    }
 
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
-        return cursor;
+    /**
+     * Inserts every day of the forecast as weather of the preferred location, in a single
+     * transaction, binding the values of each day to one precompiled INSERT statement.
+     *
+     * @param forecast The days to insert
+     * @param changes  Where the days that were inserted are recorded
+     * @return The number of rows inserted
+     */
+    private int bulkInsertForecast(ForecastBatch forecast, WeatherChanges changes) {
+        WeatherWriter.checkDatesNormalized(forecast);
+
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final WeatherWriter writer = new WeatherWriter(db);
+        writer.setChanges(changes);
+        long locationId;
+        int rowsInserted;
+
+        db.beginTransaction();
+        try {
+            locationId = writer.upsertLocation(getPreferredLocationKey(), forecast, 0);
+            rowsInserted = writer.insert(locationId, forecast);
+            db.setTransactionSuccessful();
+        } finally {
+            writer.close();
+            db.endTransaction();
+        }
+
+        if (rowsInserted > 0) {
+            reloadSnapshots(db, locationId);
+        }
+
+        return rowsInserted;
     }
 
     /**
-     * Deletes data at a given URI with optional arguments for more fine tuned deletions.
+     * Replaces the stored forecast of each location with the given one, all in a single
+     * transaction. Readers either see the old forecasts or the new ones, never an empty table in
+     * between, and days that didn't change aren't rewritten. Locations that aren't in the
+     * location table yet are added, and every location's sync time is set to now.
+     * <p>
+     * The hourly forecasts, if any, are written in the same transaction, so a sync of several
+     * locations costs a single commit however many hundred hourly rows it brings. If the user
+     * keeps a history, the past days that drop out of the forecasts are archived in it, still in
+     * the same transaction.
+     * <p>
+     * Locations that are neither synced anymore nor among locationKeys, such as a previous
+     * preferred location, are deleted with all of their weather and history, so they don't go
+     * stale in the database forever. They aren't counted in the rows returned.
      *
-     * @param uri           The full URI to query
-     * @param selection     An optional restriction to apply to rows when deleting.
-     * @param selectionArgs Used in conjunction with the selection statement
-     * @return The number of rows deleted
+     * @param locationKeys    The locations, as sent to the weather server
+     * @param forecasts       The days each location should hold afterwards, in the same order,
+     *                        or null for a location whose forecast didn't change
+     * @param hourlyForecasts The hourly forecast of each location, in the same order, or null.
+     *                        A null entry leaves the hourly forecast of that location alone.
+     * @param changes         Where the days that were updated, inserted or deleted are recorded
+     * @return The number of rows updated, inserted or deleted
      */
-    @Override
-    public int delete(@NonNull Uri uri, String selection, String[] selectionArgs) {
+    private int replaceForecasts(String[] locationKeys, ForecastBatch[] forecasts,
+                                 HourlyBatch[] hourlyForecasts, WeatherChanges changes) {
+        for (ForecastBatch forecast : forecasts) {
+            if (forecast != null) {
+                WeatherWriter.checkDatesNormalized(forecast);
+            }
+        }
 
-        /* Users of the delete method will expect the number of rows deleted to be returned. */
-        int numRowsDeleted;
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final WeatherWriter writer = new WeatherWriter(db);
+        writer.setChanges(changes);
+        final HistoryStore history = SunshinePreferences.isHistoryEnabled(getContext())
+                ? new HistoryStore(db) : null;
+        writer.setHistory(history);
+        final long syncTime = System.currentTimeMillis();
+        long[] changedLocationIds = new long[locationKeys.length];
+        int changedLocations = 0;
+        int rowsChanged = 0;
+        int locationsDeleted;
 
-        /*
-         * If we pass null as the selection to SQLiteDatabase#delete, our entire table will be
-         * deleted. However, if we do pass null and delete all of the rows in the table, we won't
-         * know how many rows were deleted. According to the documentation for SQLiteDatabase,
-         * passing "1" for the selection will delete all rows and return the number of rows
-         * deleted, which is what the caller of this method expects.
-         */
-        if (null == selection) selection = "1";
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < locationKeys.length; i++) {
+                long locationId = writer.upsertLocation(locationKeys[i], forecasts[i], syncTime);
 
-        switch (sUriMatcher.match(uri)) {
+                if (hourlyForecasts != null && hourlyForecasts[i] != null) {
+                    rowsChanged += writer.replaceHourly(locationId, hourlyForecasts[i]);
+                }
 
-            case CODE_WEATHER:
-                numRowsDeleted = mOpenHelper.getWritableDatabase().delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME,
-                        selection,
-                        selectionArgs);
+                if (forecasts[i] == null) {
+                    continue;
+                }
 
-                break;
+                int locationRowsChanged = writer.replace(locationId, forecasts[i]);
+                if (locationRowsChanged > 0) {
+                    changedLocationIds[changedLocations++] = locationId;
+                    rowsChanged += locationRowsChanged;
+                }
+            }
 
-            default:
-                throw new UnsupportedOperationException("Unknown uri: " + uri);
+            locationsDeleted = deleteUnsyncedLocations(db, locationKeys);
+            db.setTransactionSuccessful();
+        } finally {
+            writer.close();
+            if (history != null) {
+                history.close();
+            }
+            db.endTransaction();
         }
 
-        /* If we actually deleted any rows, notify that a change has occurred to this URI */
-        if (numRowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+        if (history != null && history.getArchivedRowCount() > 0) {
+            notifyChange(HistoryEntry.CONTENT_URI);
         }
 
-        return numRowsDeleted;
+        if (locationsDeleted > 0) {
+            /* Nobody shows those locations anymore, telling the lists is enough */
+            clearSnapshots();
+            notifyChange(WeatherEntry.CHANGES_URI);
+            notifyChange(HourlyEntry.CONTENT_URI);
+            notifyChange(HistoryEntry.CONTENT_URI);
+        } else if (changedLocations > 0) {
+            reloadSnapshots(db, Arrays.copyOf(changedLocationIds, changedLocations));
+        }
+
+        return rowsChanged;
     }
 
     /**
-     * In Sunshine, we aren't going to do anything with this method. However, we are required to
-     * override it as WeatherProvider extends ContentProvider and getType is an abstract method in
-     * ContentProvider. Normally, this method handles requests for the MIME type of the data at the
-     * given URI. For example, if your app provided images at a particular URI, then you would
-     * return an image URI from this method.
+     * Deletes every location that isn't synced anymore, with its weather, hourly forecast and
+     * history. This has to be called inside the transaction writing the forecasts.
      *
-     * @param uri the URI to query.
-     * @return nothing in Sunshine, but normally a MIME type string, or null if there is no type.
+     * @param db           The database, inside the transaction
+     * @param locationKeys Locations being written, which are kept whatever the preferences say
+     * @return The number of locations deleted
      */
-    @Override
-    public String getType(@NonNull Uri uri) {
-        throw new RuntimeException("We are not implementing getType in Sunshine.");
+    private int deleteUnsyncedLocations(SQLiteDatabase db, String[] locationKeys) {
+        Set<String> keptKeys =
+                new LinkedHashSet<>(SunshinePreferences.getSyncedLocations(getContext()));
+        Collections.addAll(keptKeys, locationKeys);
+
+        /* The location keys are compared without case, like the column itself */
+        StringBuilder selection = new StringBuilder(LocationEntry.COLUMN_LOCATION_KEY)
+                .append(" NOT IN (");
+        for (int i = 0; i < keptKeys.size(); i++) {
+            selection.append(i == 0 ? "?" : ", ?");
+        }
+        selection.append(')');
+
+        return deleteLocations(db, selection.toString(),
+                keptKeys.toArray(new String[keptKeys.size()]));
     }
 
     /**
-     * In Sunshine, we aren't going to do anything with this method. However, we are required to
-     * override it as WeatherProvider extends ContentProvider and insert is an abstract method in
-     * ContentProvider. Rather than the single insert method, we are only going to implement
-     * {@link WeatherProvider#bulkInsert}.
+     * Deletes locations along with their weather, hourly forecast and history. The caller holds
+     * the transaction.
      *
-     * @param uri    The URI of the insertion request. This must not be null.
-     * @param values A set of column_name/value pairs to add to the database.
-     *               This must not be null
-     * @return nothing in Sunshine, but normally the URI for the newly inserted item.
+     * @param db            The database, inside a transaction
+     * @param selection     Picks the rows of the location table to delete
+     * @param selectionArgs Arguments of the selection
+     * @return The number of locations deleted
      */
-    @Override
-    public Uri insert(@NonNull Uri uri, ContentValues values) {
-        throw new RuntimeException(
-                "We are not implementing insert in Sunshine. Use bulkInsert instead");
+    private static int deleteLocations(SQLiteDatabase db, String selection,
+                                       String[] selectionArgs) {
+        String locationIds = " IN (SELECT " + LocationEntry._ID
+                + " FROM " + LocationEntry.TABLE_NAME + " WHERE " + selection + ")";
+
+        /* The weather of the locations goes first, while they can still be found */
+        db.delete(WeatherEntry.TABLE_NAME,
+                WeatherEntry.COLUMN_LOCATION_ID + locationIds, selectionArgs);
+        db.delete(HourlyEntry.TABLE_NAME,
+                HourlyEntry.COLUMN_LOCATION_ID + locationIds, selectionArgs);
+        HistoryStore.deleteLocations(db, locationIds, selectionArgs);
+        return db.delete(LocationEntry.TABLE_NAME, selection, selectionArgs);
     }
 
-    @Override
-    public int update(@NonNull Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        throw new RuntimeException("We are not implementing update in Sunshine");
+    /*
+     * The arguments of call() are checked before anything is written, and missing ones are
+     * rejected the way unknown URIs are rather than failing halfway with a NullPointerException.
+     */
+    private static Bundle requireExtras(String method, Bundle extras) {
+        if (extras == null) {
+            throw new IllegalArgumentException(method + " needs extras");
+        }
+        return extras;
+    }
+
+    private static <T> T requireExtra(String method, String name, T value) {
+        if (value == null) {
+            throw new IllegalArgumentException(method + " needs " + name);
+        }
+        return value;
+    }
+
+    private static boolean hasAny(Object[] array) {
+        if (array != null) {
+            for (Object element : array) {
+                if (element != null) return true;
+            }
+        }
+        return false;
     }
 
     /**
-     * You do not need to call this method. This is a method specifically to assist the testing
-     * framework in running smoothly. You can read more at:
-     * http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
+     * @return The preferred location, as sent to the weather server
      */
-    @Override
-    @TargetApi(11)
-    public void shutdown() {
-        mOpenHelper.close();
-        super.shutdown();
+    private String getPreferredLocationKey() {
+        return SunshinePreferences.getPreferredWeatherLocation(getContext());
+    }
+
+    /**
+     * Returns the _ID of the preferred location. The answer is kept for as long as the preferred
+     * location stays the same, so this only reads the database right after it changed.
+     *
+     * @return The _ID of the preferred location, or -1 if it isn't in the location table yet
+     */
+    private long getPreferredLocationId() {
+        String locationKey = getPreferredLocationKey();
+
+        PreferredLocation preferred = mPreferredLocation;
+        if (preferred != null && preferred.mKey.equalsIgnoreCase(locationKey)) {
+            return preferred.mId;
+        }
+
+        long locationId = WeatherWriter.findLocation(
+                mOpenHelper.getReadableDatabase(), locationKey);
+        /*
+         * A location that isn't stored yet will be soon, so don't remember that it's missing.
+         * Neither remember one a batch may have just added: it could still be rolled back.
+         */
+        if (locationId != -1 && mBatch.get() == null) {
+            mPreferredLocation = new PreferredLocation(locationKey, locationId);
+        }
+        return locationId;
+    }
+
+    /**
+     * Returns the location a weather URI is about: the one in its path, or the preferred location
+     * for CONTENT_URI and the URIs built from it.
+     *
+     * @return The _ID of the location, or -1 if the preferred location isn't stored yet
+     */
+    private long getLocationId(int match, Uri uri) {
+        switch (match) {
+            case CODE_WEATHER_WITH_LOCATION:
+            case CODE_WEATHER_WITH_LOCATION_AND_DATE:
+            case CODE_WEATHER_WITH_LOCATION_AND_DATES:
+            case CODE_STATS_WITH_LOCATION_WEEK:
+            case CODE_STATS_WITH_LOCATION_MONTH:
+            case CODE_STATS_WITH_LOCATION_AND_RANGE:
+            case CODE_HOURLY_WITH_LOCATION:
+            case CODE_HOURLY_WITH_LOCATION_AND_RANGE:
+            case CODE_HISTORY_WITH_LOCATION_AND_RANGE:
+                return getLocationIdFromUri(uri);
+
+            default:
+                return getPreferredLocationId();
+        }
+    }
+
+    /* weather/location/#/..., hourly/location/#/... or history/location/#/..., the location
+     * being the third segment */
+    private static long getLocationIdFromUri(Uri uri) {
+        return Long.parseLong(uri.getPathSegments().get(2));
+    }
+
+    /**
+     * Returns the current snapshot of a location, reading it from the database if this is the
+     * first time it is needed since the process started.
+     *
+     * @param locationId _ID of the location
+     * @return The current snapshot of the location
+     */
+    private ForecastSnapshot getSnapshot(long locationId) {
+        ForecastSnapshot snapshot = mSnapshots.get(locationId);
+        if (snapshot == null) {
+            synchronized (mSnapshotLock) {
+                snapshot = mSnapshots.get(locationId);
+                if (snapshot == null) {
+                    snapshot = ForecastSnapshot.load(mOpenHelper.getReadableDatabase(),
+                            locationId);
+                    LongSparseArray<ForecastSnapshot> snapshots = mSnapshots.clone();
+                    snapshots.put(locationId, snapshot);
+                    mSnapshots = snapshots;
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Replaces the snapshots of the given locations with the current content of the weather
+     * table, and forgets their statistics. This has to be called after a write has committed,
+     * never from inside its transaction, or other threads could see rows that are later rolled
+     * back. Locations that don't have a snapshot yet are left alone, their first query will read
+     * them. Inside applyBatch, this is put off until the batch's transaction is over.
+     * <p>
+     * Reading and publishing happen under one lock, so when two writes finish at the same time
+     * the snapshot that ends up published is the one read last, which includes both of them.
+     *
+     * @param db          The database that was written to
+     * @param locationIds _IDs of the locations that were written to
+     */
+    private void reloadSnapshots(SQLiteDatabase db, long... locationIds) {
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            for (long locationId : locationIds) {
+                batch.mLocationIds.add(locationId);
+            }
+            return;
+        }
+
+        mStats.invalidate(locationIds);
+        synchronized (mSnapshotLock) {
+            LongSparseArray<ForecastSnapshot> snapshots = mSnapshots.clone();
+            for (long locationId : locationIds) {
+                if (snapshots.indexOfKey(locationId) >= 0) {
+                    snapshots.put(locationId, ForecastSnapshot.load(db, locationId));
+                }
+            }
+            mSnapshots = snapshots;
+        }
+    }
+
+    /**
+     * Drops every snapshot and statistic, after a write that may have touched any location. This
+     * has to be called after the write has committed, and inside applyBatch it is put off until
+     * the batch's transaction is over.
+     */
+    private void clearSnapshots() {
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            batch.mClearSnapshots = true;
+            return;
+        }
+
+        mStats.invalidateAll();
+        synchronized (mSnapshotLock) {
+            mSnapshots = new LongSparseArray<>();
+        }
+    }
+
+    /**
+     * Answers a query from the snapshot if it is one of the queries the app makes over and over:
+     * the forecast of a location from today onwards, sorted by date, or the weather of a single
+     * day.
+     *
+     * @return A cursor over the snapshot, or null if the query has to be run against SQLite
+     */
+    private Cursor queryFromSnapshot(int match, Uri uri, String[] projection, String selection,
+                                     String[] selectionArgs, String sortOrder) {
+        switch (match) {
+
+            case CODE_WEATHER_WITH_DATE:
+            case CODE_WEATHER_WITH_LOCATION_AND_DATE:
+                if (selection != null) {
+                    return null;
+                }
+                return getSnapshot(getLocationId(match, uri)).queryDate(
+                        Long.parseLong(uri.getLastPathSegment()), projection);
+
+            case CODE_WEATHER_WITH_DATES:
+            case CODE_WEATHER_WITH_LOCATION_AND_DATES:
+                if (selection != null || !isSortedByDateAscending(sortOrder)) {
+                    return null;
+                }
+                return getSnapshot(getLocationId(match, uri)).queryDates(
+                        parseDates(uri), projection);
+
+            case CODE_WEATHER:
+            case CODE_WEATHER_WITH_LOCATION: {
+                if (selection == null
+                        || (selectionArgs != null && selectionArgs.length > 0)
+                        || !isSortedByDateAscending(sortOrder)) {
+                    return null;
+                }
+                Matcher matcher = TODAY_ONWARDS_SELECTION.matcher(selection);
+                if (!matcher.matches()) {
+                    return null;
+                }
+                long fromDate = Long.parseLong(matcher.group(1));
+                int limit = Integer.MAX_VALUE;
+                if (isPaged(uri)) {
+                    fromDate = Math.max(fromDate, getPageAfterDate(uri) + 1);
+                    limit = getPageLimit(uri);
+                }
+                return getSnapshot(getLocationId(match, uri)).queryFromDate(
+                        fromDate, limit, projection);
+            }
+
+            default:
+                return null;
+        }
+    }
+
+    /*
+     * The snapshot is kept sorted by date, so no sort order at all is fine too: SQLite doesn't
+     * promise any particular order in that case.
+     */
+    private static boolean isSortedByDateAscending(String sortOrder) {
+        if (sortOrder == null) {
+            return true;
+        }
+        String trimmed = sortOrder.trim();
+        return trimmed.equalsIgnoreCase(WeatherEntry.COLUMN_DATE)
+                || trimmed.equalsIgnoreCase(WeatherEntry.COLUMN_DATE + " ASC");
+    }
+
+    /**
+     * Reads the dates of a PATH_DATES segment, which is the last segment of the URI.
+     *
+     * @return The dates, sorted and without duplicates
+     * @throws IllegalArgumentException If one of them isn't a number
+     */
+    private static long[] parseDates(Uri uri) {
+        String[] values = uri.getLastPathSegment().split(WeatherContract.DATES_SEPARATOR);
+        long[] dates = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            dates[i] = Long.parseLong(values[i].trim());
+        }
+        Arrays.sort(dates);
+
+        int count = 0;
+        for (int i = 0; i < dates.length; i++) {
+            if (i == 0 || dates[i] != dates[i - 1]) {
+                dates[count++] = dates[i];
+            }
+        }
+        return count == dates.length ? dates : Arrays.copyOf(dates, count);
+    }
+
+    /*
+     * Picks some days of one location with a single IN list, which SQLite answers with one seek
+     * into the (location_id, date) index per date. The dates were parsed as numbers, so they
+     * are written into the SQL rather than bound, which keeps long lists clear of SQLite's limit
+     * on the number of arguments.
+     */
+    private static String selectLocationAndDates(long[] dates, String selection) {
+        StringBuilder sql = new StringBuilder(SELECTION_LOCATION)
+                .append(" AND ").append(WeatherEntry.COLUMN_DATE).append(" IN (");
+        for (int i = 0; i < dates.length; i++) {
+            if (i > 0) sql.append(", ");
+            sql.append(dates[i]);
+        }
+        sql.append(')');
+        if (selection != null) {
+            sql.append(" AND (").append(selection).append(')');
+        }
+        return sql.toString();
+    }
+
+    /* true if the URI asks for a page, see WeatherContract.PARAM_LIMIT */
+    private static boolean isPaged(Uri uri) {
+        return uri.getQueryParameter(WeatherContract.PARAM_LIMIT) != null;
+    }
+
+    private static long getPageAfterDate(Uri uri) {
+        String after = uri.getQueryParameter(WeatherContract.PARAM_AFTER);
+        return after != null ? Long.parseLong(after) : Long.MIN_VALUE;
+    }
+
+    private static int getPageLimit(Uri uri) {
+        int limit = Integer.parseInt(uri.getQueryParameter(WeatherContract.PARAM_LIMIT));
+        if (limit < 1) {
+            throw new IllegalArgumentException("A page holds at least one row: " + uri);
+        }
+        return limit;
+    }
+
+    /* The next page starts after the last date of this one, which only works in date order */
+    private static void checkPageSortOrder(String sortOrder) {
+        if (!isSortedByDateAscending(sortOrder)) {
+            throw new IllegalArgumentException("Pages are sorted by date, not " + sortOrder);
+        }
+    }
+
+    /*
+     * Restricts a selection to the rows of one location. The location comes first, so it is
+     * also the first selection argument.
+     */
+    private static String selectLocation(String selection) {
+        return selection == null
+                ? SELECTION_LOCATION
+                : SELECTION_LOCATION + " AND (" + selection + ")";
+    }
+
+    private static String[] selectLocationArgs(long locationId, String[] selectionArgs) {
+        return concat(new String[]{Long.toString(locationId)}, selectionArgs);
+    }
+
+    private static String[] concat(String[] first, String[] second) {
+        int count = second != null ? second.length : 0;
+        String[] args = new String[first.length + count];
+        System.arraycopy(first, 0, args, 0, first.length);
+        if (count > 0) {
+            System.arraycopy(second, 0, args, first.length, count);
+        }
+        return args;
+    }
+
+    /**
+     * Handles query requests from clients. We will use this method in Sunshine to query for all
+     * of our weather data as well as to query for the weather on a particular day.
+     * <p>
+     * Weather is always queried for a single location, the preferred one unless the URI names
+     * another, so every weather query is a seek into the (location_id, date) index.
+     *
+     * @param uri           The URI to query
+     * @param projection    The list of columns to put into the cursor. If null, all columns are
+     *                      included.
+     * @param selection     A selection criteria to apply when filtering rows. If null, then all
+     *                      rows are included.
+     * @param selectionArgs You may include ?s in selection, which will be replaced by
+     *                      the values from selectionArgs, in order that they appear in the
+     *                      selection.
+     * @param sortOrder     How the rows in the cursor should be sorted.
+     * @return A Cursor containing the results of the query. In our implementation,
+     */
+    @Override
+    public Cursor query(@NonNull Uri uri, String[] projection, String selection,
+                        String[] selectionArgs, String sortOrder) {
+
+        final long startNanos = System.nanoTime();
+        int match = sUriMatcher.match(uri);
+
+        /*
+         * Most queries ask for the same few rows every time. Those are answered from the
+         * in-memory snapshot of the location's weather, which holds exactly what was committed
+         * last. Queries made by a batch go to the database instead, so they see what the batch
+         * has written so far.
+         */
+        Cursor cursor = mBatch.get() == null
+                ? queryFromSnapshot(match, uri, projection, selection, selectionArgs, sortOrder)
+                : null;
+        if (cursor != null) {
+            cursor.setNotificationUri(getContext().getContentResolver(),
+                    getNotificationUri(match, uri));
+            recordQuery(match, startNanos, cursor);
+            return cursor;
+        }
+
+        /*
+         * Here's the switch statement that, given a URI, will determine what kind of request is
+         * being made and query the database accordingly.
+         */
+        switch (match) {
+
+            /*
+             * When sUriMatcher's match method is called with a URI that looks something like this
+             *
+             *      content://com.example.android.sunshine/weather/1472214172
+             *
+             * sUriMatcher's match method will return the code that indicates to us that we need
+             * to return the weather for a particular date. The date in this code is encoded in
+             * milliseconds and is at the very end of the URI (1472214172) and can be accessed
+             * programmatically using Uri's getLastPathSegment method.
+             *
+             * In this case, we want to return a cursor that contains one row of weather data for
+             * a particular date. weather/location/3/date/1472214172 is the same, for location 3
+             * rather than the preferred location.
+             */
+            case CODE_WEATHER_WITH_DATE:
+            case CODE_WEATHER_WITH_LOCATION_AND_DATE: {
+
+                /*
+                 * In order to determine the date associated with this URI, we look at the last
+                 * path segment. In the comment above, the last path segment is 1472214172 and
+                 * represents the number of seconds since the epoch, or UTC time.
+                 */
+                String normalizedUtcDateString = uri.getLastPathSegment();
+
+                /*
+                 * The query method accepts a string array of arguments, as there may be more
+                 * than one "?" in the selection statement. Here we have two: the location and
+                 * the date.
+                 */
+                String[] selectionArguments = new String[]{
+                        Long.toString(getLocationId(match, uri)),
+                        normalizedUtcDateString};
+
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        /* Table we are going to query */
+                        WeatherEntry.TABLE_NAME,
+                        /*
+                         * A projection designates the columns we want returned in our Cursor.
+                         * Passing null will return all columns of data within the Cursor.
+                         * However, if you don't need all the data from the table, it's best
+                         * practice to limit the columns returned in the Cursor with a projection.
+                         */
+                        projection,
+                        /*
+                         * The URI that matches CODE_WEATHER_WITH_DATE contains a date at the end
+                         * of it. We extract that date and use it with these next two lines to
+                         * specify the row of weather we want returned in the cursor. We use a
+                         * question mark here and then designate selectionArguments as the next
+                         * argument for performance reasons. Whatever Strings are contained
+                         * within the selectionArguments array will be inserted into the
+                         * selection statement by SQLite under the hood.
+                         */
+                        SELECTION_LOCATION_AND_DATE,
+                        selectionArguments,
+                        null,
+                        null,
+                        sortOrder);
+
+                break;
+            }
+
+            /*
+             * Several days of a location in one cursor, such as today and the weekend. Without a
+             * selection they come from the snapshot above, otherwise from a single query.
+             */
+            case CODE_WEATHER_WITH_DATES:
+            case CODE_WEATHER_WITH_LOCATION_AND_DATES: {
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherEntry.TABLE_NAME,
+                        projection,
+                        selectLocationAndDates(parseDates(uri), selection),
+                        selectLocationArgs(getLocationId(match, uri), selectionArgs),
+                        null,
+                        null,
+                        sortOrder != null ? sortOrder : SORT_ORDER_DATE);
+
+                break;
+            }
+
+            /*
+             * When sUriMatcher's match method is called with a URI that looks EXACTLY like this
+             *
+             *      content://com.example.android.sunshine/weather/
+             *
+             * sUriMatcher's match method will return the code that indicates to us that we need
+             * to return all of the weather of the preferred location, or of location 3 for
+             * weather/location/3.
+             *
+             * In this case, we want to return a cursor that contains every row of weather data
+             * of that location which matches the selection.
+             */
+            case CODE_WEATHER:
+            case CODE_WEATHER_WITH_LOCATION: {
+                String weatherSelection = selectLocation(selection);
+                String[] weatherSelectionArgs =
+                        selectLocationArgs(getLocationId(match, uri), selectionArgs);
+                String limit = null;
+
+                /* A page is the next few rows of the (location_id, date) index */
+                if (isPaged(uri)) {
+                    checkPageSortOrder(sortOrder);
+                    weatherSelection += " AND " + WeatherEntry.COLUMN_DATE + " > ?";
+                    weatherSelectionArgs = concat(weatherSelectionArgs,
+                            new String[]{Long.toString(getPageAfterDate(uri))});
+                    sortOrder = SORT_ORDER_DATE;
+                    limit = Integer.toString(getPageLimit(uri));
+                }
+
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherEntry.TABLE_NAME,
+                        projection,
+                        weatherSelection,
+                        weatherSelectionArgs,
+                        null,
+                        null,
+                        sortOrder,
+                        limit);
+
+                break;
+            }
+
+            /*
+             * The hourly forecast of a location. A location has a few hundred rows of it, so
+             * nothing is kept in memory: every query is a seek into the (location_id, time)
+             * index, and with a range, only the rows of that window are read.
+             */
+            case CODE_HOURLY:
+            case CODE_HOURLY_WITH_LOCATION: {
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        HourlyEntry.TABLE_NAME,
+                        projection,
+                        selectLocation(selection),
+                        selectLocationArgs(getLocationId(match, uri), selectionArgs),
+                        null,
+                        null,
+                        sortOrder != null ? sortOrder : SORT_ORDER_HOURLY);
+
+                break;
+            }
+
+            case CODE_HOURLY_WITH_RANGE:
+            case CODE_HOURLY_WITH_LOCATION_AND_RANGE: {
+                /* The range is the last two path segments, start and then end */
+                List<String> segments = uri.getPathSegments();
+                String[] rangeArgs = new String[]{
+                        Long.toString(getLocationId(match, uri)),
+                        segments.get(segments.size() - 2),
+                        segments.get(segments.size() - 1)};
+
+                String rangeSelection = selection == null
+                        ? SELECTION_LOCATION_AND_RANGE
+                        : SELECTION_LOCATION_AND_RANGE + " AND (" + selection + ")";
+
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        HourlyEntry.TABLE_NAME,
+                        projection,
+                        rangeSelection,
+                        concat(rangeArgs, selectionArgs),
+                        null,
+                        null,
+                        sortOrder != null ? sortOrder : SORT_ORDER_HOURLY);
+
+                break;
+            }
+
+            /*
+             * The statistics of a location, summed up by SQLite and kept by mStats until the
+             * location's weather is written to again.
+             */
+            case CODE_STATS_WEEK:
+            case CODE_STATS_MONTH:
+            case CODE_STATS_WITH_RANGE:
+            case CODE_STATS_WITH_LOCATION_WEEK:
+            case CODE_STATS_WITH_LOCATION_MONTH:
+            case CODE_STATS_WITH_LOCATION_AND_RANGE: {
+                int period = WeatherStats.PERIOD_RANGE;
+                long start = Long.MIN_VALUE;
+                long end = Long.MAX_VALUE;
+                if (match == CODE_STATS_WEEK || match == CODE_STATS_WITH_LOCATION_WEEK) {
+                    period = WeatherStats.PERIOD_WEEK;
+                } else if (match == CODE_STATS_MONTH || match == CODE_STATS_WITH_LOCATION_MONTH) {
+                    period = WeatherStats.PERIOD_MONTH;
+                } else {
+                    List<String> segments = uri.getPathSegments();
+                    start = Long.parseLong(segments.get(segments.size() - 2));
+                    end = Long.parseLong(segments.get(segments.size() - 1));
+                }
+
+                cursor = mStats.query(mOpenHelper.getReadableDatabase(),
+                        getLocationId(match, uri), period, start, end, projection, selection,
+                        selectionArgs, sortOrder);
+
+                break;
+            }
+
+            /*
+             * The history of a location, as a whole or in a window of dates. It is spread over
+             * one table per month, and only the months the window overlaps are read.
+             */
+            case CODE_HISTORY:
+            case CODE_HISTORY_WITH_RANGE:
+            case CODE_HISTORY_WITH_LOCATION_AND_RANGE: {
+                long start = Long.MIN_VALUE;
+                long end = Long.MAX_VALUE;
+                if (match != CODE_HISTORY) {
+                    List<String> segments = uri.getPathSegments();
+                    start = Long.parseLong(segments.get(segments.size() - 2));
+                    end = Long.parseLong(segments.get(segments.size() - 1));
+                }
+
+                /* Paging narrows the window, so only the partitions of the page are read */
+                String limit = null;
+                if (isPaged(uri)) {
+                    checkPageSortOrder(sortOrder);
+                    start = Math.max(start, getPageAfterDate(uri) + 1);
+                    sortOrder = SORT_ORDER_DATE;
+                    limit = Integer.toString(getPageLimit(uri));
+                }
+
+                cursor = HistoryStore.query(mOpenHelper.getReadableDatabase(), projection,
+                        getLocationId(match, uri), start, end, selection, selectionArgs,
+                        sortOrder, limit);
+
+                break;
+            }
+
+            case CODE_LOCATION: {
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        LocationEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder);
+
+                break;
+            }
+
+            case CODE_METRICS: {
+                checkMetricsServed(uri);
+                cursor = mMetrics.newCursor();
+
+                break;
+            }
+
+            case CODE_LOCATION_WITH_ID: {
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        LocationEntry.TABLE_NAME,
+                        projection,
+                        LocationEntry._ID + " = ? ",
+                        new String[]{uri.getLastPathSegment()},
+                        null,
+                        null,
+                        sortOrder);
+
+                break;
+            }
+
+            default:
+                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+
+        cursor.setNotificationUri(getContext().getContentResolver(),
+                getNotificationUri(match, uri));
+        recordQuery(match, startNanos, cursor);
+        return cursor;
+    }
+
+    /*
+     * Counting the rows makes SQLite step through the whole query before the cursor is returned.
+     * Most callers read every row anyway, so that time is then part of the query's, but a caller
+     * that only reads the first rows pays for the rest of them too. The snapshot cursors are
+     * already in memory and count for free.
+     */
+    private void recordQuery(int match, long startNanos, Cursor cursor) {
+        int rows = cursor.getCount();
+        mMetrics.record(ProviderMetrics.OP_QUERY, match, startNanos, rows,
+                (long) rows * cursor.getColumnCount() * ProviderMetrics.BYTES_PER_VALUE);
+    }
+
+    /* The estimated size of the values of a write */
+    private static long countValues(ContentValues... values) {
+        long count = 0;
+        for (ContentValues value : values) {
+            count += value.size();
+        }
+        return count * ProviderMetrics.BYTES_PER_VALUE;
+    }
+
+    /**
+     * Returns the URI a cursor is notified through. Weather of a single day is notified through
+     * its own URI, which only changes along with that day. Weather of several days, and the
+     * statistics computed from it, are notified through CHANGES_URI once per write, however
+     * many days it touched.
+     *
+     * @return The URI to pass to Cursor#setNotificationUri
+     */
+    private static Uri getNotificationUri(int match, Uri uri) {
+        switch (match) {
+            case CODE_WEATHER:
+            case CODE_WEATHER_WITH_LOCATION:
+            case CODE_WEATHER_WITH_DATES:
+            case CODE_WEATHER_WITH_LOCATION_AND_DATES:
+            case CODE_STATS_WEEK:
+            case CODE_STATS_MONTH:
+            case CODE_STATS_WITH_RANGE:
+            case CODE_STATS_WITH_LOCATION_WEEK:
+            case CODE_STATS_WITH_LOCATION_MONTH:
+            case CODE_STATS_WITH_LOCATION_AND_RANGE:
+                return WeatherEntry.CHANGES_URI;
+
+            default:
+                return uri;
+        }
+    }
+
+    /**
+     * Tells the observers of the days a write touched, and those of CHANGES_URI, that the
+     * weather changed. This has to be called after the write has committed. Inside applyBatch,
+     * the days are added to those of the batch, which are notified once it has committed.
+     *
+     * @param changes The days the write touched
+     */
+    private void notifyWeatherChanged(WeatherChanges changes) {
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            batch.mChanges.addAll(changes);
+        } else if (!changes.isEmpty()) {
+            changes.notifyObservers(getContext().getContentResolver(), getPreferredLocationId());
+        }
+    }
+
+    /**
+     * Tells the observers of a URI, and of the URIs below it, that its data changed. Inside
+     * applyBatch, this is put off until the batch has committed, and each URI is notified once
+     * however many operations of the batch changed it.
+     *
+     * @param uri The URI whose data changed
+     */
+    private void notifyChange(Uri uri) {
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            batch.mUris.add(uri);
+        } else {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * Deletes data at a given URI with optional arguments for more fine tuned deletions.
+     * <p>
+     * Deleting weather only ever deletes the weather of one location, the preferred one unless
+     * the URI names another, and the same goes for the hourly forecast. Deleting the history
+     * deletes all of it. Deleting locations deletes their weather, hourly forecast and history
+     * along with them.
+     *
+     * @param uri           The full URI to query
+     * @param selection     An optional restriction to apply to rows when deleting.
+     * @param selectionArgs Used in conjunction with the selection statement
+     * @return The number of rows deleted
+     */
+    @Override
+    public int delete(@NonNull Uri uri, String selection, String[] selectionArgs) {
+
+        final long startNanos = System.nanoTime();
+
+        /* Users of the delete method will expect the number of rows deleted to be returned. */
+        int numRowsDeleted;
+
+        /*
+         * If we pass null as the selection to SQLiteDatabase#delete, our entire table will be
+         * deleted. However, if we do pass null and delete all of the rows in the table, we won't
+         * know how many rows were deleted. According to the documentation for SQLiteDatabase,
+         * passing "1" for the selection will delete all rows and return the number of rows
+         * deleted, which is what the caller of this method expects.
+         */
+        if (null == selection) selection = "1";
+
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final int match = sUriMatcher.match(uri);
+
+        switch (match) {
+
+            case CODE_WEATHER:
+            case CODE_WEATHER_WITH_LOCATION: {
+                long locationId = getLocationId(match, uri);
+                String locationSelection = selectLocation(selection);
+                String[] locationSelectionArgs = selectLocationArgs(locationId, selectionArgs);
+                WeatherChanges changes = new WeatherChanges();
+
+                /* The dates are read first, so only the observers of those days are notified */
+                db.beginTransaction();
+                try {
+                    Cursor dates = db.query(WeatherEntry.TABLE_NAME,
+                            new String[]{WeatherEntry.COLUMN_DATE},
+                            locationSelection, locationSelectionArgs, null, null, null);
+                    try {
+                        while (dates.moveToNext()) {
+                            changes.add(locationId, dates.getLong(0));
+                        }
+                    } finally {
+                        dates.close();
+                    }
+
+                    numRowsDeleted = db.delete(
+                            WeatherEntry.TABLE_NAME, locationSelection, locationSelectionArgs);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+
+                if (numRowsDeleted != 0) {
+                    reloadSnapshots(db, locationId);
+                    notifyWeatherChanged(changes);
+                }
+
+                break;
+            }
+
+            case CODE_HOURLY:
+            case CODE_HOURLY_WITH_LOCATION: {
+                numRowsDeleted = db.delete(
+                        HourlyEntry.TABLE_NAME,
+                        selectLocation(selection),
+                        selectLocationArgs(getLocationId(match, uri), selectionArgs));
+
+                if (numRowsDeleted != 0) {
+                    notifyChange(uri);
+                }
+
+                break;
+            }
+
+            /* The whole history, of every location, which is only a matter of dropping tables */
+            case CODE_HISTORY: {
+                numRowsDeleted = HistoryStore.deleteAll(db);
+
+                if (numRowsDeleted != 0) {
+                    notifyChange(uri);
+                }
+
+                break;
+            }
+
+            case CODE_LOCATION:
+            case CODE_LOCATION_WITH_ID: {
+                if (match == CODE_LOCATION_WITH_ID) {
+                    selection = LocationEntry._ID + " = ?";
+                    selectionArgs = new String[]{uri.getLastPathSegment()};
+                }
+
+                db.beginTransaction();
+                try {
+                    numRowsDeleted = deleteLocations(db, selection, selectionArgs);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+
+                if (numRowsDeleted != 0) {
+                    mPreferredLocation = null;
+                    clearSnapshots();
+                    notifyChange(LocationEntry.CONTENT_URI);
+                    notifyChange(WeatherEntry.CONTENT_URI);
+                    notifyChange(HourlyEntry.CONTENT_URI);
+                    notifyChange(HistoryEntry.CONTENT_URI);
+                }
+
+                break;
+            }
+
+            /* Starts counting again, which only debug builds allow */
+            case CODE_METRICS: {
+                checkMetricsServed(uri);
+                mMetrics.reset();
+                numRowsDeleted = 0;
+
+                break;
+            }
+
+            default:
+                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+
+        mMetrics.record(ProviderMetrics.OP_DELETE, match, startNanos, numRowsDeleted, 0);
+        return numRowsDeleted;
+    }
+
+    /**
+     * In Sunshine, we aren't going to do anything with this method. However, we are required to
+     * override it as WeatherProvider extends ContentProvider and getType is an abstract method in
+     * ContentProvider. Normally, this method handles requests for the MIME type of the data at the
+     * given URI. For example, if your app provided images at a particular URI, then you would
+     * return an image URI from this method.
+     *
+     * @param uri the URI to query.
+     * @return nothing in Sunshine, but normally a MIME type string, or null if there is no type.
+     */
+    @Override
+    public String getType(@NonNull Uri uri) {
+        throw new RuntimeException("We are not implementing getType in Sunshine.");
+    }
+
+    /**
+     * Inserts a single row. Weather goes through {@link #bulkInsert}, so a row without a
+     * location_id is weather of the location of the URI, and a row for a day that is already
+     * stored replaces it. The same goes for an hour of the hourly forecast.
+     * <p>
+     * This is mostly meant for {@link #applyBatch}, where the URI returned for a location can be
+     * used as a back reference by the weather of that location.
+     *
+     * @param uri    The URI of the insertion request. This must not be null.
+     * @param values A set of column_name/value pairs to add to the database.
+     *               This must not be null
+     * @return The URI of the new row, or null if it couldn't be inserted
+     */
+    @Override
+    public Uri insert(@NonNull Uri uri, ContentValues values) {
+        final long startNanos = System.nanoTime();
+        final Uri newUri = insertRow(uri, values);
+        mMetrics.record(ProviderMetrics.OP_INSERT, sUriMatcher.match(uri), startNanos,
+                newUri != null ? 1 : 0, countValues(values));
+        return newUri;
+    }
+
+    private Uri insertRow(Uri uri, ContentValues values) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final int match = sUriMatcher.match(uri);
+
+        switch (match) {
+
+            case CODE_WEATHER:
+            case CODE_WEATHER_WITH_LOCATION: {
+                if (insertWeather(match, uri, new ContentValues[]{values}) == 0) {
+                    return null;
+                }
+                long locationId = values.containsKey(WeatherEntry.COLUMN_LOCATION_ID)
+                        ? values.getAsLong(WeatherEntry.COLUMN_LOCATION_ID)
+                        : getLocationId(match, uri);
+                return WeatherEntry.buildWeatherUriWithLocationAndDate(locationId,
+                        values.getAsLong(WeatherEntry.COLUMN_DATE));
+            }
+
+            case CODE_HOURLY:
+            case CODE_HOURLY_WITH_LOCATION: {
+                if (!values.containsKey(HourlyEntry.COLUMN_LOCATION_ID)) {
+                    values = new ContentValues(values);
+                    values.put(HourlyEntry.COLUMN_LOCATION_ID, getLocationId(match, uri));
+                }
+                long _id = db.insertWithOnConflict(HourlyEntry.TABLE_NAME, null, values,
+                        SQLiteDatabase.CONFLICT_REPLACE);
+                if (_id == -1) {
+                    return null;
+                }
+
+                notifyChange(HourlyEntry.CONTENT_URI);
+                return ContentUris.withAppendedId(HourlyEntry.CONTENT_URI, _id);
+            }
+
+            case CODE_LOCATION: {
+                long locationId = db.insert(LocationEntry.TABLE_NAME, null, values);
+                if (locationId == -1) {
+                    return null;
+                }
+
+                notifyChange(LocationEntry.CONTENT_URI);
+                return LocationEntry.buildLocationUri(locationId);
+            }
+
+            default:
+                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+    }
+
+    /**
+     * Updates rows in place. As with the other operations, weather and the hourly forecast are
+     * only ever updated for one location, the preferred one unless the URI names another, and
+     * the URI of a single day only updates that day.
+     * <p>
+     * The location and the date of a day of weather are what identify it, so they can't be
+     * updated: delete the day and insert it again instead.
+     *
+     * @param uri           The URI of the rows to update
+     * @param values        The new values of the columns to update
+     * @param selection     An optional restriction on which rows are updated
+     * @param selectionArgs Used in conjunction with the selection statement
+     * @return The number of rows updated
+     */
+    @Override
+    public int update(@NonNull Uri uri, ContentValues values, String selection,
+                      String[] selectionArgs) {
+        final long startNanos = System.nanoTime();
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final int match = sUriMatcher.match(uri);
+        int numRowsUpdated;
+
+        switch (match) {
+
+            case CODE_WEATHER:
+            case CODE_WEATHER_WITH_LOCATION:
+            case CODE_WEATHER_WITH_DATE:
+            case CODE_WEATHER_WITH_LOCATION_AND_DATE: {
+                if (values.containsKey(WeatherEntry.COLUMN_LOCATION_ID)
+                        || values.containsKey(WeatherEntry.COLUMN_DATE)) {
+                    throw new IllegalArgumentException(
+                            "The location and date of weather can't be updated: " + values);
+                }
+
+                long locationId = getLocationId(match, uri);
+                String locationSelection = selectLocation(selection);
+                String[] locationSelectionArgs = selectLocationArgs(locationId, selectionArgs);
+                if (match == CODE_WEATHER_WITH_DATE
+                        || match == CODE_WEATHER_WITH_LOCATION_AND_DATE) {
+                    locationSelection = SELECTION_LOCATION_AND_DATE
+                            + (selection != null ? " AND (" + selection + ")" : "");
+                    locationSelectionArgs = concat(new String[]{
+                            Long.toString(locationId), uri.getLastPathSegment()}, selectionArgs);
+                }
+                WeatherChanges changes = new WeatherChanges();
+
+                /* As with a delete, the dates are read first so that only they are notified */
+                db.beginTransaction();
+                try {
+                    Cursor dates = db.query(WeatherEntry.TABLE_NAME,
+                            new String[]{WeatherEntry.COLUMN_DATE},
+                            locationSelection, locationSelectionArgs, null, null, null);
+                    try {
+                        while (dates.moveToNext()) {
+                            changes.add(locationId, dates.getLong(0));
+                        }
+                    } finally {
+                        dates.close();
+                    }
+
+                    numRowsUpdated = db.update(WeatherEntry.TABLE_NAME, values,
+                            locationSelection, locationSelectionArgs);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+
+                if (numRowsUpdated != 0) {
+                    reloadSnapshots(db, locationId);
+                    notifyWeatherChanged(changes);
+                }
+
+                break;
+            }
+
+            case CODE_HOURLY:
+            case CODE_HOURLY_WITH_LOCATION: {
+                numRowsUpdated = db.update(
+                        HourlyEntry.TABLE_NAME,
+                        values,
+                        selectLocation(selection),
+                        selectLocationArgs(getLocationId(match, uri), selectionArgs));
+
+                if (numRowsUpdated != 0) {
+                    notifyChange(HourlyEntry.CONTENT_URI);
+                }
+
+                break;
+            }
+
+            case CODE_LOCATION:
+            case CODE_LOCATION_WITH_ID: {
+                if (match == CODE_LOCATION_WITH_ID) {
+                    selection = LocationEntry._ID + " = ?";
+                    selectionArgs = new String[]{uri.getLastPathSegment()};
+                }
+
+                numRowsUpdated = db.update(LocationEntry.TABLE_NAME, values, selection,
+                        selectionArgs);
+
+                if (numRowsUpdated != 0) {
+                    /* The preferred location may have had its key changed */
+                    mPreferredLocation = null;
+                    notifyChange(LocationEntry.CONTENT_URI);
+                }
+
+                break;
+            }
+
+            default:
+                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+
+        mMetrics.record(ProviderMetrics.OP_UPDATE, match, startNanos, numRowsUpdated,
+                numRowsUpdated * countValues(values));
+        return numRowsUpdated;
+    }
+
+    /**
+     * Applies every operation of the batch in a single transaction: either all of them are
+     * committed, with a single sync of the database to disk, or none of them are. A yield point
+     * in the batch doesn't end the transaction.
+     * <p>
+     * Observers are only told about the changes once the transaction has committed, and each
+     * URI only once, however many operations changed it. The snapshots and statistics of the
+     * locations the batch wrote to are reloaded at the same time, and queries made by the batch
+     * itself read the database, which holds what the batch wrote so far.
+     *
+     * @param operations The operations to apply
+     * @return The result of each operation, in the same order
+     * @throws OperationApplicationException If an operation fails, in which case nothing of the
+     *                                       batch is kept
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(
+            @NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final long startNanos = System.nanoTime();
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final Batch batch = new Batch();
+        ContentProviderResult[] results;
+        boolean committed = false;
+
+        mBatch.set(batch);
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            db.endTransaction();
+            mBatch.remove();
+            finishBatch(db, batch, committed);
+        }
+
+        mMetrics.record(ProviderMetrics.OP_APPLY_BATCH, UriMatcher.NO_MATCH, startNanos,
+                operations.size(), 0);
+        return results;
+    }
+
+    /**
+     * Does what the operations of a batch put off until its transaction was over. If it was
+     * rolled back, the caches of the locations it wrote to are still reloaded, in case they were
+     * read in the meantime, but there is nothing to notify.
+     */
+    private void finishBatch(SQLiteDatabase db, Batch batch, boolean committed) {
+        if (batch.mClearSnapshots) {
+            clearSnapshots();
+        } else if (!batch.mLocationIds.isEmpty()) {
+            long[] locationIds = new long[batch.mLocationIds.size()];
+            int i = 0;
+            for (long locationId : batch.mLocationIds) {
+                locationIds[i++] = locationId;
+            }
+            reloadSnapshots(db, locationIds);
+        }
+
+        if (committed) {
+            notifyWeatherChanged(batch.mChanges);
+            for (Uri uri : batch.mUris) {
+                notifyChange(uri);
+            }
+        }
+    }
+
+    /*
+     * The metrics tell how the app is used, so only debug builds hand them out. Release builds
+     * print them for dumpsys, which requires the DUMP permission.
+     */
+    private static void checkMetricsServed(Uri uri) {
+        if (!BuildConfig.DEBUG) {
+            throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+    }
+
+    /**
+     * Prints the timings of the provider's operations, with
+     * <p>
+     * adb shell dumpsys activity provider com.example.android.sunshine/.data.WeatherProvider
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        mMetrics.dump(writer);
+    }
+
+    /**
+     * You do not need to call this method. This is a method specifically to assist the testing
+     * framework in running smoothly. You can read more at:
+     * http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
+     */
+    @Override
+    @TargetApi(11)
+    public void shutdown() {
+        mOpenHelper.close();
+        super.shutdown();
+    }
+
+    /* What the operations of a batch put off until its transaction is over */
+    private static final class Batch {
+
+        final WeatherChanges mChanges = new WeatherChanges();
+        final Set<Uri> mUris = new LinkedHashSet<>();
+        final Set<Long> mLocationIds = new TreeSet<>();
+        boolean mClearSnapshots;
+    }
+
+    /* A location key and the _ID it had in the location table when it was looked up */
+    private static final class PreferredLocation {
+
+        final String mKey;
+        final long mId;
+
+        PreferredLocation(String key, long id) {
+            mKey = key;
+            mId = id;
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.data.WeatherContract.StatsEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes the weather statistics of {@link StatsEntry} and keeps the answers until the weather
+ * they were computed from is written to. The rows are grouped and summed up by SQLite, over the
+ * (location_id, date) index, so a query returns a handful of rows rather than every day of the
+ * period.
+ * <p>
+ * A statistics query is typically repeated every time a screen is shown, while the weather only
+ * changes with a sync, so the answers are kept in memory: {@link WeatherProvider} calls
+ * {@link #invalidate} once a write has committed.
+ */
+final class WeatherStats {
+
+    /* How the days are grouped into rows */
+    static final int PERIOD_WEEK = 0;
+    static final int PERIOD_MONTH = 1;
+    static final int PERIOD_RANGE = 2;
+
+    /* A few screens times a few locations */
+    private static final int MAX_CACHED_QUERIES = 32;
+
+    /* The Monday of the week of a normalized date. The epoch was a Thursday. */
+    private static final String GROUP_BY_WEEK = WeatherEntry.COLUMN_DATE + " - (("
+            + WeatherEntry.COLUMN_DATE + " / " + SunshineDateUtils.DAY_IN_MILLIS + " + 3) % 7) * "
+            + SunshineDateUtils.DAY_IN_MILLIS;
+
+    /* The UTC year and month of a date */
+    private static final String GROUP_BY_MONTH = "strftime('%Y%m', "
+            + WeatherEntry.COLUMN_DATE + " / 1000, 'unixepoch')";
+
+    /* A range is a single row, and every row of the query has the same location */
+    private static final String GROUP_BY_RANGE = WeatherEntry.COLUMN_LOCATION_ID;
+
+    private static final String SORT_ORDER_START_DATE = StatsEntry.COLUMN_START_DATE + " ASC";
+
+    /* Answers by query, most recently used last, each with the location it is about */
+    private final LinkedHashMap<String, Result> mCache =
+            new LinkedHashMap<String, Result>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Result> eldest) {
+                    return size() > MAX_CACHED_QUERIES;
+                }
+            };
+
+    /*
+     * Bumped by every invalidation, so an answer computed while a write was committing isn't
+     * kept: it may hold the weather from before the write.
+     */
+    private int mGeneration;
+
+    /**
+     * Returns the statistics of one location, from the cache if the same query was answered
+     * since the location's weather was last written to.
+     *
+     * @param db            Database to read from
+     * @param locationId    _ID of the location
+     * @param period        PERIOD_WEEK, PERIOD_MONTH or PERIOD_RANGE
+     * @param start         First normalized date to sum up, included
+     * @param end           Last normalized date to sum up, excluded
+     * @param projection    The columns of StatsEntry to return, or null for all of them
+     * @param selection     Filters the rows of statistics, such as "days = 7", or null
+     * @param selectionArgs Arguments of the selection
+     * @param sortOrder     How the rows are sorted, or null to sort them by date
+     * @return A cursor over the statistics
+     */
+    Cursor query(SQLiteDatabase db, long locationId, int period, long start, long end,
+                 String[] projection, String selection, String[] selectionArgs,
+                 String sortOrder) {
+        String key = locationId + "/" + period + "/" + start + "/" + end + "/"
+                + Arrays.toString(projection) + "/" + selection + "/"
+                + Arrays.toString(selectionArgs) + "/" + sortOrder;
+
+        int generation;
+        synchronized (mCache) {
+            Result cached = mCache.get(key);
+            if (cached != null) {
+                return cached.newCursor();
+            }
+            generation = mGeneration;
+        }
+
+        Cursor cursor = db.rawQuery(
+                buildSql(period, projection, selection, sortOrder),
+                buildArgs(locationId, start, end, selectionArgs));
+        Result result;
+        try {
+            result = Result.read(locationId, cursor);
+        } finally {
+            cursor.close();
+        }
+
+        synchronized (mCache) {
+            if (generation == mGeneration) {
+                mCache.put(key, result);
+            }
+        }
+        return result.newCursor();
+    }
+
+    /**
+     * Forgets the statistics of some locations. This has to be called after the write to their
+     * weather has committed.
+     *
+     * @param locationIds _IDs of the locations that were written to
+     */
+    void invalidate(long... locationIds) {
+        synchronized (mCache) {
+            mGeneration++;
+            Iterator<Result> results = mCache.values().iterator();
+            while (results.hasNext()) {
+                long locationId = results.next().mLocationId;
+                for (long written : locationIds) {
+                    if (locationId == written) {
+                        results.remove();
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Forgets every statistic, after a write that may have touched any location.
+     */
+    void invalidateAll() {
+        synchronized (mCache) {
+            mGeneration++;
+            mCache.clear();
+        }
+    }
+
+    /*
+     * The days are grouped first, then the most common weather ID of each group is looked up
+     * with a second seek into the index. This is the same as picking it with MAX(count) in the
+     * grouping itself, which only the newer versions of SQLite answer reliably.
+     */
+    private static String buildSql(int period, String[] projection, String selection,
+                                   String sortOrder) {
+        String groupBy;
+        switch (period) {
+            case PERIOD_WEEK:
+                groupBy = GROUP_BY_WEEK;
+                break;
+            case PERIOD_MONTH:
+                groupBy = GROUP_BY_MONTH;
+                break;
+            case PERIOD_RANGE:
+                groupBy = GROUP_BY_RANGE;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown period: " + period);
+        }
+
+        StringBuilder sql = new StringBuilder("SELECT ");
+        if (projection == null) {
+            sql.append('*');
+        } else {
+            for (int i = 0; i < projection.length; i++) {
+                if (i > 0) sql.append(", ");
+                sql.append(projection[i]);
+            }
+        }
+
+        sql.append(" FROM (SELECT periods.*, (SELECT ").append(WeatherEntry.COLUMN_WEATHER_ID)
+                .append(" FROM ").append(WeatherEntry.TABLE_NAME)
+                .append(" WHERE ").append(WeatherEntry.COLUMN_LOCATION_ID).append(" = ?")
+                .append(" AND ").append(WeatherEntry.COLUMN_DATE)
+                .append(" BETWEEN periods.").append(StatsEntry.COLUMN_START_DATE)
+                .append(" AND periods.").append(StatsEntry.COLUMN_END_DATE)
+                .append(" GROUP BY ").append(WeatherEntry.COLUMN_WEATHER_ID)
+                /* On a tie, the lower ID, which is the worse weather */
+                .append(" ORDER BY COUNT(*) DESC, ").append(WeatherEntry.COLUMN_WEATHER_ID)
+                .append(" LIMIT 1) AS ").append(StatsEntry.COLUMN_WEATHER_ID);
+
+        sql.append(" FROM (SELECT ")
+                .append("MIN(").append(WeatherEntry.COLUMN_DATE).append(") AS ")
+                .append(StatsEntry._ID).append(", ")
+                .append("MIN(").append(WeatherEntry.COLUMN_DATE).append(") AS ")
+                .append(StatsEntry.COLUMN_START_DATE).append(", ")
+                .append("MAX(").append(WeatherEntry.COLUMN_DATE).append(") AS ")
+                .append(StatsEntry.COLUMN_END_DATE).append(", ")
+                .append("COUNT(*) AS ").append(StatsEntry.COLUMN_DAYS).append(", ")
+                .append("MIN(").append(WeatherEntry.COLUMN_MIN_TEMP).append(") AS ")
+                .append(StatsEntry.COLUMN_MIN_TEMP).append(", ")
+                .append("MAX(").append(WeatherEntry.COLUMN_MAX_TEMP).append(") AS ")
+                .append(StatsEntry.COLUMN_MAX_TEMP).append(", ")
+                .append("AVG(").append(WeatherEntry.COLUMN_HUMIDITY).append(") AS ")
+                .append(StatsEntry.COLUMN_HUMIDITY).append(", ")
+                .append("AVG(").append(WeatherEntry.COLUMN_PRESSURE).append(") AS ")
+                .append(StatsEntry.COLUMN_PRESSURE).append(", ")
+                .append("AVG(").append(WeatherEntry.COLUMN_WIND_SPEED).append(") AS ")
+                .append(StatsEntry.COLUMN_WIND_SPEED)
+                .append(" FROM ").append(WeatherEntry.TABLE_NAME)
+                .append(" WHERE ").append(WeatherEntry.COLUMN_LOCATION_ID).append(" = ?")
+                .append(" AND ").append(WeatherEntry.COLUMN_DATE).append(" >= ?")
+                .append(" AND ").append(WeatherEntry.COLUMN_DATE).append(" < ?")
+                .append(" GROUP BY ").append(groupBy)
+                .append(") AS periods)");
+
+        if (selection != null) {
+            sql.append(" WHERE ").append(selection);
+        }
+        sql.append(" ORDER BY ").append(sortOrder != null ? sortOrder : SORT_ORDER_START_DATE);
+        return sql.toString();
+    }
+
+    /* In the order of the placeholders of buildSql: the weather ID lookup comes first */
+    private static String[] buildArgs(long locationId, long start, long end,
+                                      String[] selectionArgs) {
+        List<String> args = new ArrayList<>();
+        args.add(Long.toString(locationId));
+        args.add(Long.toString(locationId));
+        args.add(Long.toString(start));
+        args.add(Long.toString(end));
+        if (selectionArgs != null) {
+            args.addAll(Arrays.asList(selectionArgs));
+        }
+        return args.toArray(new String[args.size()]);
+    }
+
+    /* A copy of an answer, which every query that hits the cache gets a new cursor over */
+    private static final class Result {
+
+        final long mLocationId;
+        private final String[] mColumns;
+        private final List<Object[]> mRows;
+
+        private Result(long locationId, String[] columns, List<Object[]> rows) {
+            mLocationId = locationId;
+            mColumns = columns;
+            mRows = rows;
+        }
+
+        static Result read(long locationId, Cursor cursor) {
+            String[] columns = cursor.getColumnNames();
+            List<Object[]> rows = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                Object[] row = new Object[columns.length];
+                for (int i = 0; i < columns.length; i++) {
+                    switch (cursor.getType(i)) {
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            row[i] = cursor.getLong(i);
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            row[i] = cursor.getDouble(i);
+                            break;
+                        case Cursor.FIELD_TYPE_NULL:
+                            row[i] = null;
+                            break;
+                        default:
+                            row[i] = cursor.getString(i);
+                            break;
+                    }
+                }
+                rows.add(row);
+            }
+            return new Result(locationId, columns, rows);
+        }
+
+        Cursor newCursor() {
+            MatrixCursor cursor = new MatrixCursor(mColumns, mRows.size());
+            for (Object[] row : mRows) {
+                cursor.addRow(row);
+            }
+            return cursor;
+        }
+    }
+}
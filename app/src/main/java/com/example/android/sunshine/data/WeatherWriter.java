@@ -0,0 +1,590 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.v4.util.LongSparseArray;
+
+import com.example.android.sunshine.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes rows into the weather and hourly tables for {@link WeatherProvider}, and keeps the
+ * location table in step with them.
+ * <p>
+ * SQLiteDatabase#insert builds a new INSERT statement from the key set of every ContentValues it
+ * is given. A WeatherWriter instead compiles a single INSERT statement the first time it is
+ * needed and binds the values of every row to it by position, so a bulk insert is bound by
+ * SQLite rather than by building SQL. A writer is meant to live for the duration of one
+ * transaction and must be closed once that transaction is over.
+ */
+final class WeatherWriter {
+
+    /* The columns of the weather table, in the order they are bound to the INSERT statement */
+    private static final String[] INSERT_COLUMNS = {
+            WeatherEntry.COLUMN_LOCATION_ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES,
+    };
+
+    private static final List<String> INSERT_COLUMN_LIST = Arrays.asList(INSERT_COLUMNS);
+
+    private static final String SQL_INSERT = buildInsertSql();
+
+    /*
+     * Same columns as INSERT_COLUMNS, minus the location and the date which identify the row
+     * being updated
+     */
+    private static final String SQL_UPDATE = "UPDATE " + WeatherEntry.TABLE_NAME + " SET "
+            + WeatherEntry.COLUMN_WEATHER_ID + " = ?, "
+            + WeatherEntry.COLUMN_MIN_TEMP + " = ?, "
+            + WeatherEntry.COLUMN_MAX_TEMP + " = ?, "
+            + WeatherEntry.COLUMN_HUMIDITY + " = ?, "
+            + WeatherEntry.COLUMN_PRESSURE + " = ?, "
+            + WeatherEntry.COLUMN_WIND_SPEED + " = ?, "
+            + WeatherEntry.COLUMN_DEGREES + " = ? "
+            + "WHERE " + WeatherEntry._ID + " = ?";
+
+    private static final String SQL_DELETE = "DELETE FROM " + WeatherEntry.TABLE_NAME
+            + " WHERE " + WeatherEntry._ID + " = ?";
+
+    /* The hourly forecast is always written a whole location at a time */
+    private static final String SQL_INSERT_HOURLY = "INSERT INTO " + HourlyEntry.TABLE_NAME + " ("
+            + HourlyEntry.COLUMN_LOCATION_ID + ", "
+            + HourlyEntry.COLUMN_TIME + ", "
+            + HourlyEntry.COLUMN_WEATHER_ID + ", "
+            + HourlyEntry.COLUMN_TEMP + ", "
+            + HourlyEntry.COLUMN_HUMIDITY + ", "
+            + HourlyEntry.COLUMN_PRESSURE + ", "
+            + HourlyEntry.COLUMN_WIND_SPEED + ", "
+            + HourlyEntry.COLUMN_DEGREES + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String SQL_DELETE_HOURLY = "DELETE FROM " + HourlyEntry.TABLE_NAME
+            + " WHERE " + HourlyEntry.COLUMN_LOCATION_ID + " = ?";
+
+    /* Columns read by replace() to compare the stored rows with the new forecast */
+    private static final String[] COMPARE_PROJECTION = {
+            WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES,
+    };
+
+    private static final int INDEX_ID = 0;
+    private static final int INDEX_DATE = 1;
+    private static final int INDEX_WEATHER_ID = 2;
+    private static final int INDEX_MIN_TEMP = 3;
+    private static final int INDEX_MAX_TEMP = 4;
+    private static final int INDEX_HUMIDITY = 5;
+    private static final int INDEX_PRESSURE = 6;
+    private static final int INDEX_WIND_SPEED = 7;
+    private static final int INDEX_DEGREES = 8;
+
+    /* Rows of one location, which the UNIQUE (location_id, date) index finds with a single seek */
+    private static final String SELECTION_LOCATION = WeatherEntry.COLUMN_LOCATION_ID + " = ?";
+
+    private static final String SELECTION_LOCATION_KEY = LocationEntry.COLUMN_LOCATION_KEY + " = ?";
+
+    private final SQLiteDatabase mDb;
+
+    private SQLiteStatement mInsert;
+    private SQLiteStatement mUpdate;
+    private SQLiteStatement mDelete;
+    private SQLiteStatement mInsertHourly;
+    private SQLiteStatement mDeleteHourly;
+
+    /* Where replace() puts the past days it removes, or null to simply delete them */
+    private HistoryStore mHistory;
+
+    /* Where the days that were written are recorded, or null */
+    private WeatherChanges mChanges;
+
+    WeatherWriter(SQLiteDatabase db) {
+        mDb = db;
+    }
+
+    /**
+     * Makes {@link #replace(long, ForecastBatch)} archive the past days it removes from the
+     * weather table, rather than forget them. The store belongs to the caller, who closes it.
+     *
+     * @param history The history to archive past days into
+     */
+    void setHistory(HistoryStore history) {
+        mHistory = history;
+    }
+
+    /**
+     * Makes every write of weather record the location and date of the row it inserted, updated
+     * or deleted, so observers of the other days can be left alone.
+     *
+     * @param changes Where to record the days that were written
+     */
+    void setChanges(WeatherChanges changes) {
+        mChanges = changes;
+    }
+
+    private void recordChange(long locationId, long date) {
+        if (mChanges != null) {
+            mChanges.add(locationId, date);
+        }
+    }
+
+    private static String buildInsertSql() {
+        StringBuilder sql = new StringBuilder("INSERT INTO ")
+                .append(WeatherEntry.TABLE_NAME)
+                .append(" (");
+        for (int i = 0; i < INSERT_COLUMNS.length; i++) {
+            if (i > 0) sql.append(", ");
+            sql.append(INSERT_COLUMNS[i]);
+        }
+        sql.append(") VALUES (");
+        for (int i = 0; i < INSERT_COLUMNS.length; i++) {
+            if (i > 0) sql.append(", ");
+            sql.append('?');
+        }
+        return sql.append(')').toString();
+    }
+
+    /**
+     * Checks every date of the forecast before anything is written, so that a bad row can't
+     * leave a half written forecast behind.
+     *
+     * @param forecast The days to check
+     * @throws IllegalArgumentException if one of the dates isn't normalized
+     */
+    static void checkDatesNormalized(ForecastBatch forecast) {
+        for (int i = 0; i < forecast.size(); i++) {
+            if (!SunshineDateUtils.isDateNormalized(forecast.getDate(i))) {
+                throw new IllegalArgumentException("Date must be normalized to insert");
+            }
+        }
+    }
+
+    /**
+     * ContentValues flavour of {@link #checkDatesNormalized(ForecastBatch)}.
+     *
+     * @param values The rows to check
+     * @throws IllegalArgumentException if one of the dates is missing or isn't normalized
+     */
+    static void checkDatesNormalized(ContentValues[] values) {
+        for (ContentValues value : values) {
+            Long weatherDate = value.getAsLong(WeatherEntry.COLUMN_DATE);
+            if (weatherDate == null || !SunshineDateUtils.isDateNormalized(weatherDate)) {
+                throw new IllegalArgumentException("Date must be normalized to insert");
+            }
+        }
+    }
+
+    /**
+     * Inserts every day of the forecast. Dates must have been checked with
+     * {@link #checkDatesNormalized(ForecastBatch)} beforehand.
+     *
+     * @param locationId _ID of the location the forecast is for
+     * @param forecast   The days to insert
+     * @return The number of rows inserted
+     */
+    int insert(long locationId, ForecastBatch forecast) {
+        SQLiteStatement insert = getInsertStatement();
+        int rowsInserted = 0;
+
+        for (int i = 0; i < forecast.size(); i++) {
+            bindInsert(insert, locationId, forecast, i);
+
+            if (executeInsert(insert) != -1) {
+                recordChange(locationId, forecast.getDate(i));
+                rowsInserted++;
+            }
+        }
+
+        return rowsInserted;
+    }
+
+    /**
+     * Inserts every row. Dates must have been checked with
+     * {@link #checkDatesNormalized(ContentValues[])} beforehand.
+     * <p>
+     * Rows that only hold columns of the weather table go through the compiled statement. Any
+     * other row is left to SQLiteDatabase#insert, which behaves exactly as it always has. Rows
+     * that don't say which location they are for are stored for the given default location.
+     *
+     * @param values            The rows to insert
+     * @param defaultLocationId _ID of the location of rows without a location_id
+     * @return The number of rows inserted
+     */
+    int insert(ContentValues[] values, long defaultLocationId) {
+        int rowsInserted = 0;
+
+        for (ContentValues value : values) {
+            long _id;
+            Long locationId = value.getAsLong(WeatherEntry.COLUMN_LOCATION_ID);
+            if (hasOnlyInsertColumns(value)) {
+                SQLiteStatement insert = getInsertStatement();
+                for (int i = 0; i < INSERT_COLUMNS.length; i++) {
+                    bind(insert, i + 1, value.get(INSERT_COLUMNS[i]));
+                }
+                if (!value.containsKey(WeatherEntry.COLUMN_LOCATION_ID)) {
+                    insert.bindLong(1, defaultLocationId);
+                }
+                _id = executeInsert(insert);
+            } else {
+                if (!value.containsKey(WeatherEntry.COLUMN_LOCATION_ID)) {
+                    value = new ContentValues(value);
+                    value.put(WeatherEntry.COLUMN_LOCATION_ID, defaultLocationId);
+                }
+                _id = mDb.insert(WeatherEntry.TABLE_NAME, null, value);
+            }
+
+            if (_id != -1) {
+                recordChange(locationId != null ? locationId : defaultLocationId,
+                        value.getAsLong(WeatherEntry.COLUMN_DATE));
+                rowsInserted++;
+            }
+        }
+
+        return rowsInserted;
+    }
+
+    /**
+     * Makes the weather table hold exactly the days of the forecast for the location, touching
+     * as few rows as possible. Every stored row of the location is compared with the day of the
+     * forecast that has the same date: it is updated only if one of its values changed, and
+     * deleted if the forecast doesn't have that date anymore, after being archived if it is a
+     * past day and a history was set with {@link #setHistory}. Days of the forecast that aren't
+     * stored yet are inserted. Other locations are left alone. Dates must have been checked with
+     * {@link #checkDatesNormalized(ForecastBatch)} beforehand.
+     * <p>
+     * This must be called inside a transaction for the replacement to be atomic.
+     *
+     * @param locationId _ID of the location the forecast is for
+     * @param forecast   The days the weather table should hold for that location
+     * @return The number of rows that were updated, inserted or deleted
+     */
+    int replace(long locationId, ForecastBatch forecast) {
+        int rowsChanged = 0;
+
+        /* Index of each day of the forecast, by date. Days are removed once they're matched. */
+        LongSparseArray<Integer> pending = new LongSparseArray<>(forecast.size());
+        for (int i = 0; i < forecast.size(); i++) {
+            pending.put(forecast.getDate(i), i);
+        }
+
+        Cursor stored = mDb.query(WeatherEntry.TABLE_NAME, COMPARE_PROJECTION,
+                SELECTION_LOCATION, new String[]{Long.toString(locationId)}, null, null, null);
+        try {
+            while (stored.moveToNext()) {
+                long id = stored.getLong(INDEX_ID);
+                long date = stored.getLong(INDEX_DATE);
+                Integer index = pending.get(date);
+
+                if (index == null) {
+                    /* This day isn't part of the forecast anymore */
+                    if (mHistory != null && mHistory.isPast(date)) {
+                        mHistory.archive(locationId, date,
+                                stored.getInt(INDEX_WEATHER_ID),
+                                stored.getDouble(INDEX_MIN_TEMP),
+                                stored.getDouble(INDEX_MAX_TEMP),
+                                stored.getDouble(INDEX_HUMIDITY),
+                                stored.getDouble(INDEX_PRESSURE),
+                                stored.getDouble(INDEX_WIND_SPEED),
+                                stored.getDouble(INDEX_DEGREES));
+                    }
+                    SQLiteStatement delete = getDeleteStatement();
+                    delete.bindLong(1, id);
+                    rowsChanged += delete.executeUpdateDelete();
+                    recordChange(locationId, date);
+                    continue;
+                }
+
+                pending.remove(date);
+
+                if (!isSameDay(stored, forecast, index)) {
+                    SQLiteStatement update = getUpdateStatement();
+                    update.bindLong(1, forecast.getWeatherId(index));
+                    update.bindDouble(2, forecast.getMinTemp(index));
+                    update.bindDouble(3, forecast.getMaxTemp(index));
+                    update.bindDouble(4, forecast.getHumidity(index));
+                    update.bindDouble(5, forecast.getPressure(index));
+                    update.bindDouble(6, forecast.getWindSpeed(index));
+                    update.bindDouble(7, forecast.getDegrees(index));
+                    update.bindLong(8, id);
+                    rowsChanged += update.executeUpdateDelete();
+                    recordChange(locationId, date);
+                }
+            }
+        } finally {
+            stored.close();
+        }
+
+        /* Whatever is left wasn't stored yet */
+        for (int i = 0; i < pending.size(); i++) {
+            int index = pending.valueAt(i);
+            SQLiteStatement insert = getInsertStatement();
+            bindInsert(insert, locationId, forecast, index);
+
+            if (executeInsert(insert) != -1) {
+                recordChange(locationId, pending.keyAt(i));
+                rowsChanged++;
+            }
+        }
+
+        return rowsChanged;
+    }
+
+    /**
+     * Makes the hourly table hold exactly the entries of the forecast for the location. Unlike
+     * {@link #replace(long, ForecastBatch)}, stored rows aren't compared with the new ones: an
+     * hourly forecast is a few hundred rows whose times move on with every sync, so nearly all of
+     * them would differ anyway. The rows of the location are dropped with a single DELETE that
+     * walks one range of the (location_id, time) index, and the new ones are bound one after the
+     * other to a single compiled INSERT, in time order so they are appended to that range.
+     * <p>
+     * This must be called inside a transaction, both for the replacement to be atomic and so that
+     * the rows are written to the journal once rather than once per row.
+     *
+     * @param locationId _ID of the location the forecast is for
+     * @param forecast   The entries the hourly table should hold for that location
+     * @return The number of rows that were deleted or inserted
+     */
+    int replaceHourly(long locationId, HourlyBatch forecast) {
+        int rowsChanged = deleteHourly(locationId);
+
+        if (mInsertHourly == null) {
+            mInsertHourly = mDb.compileStatement(SQL_INSERT_HOURLY);
+        }
+        SQLiteStatement insert = mInsertHourly;
+
+        for (int i = 0; i < forecast.size(); i++) {
+            insert.bindLong(1, locationId);
+            insert.bindLong(2, forecast.getTime(i));
+            insert.bindLong(3, forecast.getWeatherId(i));
+            insert.bindDouble(4, forecast.getTemp(i));
+            insert.bindDouble(5, forecast.getHumidity(i));
+            insert.bindDouble(6, forecast.getPressure(i));
+            insert.bindDouble(7, forecast.getWindSpeed(i));
+            insert.bindDouble(8, forecast.getDegrees(i));
+
+            /* Two entries for the same time are a server bug, the first one is kept */
+            if (executeInsert(insert) != -1) {
+                rowsChanged++;
+            }
+        }
+
+        return rowsChanged;
+    }
+
+    /**
+     * Deletes the hourly forecast of a location.
+     *
+     * @param locationId _ID of the location
+     * @return The number of rows deleted
+     */
+    int deleteHourly(long locationId) {
+        if (mDeleteHourly == null) {
+            mDeleteHourly = mDb.compileStatement(SQL_DELETE_HOURLY);
+        }
+        mDeleteHourly.bindLong(1, locationId);
+        return mDeleteHourly.executeUpdateDelete();
+    }
+
+    /**
+     * Returns the _ID of a location.
+     *
+     * @param locationKey The location, as sent to the weather server
+     * @return The _ID of the location, or -1 if it isn't in the location table
+     */
+    long findLocation(String locationKey) {
+        return findLocation(mDb, locationKey);
+    }
+
+    /**
+     * Same as {@link #findLocation(String)}, for readers that don't need a writer.
+     */
+    static long findLocation(SQLiteDatabase db, String locationKey) {
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME, new String[]{LocationEntry._ID},
+                SELECTION_LOCATION_KEY, new String[]{locationKey}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Adds a location to the location table if it isn't there yet, and records what the
+     * forecast says about it.
+     *
+     * @param locationKey The location, as sent to the weather server
+     * @param forecast    Forecast of the location, whose name and coordinates are stored, or null
+     * @param syncTime    Time the forecast was synced, or 0 to leave the last sync time alone
+     * @return The _ID of the location
+     */
+    long upsertLocation(String locationKey, ForecastBatch forecast, long syncTime) {
+        ContentValues values = new ContentValues();
+        if (forecast != null && forecast.hasCoordinates()) {
+            values.put(LocationEntry.COLUMN_COORD_LAT, forecast.getLatitude());
+            values.put(LocationEntry.COLUMN_COORD_LONG, forecast.getLongitude());
+        }
+        if (forecast != null && forecast.getCityName() != null) {
+            values.put(LocationEntry.COLUMN_DISPLAY_NAME, forecast.getCityName());
+        }
+        if (syncTime > 0) {
+            values.put(LocationEntry.COLUMN_LAST_SYNC, syncTime);
+        }
+
+        long locationId = findLocation(locationKey);
+        if (locationId == -1) {
+            values.put(LocationEntry.COLUMN_LOCATION_KEY, locationKey);
+            locationId = mDb.insertOrThrow(LocationEntry.TABLE_NAME, null, values);
+        } else if (values.size() > 0) {
+            mDb.update(LocationEntry.TABLE_NAME, values, LocationEntry._ID + " = ?",
+                    new String[]{Long.toString(locationId)});
+        }
+        return locationId;
+    }
+
+    /*
+     * Binds a day of the forecast to the INSERT statement, in the order of INSERT_COLUMNS.
+     */
+    private static void bindInsert(SQLiteStatement insert, long locationId,
+                                   ForecastBatch forecast, int index) {
+        insert.bindLong(1, locationId);
+        insert.bindLong(2, forecast.getDate(index));
+        insert.bindLong(3, forecast.getWeatherId(index));
+        insert.bindDouble(4, forecast.getMinTemp(index));
+        insert.bindDouble(5, forecast.getMaxTemp(index));
+        insert.bindDouble(6, forecast.getHumidity(index));
+        insert.bindDouble(7, forecast.getPressure(index));
+        insert.bindDouble(8, forecast.getWindSpeed(index));
+        insert.bindDouble(9, forecast.getDegrees(index));
+    }
+
+    private static boolean isSameDay(Cursor stored, ForecastBatch forecast, int index) {
+        return stored.getInt(INDEX_WEATHER_ID) == forecast.getWeatherId(index)
+                && stored.getDouble(INDEX_MIN_TEMP) == forecast.getMinTemp(index)
+                && stored.getDouble(INDEX_MAX_TEMP) == forecast.getMaxTemp(index)
+                && stored.getDouble(INDEX_HUMIDITY) == forecast.getHumidity(index)
+                && stored.getDouble(INDEX_PRESSURE) == forecast.getPressure(index)
+                && stored.getDouble(INDEX_WIND_SPEED) == forecast.getWindSpeed(index)
+                && stored.getDouble(INDEX_DEGREES) == forecast.getDegrees(index);
+    }
+
+    /**
+     * Releases the compiled statements. The writer must not be used afterwards.
+     */
+    void close() {
+        if (mInsert != null) {
+            mInsert.close();
+            mInsert = null;
+        }
+        if (mUpdate != null) {
+            mUpdate.close();
+            mUpdate = null;
+        }
+        if (mDelete != null) {
+            mDelete.close();
+            mDelete = null;
+        }
+        if (mInsertHourly != null) {
+            mInsertHourly.close();
+            mInsertHourly = null;
+        }
+        if (mDeleteHourly != null) {
+            mDeleteHourly.close();
+            mDeleteHourly = null;
+        }
+    }
+
+    private SQLiteStatement getInsertStatement() {
+        if (mInsert == null) {
+            mInsert = mDb.compileStatement(SQL_INSERT);
+        }
+        return mInsert;
+    }
+
+    private SQLiteStatement getUpdateStatement() {
+        if (mUpdate == null) {
+            mUpdate = mDb.compileStatement(SQL_UPDATE);
+        }
+        return mUpdate;
+    }
+
+    private SQLiteStatement getDeleteStatement() {
+        if (mDelete == null) {
+            mDelete = mDb.compileStatement(SQL_DELETE);
+        }
+        return mDelete;
+    }
+
+    /*
+     * Like SQLiteDatabase#insert, report a row that violates a constraint (a missing value, for
+     * instance) with -1 rather than by throwing.
+     */
+    private static long executeInsert(SQLiteStatement statement) {
+        try {
+            return statement.executeInsert();
+        } catch (SQLiteConstraintException e) {
+            return -1;
+        }
+    }
+
+    private static boolean hasOnlyInsertColumns(ContentValues value) {
+        for (String key : value.keySet()) {
+            if (!INSERT_COLUMN_LIST.contains(key)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Binds a value taken out of a ContentValues the same way SQLiteDatabase#insert would.
+     */
+    private static void bind(SQLiteStatement statement, int index, Object value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else if (value instanceof Double || value instanceof Float) {
+            statement.bindDouble(index, ((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            statement.bindLong(index, ((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            statement.bindLong(index, (Boolean) value ? 1 : 0);
+        } else if (value instanceof byte[]) {
+            statement.bindBlob(index, (byte[]) value);
+        } else {
+            statement.bindString(index, value.toString());
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.service;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.example.android.sunshine.utilities.DataItemUtil;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.wearable.Asset;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.DataMap;
+import com.google.android.gms.wearable.PutDataMapRequest;
+import com.google.android.gms.wearable.PutDataRequest;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Puts DataItems for the watch, unless the same content was the last one put at the same path.
+ * Each put is a Bluetooth transfer, and an urgent one wakes both devices up, while most syncs and
+ * most requests of the watch find the weather it already shows.
+ * <p>
+ * What was put is remembered as a SHA-1 of the content of the DataMap, assets included, for as
+ * long as the process lives. After a restart the first put goes through again, which the Data
+ * Layer doesn't pass on to the watch when the item didn't change.
+ */
+final class WearDataPublisher {
+
+    private static final String TAG = WearDataPublisher.class.getSimpleName();
+
+    /* The hash of the last content put, or being put, by path */
+    private static final Map<String, String> sPublished = new HashMap<>();
+
+    private WearDataPublisher() {
+    }
+
+    /**
+     * Puts a DataItem if its content differs from the last one put at its path.
+     *
+     * @param googleApiClient A connected client of the Wearable API
+     * @param request         The DataItem to put
+     * @param urgent          true to deliver it straight away, for a watch waiting on it, false
+     *                        to let the system deliver it with its next batch of transfers
+     * @param resultCallback  Called with the result of the put, or null
+     * @return true if the DataItem is being put, false if it was skipped or the client isn't
+     * connected, in which case resultCallback isn't called
+     */
+    static boolean publish(GoogleApiClient googleApiClient, PutDataMapRequest request,
+                           boolean urgent, ResultCallback<DataApi.DataItemResult> resultCallback) {
+        return publish(googleApiClient, request.getUri().getPath(), hash(request.getDataMap()),
+                request.asPutDataRequest(), urgent, resultCallback);
+    }
+
+    /**
+     * Puts a DataItem of raw bytes, without assets, if its bytes differ from the last ones put
+     * at its path.
+     *
+     * @see #publish(GoogleApiClient, PutDataMapRequest, boolean, ResultCallback)
+     */
+    static boolean publish(GoogleApiClient googleApiClient, PutDataRequest request,
+                           boolean urgent, ResultCallback<DataApi.DataItemResult> resultCallback) {
+        return publish(googleApiClient, request.getUri().getPath(), hash(request.getData()),
+                request, urgent, resultCallback);
+    }
+
+    private static boolean publish(GoogleApiClient googleApiClient, final String path,
+                                   final String hash, PutDataRequest putDataRequest,
+                                   boolean urgent,
+                                   final ResultCallback<DataApi.DataItemResult> resultCallback) {
+        synchronized (sPublished) {
+            if (hash.equals(sPublished.get(path))) {
+                Log.d(TAG, "Skipping unchanged " + path);
+                return false;
+            }
+            sPublished.put(path, hash);
+        }
+
+        if (urgent) {
+            putDataRequest.setUrgent();
+        }
+        boolean putting = DataItemUtil.putDataItem(googleApiClient, putDataRequest,
+                new ResultCallback<DataApi.DataItemResult>() {
+                    @Override
+                    public void onResult(@NonNull DataApi.DataItemResult dataItemResult) {
+                        if (!dataItemResult.getStatus().isSuccess()) {
+                            forget(path, hash);
+                        }
+                        if (resultCallback != null) {
+                            resultCallback.onResult(dataItemResult);
+                        } else {
+                            DataItemUtil.logResult(dataItemResult);
+                        }
+                    }
+                });
+        if (!putting) {
+            forget(path, hash);
+        }
+        return putting;
+    }
+
+    /* The put failed, so the next put of the same content has to go through */
+    private static void forget(String path, String hash) {
+        synchronized (sPublished) {
+            if (hash.equals(sPublished.get(path))) {
+                sPublished.remove(path);
+            }
+        }
+    }
+
+    private static String hash(byte[] data) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            if (data != null) {
+                digest.update(data);
+            }
+            return Arrays.toString(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            /* Every Android device has SHA-1 */
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /* The keys in order, each followed by its value. Assets count by their bytes. */
+    private static String hash(DataMap dataMap) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            for (String key : new TreeSet<>(dataMap.keySet())) {
+                digest.update(key.getBytes("UTF-8"));
+                digest.update((byte) 0);
+
+                Object value = dataMap.get(key);
+                if (value instanceof Asset) {
+                    Asset asset = (Asset) value;
+                    digest.update(asset.getData() != null
+                            ? asset.getData()
+                            : String.valueOf(asset.getDigest()).getBytes("UTF-8"));
+                } else if (value instanceof byte[]) {
+                    digest.update((byte[]) value);
+                } else {
+                    digest.update(String.valueOf(value).getBytes("UTF-8"));
+                }
+                digest.update((byte) 0);
+            }
+            return Arrays.toString(digest.digest());
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            /* Every Android device has SHA-1 and UTF-8 */
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.service;
+
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes the forecast of several days into the bytes of a single DataItem for the watch, which
+ * decodes them straight into arrays rather than through a DataMap. Two weeks take 120 bytes.
+ * <p>
+ * The encoding, all numbers big-endian:
+ * <pre>
+ *     byte   version, VERSION
+ *     byte   bytes per day, BYTES_PER_DAY
+ *     short  number of days
+ *     int    first day, in days since the epoch
+ *     then for each day, in date order:
+ *     short  day, in days after the first day
+ *     short  weather ID
+ *     short  low, in tenths of a degree Celsius
+ *     short  high, in tenths of a degree Celsius
+ * </pre>
+ * A reader skips the bytes of a day past the fields it knows, so fields can be added at the end
+ * of a day without changing the version. Anything else is a new version, which the readers of
+ * older versions ignore.
+ * <p>
+ * The watch has its own copy of this class, which decodes what this one encodes: a change here
+ * has to be made there as well.
+ */
+final class WearForecastCodec {
+
+    static final int VERSION = 1;
+
+    static final int HEADER_BYTES = 8;
+    static final int BYTES_PER_DAY = 8;
+
+    private WearForecastCodec() {
+    }
+
+    /**
+     * Encodes days of forecast.
+     *
+     * @param dates      Normalized dates of the days, in order
+     * @param weatherIds Weather IDs of the days
+     * @param lowTemps   Lows of the days, in degrees Celsius
+     * @param highTemps  Highs of the days, in degrees Celsius
+     * @param days       How many of the values to encode
+     * @return The encoded forecast
+     */
+    static byte[] encode(long[] dates, int[] weatherIds, double[] lowTemps, double[] highTemps,
+                         int days) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + days * BYTES_PER_DAY);
+        long firstDay = days > 0 ? dates[0] / SunshineDateUtils.DAY_IN_MILLIS : 0;
+        buffer.put((byte) VERSION)
+                .put((byte) BYTES_PER_DAY)
+                .putShort((short) days)
+                .putInt((int) firstDay);
+        for (int i = 0; i < days; i++) {
+            buffer.putShort((short) (dates[i] / SunshineDateUtils.DAY_IN_MILLIS - firstDay))
+                    .putShort((short) weatherIds[i])
+                    .putShort(toTenths(lowTemps[i]))
+                    .putShort(toTenths(highTemps[i]));
+        }
+        return buffer.array();
+    }
+
+    private static short toTenths(double temperature) {
+        long tenths = Math.round(temperature * 10);
+        return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, tenths));
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.service;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.drawable.Drawable;
+import android.support.annotation.DrawableRes;
+import android.support.v4.content.ContextCompat;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import com.example.android.sunshine.BuildConfig;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The weather icons sent to the watch, drawn at the size the watch shows them and encoded as
+ * PNG. Encoding an icon is the slowest step of a wear update, while there are only a handful of
+ * icons, so each one is drawn once and kept, in memory and on disk: a later update, even after
+ * the process was restarted, only looks the bytes up.
+ * <p>
+ * The icons are drawn through their Drawable, so bitmap and vector resources alike come out at
+ * the requested size rather than at the density of the phone. The files on disk are named after
+ * the resource and the version of the app, as resource IDs and the art itself may change with an
+ * update.
+ * <p>
+ * Encoding reads resources and files, so {@link #get} must not be called on the main thread.
+ */
+public final class WearIconCache {
+
+    private static final String TAG = WearIconCache.class.getSimpleName();
+
+    private static final String CACHE_DIRECTORY = "wear_icons";
+
+    /* An icon is a few kilobytes, so this holds every icon at a few sizes */
+    private static final int MAX_MEMORY_BYTES = 64 * 1024;
+
+    /* Icons being written end with this until they are complete */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final String FILE_SUFFIX = "-v" + BuildConfig.VERSION_CODE + ".png";
+
+    private static WearIconCache sInstance;
+
+    private final Context mContext;
+    private final File mDirectory;
+
+    /* Encoded icons by resource ID and size */
+    private final LruCache<String, byte[]> mMemory = new LruCache<String, byte[]>(
+            MAX_MEMORY_BYTES) {
+        @Override
+        protected int sizeOf(String key, byte[] value) {
+            return value.length;
+        }
+    };
+
+    /**
+     * Returns the cache of the app, which lives in its cache directory so the system can clear
+     * it when space runs low. The icons of earlier versions of the app are deleted.
+     *
+     * @param context Used to draw the icons and find the cache directory
+     * @return The shared cache
+     */
+    public static synchronized WearIconCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WearIconCache(context.getApplicationContext(),
+                    new File(context.getCacheDir(), CACHE_DIRECTORY));
+            sInstance.deleteStaleFiles();
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param context   Used to draw the icons
+     * @param directory Where the encoded icons are stored. Created if it doesn't exist.
+     */
+    WearIconCache(Context context, File directory) {
+        mContext = context;
+        mDirectory = directory;
+    }
+
+    /**
+     * Returns an icon drawn at a size and encoded as PNG, from memory, from disk, or drawn and
+     * encoded now and kept for the next time.
+     *
+     * @param resId  The drawable resource, such as one from
+     *               {@link com.example.android.sunshine.utilities.SunshineWeatherUtils
+     *               #getSmallArtResourceIdForWeatherCondition(int)}
+     * @param sizePx Width and height of the icon, in pixels of the watch
+     * @return The encoded icon, or null if the resource can't be drawn
+     */
+    public byte[] get(@DrawableRes int resId, int sizePx) {
+        String key = resId + "/" + sizePx;
+        byte[] icon = mMemory.get(key);
+        if (icon != null) {
+            return icon;
+        }
+
+        File file = new File(mDirectory,
+                mContext.getResources().getResourceEntryName(resId) + "-" + sizePx + FILE_SUFFIX);
+        icon = read(file);
+        if (icon == null) {
+            icon = encode(resId, sizePx);
+            if (icon == null) {
+                return null;
+            }
+            write(file, icon);
+        }
+
+        mMemory.put(key, icon);
+        return icon;
+    }
+
+    private byte[] encode(@DrawableRes int resId, int sizePx) {
+        Drawable drawable = ContextCompat.getDrawable(mContext, resId);
+        if (drawable == null) {
+            Log.e(TAG, "Can't draw the icon " + resId);
+            return null;
+        }
+
+        Bitmap bitmap = Bitmap.createBitmap(sizePx, sizePx, Bitmap.Config.ARGB_8888);
+        drawable.setBounds(0, 0, sizePx, sizePx);
+        drawable.draw(new Canvas(bitmap));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+        bitmap.recycle();
+        return out.toByteArray();
+    }
+
+    private static byte[] read(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            byte[] icon = new byte[(int) file.length()];
+            int read = 0;
+            while (read < icon.length) {
+                int count = in.read(icon, read, icon.length - read);
+                if (count < 0) {
+                    throw new IOException("Truncated " + file);
+                }
+                read += count;
+            }
+            return icon;
+        } catch (IOException e) {
+            Log.w(TAG, "Dropping unreadable icon " + file, e);
+            file.delete();
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /* A failed write only costs encoding the icon again next time */
+    private void write(File file, byte[] icon) {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.w(TAG, "Can't create " + mDirectory);
+            return;
+        }
+
+        File temp = null;
+        OutputStream out = null;
+        try {
+            temp = File.createTempFile(file.getName(), TEMP_SUFFIX, mDirectory);
+            out = new FileOutputStream(temp);
+            out.write(icon);
+            out.close();
+            out = null;
+            if (!temp.renameTo(file)) {
+                throw new IOException("Can't rename " + temp + " to " + file);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Can't store the icon " + file, e);
+            closeQuietly(out);
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
+    private void deleteStaleFiles() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (!file.getName().endsWith(FILE_SUFFIX)) {
+                file.delete();
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
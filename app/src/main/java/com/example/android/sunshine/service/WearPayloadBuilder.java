@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.service;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.example.android.sunshine.MainActivity;
+import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.utilities.DataItemUtil;
+import com.example.android.sunshine.utilities.SunshineWeatherUtils;
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.wearable.Asset;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.PutDataMapRequest;
+import com.google.android.gms.wearable.PutDataRequest;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builds the weather the watch shows and hands it to the Data Layer: today's temperatures and
+ * icon, the forecast of the next two weeks in the compact encoding of {@link WearForecastCodec},
+ * and the units the user picked. The temperatures are sent in degrees Celsius and formatted by
+ * the watch, so a change of units only sends the units.
+ * <p>
+ * Everything that takes time, the query and looking up the icon in {@link WearIconCache}, runs on
+ * a background thread, and only the finished DataItems leave it: a watch asking for an update
+ * never touches the main thread of the phone.
+ * <p>
+ * The payloads are built one at a time, in the order they were asked for, so a burst of requests
+ * from the watch doesn't have several threads decoding the same icon.
+ */
+public final class WearPayloadBuilder {
+
+    private static final String TAG = WearPayloadBuilder.class.getSimpleName();
+
+    /*
+     * The watch face shows the icon 30dp wide, which is 60 pixels on the densest watches. The
+     * phone can't tell which watch it talks to, so the icon is sent at that size.
+     */
+    static final int ICON_SIZE_PX = 60;
+
+    /* Two weeks is as far as the forecast goes */
+    static final int FORECAST_DAYS = 14;
+
+    private static final long CONNECT_TIMEOUT_SECONDS = 30;
+
+    /* The thread goes away after this, so nothing is kept running between updates */
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static final ThreadPoolExecutor sExecutor = new ThreadPoolExecutor(
+            1, 1,
+            KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, "WearPayloadBuilder");
+                }
+            });
+
+    static {
+        sExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private WearPayloadBuilder() {
+    }
+
+    /**
+     * Builds the weather of today, the forecast of the next days and the units for the watch in
+     * the background, then puts them as DataItems through {@link WearDataPublisher}, unless the
+     * watch already has the same weather. Returns straight away.
+     *
+     * @param context                 Used to query the weather and load the icon
+     * @param googleApiClient         A connected client of the Wearable API
+     * @param urgent                  true if the watch is waiting on the weather, false to let the
+     *                                system deliver it when it suits the battery
+     * @param disconnectAfterFinished true to disconnect the client once the DataItems were put
+     */
+    public static void publish(Context context, final GoogleApiClient googleApiClient,
+                               final boolean urgent, final boolean disconnectAfterFinished) {
+        final Context appContext = context.getApplicationContext();
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Payload payload = build(appContext);
+                if (payload == null) {
+                    if (disconnectAfterFinished) {
+                        googleApiClient.disconnect();
+                    }
+                    return;
+                }
+
+                Puts puts = new Puts(googleApiClient, disconnectAfterFinished);
+                puts.start(payload.mUnits, urgent);
+                puts.start(payload.mForecast, urgent);
+                puts.start(payload.mToday, urgent);
+                puts.finish();
+            }
+        });
+    }
+
+    /**
+     * Puts the units the user picked for the watch, and nothing else: the watch formats the
+     * temperatures it has in the new units. Returns straight away.
+     *
+     * @param context Used to read the units and connect to the Wearable API
+     */
+    public static void publishUnits(Context context) {
+        final Context appContext = context.getApplicationContext();
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                GoogleApiClient googleApiClient = new GoogleApiClient.Builder(appContext)
+                        .addApi(Wearable.API)
+                        .build();
+                ConnectionResult connectionResult =
+                        googleApiClient.blockingConnect(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                if (!connectionResult.isSuccess()) {
+                    Log.w(TAG, "Can't connect to the Wearable API, error code: "
+                            + connectionResult.getErrorCode());
+                    return;
+                }
+
+                /* The user just changed them, and they may be looking at the watch */
+                Puts puts = new Puts(googleApiClient, true);
+                puts.start(DataItemUtil.buildUnitsDataRequest(
+                        SunshinePreferences.isMetric(appContext)), true);
+                puts.finish();
+            }
+        });
+    }
+
+    /**
+     * Reads the weather of the next days and builds the DataItems the watch shows them from.
+     * This reads the database and may encode an image, so it must not be called on the main
+     * thread.
+     *
+     * @param context Used to query the weather and load the icon
+     * @return The DataItems to put, or null if there is no weather from today on
+     */
+    static Payload build(Context context) {
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.buildPageUri(
+                        WeatherContract.WeatherEntry.CONTENT_URI, Long.MIN_VALUE, FORECAST_DAYS),
+                MainActivity.MAIN_FORECAST_PROJECTION,
+                WeatherContract.WeatherEntry.getSqlSelectForTodayOnwards(),
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        if (cursor == null) {
+            return null;
+        }
+
+        int days = 0;
+        long[] dates = new long[FORECAST_DAYS];
+        int[] weatherIds = new int[FORECAST_DAYS];
+        double[] lowTemps = new double[FORECAST_DAYS];
+        double[] highTemps = new double[FORECAST_DAYS];
+        try {
+            while (days < FORECAST_DAYS && cursor.moveToNext()) {
+                dates[days] = cursor.getLong(MainActivity.INDEX_WEATHER_DATE);
+                weatherIds[days] = cursor.getInt(MainActivity.INDEX_WEATHER_CONDITION_ID);
+                lowTemps[days] = cursor.getDouble(MainActivity.INDEX_WEATHER_MIN_TEMP);
+                highTemps[days] = cursor.getDouble(MainActivity.INDEX_WEATHER_MAX_TEMP);
+                days++;
+            }
+        } finally {
+            cursor.close();
+        }
+        if (days == 0) {
+            Log.i(TAG, "No weather from today on");
+            return null;
+        }
+
+        byte[] icon = WearIconCache.getInstance(context).get(
+                SunshineWeatherUtils.getSmallArtResourceIdForWeatherCondition(weatherIds[0]),
+                ICON_SIZE_PX);
+        if (icon == null) {
+            return null;
+        }
+        return new Payload(
+                DataItemUtil.buildTempDataRequest(
+                        lowTemps[0], highTemps[0], Asset.createFromBytes(icon)),
+                DataItemUtil.buildForecastDataRequest(WearForecastCodec.encode(
+                        dates, weatherIds, lowTemps, highTemps, days)),
+                DataItemUtil.buildUnitsDataRequest(SunshinePreferences.isMetric(context)));
+    }
+
+    /**
+     * The DataItems of one update of the watch.
+     */
+    static final class Payload {
+
+        /* Today's temperatures, in degrees Celsius, and icon */
+        final PutDataMapRequest mToday;
+
+        /* The next days, encoded by WearForecastCodec */
+        final PutDataRequest mForecast;
+
+        /* The units the watch formats the temperatures in */
+        final PutDataMapRequest mUnits;
+
+        Payload(PutDataMapRequest today, PutDataRequest forecast, PutDataMapRequest units) {
+            mToday = today;
+            mForecast = forecast;
+            mUnits = units;
+        }
+    }
+
+    /*
+     * The puts of one update, which disconnects the client once the last of them completed. It
+     * counts one for each put in flight, and one until every put was started.
+     */
+    private static final class Puts implements ResultCallback<DataApi.DataItemResult> {
+
+        private final GoogleApiClient mGoogleApiClient;
+        private final boolean mDisconnectAfterFinished;
+        private final AtomicInteger mPending = new AtomicInteger(1);
+
+        Puts(GoogleApiClient googleApiClient, boolean disconnectAfterFinished) {
+            mGoogleApiClient = googleApiClient;
+            mDisconnectAfterFinished = disconnectAfterFinished;
+        }
+
+        void start(PutDataMapRequest request, boolean urgent) {
+            mPending.incrementAndGet();
+            if (!WearDataPublisher.publish(mGoogleApiClient, request, urgent, this)) {
+                end();
+            }
+        }
+
+        void start(PutDataRequest request, boolean urgent) {
+            mPending.incrementAndGet();
+            if (!WearDataPublisher.publish(mGoogleApiClient, request, urgent, this)) {
+                end();
+            }
+        }
+
+        void finish() {
+            end();
+        }
+
+        @Override
+        public void onResult(@NonNull DataApi.DataItemResult dataItemResult) {
+            DataItemUtil.logResult(dataItemResult);
+            end();
+        }
+
+        private void end() {
+            if (mPending.decrementAndGet() == 0 && mDisconnectAfterFinished) {
+                mGoogleApiClient.disconnect();
+            }
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.os.Process;
+
+import com.example.android.sunshine.data.ForecastBatch;
+import com.example.android.sunshine.data.HourlyBatch;
+import com.example.android.sunshine.utilities.DiskResponseCache;
+import com.example.android.sunshine.utilities.NetworkUtils;
+import com.example.android.sunshine.utilities.OpenWeatherJsonUtils;
+import com.example.android.sunshine.utilities.TransferStats;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Downloads the forecasts of several locations at the same time. Each forecast is parsed on the
+ * thread that downloads it, while it arrives, so a sync takes about as long as the slowest
+ * location rather than as long as all of them together.
+ * <p>
+ * The daily forecasts of all the locations are on the same weather server, and so are the hourly
+ * ones. At most {@link #MAX_CONCURRENT_REQUESTS} requests run at once, which is below the number
+ * of idle connections HttpURLConnection keeps per host, so every connection can go back to the
+ * pool and be reused by the next sync.
+ */
+final class ForecastFetcher {
+
+    private static final int MAX_CONCURRENT_REQUESTS = 4;
+
+    /* Idle threads go away after this, so the pool costs nothing between syncs */
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static final ThreadPoolExecutor sExecutor = new ThreadPoolExecutor(
+            MAX_CONCURRENT_REQUESTS, MAX_CONCURRENT_REQUESTS,
+            KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, "ForecastFetcher #" + mCount.incrementAndGet());
+                }
+            });
+
+    static {
+        sExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private ForecastFetcher() {
+    }
+
+    /**
+     * Downloads and parses the forecast of every request, and returns once all of them are done.
+     * A request failing doesn't stop the others, its error is recorded in the request instead.
+     *
+     * @param cache    Where the last response of each URL is kept
+     * @param stats    Counts the bytes of all responses
+     * @param requests The forecasts to download. Their results are set when this returns.
+     * @throws InterruptedException If the calling thread was interrupted while waiting
+     */
+    static void fetchAll(DiskResponseCache cache, TransferStats stats,
+                         List<? extends Request<?>> requests) throws InterruptedException {
+        List<Future<Void>> futures = new ArrayList<>(requests.size());
+        for (Request<?> request : requests) {
+            futures.add(sExecutor.submit(newFetchTask(cache, stats, request)));
+        }
+
+        try {
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    /* FetchTask catches IOException itself, so this is a bug, not the network */
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+        } finally {
+            for (Future<Void> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private static <T> FetchTask<T> newFetchTask(DiskResponseCache cache, TransferStats stats,
+                                                 Request<T> request) {
+        return new FetchTask<>(cache, stats, request);
+    }
+
+    /**
+     * A download of one location: what to download, and once {@link #fetchAll} returned, what
+     * came of it.
+     *
+     * @param <T> What the response is parsed into
+     */
+    abstract static class Request<T> implements NetworkUtils.ConditionalResponseHandler<T> {
+
+        final String mLocation;
+        final URL mUrl;
+        final boolean mRevalidate;
+
+        /* Results, written by the fetching thread and read after fetchAll returned */
+        private volatile T mResult;
+        private volatile boolean mNotModified;
+        private volatile IOException mError;
+
+        /**
+         * @param location   The location, as typed by the user
+         * @param url        URL to download
+         * @param revalidate True if what is stored for this location came from the cached
+         *                   response of the URL, so a 304 can be accepted
+         */
+        Request(String location, URL url, boolean revalidate) {
+            mLocation = location;
+            mUrl = url;
+            mRevalidate = revalidate;
+        }
+
+        /**
+         * @return The parsed response, or null if the server reported an error, answered 304 or
+         * the download failed
+         */
+        T getResult() {
+            return mResult;
+        }
+
+        /**
+         * @return true if the server answered that the response didn't change
+         */
+        boolean isNotModified() {
+            return mNotModified;
+        }
+
+        /**
+         * @return What made the download fail, or null
+         */
+        IOException getError() {
+            return mError;
+        }
+
+        @Override
+        public T onNotModified() {
+            mNotModified = true;
+            return null;
+        }
+    }
+
+    /**
+     * The daily forecast of one location.
+     */
+    static final class ForecastRequest extends Request<ForecastBatch> {
+
+        ForecastRequest(String location, URL url, boolean revalidate) {
+            super(location, url, revalidate);
+        }
+
+        /**
+         * @return The forecast, or null if the server reported an error, answered 304 or the
+         * download failed
+         */
+        ForecastBatch getForecast() {
+            return getResult();
+        }
+
+        @Override
+        public ForecastBatch onResponse(InputStream in) throws IOException {
+            /*
+             * Preferences are left alone here: several of these run at once, and only the
+             * preferred location may update the coordinates stored there.
+             */
+            return OpenWeatherJsonUtils.getForecastBatchFromStream(in);
+        }
+    }
+
+    /**
+     * The hourly forecast of one location. It is parsed while it downloads, like the daily one,
+     * which matters more here since it is several times longer.
+     */
+    static final class HourlyRequest extends Request<HourlyBatch> {
+
+        HourlyRequest(String location, URL url, boolean revalidate) {
+            super(location, url, revalidate);
+        }
+
+        @Override
+        public HourlyBatch onResponse(InputStream in) throws IOException {
+            return OpenWeatherJsonUtils.getHourlyBatchFromStream(in);
+        }
+    }
+
+    private static final class FetchTask<T> implements Callable<Void> {
+
+        private final DiskResponseCache mCache;
+        private final TransferStats mStats;
+        private final Request<T> mRequest;
+
+        FetchTask(DiskResponseCache cache, TransferStats stats, Request<T> request) {
+            mCache = cache;
+            mStats = stats;
+            mRequest = request;
+        }
+
+        @Override
+        public Void call() {
+            try {
+                mRequest.mResult = NetworkUtils.readFromHttpUrl(mRequest.mUrl, mCache,
+                        mRequest.mRevalidate, mStats, mRequest);
+            } catch (IOException e) {
+                mRequest.mError = e;
+            }
+            return null;
+        }
+    }
+}
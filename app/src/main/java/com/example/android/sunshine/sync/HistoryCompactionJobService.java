@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Bundle;
+
+import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.data.WeatherContract;
+import com.firebase.jobdispatcher.JobParameters;
+import com.firebase.jobdispatcher.JobService;
+
+/**
+ * Shrinks the forecast history while the device charges: old days are downsampled to one row
+ * per week, and the oldest months are dropped until the history fits the budget the user chose.
+ * This is the only place the history is rewritten, so a sync never pays for it.
+ */
+public class HistoryCompactionJobService extends JobService {
+
+    private AsyncTask<Void, Void, Void> mCompactHistoryTask;
+
+    @Override
+    public boolean onStartJob(final JobParameters jobParameters) {
+
+        mCompactHistoryTask = new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(Void... voids) {
+                Context context = getApplicationContext();
+
+                /* The job may have been scheduled before the user turned the history off */
+                if (SunshinePreferences.isHistoryEnabled(context)) {
+                    Bundle extras = new Bundle();
+                    extras.putLong(WeatherContract.EXTRA_SIZE_BUDGET_BYTES,
+                            SunshinePreferences.getHistorySizeBudgetBytes(context));
+                    context.getContentResolver().call(
+                            WeatherContract.HistoryEntry.CONTENT_URI,
+                            WeatherContract.METHOD_COMPACT_HISTORY,
+                            null,
+                            extras);
+                }
+                return null;
+            }
+
+            @Override
+            protected void onPostExecute(Void aVoid) {
+                jobFinished(jobParameters, false);
+            }
+        };
+
+        mCompactHistoryTask.execute();
+        return true;
+    }
+
+    /**
+     * Every partition is compacted in its own transaction, so an interrupted compaction loses
+     * nothing and the next one picks up where this one stopped.
+     */
+    @Override
+    public boolean onStopJob(JobParameters jobParameters) {
+        if (mCompactHistoryTask != null) {
+            mCompactHistoryTask.cancel(true);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.text.format.DateUtils;
+
+import com.example.android.sunshine.R;
+import com.example.android.sunshine.data.SunshinePreferences;
+
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * The single way into {@link SunshineSyncTask}. Syncs are requested from the job dispatcher,
+ * from {@link SunshineSyncIntentService} and from the settings screen, and those requests tend to
+ * arrive together, right after the app starts or the location changes. Rather than downloading
+ * the forecast once for each of them, requests that arrive while a sync of the same preferred
+ * location is running wait for that sync and all get its result.
+ * <p>
+ * A sync that isn't forced is skipped altogether when the weather of the preferred location was
+ * stored less than {@code R.integer.sync_freshness_window_minutes} ago. Switching to a location
+ * that was synced recently therefore doesn't download anything.
+ */
+final class SunshineSyncCoordinator {
+
+    /* The weather was downloaded and stored */
+    static final int SYNC_RESULT_SYNCED = 0;
+    /* The stored weather was fresh enough, so nothing was downloaded */
+    static final int SYNC_RESULT_FRESH = 1;
+    /* The download or the parsing failed, the stored weather wasn't touched */
+    static final int SYNC_RESULT_FAILED = 2;
+
+    private static final Object sLock = new Object();
+
+    /* The sync currently running, or null. Only read or written while holding sLock. */
+    private static InFlightSync sInFlight;
+
+    private SunshineSyncCoordinator() {
+    }
+
+    /**
+     * Syncs the weather unless the stored weather is still fresh, or waits for the sync that is
+     * already running and returns its result. Blocks until there is a result, so this must not
+     * be called from the main thread.
+     *
+     * @param context Used to access preferences and the ContentResolver
+     * @param force   True to download the weather even if the stored weather is fresh
+     * @return One of the SYNC_RESULT_ constants
+     */
+    static int sync(@NonNull Context context, boolean force) {
+        InFlightSync sync;
+
+        while (true) {
+            boolean join;
+            String location = SunshinePreferences.getPreferredWeatherLocation(context);
+
+            synchronized (sLock) {
+                if (sInFlight == null) {
+                    if (!force && isStoredWeatherFresh(context, location)) {
+                        return SYNC_RESULT_FRESH;
+                    }
+                    sInFlight = new InFlightSync(location, force);
+                    sync = sInFlight;
+                    break;
+                }
+
+                /*
+                 * A sync that read another preferred location may not download this one at all,
+                 * and a forced sync can't share a sync that isn't forced. In both cases wait for
+                 * the running sync to end and start another one.
+                 */
+                sync = sInFlight;
+                join = sync.mLocation.equalsIgnoreCase(location) && (!force || sync.mForced);
+            }
+
+            int result = sync.await();
+            if (join || Thread.currentThread().isInterrupted()) {
+                return result;
+            }
+        }
+
+        int result = SYNC_RESULT_FAILED;
+        try {
+            if (SunshineSyncTask.syncWeather(context, sync.mForced)) {
+                result = SYNC_RESULT_SYNCED;
+            }
+        } finally {
+            synchronized (sLock) {
+                sInFlight = null;
+            }
+            sync.complete(result);
+        }
+        return result;
+    }
+
+    private static boolean isStoredWeatherFresh(Context context, String location) {
+        Long lastSyncTime = SunshineSyncTask.getLastSyncTimes(context)
+                .get(location.toLowerCase(Locale.US));
+        if (lastSyncTime == null) {
+            return false;
+        }
+
+        long freshnessWindowMillis = context.getResources()
+                .getInteger(R.integer.sync_freshness_window_minutes) * DateUtils.MINUTE_IN_MILLIS;
+        long timeSinceLastSync = System.currentTimeMillis() - lastSyncTime;
+
+        /* A last sync in the future means the clock was changed, so don't trust it */
+        return timeSinceLastSync >= 0 && timeSinceLastSync < freshnessWindowMillis;
+    }
+
+    /**
+     * A sync that is running. Every caller that joined it waits on the latch until the thread
+     * running it publishes the result.
+     */
+    private static final class InFlightSync {
+
+        private final String mLocation;
+        private final boolean mForced;
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private volatile int mResult = SYNC_RESULT_FAILED;
+
+        InFlightSync(String location, boolean forced) {
+            mLocation = location;
+            mForced = forced;
+        }
+
+        void complete(int result) {
+            mResult = result;
+            mDone.countDown();
+        }
+
+        int await() {
+            try {
+                mDone.await();
+            } catch (InterruptedException e) {
+                /* Let the caller see it was interrupted, and don't pretend the sync worked */
+                Thread.currentThread().interrupt();
+                return SYNC_RESULT_FAILED;
+            }
+            return mResult;
+        }
+    }
+}
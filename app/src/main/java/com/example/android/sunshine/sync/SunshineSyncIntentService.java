@@ -24,12 +24,19 @@ import android.content.Intent;
  */
 public class SunshineSyncIntentService extends IntentService {
 
+    /*
+     * Boolean extra. When true, the weather is downloaded even if the stored weather is still
+     * fresh, because what is stored no longer matches the preferences.
+     */
+    static final String EXTRA_FORCE_SYNC = "force_sync";
+
     public SunshineSyncIntentService() {
         super("SunshineSyncIntentService");
     }
 
     @Override
     protected void onHandleIntent(Intent intent) {
-        SunshineSyncTask.syncWeather(this);
+        boolean force = intent != null && intent.getBooleanExtra(EXTRA_FORCE_SYNC, false);
+        SunshineSyncCoordinator.sync(this, force);
     }
 }
\ No newline at end of file
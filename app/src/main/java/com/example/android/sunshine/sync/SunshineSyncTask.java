@@ -15,26 +15,38 @@
  */
 package com.example.android.sunshine.sync;
 
-import android.content.ContentResolver;
-import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
 import android.os.Bundle;
 import android.support.annotation.Nullable;
 import android.text.format.DateUtils;
+import android.util.Log;
 
+import com.example.android.sunshine.data.ForecastBatch;
+import com.example.android.sunshine.data.HourlyBatch;
 import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
-import com.example.android.sunshine.service.SunshineWearPhoneService;
+import com.example.android.sunshine.service.WearPayloadBuilder;
+import com.example.android.sunshine.utilities.DiskResponseCache;
 import com.example.android.sunshine.utilities.NetworkUtils;
 import com.example.android.sunshine.utilities.NotificationUtils;
-import com.example.android.sunshine.utilities.OpenWeatherJsonUtils;
+import com.example.android.sunshine.utilities.TransferStats;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.wearable.Wearable;
 
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 public class SunshineSyncTask {
 
+    private static final String TAG = SunshineSyncTask.class.getSimpleName();
+
     private static GoogleApiClient mGoogleApiClient = null;
 
     /**
@@ -42,46 +54,175 @@ public class SunshineSyncTask {
      * inserts the new weather information into our ContentProvider. Will notify the user that new
      * weather has been loaded if the user hasn't been notified of the weather within the last day
      * AND they haven't disabled notifications in the preferences screen.
+     * <p>
+     * Only {@link SunshineSyncCoordinator} calls this, and it makes sure only one sync runs at a
+     * time.
      *
      * @param context Used to access utility methods and the ContentResolver
+     * @param force   True to download every forecast in full, without asking the server whether
+     *                the last response is still current
+     * @return true if the stored weather is now up to date, either because new weather was
+     * downloaded and stored or because the server said nothing changed
      */
-    synchronized public static void syncWeather(final Context context) {
+    static boolean syncWeather(final Context context, boolean force) {
 
         try {
             /*
-             * The getUrl method will return the URL that we need to get the forecast JSON for the
-             * weather. It will decide whether to create a URL based off of the latitude and
-             * longitude or off of a simple location as a String.
+             * The preferred location comes first, followed by the saved locations. The URL of the
+             * preferred location is decided the same way as before from either the latitude and
+             * longitude or the location String.
              */
-            URL weatherRequestUrl = NetworkUtils.getUrl(context);
+            List<String> locations = SunshinePreferences.getSyncedLocations(context);
+            Map<String, Long> lastSyncTimes = getLastSyncTimes(context);
+            String lastSyncUrl = SunshinePreferences.getLastSyncUrl(context);
+
+            List<ForecastFetcher.ForecastRequest> requests = new ArrayList<>();
+            for (int i = 0; i < locations.size(); i++) {
+                String location = locations.get(i);
+                boolean isPreferred = i == 0;
+
+                URL url = NetworkUtils.getUrl(context, location);
+                if (url == null) {
+                    if (isPreferred) {
+                        return false;
+                    }
+                    continue;
+                }
 
-            /* Use the URL to retrieve the JSON */
-            String jsonWeatherResponse = NetworkUtils.getResponseFromHttpUrl(weatherRequestUrl);
+                /*
+                 * If a forecast is stored for the location, and for the preferred location if it
+                 * came from this very URL, we can ask the server to only send the forecast if it
+                 * changed since then. Otherwise a "not modified" answer would leave the location
+                 * without weather, or with the weather of the coordinates it had before.
+                 */
+                boolean stored = lastSyncTimes.containsKey(location.toLowerCase(Locale.US));
+                boolean revalidate = !force && stored
+                        && (!isPreferred || url.toString().equals(lastSyncUrl));
+                requests.add(new ForecastFetcher.ForecastRequest(location, url, revalidate));
+            }
 
-            /* Parse the JSON into a list of weather values */
-            ContentValues[] weatherValues = OpenWeatherJsonUtils
-                    .getWeatherContentValuesFromJson(context, jsonWeatherResponse);
+            /*
+             * If the user wants it, the hourly forecast of every location is downloaded along
+             * with its daily forecast, the one at the same index of hourlyRequests. Its cached
+             * response can only be trusted if the location has hourly rows that came from it.
+             */
+            List<ForecastFetcher.HourlyRequest> hourlyRequests = new ArrayList<>();
+            if (SunshinePreferences.isHourlyForecastEnabled(context)) {
+                Set<String> hourlyStored = getLocationsWithHourlyForecast(context);
+                for (ForecastFetcher.ForecastRequest request : requests) {
+                    URL url = NetworkUtils.getHourlyUrl(context, request.mLocation);
+                    boolean revalidate = request.mRevalidate
+                            && hourlyStored.contains(request.mLocation.toLowerCase(Locale.US));
+                    hourlyRequests.add(
+                            new ForecastFetcher.HourlyRequest(request.mLocation, url, revalidate));
+                }
+            }
 
             /*
-             * In cases where our JSON contained an error code, getWeatherContentValuesFromJson
-             * would have returned null. We need to check for those cases here to prevent any
-             * NullPointerExceptions being thrown. We also have no reason to insert fresh data if
-             * there isn't any to insert.
+             * Download every location at once, each one parsed into a list of weather values
+             * while it is being downloaded, rather than buffering the whole response first.
              */
-            if (weatherValues != null && weatherValues.length != 0) {
-                /* Get a handle on the ContentResolver to delete and insert data */
-                ContentResolver sunshineContentResolver = context.getContentResolver();
+            List<ForecastFetcher.Request<?>> allRequests = new ArrayList<>();
+            allRequests.addAll(requests);
+            for (ForecastFetcher.HourlyRequest hourlyRequest : hourlyRequests) {
+                if (hourlyRequest.mUrl != null) {
+                    allRequests.add(hourlyRequest);
+                }
+            }
+            TransferStats transferStats = new TransferStats();
+            ForecastFetcher.fetchAll(DiskResponseCache.getInstance(context), transferStats,
+                    allRequests);
 
-                /* Delete old weather data because we don't need to keep multiple days' data */
-                sunshineContentResolver.delete(
+            /* How much the forecasts cost to download, compressed, against how big they are */
+            Log.i(TAG, "Sync transfer: " + transferStats);
+
+            /*
+             * A failed download only costs its own location: the others are still stored below,
+             * and the failure of the preferred location is reported once they are.
+             */
+            ForecastFetcher.ForecastRequest preferred = requests.get(0);
+            ForecastBatch forecast = preferred.getForecast();
+
+            /*
+             * The server tells us where the preferred location is, and we keep its coordinates
+             * to build the next URL and to show the location on a map.
+             */
+            if (forecast != null && forecast.hasCoordinates()) {
+                SunshinePreferences.setLocationDetails(context,
+                        forecast.getLatitude(), forecast.getLongitude());
+            }
+
+            /*
+             * Every location that answered is stored, a null batch standing for a forecast that
+             * didn't change. In cases where our JSON contained an error code,
+             * getForecastBatchFromStream would have returned null. We have no reason to store
+             * anything for those locations, or for the ones that failed to download.
+             */
+            ArrayList<String> locationKeys = new ArrayList<>();
+            ArrayList<ForecastBatch> forecasts = new ArrayList<>();
+            ArrayList<HourlyBatch> hourlyForecasts = new ArrayList<>();
+            for (int i = 0; i < requests.size(); i++) {
+                ForecastFetcher.ForecastRequest request = requests.get(i);
+                ForecastBatch batch = request.getForecast();
+                if (request.isNotModified() || (batch != null && batch.size() != 0)) {
+                    locationKeys.add(request.mLocation);
+                    forecasts.add(batch);
+
+                    /* An hourly forecast that failed or didn't change is left as it is */
+                    HourlyBatch hourlyBatch = null;
+                    if (i < hourlyRequests.size()) {
+                        ForecastFetcher.HourlyRequest hourlyRequest = hourlyRequests.get(i);
+                        hourlyBatch = hourlyRequest.getResult();
+                        if (hourlyRequest.getError() != null) {
+                            Log.w(TAG, "Hourly forecast of " + request.mLocation + " failed",
+                                    hourlyRequest.getError());
+                        }
+                    }
+                    hourlyForecasts.add(hourlyBatch != null && hourlyBatch.size() != 0
+                            ? hourlyBatch : null);
+                }
+            }
+
+            if (!locationKeys.isEmpty()) {
+                /*
+                 * Replace the old weather data of every location with its new forecast. The
+                 * provider does this in a single transaction that only rewrites the days that
+                 * changed and drops the days we don't need anymore, so observers never see an
+                 * empty table and are notified at most once for the whole sync. The batches are
+                 * handed over as they are rather than being converted to ContentValues first.
+                 */
+                Bundle extras = new Bundle();
+                extras.putStringArray(WeatherContract.EXTRA_LOCATION_KEYS,
+                        locationKeys.toArray(new String[locationKeys.size()]));
+                extras.putParcelableArray(WeatherContract.EXTRA_FORECAST_BATCHES,
+                        forecasts.toArray(new ForecastBatch[forecasts.size()]));
+                if (!hourlyRequests.isEmpty()) {
+                    extras.putParcelableArray(WeatherContract.EXTRA_HOURLY_BATCHES,
+                            hourlyForecasts.toArray(new HourlyBatch[hourlyForecasts.size()]));
+                }
+                context.getContentResolver().call(
                         WeatherContract.WeatherEntry.CONTENT_URI,
+                        WeatherContract.METHOD_REPLACE_FORECASTS,
                         null,
-                        null);
+                        extras);
+            }
 
-                /* Insert our new weather data into Sunshine's ContentProvider */
-                sunshineContentResolver.bulkInsert(
-                        WeatherContract.WeatherEntry.CONTENT_URI,
-                        weatherValues);
+            if (preferred.getError() != null) {
+                Log.e(TAG, "Forecast of the preferred location failed", preferred.getError());
+                return false;
+            }
+
+            /*
+             * The forecast of the preferred location didn't change since the last sync, so there
+             * is nothing new to tell the user and the watch about.
+             */
+            if (preferred.isNotModified()) {
+                return true;
+            }
+
+            if (forecast != null && forecast.size() != 0) {
+                /* Remember where we got this forecast, so later syncs can ask whether it changed */
+                SunshinePreferences.saveLastSyncUrl(context, preferred.mUrl.toString());
 
                 /*
                  * Finally, after we insert data into the ContentProvider, determine whether or not
@@ -113,7 +254,7 @@ public class SunshineSyncTask {
                 GoogleApiClient.ConnectionCallbacks connectionCallbacks = new GoogleApiClient.ConnectionCallbacks() {
                     @Override
                     public void onConnected(@Nullable Bundle bundle) {
-                        new SunshineWearPhoneService.WeatherQueryTask(mGoogleApiClient, context, true).execute();
+                        WearPayloadBuilder.publish(context, mGoogleApiClient, false, true);
                         mGoogleApiClient = null;
                     }
 
@@ -127,13 +268,80 @@ public class SunshineSyncTask {
                         .addConnectionCallbacks(connectionCallbacks)
                         .build();
                 mGoogleApiClient.connect();
-            /* If the code reaches this point, we have successfully performed our sync */
 
+                /* If the code reaches this point, we have successfully performed our sync */
+                return true;
             }
 
         } catch (Exception e) {
             /* Server probably invalid */
             e.printStackTrace();
         }
+        return false;
+    }
+
+    /**
+     * Returns when the forecast of each stored location was last synced.
+     *
+     * @param context Used to access the ContentResolver
+     * @return The last sync time of each location, by location in lower case
+     */
+    static Map<String, Long> getLastSyncTimes(Context context) {
+        Map<String, Long> lastSyncTimes = new HashMap<>();
+
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_KEY,
+                        WeatherContract.LocationEntry.COLUMN_LAST_SYNC},
+                WeatherContract.LocationEntry.COLUMN_LAST_SYNC + " > 0",
+                null,
+                null);
+        if (cursor == null) {
+            return lastSyncTimes;
+        }
+
+        try {
+            while (cursor.moveToNext()) {
+                lastSyncTimes.put(cursor.getString(0).toLowerCase(Locale.US), cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return lastSyncTimes;
+    }
+
+    /**
+     * Returns the locations that have an hourly forecast stored.
+     *
+     * @param context Used to access the ContentResolver
+     * @return The locations, in lower case
+     */
+    private static Set<String> getLocationsWithHourlyForecast(Context context) {
+        Set<String> locations = new HashSet<>();
+
+        /* A seek into the (location_id, time) index of the hourly table per location */
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_KEY},
+                "EXISTS (SELECT 1 FROM " + WeatherContract.HourlyEntry.TABLE_NAME
+                        + " WHERE " + WeatherContract.HourlyEntry.TABLE_NAME + "."
+                        + WeatherContract.HourlyEntry.COLUMN_LOCATION_ID + " = "
+                        + WeatherContract.LocationEntry.TABLE_NAME + "."
+                        + WeatherContract.LocationEntry._ID + ")",
+                null,
+                null);
+        if (cursor == null) {
+            return locations;
+        }
+
+        try {
+            while (cursor.moveToNext()) {
+                locations.add(cursor.getString(0).toLowerCase(Locale.US));
+            }
+        } finally {
+            cursor.close();
+        }
+        return locations;
     }
 }
\ No newline at end of file
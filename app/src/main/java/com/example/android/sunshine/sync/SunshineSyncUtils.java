@@ -21,6 +21,7 @@ import android.database.Cursor;
 import android.net.Uri;
 import android.support.annotation.NonNull;
 
+import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
 import com.firebase.jobdispatcher.Constraint;
 import com.firebase.jobdispatcher.Driver;
@@ -46,6 +47,12 @@ public class SunshineSyncUtils {
 
     private static final String SUNSHINE_SYNC_TAG = "sunshine-sync";
 
+    /* The forecast history only grows by a day per sync, so compacting it daily is plenty */
+    private static final int COMPACTION_INTERVAL_SECONDS = (int) TimeUnit.DAYS.toSeconds(1);
+    private static final int COMPACTION_FLEXTIME_SECONDS = (int) TimeUnit.HOURS.toSeconds(6);
+
+    private static final String HISTORY_COMPACTION_TAG = "sunshine-history-compaction";
+
     /**
      * Schedules a repeating sync of Sunshine's weather data using FirebaseJobDispatcher.
      * @param context Context used to create the GooglePlayDriver that powers the
@@ -99,6 +106,42 @@ public class SunshineSyncUtils {
         /* Schedule the Job with the dispatcher */
         dispatcher.schedule(syncSunshineJob);
     }
+
+    /**
+     * Schedules a daily compaction of the forecast history, which only runs while the device is
+     * charging so that rewriting the history never costs the user battery.
+     *
+     * @param context Context used to create the GooglePlayDriver that powers the
+     *                FirebaseJobDispatcher
+     */
+    public static void scheduleHistoryCompaction(@NonNull final Context context) {
+        FirebaseJobDispatcher dispatcher = new FirebaseJobDispatcher(new GooglePlayDriver(context));
+
+        Job compactHistoryJob = dispatcher.newJobBuilder()
+                .setService(HistoryCompactionJobService.class)
+                .setTag(HISTORY_COMPACTION_TAG)
+                .setConstraints(Constraint.DEVICE_CHARGING)
+                .setLifetime(Lifetime.FOREVER)
+                .setRecurring(true)
+                .setTrigger(Trigger.executionWindow(
+                        COMPACTION_INTERVAL_SECONDS,
+                        COMPACTION_INTERVAL_SECONDS + COMPACTION_FLEXTIME_SECONDS))
+                .setReplaceCurrent(true)
+                .build();
+
+        dispatcher.schedule(compactHistoryJob);
+    }
+
+    /**
+     * Cancels the compaction of the forecast history, once the user doesn't keep one anymore.
+     *
+     * @param context Context used to create the GooglePlayDriver that powers the
+     *                FirebaseJobDispatcher
+     */
+    public static void cancelHistoryCompaction(@NonNull final Context context) {
+        FirebaseJobDispatcher dispatcher = new FirebaseJobDispatcher(new GooglePlayDriver(context));
+        dispatcher.cancel(HISTORY_COMPACTION_TAG);
+    }
     /**
      * Creates periodic sync tasks and checks to see if an immediate sync is required. If an
      * immediate sync is required, this method will take care of making sure that sync occurs.
@@ -122,6 +165,10 @@ public class SunshineSyncUtils {
          */
         scheduleFirebaseJobDispatcherSync(context);
 
+        if (SunshinePreferences.isHistoryEnabled(context)) {
+            scheduleHistoryCompaction(context);
+        }
+
         /*
          * We need to check to see if our ContentProvider has data to display in our forecast
          * list. However, performing a query on the main thread is a bad idea as this may
@@ -167,7 +214,8 @@ public class SunshineSyncUtils {
                  * be able to display data to the user.
                  */
                 if (null == cursor || cursor.getCount() == 0) {
-                    startImmediateSync(context);
+                    /* Whatever the last sync time says, there's nothing to show, so force it */
+                    startImmediateSync(context, true);
                 }
 
                 /* Make sure to close the Cursor to avoid memory leaks! */
@@ -186,7 +234,22 @@ public class SunshineSyncUtils {
      * @param context The Context used to start the IntentService for the sync.
      */
     public static void startImmediateSync(@NonNull final Context context) {
+        startImmediateSync(context, false);
+    }
+
+    /**
+     * Helper method to perform a sync immediately using an IntentService for asynchronous
+     * execution.
+     *
+     * @param context The Context used to start the IntentService for the sync.
+     * @param force   True to download the weather even if the stored weather is still fresh, for
+     *                instance because there is nothing to show. Otherwise the sync is skipped
+     *                when the weather of the preferred location was stored only a few minutes
+     *                ago.
+     */
+    public static void startImmediateSync(@NonNull final Context context, boolean force) {
         Intent intentToSyncImmediately = new Intent(context, SunshineSyncIntentService.class);
+        intentToSyncImmediately.putExtra(SunshineSyncIntentService.EXTRA_FORCE_SYNC, force);
         context.startService(intentToSyncImmediately);
     }
 }
\ No newline at end of file
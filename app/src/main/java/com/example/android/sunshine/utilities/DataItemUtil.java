@@ -21,39 +21,71 @@ public class DataItemUtil {
 
     public static final String TEMP_PATH = "/temp";
 
+    public static final String FORECAST_PATH = "/forecast";
+
+    public static final String UNITS_PATH = "/units";
+
     public static final String REQUEST_UPDATE_PATH = "/request_update";
 
     private static final long DEFAULT_MESSAGE_TIMEOUT = 10;
 
-    public static final String ITEM_EXTRA_MIN_TEMP = "item.extra.min_temp";
+    /* Today's low and high, in degrees Celsius: the watch formats them in the user's units */
+    public static final String ITEM_EXTRA_LOW_CELSIUS = "item.extra.low_celsius";
+
+    public static final String ITEM_EXTRA_HIGH_CELSIUS = "item.extra.high_celsius";
 
-    public static final String ITEM_EXTRA_MAX_TEMP = "item.extra.max_temp";
+    /* At UNITS_PATH: true if the user wants metric units */
+    public static final String ITEM_EXTRA_METRIC = "item.extra.metric";
 
     public static final String ITEM_EXTRA_ASSET = "item.extra.asset";
 
-    public static final String ITEM_EXTRA_TIMESTAMP = "item.extra.timestamp";
+    /**
+     * Builds the DataItem of today's temperatures, in degrees Celsius, and icon. This only copies
+     * values, so it is fine on any thread, but the asset should have been encoded off the main
+     * thread. The item holds nothing but the weather, so the same weather makes the same item,
+     * whichever units the user picked.
+     */
+    public static PutDataMapRequest buildTempDataRequest(double lowCelsius, double highCelsius, Asset asset) {
+        PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(TEMP_PATH);
+        putDataMapRequest.getDataMap().putDouble(ITEM_EXTRA_LOW_CELSIUS, lowCelsius);
+        putDataMapRequest.getDataMap().putDouble(ITEM_EXTRA_HIGH_CELSIUS, highCelsius);
+        putDataMapRequest.getDataMap().putAsset(ITEM_EXTRA_ASSET, asset);
+        return putDataMapRequest;
+    }
+
+    /**
+     * Builds the DataItem of the units the watch shows temperatures in. It is a few bytes, so a
+     * change of units doesn't send the weather again.
+     */
+    public static PutDataMapRequest buildUnitsDataRequest(boolean metric) {
+        PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(UNITS_PATH);
+        putDataMapRequest.getDataMap().putBoolean(ITEM_EXTRA_METRIC, metric);
+        return putDataMapRequest;
+    }
 
-    public static void syncTempDataItem(GoogleApiClient googleApiClient, String minTemp, String maxTemp, Asset asset, ResultCallback<DataApi.DataItemResult> resultCallback) {
+    /**
+     * Builds the DataItem of the forecast of the next days, whose data are the bytes encoded by
+     * WearForecastCodec rather than a DataMap.
+     */
+    public static PutDataRequest buildForecastDataRequest(byte[] forecast) {
+        return PutDataRequest.create(FORECAST_PATH).setData(forecast);
+    }
+
+    /**
+     * Puts a DataItem. The put itself is asynchronous.
+     *
+     * @return false if the client isn't connected, in which case resultCallback isn't called
+     */
+    public static boolean putDataItem(GoogleApiClient googleApiClient, PutDataRequest request, ResultCallback<DataApi.DataItemResult> resultCallback) {
         if (googleApiClient == null) {
-            Log.w(TAG, "syncTempDataItem: GoogleApiClient was null");
-            return;
+            Log.w(TAG, "putDataItem: GoogleApiClient was null");
+            return false;
         }
         if (!googleApiClient.isConnected()) {
-            Log.w(TAG, "syncTempDataItem: GoogleApiClient not connected");
-            return;
-        }
-        if (asset == null) {
-            Log.w(TAG, "syncTempDataItem: Asset was null");
-            return;
+            Log.w(TAG, "putDataItem: GoogleApiClient not connected");
+            return false;
         }
-        Log.d(TAG, "syncTempDataItem: minTemp:" + minTemp + ", maxTemp:" + maxTemp);
-        PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(TEMP_PATH);
-        putDataMapRequest.getDataMap().putLong(ITEM_EXTRA_TIMESTAMP, System.currentTimeMillis());
-        putDataMapRequest.getDataMap().putString(ITEM_EXTRA_MIN_TEMP, minTemp);
-        putDataMapRequest.getDataMap().putString(ITEM_EXTRA_MAX_TEMP, maxTemp);
-        putDataMapRequest.getDataMap().putAsset(ITEM_EXTRA_ASSET, asset);
-        PutDataRequest request = putDataMapRequest.asPutDataRequest();
-        request.setUrgent();
+        Log.d(TAG, "putDataItem: " + request.getUri());
         PendingResult<DataApi.DataItemResult> result = Wearable.DataApi.putDataItem(googleApiClient, request);
         if (resultCallback != null) {
             result.setResultCallback(resultCallback);
@@ -61,15 +93,20 @@ public class DataItemUtil {
             result.setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
                 @Override
                 public void onResult(DataApi.DataItemResult dataItemResult) {
-                    if (!dataItemResult.getStatus().isSuccess()) {
-                        Log.e(TAG, "ERROR: failed to putDataItem, status code: "
-                                + dataItemResult.getStatus().getStatusCode());
-                    } else {
-                        Log.d(TAG, "putDataItem success");
-                    }
+                    logResult(dataItemResult);
                 }
             });
         }
+        return true;
+    }
+
+    public static void logResult(DataApi.DataItemResult dataItemResult) {
+        if (!dataItemResult.getStatus().isSuccess()) {
+            Log.e(TAG, "ERROR: failed to putDataItem, status code: "
+                    + dataItemResult.getStatus().getStatusCode());
+        } else {
+            Log.d(TAG, "putDataItem success");
+        }
     }
 
 }
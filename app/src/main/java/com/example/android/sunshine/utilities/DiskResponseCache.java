@@ -0,0 +1,426 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Keeps the last response of each URL on disk, together with the ETag and Last-Modified headers
+ * it came with, so {@link NetworkUtils} can ask the server whether anything changed instead of
+ * downloading the same forecast again.
+ * <p>
+ * Each URL gets a single file named after the SHA-1 of the URL. The files are kept under a total
+ * size, and when that size is exceeded the least recently used ones are deleted first. A file's
+ * modification time is its last use.
+ */
+public final class DiskResponseCache {
+
+    private static final String TAG = DiskResponseCache.class.getSimpleName();
+
+    private static final String CACHE_DIRECTORY = "responses";
+
+    /* A forecast is a few kilobytes, so this holds the responses of many locations */
+    private static final long DEFAULT_MAX_SIZE_BYTES = 512 * 1024;
+
+    /* Responses being written end with this until they are complete */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static DiskResponseCache sInstance;
+
+    private final File mDirectory;
+    private final long mMaxSizeBytes;
+
+    /**
+     * Returns the cache the app uses for its weather requests, which lives in the cache directory
+     * of the app so the system can clear it when space runs low.
+     *
+     * @param context Used to find the cache directory
+     * @return The shared cache
+     */
+    public static synchronized DiskResponseCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new DiskResponseCache(
+                    new File(context.getCacheDir(), CACHE_DIRECTORY), DEFAULT_MAX_SIZE_BYTES);
+            sInstance.deleteTempFiles();
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param directory    Where the responses are stored. Created if it doesn't exist.
+     * @param maxSizeBytes Total size of the stored responses above which the least recently used
+     *                     ones are evicted
+     */
+    public DiskResponseCache(File directory, long maxSizeBytes) {
+        mDirectory = directory;
+        mMaxSizeBytes = maxSizeBytes;
+    }
+
+    /**
+     * Returns the validators of the last response stored for the URL, and marks it as used.
+     *
+     * @param url The URL of the request
+     * @return The stored response, or null if there is none or it can't be read
+     */
+    public synchronized Entry get(URL url) {
+        File file = fileFor(url);
+        if (!file.exists()) {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            /* Two URLs with the same hash share a file, so check it really is ours */
+            if (!url.toString().equals(in.readUTF())) {
+                return null;
+            }
+            String eTag = emptyToNull(in.readUTF());
+            String lastModified = emptyToNull(in.readUTF());
+
+            file.setLastModified(System.currentTimeMillis());
+            return new Entry(file, eTag, lastModified);
+        } catch (IOException e) {
+            /* Without the query, which may hold an API key */
+            Log.w(TAG, "Dropping unreadable cached response for " + url.getHost()
+                    + url.getPath(), e);
+            file.delete();
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Starts storing a response. The body is written to the cache as it is read from the
+     * returned stream, and only replaces the previous response of the URL once
+     * {@link Writer#commit()} is called.
+     *
+     * @param url          The URL of the request
+     * @param eTag         Value of the ETag header of the response, or null
+     * @param lastModified Value of the Last-Modified header of the response, or null
+     * @param body         The body of the response
+     * @return A writer wrapping the body
+     * @throws IOException If the cache file can't be created
+     */
+    public Writer put(URL url, String eTag, String lastModified, InputStream body)
+            throws IOException {
+        synchronized (this) {
+            if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+                throw new IOException("Can't create " + mDirectory);
+            }
+        }
+
+        File temp = File.createTempFile(keyFor(url), TEMP_SUFFIX, mDirectory);
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            out.writeUTF(url.toString());
+            out.writeUTF(eTag != null ? eTag : "");
+            out.writeUTF(lastModified != null ? lastModified : "");
+        } catch (IOException e) {
+            closeQuietly(out);
+            temp.delete();
+            throw e;
+        }
+        return new Writer(body, out, temp, fileFor(url));
+    }
+
+    /**
+     * Deletes the stored response of the URL, if there is one.
+     *
+     * @param url The URL of the request
+     */
+    public synchronized void remove(URL url) {
+        fileFor(url).delete();
+    }
+
+    /*
+     * Deletes the responses a process that died while downloading left half written. Nothing can
+     * be downloading yet when the cache is first opened, so every temporary file is one of them.
+     */
+    private synchronized void deleteTempFiles() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.getName().endsWith(TEMP_SUFFIX)) {
+                file.delete();
+            }
+        }
+    }
+
+    /*
+     * Deletes the least recently used responses until the ones left fit in mMaxSizeBytes.
+     * Responses still being written don't count, they aren't in the cache until committed.
+     */
+    private void trimToSize() {
+        File[] files = mDirectory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return !file.getName().endsWith(TEMP_SUFFIX);
+            }
+        });
+        if (files == null) {
+            return;
+        }
+
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+        }
+        if (size <= mMaxSizeBytes) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long left = lhs.lastModified();
+                long right = rhs.lastModified();
+                return left < right ? -1 : (left == right ? 0 : 1);
+            }
+        });
+
+        for (int i = 0; i < files.length && size > mMaxSizeBytes; i++) {
+            size -= files[i].length();
+            files[i].delete();
+        }
+    }
+
+    private File fileFor(URL url) {
+        return new File(mDirectory, keyFor(url));
+    }
+
+    private static String keyFor(URL url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1")
+                    .digest(url.toString().getBytes("UTF-8"));
+            StringBuilder key = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                key.append(Character.forDigit((b >> 4) & 0xf, 16))
+                        .append(Character.forDigit(b & 0xf, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            /* Every Android device has SHA-1 and UTF-8 */
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String emptyToNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * A response stored in the cache.
+     */
+    public static final class Entry {
+
+        private final File mFile;
+        private final String mETag;
+        private final String mLastModified;
+
+        private Entry(File file, String eTag, String lastModified) {
+            mFile = file;
+            mETag = eTag;
+            mLastModified = lastModified;
+        }
+
+        /**
+         * @return The ETag the response came with, to send back as If-None-Match, or null
+         */
+        public String getETag() {
+            return mETag;
+        }
+
+        /**
+         * @return The Last-Modified date the response came with, to send back as
+         * If-Modified-Since, or null
+         */
+        public String getLastModified() {
+            return mLastModified;
+        }
+
+        /**
+         * Opens the stored body of the response. The caller has to close the stream.
+         *
+         * @return The body
+         * @throws IOException If the response was evicted or can't be read
+         */
+        public InputStream openBody() throws IOException {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(mFile)));
+            try {
+                in.readUTF();
+                in.readUTF();
+                in.readUTF();
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+            return in;
+        }
+    }
+
+    /**
+     * The body of a response that is being stored. Everything read from this stream is also
+     * written to a temporary file, which becomes the cached response on {@link #commit()}.
+     * <p>
+     * Closing this stream doesn't close the body it wraps, so that {@link #commit()} can still
+     * read what a handler that closes its input early left unread. Whoever opened the body closes
+     * it.
+     */
+    public final class Writer extends FilterInputStream {
+
+        private final OutputStream mOut;
+        private final File mTemp;
+        private final File mTarget;
+        private boolean mClosed;
+        private boolean mDone;
+
+        private Writer(InputStream body, OutputStream out, File temp, File target) {
+            super(body);
+            mOut = out;
+            mTemp = temp;
+            mTarget = target;
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkNotClosed();
+            int b = super.read();
+            if (b != -1 && !mDone) {
+                mOut.write(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            checkNotClosed();
+            return copy(buffer, offset, count);
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            checkNotClosed();
+            /* Skipped bytes still have to end up in the file */
+            byte[] buffer = new byte[(int) Math.min(count, 4096)];
+            long skipped = 0;
+            while (skipped < count) {
+                int read = copy(buffer, 0, (int) Math.min(buffer.length, count - skipped));
+                if (read == -1) break;
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private int copy(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0 && !mDone) {
+                mOut.write(buffer, offset, read);
+            }
+            return read;
+        }
+
+        private void checkNotClosed() throws IOException {
+            if (mClosed) {
+                throw new IOException("Stream closed");
+            }
+        }
+
+        /**
+         * Reads whatever the handler left of the body and makes it the cached response of the
+         * URL, replacing the previous one.
+         *
+         * @throws IOException If the rest of the body can't be read or the file written
+         */
+        public void commit() throws IOException {
+            if (mDone) return;
+
+            try {
+                byte[] buffer = new byte[4096];
+                while (copy(buffer, 0, buffer.length) != -1) {
+                    /* Drain the body into the file */
+                }
+                mOut.close();
+            } catch (IOException e) {
+                abort();
+                throw e;
+            }
+            mDone = true;
+
+            synchronized (DiskResponseCache.this) {
+                if (!mTemp.renameTo(mTarget)) {
+                    mTemp.delete();
+                    throw new IOException("Can't move " + mTemp + " to " + mTarget);
+                }
+                trimToSize();
+            }
+        }
+
+        /**
+         * Throws the partly written response away, leaving the previous response of the URL in
+         * place. Does nothing once the response was committed.
+         */
+        public void abort() {
+            if (mDone) return;
+            mDone = true;
+            closeQuietly(mOut);
+            mTemp.delete();
+        }
+
+        @Override
+        public void close() {
+            mClosed = true;
+        }
+    }
+}
@@ -17,16 +17,22 @@ package com.example.android.sunshine.utilities;
 
 import android.content.Context;
 import android.net.Uri;
+import android.text.TextUtils;
 import android.util.Log;
 
+import com.example.android.sunshine.BuildConfig;
 import com.example.android.sunshine.data.SunshinePreferences;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Scanner;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 /**
  * These utilities will be used to communicate with the weather servers.
@@ -56,6 +62,15 @@ public final class NetworkUtils {
 
     private static final String FORECAST_BASE_URL = STATIC_WEATHER_URL;
 
+    /*
+     * The fake weather server only has daily forecasts. The hourly forecast comes from
+     * OpenWeatherMap's 5 day / 3 hour forecast, which takes the same location, format and units
+     * parameters, plus an API key. It is only downloaded when the user turned the hourly forecast
+     * on and the app was built with a key, see isHourlyForecastAvailable.
+     */
+    private static final String HOURLY_FORECAST_BASE_URL =
+            "https://api.openweathermap.org/data/2.5/forecast";
+
     /*
      * NOTE: These values only effect responses from OpenWeatherMap, NOT from the fake weather
      * server. They are simply here to allow us to teach you how to build a URL if you were to use
@@ -82,6 +97,16 @@ public final class NetworkUtils {
     private static final String UNITS_PARAM = "units";
     /* The days parameter allows us to designate how many days of weather data we want */
     private static final String DAYS_PARAM = "cnt";
+    /* The API key of OpenWeatherMap, which its hourly forecast refuses to answer without */
+    private static final String APPID_PARAM = "appid";
+
+    /*
+     * The encodings we can decode ourselves. Setting Accept-Encoding by hand tells
+     * HttpURLConnection to leave the body alone, so openResponseBody has to decompress it.
+     */
+    private static final String ACCEPT_ENCODING = "gzip, deflate";
+    private static final String ENCODING_GZIP = "gzip";
+    private static final String ENCODING_DEFLATE = "deflate";
 
     /**
      * Retrieves the proper URL to query for the weather data. The reason for both this method as
@@ -109,6 +134,72 @@ public final class NetworkUtils {
         }
     }
 
+    /**
+     * Returns the URL to query for the weather of a location. For the preferred location this is
+     * the URL returned by {@link #getUrl(Context)}, which may use its latitude and longitude.
+     *
+     * @param context  used to access other Utility methods
+     * @param location The location, as typed by the user
+     * @return URL to query weather service
+     */
+    public static URL getUrl(Context context, String location) {
+        if (location.equalsIgnoreCase(SunshinePreferences.getPreferredWeatherLocation(context))) {
+            return getUrl(context);
+        }
+        return buildUrlWithLocationQuery(location);
+    }
+
+    /**
+     * Returns true if the app was built with an OpenWeatherMap API key, through the
+     * openWeatherMapApiKey Gradle property. Without one every hourly forecast request would be
+     * refused, so none is made.
+     *
+     * @return true if the hourly forecast can be downloaded
+     */
+    public static boolean isHourlyForecastAvailable() {
+        return !TextUtils.isEmpty(BuildConfig.OPEN_WEATHER_MAP_API_KEY);
+    }
+
+    /**
+     * Returns the URL to query for the hourly forecast of a location. Like
+     * {@link #getUrl(Context, String)}, the preferred location is asked for by latitude and
+     * longitude when we know them.
+     *
+     * @param context  used to access other Utility methods
+     * @param location The location, as typed by the user
+     * @return URL to query for the hourly forecast, or null if there is no API key to query it
+     * with, see {@link #isHourlyForecastAvailable()}
+     */
+    public static URL getHourlyUrl(Context context, String location) {
+        if (!isHourlyForecastAvailable()) {
+            return null;
+        }
+
+        Uri.Builder builder = Uri.parse(HOURLY_FORECAST_BASE_URL).buildUpon();
+        if (location.equalsIgnoreCase(SunshinePreferences.getPreferredWeatherLocation(context))
+                && SunshinePreferences.isLocationLatLonAvailable(context)) {
+            double[] preferredCoordinates = SunshinePreferences.getLocationCoordinates(context);
+            builder.appendQueryParameter(LAT_PARAM, String.valueOf(preferredCoordinates[0]))
+                    .appendQueryParameter(LON_PARAM, String.valueOf(preferredCoordinates[1]));
+        } else {
+            builder.appendQueryParameter(QUERY_PARAM, location);
+        }
+        builder.appendQueryParameter(FORMAT_PARAM, format)
+                .appendQueryParameter(UNITS_PARAM, units);
+        /* Logged before the API key is added, which has no business in logcat */
+        Log.v(TAG, "URL: " + builder.build() + " (with " + APPID_PARAM + ")");
+        Uri hourlyQueryUri = builder
+                .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                .build();
+
+        try {
+            return new URL(hourlyQueryUri.toString());
+        } catch (MalformedURLException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
     /**
      * Builds the URL used to talk to the weather server using latitude and longitude of a
      * location.
@@ -169,9 +260,9 @@ public final class NetworkUtils {
      * @throws IOException Related to network and stream reading
      */
     public static String getResponseFromHttpUrl(URL url) throws IOException {
-        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        HttpURLConnection urlConnection = openConnection(url);
         try {
-            InputStream in = urlConnection.getInputStream();
+            InputStream in = openResponseBody(urlConnection, null);
 
             Scanner scanner = new Scanner(in);
             scanner.useDelimiter("\\A");
@@ -187,4 +278,255 @@ public final class NetworkUtils {
             urlConnection.disconnect();
         }
     }
+
+    /**
+     * Callback used by {@link #readFromHttpUrl(URL, ResponseHandler)} to consume the body of an
+     * HTTP response straight from the connection, without first buffering it into a String.
+     *
+     * @param <T> The type of the value produced from the response body
+     */
+    public interface ResponseHandler<T> {
+
+        /**
+         * Called with the body of a successful HTTP response. The stream is closed by the
+         * caller once this method returns.
+         *
+         * @param in The response body
+         * @return The value produced from the response body
+         * @throws IOException Related to stream reading
+         */
+        T onResponse(InputStream in) throws IOException;
+    }
+
+    /**
+     * This method hands the body of the HTTP response to the given handler as a stream. Unlike
+     * {@link #getResponseFromHttpUrl(URL)}, the response is never held in memory as a whole, which
+     * lets the handler parse it token by token while it is still being downloaded.
+     *
+     * @param url     The URL to fetch the HTTP response from.
+     * @param handler Consumes the response body
+     * @param <T>     The type of the value produced by the handler
+     * @return The value returned by the handler
+     * @throws IOException Related to network and stream reading
+     */
+    public static <T> T readFromHttpUrl(URL url, ResponseHandler<T> handler) throws IOException {
+        HttpURLConnection urlConnection = openConnection(url);
+        try {
+            InputStream in = openResponseBody(urlConnection, null);
+            try {
+                return handler.onResponse(in);
+            } finally {
+                in.close();
+            }
+        } finally {
+            urlConnection.disconnect();
+        }
+    }
+
+    /**
+     * A {@link ResponseHandler} for conditional requests, which is also told when the server
+     * answered that the response didn't change since the one in the cache.
+     *
+     * @param <T> The type of the value produced from the response body
+     */
+    public interface ConditionalResponseHandler<T> extends ResponseHandler<T> {
+
+        /**
+         * Called instead of {@link #onResponse(InputStream)} when the server answered
+         * 304 Not Modified, meaning the last response is still current.
+         *
+         * @return The value to return from the request
+         */
+        T onNotModified();
+    }
+
+    /**
+     * Like {@link #readFromHttpUrl(URL, ResponseHandler)}, but keeps the response in the given
+     * cache along with its ETag and Last-Modified headers. When asked to revalidate, those are
+     * sent back as If-None-Match and If-Modified-Since, and if the server answers 304 Not
+     * Modified the handler's {@link ConditionalResponseHandler#onNotModified()} is called and
+     * nothing is downloaded.
+     * <p>
+     * The response body is written to the cache while the handler reads it, and is only kept if
+     * the handler returns normally.
+     *
+     * @param url        The URL to fetch the HTTP response from.
+     * @param cache      Where the last response of each URL is kept
+     * @param revalidate True to send the validators of the cached response. Only do so if the
+     *                   result of that response is still stored, since a 304 won't repeat it.
+     * @param handler    Consumes the response body
+     * @param <T>        The type of the value produced by the handler
+     * @return The value returned by the handler
+     * @throws IOException Related to network and stream reading
+     */
+    public static <T> T readFromHttpUrl(URL url, DiskResponseCache cache, boolean revalidate,
+                                        ConditionalResponseHandler<T> handler) throws IOException {
+        return readFromHttpUrl(url, cache, revalidate, null, handler);
+    }
+
+    /**
+     * Like {@link #readFromHttpUrl(URL, DiskResponseCache, boolean, ConditionalResponseHandler)},
+     * but also adds what the response cost to the given stats.
+     *
+     * @param url        The URL to fetch the HTTP response from.
+     * @param cache      Where the last response of each URL is kept
+     * @param revalidate True to send the validators of the cached response
+     * @param stats      Counts the bytes of the response, or null
+     * @param handler    Consumes the response body
+     * @param <T>        The type of the value produced by the handler
+     * @return The value returned by the handler
+     * @throws IOException Related to network and stream reading
+     */
+    public static <T> T readFromHttpUrl(URL url, DiskResponseCache cache, boolean revalidate,
+                                        TransferStats stats,
+                                        ConditionalResponseHandler<T> handler) throws IOException {
+        HttpURLConnection urlConnection = openConnection(url);
+
+        /*
+         * Unlike the other methods here, this one only disconnects when something went wrong.
+         * A connection whose response was read to the end and closed goes back to
+         * HttpURLConnection's pool, and the next request to the same host reuses it instead of
+         * paying for a new TCP and TLS handshake. disconnect() would close it for good.
+         */
+        boolean reusable = false;
+        try {
+            DiskResponseCache.Entry cached = revalidate ? cache.get(url) : null;
+            if (cached != null) {
+                if (cached.getETag() != null) {
+                    urlConnection.setRequestProperty("If-None-Match", cached.getETag());
+                }
+                if (cached.getLastModified() != null) {
+                    urlConnection.setRequestProperty("If-Modified-Since", cached.getLastModified());
+                }
+            }
+
+            if (urlConnection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                if (stats != null) {
+                    stats.recordNotModified();
+                }
+                T result = handler.onNotModified();
+                reusable = true;
+                return result;
+            }
+
+            String eTag = urlConnection.getHeaderField("ETag");
+            String lastModified = urlConnection.getHeaderField("Last-Modified");
+
+            /* The cache keeps the decoded body, so it never has to know about compression */
+            InputStream in = openResponseBody(urlConnection, stats);
+
+            /* Without validators a cached response could never be reused, so don't keep one */
+            if (eTag == null && lastModified == null) {
+                cache.remove(url);
+                try {
+                    T result = handler.onResponse(in);
+                    drain(in);
+                    reusable = true;
+                    return result;
+                } finally {
+                    in.close();
+                }
+            }
+
+            try {
+                DiskResponseCache.Writer body = cache.put(url, eTag, lastModified, in);
+                try {
+                    T result = handler.onResponse(body);
+                    /* Reads the body to the end, which is what makes the connection reusable */
+                    body.commit();
+                    reusable = true;
+                    return result;
+                } finally {
+                    body.abort();
+                }
+            } finally {
+                in.close();
+            }
+        } finally {
+            if (!reusable) {
+                urlConnection.disconnect();
+            }
+        }
+    }
+
+    /*
+     * Reads what the handler left of a response, typically whitespace after the JSON.
+     */
+    private static void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[1024];
+        while (in.read(buffer) != -1) {
+            /* Nothing to do with the bytes */
+        }
+    }
+
+    /**
+     * Opens a connection to the URL that asks for a compressed response.
+     */
+    private static HttpURLConnection openConnection(URL url) throws IOException {
+        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        urlConnection.setRequestProperty("Accept-Encoding", ACCEPT_ENCODING);
+        return urlConnection;
+    }
+
+    /**
+     * Returns the body of the response, decompressed according to its Content-Encoding, so the
+     * caller always reads the forecast JSON itself. Decompression happens while the caller reads,
+     * so a compressed forecast is never held in memory as a whole either.
+     *
+     * @param urlConnection A connection opened by {@link #openConnection(URL)}
+     * @param stats         Counts the bytes of the body before and after decompression, or null
+     * @return The decoded body, buffered
+     * @throws IOException Related to network and stream reading, or a corrupt compressed body
+     */
+    private static InputStream openResponseBody(HttpURLConnection urlConnection,
+                                                TransferStats stats) throws IOException {
+        InputStream in = urlConnection.getInputStream();
+        if (stats != null) {
+            in = stats.countWireBytes(in);
+        }
+
+        String encoding = urlConnection.getContentEncoding();
+        boolean compressed = true;
+        if (ENCODING_GZIP.equalsIgnoreCase(encoding)) {
+            in = new GZIPInputStream(in);
+        } else if (ENCODING_DEFLATE.equalsIgnoreCase(encoding)) {
+            in = openDeflateStream(new BufferedInputStream(in));
+        } else {
+            compressed = false;
+        }
+
+        if (stats != null) {
+            stats.recordResponse(compressed);
+            in = stats.countDecodedBytes(in);
+        }
+        return new BufferedInputStream(in);
+    }
+
+    /*
+     * "deflate" is supposed to mean zlib-wrapped deflate data, but some servers send raw deflate
+     * data instead. A zlib stream starts with a two byte header that is a multiple of 31 and
+     * names deflate as its compression method, which raw data almost never does.
+     */
+    private static InputStream openDeflateStream(BufferedInputStream in) throws IOException {
+        in.mark(2);
+        int cmf = in.read();
+        int flg = in.read();
+        in.reset();
+
+        boolean zlib = cmf != -1 && flg != -1
+                && (cmf & 0x0f) == 8
+                && ((cmf << 8) | flg) % 31 == 0;
+        final Inflater inflater = new Inflater(!zlib);
+        return new InflaterInputStream(in, inflater) {
+            @Override
+            public void close() throws IOException {
+                /* Only an Inflater created by InflaterInputStream itself is ended on close */
+                try {
+                    super.close();
+                } finally {
+                    inflater.end();
+                }
+            }
+        };
+    }
 }
\ No newline at end of file
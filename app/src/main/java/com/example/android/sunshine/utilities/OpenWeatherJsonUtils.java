@@ -17,7 +17,11 @@ package com.example.android.sunshine.utilities;
 
 import android.content.ContentValues;
 import android.content.Context;
+import android.util.JsonReader;
+import android.util.JsonToken;
 
+import com.example.android.sunshine.data.ForecastBatch;
+import com.example.android.sunshine.data.HourlyBatch;
 import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
 
@@ -25,6 +29,9 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 
 /**
@@ -35,6 +42,7 @@ public final class OpenWeatherJsonUtils {
     /* Location information */
     private static final String OWM_CITY = "city";
     private static final String OWM_COORD = "coord";
+    private static final String OWM_CITY_NAME = "name";
 
     /* Location coordinate */
     private static final String OWM_LATITUDE = "lat";
@@ -60,6 +68,15 @@ public final class OpenWeatherJsonUtils {
 
     private static final String OWM_MESSAGE_CODE = "cod";
 
+    /*
+     * The hourly forecast has one element of "list" per period. The start of the period is in
+     * UNIX seconds, the temperature, pressure and humidity are children of "main", and the wind
+     * is a child object of its own.
+     */
+    private static final String OWM_TIME = "dt";
+    private static final String OWM_MAIN = "main";
+    private static final String OWM_WIND = "wind";
+
     /**
      * This method parses JSON from a web response and returns an array of Strings
      * describing the weather over various days from the forecast.
@@ -181,4 +198,326 @@ public final class OpenWeatherJsonUtils {
 
         return weatherContentValues;
     }
-}
\ No newline at end of file
+
+    /**
+     * Streaming counterpart of {@link #getWeatherContentValuesFromJson(Context, String)}. Rather
+     * than building the whole response as a String and an org.json tree on top of it, this
+     * method walks the response with a {@link JsonReader} and appends each day to a
+     * {@link ForecastBatch} as soon as that day has been read. Neither the full body nor a DOM of
+     * it ever exists in memory, and no per day objects are allocated.
+     * <p>
+     * Unlike the org.json version, this method does not depend on the order in which the server
+     * writes the top level fields.
+     *
+     * @param context Used to store the location coordinates sent by the server
+     * @param in      Stream positioned at the start of the JSON response
+     *
+     * @return The forecast, or null if the server reported an error
+     *
+     * @throws IOException If the stream cannot be read or does not contain well formed JSON
+     */
+    public static ForecastBatch getForecastBatchFromStream(Context context, InputStream in)
+            throws IOException {
+        ForecastBatch forecast = getForecastBatchFromStream(in);
+        if (forecast != null && forecast.hasCoordinates()) {
+            SunshinePreferences.setLocationDetails(context,
+                    forecast.getLatitude(), forecast.getLongitude());
+        }
+        return forecast;
+    }
+
+    /**
+     * Same as {@link #getForecastBatchFromStream(Context, InputStream)}, except that the
+     * coordinates sent by the server are only recorded in the returned batch, and preferences are
+     * left alone. This is what is used for locations other than the preferred one.
+     *
+     * @param in Stream positioned at the start of the JSON response
+     *
+     * @return The forecast, or null if the server reported an error
+     *
+     * @throws IOException If the stream cannot be read or does not contain well formed JSON
+     */
+    public static ForecastBatch getForecastBatchFromStream(InputStream in) throws IOException {
+
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            ForecastBatch forecast = null;
+            City city = null;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_MESSAGE_CODE.equals(name)) {
+                    /* Is there an error? Anything but HTTP_OK means there's nothing to store. */
+                    if (reader.nextInt() != HttpURLConnection.HTTP_OK) {
+                        return null;
+                    }
+                } else if (OWM_CITY.equals(name)) {
+                    city = readCity(reader);
+                } else if (OWM_LIST.equals(name)) {
+                    forecast = readForecastList(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            /* The city may come before or after the list, so it is only attached at the end */
+            if (forecast != null && city != null) {
+                if (city.mHasCoordinates) {
+                    forecast.setCoordinates(city.mLatitude, city.mLongitude);
+                }
+                forecast.setCityName(city.mName);
+            }
+            return forecast;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Streams an hourly forecast response into an {@link HourlyBatch}, the same way
+     * {@link #getForecastBatchFromStream(InputStream)} does for the daily one. An hourly response
+     * is several times longer than a daily one, so it matters even more that each period is
+     * appended to the batch as soon as it is read, and that nothing else of it is kept.
+     *
+     * @param in Stream positioned at the start of the JSON response
+     *
+     * @return The hourly forecast, or null if the server reported an error
+     *
+     * @throws IOException If the stream cannot be read or does not contain well formed JSON
+     */
+    public static HourlyBatch getHourlyBatchFromStream(InputStream in) throws IOException {
+
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            HourlyBatch forecast = null;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_MESSAGE_CODE.equals(name)) {
+                    if (reader.nextInt() != HttpURLConnection.HTTP_OK) {
+                        return null;
+                    }
+                } else if (OWM_LIST.equals(name)) {
+                    forecast = new HourlyBatch();
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        readHourForecast(reader, forecast);
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            return forecast;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Reads a single element of the "list" array of an hourly forecast and appends it to the
+     * batch. Unlike the daily forecast, the time sent by the server is what the row is stored
+     * under, so an element without one is dropped.
+     */
+    private static void readHourForecast(JsonReader reader, HourlyBatch forecast)
+            throws IOException {
+        long timeMillis = -1;
+        double temperature = 0;
+        double pressure = 0;
+        int humidity = 0;
+        double windSpeed = 0;
+        double windDirection = 0;
+        int weatherId = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_TIME.equals(name)) {
+                timeMillis = reader.nextLong() * 1000;
+            } else if (OWM_MAIN.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String mainName = reader.nextName();
+                    if (OWM_TEMPERATURE.equals(mainName)) {
+                        temperature = reader.nextDouble();
+                    } else if (OWM_PRESSURE.equals(mainName)) {
+                        pressure = reader.nextDouble();
+                    } else if (OWM_HUMIDITY.equals(mainName)) {
+                        humidity = (int) reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WIND.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String windName = reader.nextName();
+                    if (OWM_WINDSPEED.equals(windName)) {
+                        windSpeed = reader.nextDouble();
+                    } else if (OWM_WIND_DIRECTION.equals(windName)) {
+                        windDirection = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                weatherId = readWeatherId(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (timeMillis >= 0) {
+            forecast.add(timeMillis, weatherId, temperature, humidity, pressure, windSpeed,
+                    windDirection);
+        }
+    }
+
+    /**
+     * Reads the "city" object.
+     *
+     * @return The name and coordinates of the city, as far as the server sent them
+     */
+    private static City readCity(JsonReader reader) throws IOException {
+        City city = new City();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String cityField = reader.nextName();
+            if (OWM_CITY_NAME.equals(cityField) && reader.peek() == JsonToken.STRING) {
+                city.mName = reader.nextString();
+            } else if (OWM_COORD.equals(cityField)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if (OWM_LATITUDE.equals(name)) {
+                        city.mLatitude = reader.nextDouble();
+                    } else if (OWM_LONGITUDE.equals(name)) {
+                        city.mLongitude = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                city.mHasCoordinates = true;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return city;
+    }
+
+    /* What the "city" object says about the location, until the forecast it belongs to is read */
+    private static final class City {
+        String mName;
+        boolean mHasCoordinates;
+        double mLatitude;
+        double mLongitude;
+    }
+
+    /**
+     * Reads the "list" array, appending every element to the batch as soon as it has been read.
+     */
+    private static ForecastBatch readForecastList(JsonReader reader) throws IOException {
+        ForecastBatch forecast = new ForecastBatch();
+
+        /* See getWeatherContentValuesFromJson for why we ignore the dates sent by the server. */
+        long normalizedUtcStartDay = SunshineDateUtils.getNormalizedUtcDateForToday();
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            long dateTimeMillis = normalizedUtcStartDay
+                    + SunshineDateUtils.DAY_IN_MILLIS * forecast.size();
+            readDayForecast(reader, dateTimeMillis, forecast);
+        }
+        reader.endArray();
+
+        return forecast;
+    }
+
+    /**
+     * Reads a single element of the "list" array and appends it to the batch.
+     */
+    private static void readDayForecast(JsonReader reader, long dateTimeMillis,
+                                        ForecastBatch forecast) throws IOException {
+        double pressure = 0;
+        int humidity = 0;
+        double windSpeed = 0;
+        double windDirection = 0;
+
+        double high = 0;
+        double low = 0;
+
+        int weatherId = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_PRESSURE.equals(name)) {
+                pressure = reader.nextDouble();
+            } else if (OWM_HUMIDITY.equals(name)) {
+                humidity = (int) reader.nextDouble();
+            } else if (OWM_WINDSPEED.equals(name)) {
+                windSpeed = reader.nextDouble();
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                windDirection = reader.nextDouble();
+            } else if (OWM_WEATHER.equals(name)) {
+                weatherId = readWeatherId(reader);
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String temperatureName = reader.nextName();
+                    if (OWM_MAX.equals(temperatureName)) {
+                        high = reader.nextDouble();
+                    } else if (OWM_MIN.equals(temperatureName)) {
+                        low = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        forecast.add(dateTimeMillis, weatherId, low, high, humidity, pressure, windSpeed,
+                windDirection);
+    }
+
+    /**
+     * Reads the "weather" array, which is 1 element long, and returns the weather code of that
+     * element.
+     */
+    private static int readWeatherId(JsonReader reader) throws IOException {
+        int weatherId = 0;
+        reader.beginArray();
+        if (reader.hasNext() && reader.peek() == JsonToken.BEGIN_OBJECT) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (OWM_WEATHER_ID.equals(reader.nextName())) {
+                    weatherId = (int) reader.nextDouble();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        while (reader.hasNext()) {
+            reader.skipValue();
+        }
+        reader.endArray();
+        return weatherId;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts what the responses of a sync cost. The bytes on the wire are the response bodies as the
+ * server sent them, compressed or not, and the decoded bytes are what the parser got to read
+ * once they were decompressed. Headers aren't counted.
+ * <p>
+ * One instance is shared by every request of a sync, and the requests may run on different
+ * threads.
+ */
+public final class TransferStats {
+
+    private final AtomicInteger mResponses = new AtomicInteger();
+    private final AtomicInteger mCompressedResponses = new AtomicInteger();
+    private final AtomicInteger mNotModifiedResponses = new AtomicInteger();
+    private final AtomicLong mWireBytes = new AtomicLong();
+    private final AtomicLong mDecodedBytes = new AtomicLong();
+
+    /**
+     * @return The number of responses that came with a body
+     */
+    public int getResponses() {
+        return mResponses.get();
+    }
+
+    /**
+     * @return The number of responses whose body was gzip or deflate encoded
+     */
+    public int getCompressedResponses() {
+        return mCompressedResponses.get();
+    }
+
+    /**
+     * @return The number of 304 Not Modified responses, which had no body at all
+     */
+    public int getNotModifiedResponses() {
+        return mNotModifiedResponses.get();
+    }
+
+    /**
+     * @return The number of body bytes read from the network
+     */
+    public long getWireBytes() {
+        return mWireBytes.get();
+    }
+
+    /**
+     * @return The number of body bytes handed to the parser, after decompression
+     */
+    public long getDecodedBytes() {
+        return mDecodedBytes.get();
+    }
+
+    void recordResponse(boolean compressed) {
+        mResponses.incrementAndGet();
+        if (compressed) {
+            mCompressedResponses.incrementAndGet();
+        }
+    }
+
+    void recordNotModified() {
+        mNotModifiedResponses.incrementAndGet();
+    }
+
+    /**
+     * Wraps the body as it comes from the connection, counting towards the wire bytes.
+     */
+    InputStream countWireBytes(InputStream in) {
+        return new CountingInputStream(in, mWireBytes);
+    }
+
+    /**
+     * Wraps the body as the parser reads it, counting towards the decoded bytes.
+     */
+    InputStream countDecodedBytes(InputStream in) {
+        return new CountingInputStream(in, mDecodedBytes);
+    }
+
+    @Override
+    public String toString() {
+        long wireBytes = getWireBytes();
+        long decodedBytes = getDecodedBytes();
+        return getResponses() + " responses (" + getCompressedResponses() + " compressed, "
+                + getNotModifiedResponses() + " not modified), "
+                + wireBytes + " bytes on the wire, " + decodedBytes + " bytes decoded"
+                + (decodedBytes > 0 ? ", " + (100 * wireBytes / decodedBytes) + "%" : "");
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private final AtomicLong mCount;
+
+        CountingInputStream(InputStream in, AtomicLong count) {
+            super(in);
+            mCount = count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mCount.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                mCount.addAndGet(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long skipped = super.skip(count);
+            if (skipped > 0) {
+                mCount.addAndGet(skipped);
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
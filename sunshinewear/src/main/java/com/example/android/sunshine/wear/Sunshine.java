@@ -49,9 +49,15 @@ import android.widget.TextView;
 import com.example.android.sunshine.wear.service.SunshineWearService;
 import com.example.android.sunshine.wear.util.FormatUtil;
 import com.example.android.sunshine.wear.util.MessageItemUtil;
+import com.example.android.sunshine.wear.util.TemperatureFormatter;
+import com.example.android.sunshine.wear.util.WearForecastCodec;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.ResultCallback;
 import com.google.android.gms.wearable.Asset;
+import com.google.android.gms.wearable.DataItem;
+import com.google.android.gms.wearable.DataItemBuffer;
+import com.google.android.gms.wearable.DataMapItem;
 import com.google.android.gms.wearable.Wearable;
 
 import java.io.InputStream;
@@ -74,11 +80,18 @@ public class Sunshine extends CanvasWatchFaceService {
      */
     private static final long INTERACTIVE_UPDATE_RATE_MS = TimeUnit.SECONDS.toMillis(1);
 
+    private static final long DAY_IN_MILLIS = TimeUnit.DAYS.toMillis(1);
+
     /**
      * Handler message id for updating the tvTime periodically in interactive mode.
      */
     private static final int MSG_UPDATE_TIME = 0;
 
+    /**
+     * How many of the next days the forecast line shows.
+     */
+    private static final int FORECAST_DAYS_SHOWN = 3;
+
     @Override
     public Engine onCreateEngine() {
         return new Engine();
@@ -118,14 +131,19 @@ public class Sunshine extends CanvasWatchFaceService {
         private TextView tvMaxTemp;
         private ImageView ivIcon;
         private TextView tvNoData;
+        private TextView tvForecast;
         private View stroke;
         private View dataContainer;
 
         private boolean dataChanged = false;
         private boolean iconLoaded = false;
-        private String minTemp = "";
-        private String maxTemp = "";
+        // In degrees Celsius, formatted in the user's units when drawn
+        private double lowCelsius;
+        private double highCelsius;
+        private final TemperatureFormatter temperatureFormatter = new TemperatureFormatter();
         private Bitmap iconImage = null;
+        private WearForecastCodec.Forecast forecast = null;
+        private long forecastToday = -1;
 
         final Handler mUpdateTimeHandler = new EngineHandler(this);
         boolean mRegisteredTimeZoneReceiver = false;
@@ -144,24 +162,60 @@ public class Sunshine extends CanvasWatchFaceService {
             @Override
             public void onReceive(Context context, Intent intent) {
                 Log.d(TAG, "DataUpdateReceiver: onReceive");
-                Bundle data = intent.getExtras();
-                if (data != null) {
-                    String lowTemp = data.getString(MessageItemUtil.ITEM_EXTRA_MIN_TEMP);
-                    String highTemp = data.getString(MessageItemUtil.ITEM_EXTRA_MAX_TEMP);
-                    if (lowTemp == null | highTemp == null) {
-                        return;
-                    }
-                    minTemp = data.getString(MessageItemUtil.ITEM_EXTRA_MIN_TEMP);
-                    maxTemp = data.getString(MessageItemUtil.ITEM_EXTRA_MAX_TEMP);
-                    Asset iconAsset = data.getParcelable(MessageItemUtil.ITEM_EXTRA_ASSET);
-                    new LoadIconTask().execute(iconAsset);
-                    dataChanged = true;
-                    showData();
-                    invalidate();
-                }
+                showWeather(intent.getExtras());
+            }
+        };
+
+        final BroadcastReceiver mForecastUpdateReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                Log.d(TAG, "ForecastUpdateReceiver: onReceive");
+                showForecast(intent.getByteArrayExtra(SunshineWearService.EXTRA_FORECAST));
+            }
+        };
+
+        final BroadcastReceiver mUnitsUpdateReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                Log.d(TAG, "UnitsUpdateReceiver: onReceive");
+                showUnits(intent.getExtras());
             }
         };
 
+        private void showUnits(Bundle data) {
+            if (data != null && data.containsKey(MessageItemUtil.ITEM_EXTRA_METRIC)
+                    && temperatureFormatter.setMetric(data.getBoolean(MessageItemUtil.ITEM_EXTRA_METRIC))) {
+                dataChanged = true;
+                forecastToday = -1;
+                invalidate();
+            }
+        }
+
+        private void showForecast(byte[] data) {
+            WearForecastCodec.Forecast decoded = WearForecastCodec.decode(data);
+            if (decoded != null) {
+                forecast = decoded;
+                forecastToday = -1;
+                invalidate();
+            }
+        }
+
+        private void showWeather(Bundle data) {
+            if (data != null) {
+                if (!data.containsKey(MessageItemUtil.ITEM_EXTRA_LOW_CELSIUS)
+                        || !data.containsKey(MessageItemUtil.ITEM_EXTRA_HIGH_CELSIUS)) {
+                    return;
+                }
+                lowCelsius = data.getDouble(MessageItemUtil.ITEM_EXTRA_LOW_CELSIUS);
+                highCelsius = data.getDouble(MessageItemUtil.ITEM_EXTRA_HIGH_CELSIUS);
+                Asset iconAsset = data.getParcelable(MessageItemUtil.ITEM_EXTRA_ASSET);
+                new LoadIconTask().execute(iconAsset);
+                dataChanged = true;
+                showData();
+                invalidate();
+            }
+        }
+
         /**
          * Whether the display supports fewer bits for each color in ambient mode. When true, we
          * disable anti-aliasing in ambient mode.
@@ -209,6 +263,7 @@ public class Sunshine extends CanvasWatchFaceService {
             dataContainer = mLayout.findViewById(R.id.data_container);
             tvNoData = (TextView) mLayout.findViewById(R.id.no_data);
             stroke = mLayout.findViewById(R.id.stroke);
+            tvForecast = (TextView) mLayout.findViewById(R.id.forecast);
             showNoData();
             mCalendar = Calendar.getInstance();
         }
@@ -259,6 +314,8 @@ public class Sunshine extends CanvasWatchFaceService {
             mRegisteredTimeZoneReceiver = true;
             Sunshine.this.registerReceiver(mTimeZoneReceiver, new IntentFilter(Intent.ACTION_TIMEZONE_CHANGED));
             Sunshine.this.registerReceiver(mDataUpdateReceiver, new IntentFilter(SunshineWearService.ACTION_DATA_UPDATE));
+            Sunshine.this.registerReceiver(mForecastUpdateReceiver, new IntentFilter(SunshineWearService.ACTION_FORECAST_UPDATE));
+            Sunshine.this.registerReceiver(mUnitsUpdateReceiver, new IntentFilter(SunshineWearService.ACTION_UNITS_UPDATE));
         }
 
         private void unregisterReceiver() {
@@ -268,6 +325,8 @@ public class Sunshine extends CanvasWatchFaceService {
             mRegisteredTimeZoneReceiver = false;
             Sunshine.this.unregisterReceiver(mTimeZoneReceiver);
             Sunshine.this.unregisterReceiver(mDataUpdateReceiver);
+            Sunshine.this.unregisterReceiver(mForecastUpdateReceiver);
+            Sunshine.this.unregisterReceiver(mUnitsUpdateReceiver);
         }
 
         @Override
@@ -310,10 +369,12 @@ public class Sunshine extends CanvasWatchFaceService {
                     tvMinTemp.getPaint().setAntiAlias(!inAmbientMode);
                     tvMaxTemp.getPaint().setAntiAlias(!inAmbientMode);
                     tvNoData.getPaint().setAntiAlias(!inAmbientMode);
+                    tvForecast.getPaint().setAntiAlias(!inAmbientMode);
                 }
                 tvDate.setTextColor(mAmbient ? colorWhite : colorBlueWhite);
                 tvMinTemp.setTextColor(mAmbient ? colorWhite : colorBlueWhite);
                 tvNoData.setTextColor(mAmbient ? colorWhite : colorBlueWhite);
+                tvForecast.setTextColor(mAmbient ? colorWhite : colorBlueWhite);
                 stroke.setVisibility(mAmbient ? View.GONE : View.VISIBLE);
                 ivIcon.setVisibility(mAmbient ? View.GONE : View.VISIBLE);
                 invalidate();
@@ -341,13 +402,20 @@ public class Sunshine extends CanvasWatchFaceService {
             tvDate.setText(FormatUtil.formattedDate(mCalendar, mAmbient));
             if (dataChanged) {
                 dataChanged = false;
-                tvMinTemp.setText(minTemp);
-                tvMaxTemp.setText(maxTemp);
+                tvMinTemp.setText(temperatureFormatter.format(lowCelsius));
+                tvMaxTemp.setText(temperatureFormatter.format(highCelsius));
             }
             if (iconLoaded) {
                 iconLoaded = false;
                 ivIcon.setImageBitmap(iconImage);
             }
+            // The forecast line starts with tomorrow, so it moves on at midnight
+            long today = (now + mCalendar.getTimeZone().getOffset(now)) / DAY_IN_MILLIS * DAY_IN_MILLIS;
+            if (forecast != null && today != forecastToday) {
+                forecastToday = today;
+                tvForecast.setText(FormatUtil.formattedForecast(forecast, today, FORECAST_DAYS_SHOWN,
+                        temperatureFormatter));
+            }
 
             mLayout.measure(specW, specH);
             mLayout.layout(0, 0, mLayout.getMeasuredWidth(), mLayout.getMeasuredHeight());
@@ -359,6 +427,51 @@ public class Sunshine extends CanvasWatchFaceService {
         @Override
         public void onConnected(@Nullable Bundle bundle) {
             Log.d(TAG, "GoogleApiClient onConnected");
+            /*
+             * The phone only puts the weather when it changed, so the last weather it put is
+             * shown straight away. The request asks the phone whether there is newer weather.
+             */
+            Wearable.DataApi.getDataItems(mGoogleApiClient, MessageItemUtil.TEMP_URI)
+                    .setResultCallback(new ResultCallback<DataItemBuffer>() {
+                        @Override
+                        public void onResult(@NonNull DataItemBuffer dataItems) {
+                            try {
+                                for (DataItem item : dataItems) {
+                                    showWeather(DataMapItem.fromDataItem(item).getDataMap()
+                                            .toBundle());
+                                }
+                            } finally {
+                                dataItems.release();
+                            }
+                        }
+                    });
+            Wearable.DataApi.getDataItems(mGoogleApiClient, MessageItemUtil.UNITS_URI)
+                    .setResultCallback(new ResultCallback<DataItemBuffer>() {
+                        @Override
+                        public void onResult(@NonNull DataItemBuffer dataItems) {
+                            try {
+                                for (DataItem item : dataItems) {
+                                    showUnits(DataMapItem.fromDataItem(item).getDataMap()
+                                            .toBundle());
+                                }
+                            } finally {
+                                dataItems.release();
+                            }
+                        }
+                    });
+            Wearable.DataApi.getDataItems(mGoogleApiClient, MessageItemUtil.FORECAST_URI)
+                    .setResultCallback(new ResultCallback<DataItemBuffer>() {
+                        @Override
+                        public void onResult(@NonNull DataItemBuffer dataItems) {
+                            try {
+                                for (DataItem item : dataItems) {
+                                    showForecast(item.getData());
+                                }
+                            } finally {
+                                dataItems.release();
+                            }
+                        }
+                    });
             MessageItemUtil.sendRequestUpdateMessage(mGoogleApiClient, null);
         }
 
@@ -23,6 +23,13 @@ public class SunshineWearService extends WearableListenerService {
 
     public static final String ACTION_DATA_UPDATE = "com.example.android.sunshine.wear.DATA_UPDATE";
 
+    public static final String ACTION_FORECAST_UPDATE = "com.example.android.sunshine.wear.FORECAST_UPDATE";
+
+    public static final String ACTION_UNITS_UPDATE = "com.example.android.sunshine.wear.UNITS_UPDATE";
+
+    /* The encoded forecast in ACTION_FORECAST_UPDATE, see WearForecastCodec */
+    public static final String EXTRA_FORECAST = "com.example.android.sunshine.wear.extra.FORECAST";
+
     GoogleApiClient mGoogleApiClient;
 
     @Override
@@ -53,9 +60,18 @@ public class SunshineWearService extends WearableListenerService {
             DataItem item = dataEvent.getDataItem();
             if (item.getUri().getPath().equals(MessageItemUtil.TEMP_PATH)) {
                 DataMap dataMap = DataMapItem.fromDataItem(item).getDataMap();
-                Log.d(TAG, "onDataChanged: minTemp=" + dataMap.getString(MessageItemUtil.ITEM_EXTRA_MIN_TEMP) +
-                        ", maxTemp=" + dataMap.getString(MessageItemUtil.ITEM_EXTRA_MAX_TEMP));
+                Log.d(TAG, "onDataChanged: low=" + dataMap.getDouble(MessageItemUtil.ITEM_EXTRA_LOW_CELSIUS) +
+                        ", high=" + dataMap.getDouble(MessageItemUtil.ITEM_EXTRA_HIGH_CELSIUS));
                 notifyDataUpdate(dataMap.toBundle());
+            } else if (item.getUri().getPath().equals(MessageItemUtil.FORECAST_PATH)) {
+                /* The bytes are passed on as they are, the watch face decodes them once */
+                Intent intent = new Intent(ACTION_FORECAST_UPDATE);
+                intent.putExtra(EXTRA_FORECAST, item.getData());
+                sendBroadcast(intent);
+            } else if (item.getUri().getPath().equals(MessageItemUtil.UNITS_PATH)) {
+                Intent intent = new Intent(ACTION_UNITS_UPDATE);
+                intent.putExtras(DataMapItem.fromDataItem(item).getDataMap().toBundle());
+                sendBroadcast(intent);
             }
         }
     }
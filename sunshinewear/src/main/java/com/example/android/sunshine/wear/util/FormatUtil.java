@@ -4,6 +4,7 @@ import android.annotation.SuppressLint;
 
 import java.util.Calendar;
 import java.util.Locale;
+import java.util.TimeZone;
 
 /**
  * Created by lars on 09.03.17.
@@ -23,6 +24,39 @@ public class FormatUtil {
         }
     }
     
+    /**
+     * Formats the highs of the days after today, e.g. SAT 21° SUN 19° MON 18°.
+     *
+     * @param forecast  The forecast from the phone
+     * @param today     Today, as UTC midnight of the local date
+     * @param maxDays   The most days to format
+     * @param formatter Formats the temperatures in the user's units
+     */
+    public static String formattedForecast(WearForecastCodec.Forecast forecast, long today, int maxDays,
+                                           TemperatureFormatter formatter) {
+        if (forecast == null) {
+            return "";
+        }
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        StringBuilder text = new StringBuilder();
+        int days = 0;
+        for (int i = 0; i < forecast.size() && days < maxDays; i++) {
+            if (forecast.getDate(i) <= today) {
+                continue;
+            }
+            calendar.setTimeInMillis(forecast.getDate(i));
+            if (days > 0) {
+                text.append("  ");
+            }
+            text.append(calendar.getDisplayName(Calendar.DAY_OF_WEEK, Calendar.SHORT, Locale.getDefault())
+                    .toUpperCase(Locale.getDefault()))
+                    .append(' ')
+                    .append(formatter.format(forecast.getHighTemp(i)));
+            days++;
+        }
+        return text.toString();
+    }
+
     @SuppressLint("DefaultLocale")
     public static String formattedDate(Calendar calendar, boolean isAmbient) {
         if (calendar == null) {
@@ -1,5 +1,6 @@
 package com.example.android.sunshine.wear.util;
 
+import android.net.Uri;
 import android.support.annotation.NonNull;
 import android.util.Log;
 
@@ -9,6 +10,7 @@ import com.google.android.gms.common.api.ResultCallback;
 import com.google.android.gms.wearable.MessageApi;
 import com.google.android.gms.wearable.Node;
 import com.google.android.gms.wearable.NodeApi;
+import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
 import java.util.concurrent.TimeUnit;
@@ -23,17 +25,41 @@ public class MessageItemUtil {
 
     public static final String TEMP_PATH = "/temp";
 
+    /* The DataItems of TEMP_PATH put by any node */
+    public static final Uri TEMP_URI = new Uri.Builder()
+            .scheme(PutDataRequest.WEAR_URI_SCHEME)
+            .path(TEMP_PATH)
+            .build();
+
+    /* The forecast of the next days, whose data is decoded by WearForecastCodec */
+    public static final String FORECAST_PATH = "/forecast";
+
+    public static final Uri FORECAST_URI = new Uri.Builder()
+            .scheme(PutDataRequest.WEAR_URI_SCHEME)
+            .path(FORECAST_PATH)
+            .build();
+
     public static final String REQUEST_UPDATE_PATH = "/request_update";
 
     private static final long DEFAULT_MESSAGE_TIMEOUT = 10;
 
-    public static final String ITEM_EXTRA_MIN_TEMP = "item.extra.min_temp";
+    /* Today's low and high, in degrees Celsius */
+    public static final String ITEM_EXTRA_LOW_CELSIUS = "item.extra.low_celsius";
 
-    public static final String ITEM_EXTRA_MAX_TEMP = "item.extra.max_temp";
+    public static final String ITEM_EXTRA_HIGH_CELSIUS = "item.extra.high_celsius";
 
-    public static final String ITEM_EXTRA_ASSET = "item.extra.asset";
+    /* The units the user picked on the phone */
+    public static final String UNITS_PATH = "/units";
 
-    public static final String ITEM_EXTRA_TIMESTAMP = "item.extra.timestamp";
+    public static final Uri UNITS_URI = new Uri.Builder()
+            .scheme(PutDataRequest.WEAR_URI_SCHEME)
+            .path(UNITS_PATH)
+            .build();
+
+    /* At UNITS_PATH: true if the user wants metric units */
+    public static final String ITEM_EXTRA_METRIC = "item.extra.metric";
+
+    public static final String ITEM_EXTRA_ASSET = "item.extra.asset";
 
     public static void sendRequestUpdateMessage(final GoogleApiClient googleApiClient, final ResultCallback<MessageApi.SendMessageResult> resultCallback) {
         if (googleApiClient == null) {
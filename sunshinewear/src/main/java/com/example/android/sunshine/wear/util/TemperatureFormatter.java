@@ -0,0 +1,38 @@
+package com.example.android.sunshine.wear.util;
+
+import java.util.Formatter;
+import java.util.Locale;
+
+/**
+ * Formats the temperatures the phone sends in degrees Celsius in the units the user picked on
+ * the phone, e.g. 21°. The watch face keeps one and formats with it whenever the weather or the
+ * units change, reusing the same buffer rather than a new Formatter each time.
+ */
+public class TemperatureFormatter {
+
+    private final StringBuilder mBuilder = new StringBuilder();
+    private final Formatter mFormatter = new Formatter(mBuilder, Locale.getDefault());
+
+    private boolean mMetric = true;
+
+    /**
+     * @param metric true for degrees Celsius, false for degrees Fahrenheit
+     * @return true if the units changed
+     */
+    public boolean setMetric(boolean metric) {
+        boolean changed = mMetric != metric;
+        mMetric = metric;
+        return changed;
+    }
+
+    /**
+     * @param celsius A temperature in degrees Celsius
+     * @return The temperature in the user's units, without decimals
+     */
+    public String format(double celsius) {
+        double temperature = mMetric ? celsius : celsius * 1.8 + 32;
+        mBuilder.setLength(0);
+        mFormatter.format("%1.0f°", temperature);
+        return mBuilder.toString();
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.android.sunshine.wear.util;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes the forecast the phone puts at {@link MessageItemUtil#FORECAST_PATH}, straight from the
+ * bytes of the DataItem into arrays. This is the watch's copy of WearForecastCodec in the phone
+ * app, which describes the encoding: a change there has to be made here as well.
+ */
+public final class WearForecastCodec {
+
+    public static final int VERSION = 1;
+
+    private static final int MIN_BYTES_PER_DAY = 8;
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private WearForecastCodec() {
+    }
+
+    /**
+     * @param data The bytes of the DataItem
+     * @return The forecast, or null if it is of another version or can't be read
+     */
+    public static Forecast decode(byte[] data) {
+        if (data == null) {
+            return null;
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            if (buffer.get() != VERSION) {
+                return null;
+            }
+            int bytesPerDay = buffer.get() & 0xff;
+            int days = buffer.getShort() & 0xffff;
+            long firstDay = buffer.getInt();
+            if (bytesPerDay < MIN_BYTES_PER_DAY) {
+                return null;
+            }
+
+            Forecast forecast = new Forecast(days);
+            for (int i = 0; i < days; i++) {
+                int start = buffer.position();
+                forecast.mDates[i] = (firstDay + (buffer.getShort() & 0xffff)) * DAY_IN_MILLIS;
+                forecast.mWeatherIds[i] = buffer.getShort();
+                forecast.mLowTenths[i] = buffer.getShort();
+                forecast.mHighTenths[i] = buffer.getShort();
+                buffer.position(start + bytesPerDay);
+            }
+            return forecast;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Days of forecast, in date order.
+     */
+    public static final class Forecast {
+
+        private final long[] mDates;
+        private final int[] mWeatherIds;
+        private final short[] mLowTenths;
+        private final short[] mHighTenths;
+
+        private Forecast(int days) {
+            mDates = new long[days];
+            mWeatherIds = new int[days];
+            mLowTenths = new short[days];
+            mHighTenths = new short[days];
+        }
+
+        public int size() {
+            return mDates.length;
+        }
+
+        /**
+         * @return The day, as UTC midnight of the date
+         */
+        public long getDate(int day) {
+            return mDates[day];
+        }
+
+        public int getWeatherId(int day) {
+            return mWeatherIds[day];
+        }
+
+        /**
+         * @return The low, in degrees Celsius
+         */
+        public float getLowTemp(int day) {
+            return mLowTenths[day] / 10f;
+        }
+
+        /**
+         * @return The high, in degrees Celsius
+         */
+        public float getHighTemp(int day) {
+            return mHighTenths[day] / 10f;
+        }
+    }
+}